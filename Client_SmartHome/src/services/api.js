@@ -153,6 +153,19 @@ const devicesApi = {
   syncThingsBoard(id) {
     return api.post(`/devices/${id}/sync-thingsboard`)
       .then(response => response.data)
+  },
+
+  /**
+   * Подписаться на поток изменений устройств (Server-Sent Events)
+   * При обрыве соединения браузер переподключается сам и передаёт Last-Event-ID
+   * @param {Object} handlers - обработчики { onHello, onDevice }
+   * @returns {EventSource} - источник событий, закрывается вызовом close()
+   */
+  stream({ onHello, onDevice }) {
+    const source = new EventSource(`${api.defaults.baseURL}/devices/stream`)
+    source.addEventListener('hello', event => onHello && onHello(JSON.parse(event.data)))
+    source.addEventListener('device', event => onDevice && onDevice(JSON.parse(event.data)))
+    return source
   }
 }
 
@@ -222,13 +235,21 @@ const scenariosApi = {
 // API-методы для уведомлений
 const notificationsApi = {
   /**
-   * Получить список уведомлений
-   * @param {string} status - статус уведомлений (all, read, unread)
-   * @returns {Promise<Array>} - массив уведомлений
+   * Получить страницу уведомлений от новых к старым
+   * @param {Object} params - фильтры и курсор
+   * @param {string} params.status - статус уведомлений (all, read, unread)
+   * @param {string} [params.type] - тип уведомлений (info, warning, alert)
+   * @param {number} [params.before] - курсор из предыдущей страницы
+   * @param {number} [params.limit] - размер страницы
+   * @returns {Promise<Object>} - { items, nextCursor, unreadCount }; nextCursor равен null на последней странице
    */
-  getNotifications(status = 'all') {
-    return api.get(`/notifications?status=${status}`)
-      .then(response => response.data)
+  getNotifications({ status = 'all', type, before, limit } = {}) {
+    return api.get('/notifications', { params: { status, type, before, limit } })
+      .then(response => ({
+        items: response.data,
+        nextCursor: response.headers['x-next-cursor'] ? Number(response.headers['x-next-cursor']) : null,
+        unreadCount: Number(response.headers['x-unread-count'] || 0)
+      }))
   },
 
   /**
@@ -241,6 +262,24 @@ const notificationsApi = {
       .then(response => response.data)
   },
 
+  /**
+   * Пометить все уведомления как прочитанные
+   * @returns {Promise<Object>} - количество обновленных и непрочитанных уведомлений
+   */
+  markAllAsRead() {
+    return api.put('/notifications/mark-all-read')
+      .then(response => response.data)
+  },
+
+  /**
+   * Получить количество непрочитанных уведомлений
+   * @returns {Promise<Object>} - { count }
+   */
+  getUnreadCount() {
+    return api.get('/notifications/unread-count')
+      .then(response => response.data)
+  },
+
   /**
    * Удалить уведомление
    * @param {string|number} id - идентификатор уведомления
@@ -249,6 +288,15 @@ const notificationsApi = {
   deleteNotification(id) {
     return api.delete(`/notifications/${id}`)
       .then(response => response.data)
+  },
+
+  /**
+   * Удалить все уведомления
+   * @returns {Promise<Object>} - { deleted }
+   */
+  deleteAll() {
+    return api.delete('/notifications')
+      .then(response => response.data)
   }
 }
 
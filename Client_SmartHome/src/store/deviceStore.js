@@ -4,6 +4,8 @@ import api from '@/services/api'
 export const useDeviceStore = defineStore('devices', {
   state: () => ({
     devices: [],
+    // Исходные данные устройств с бэкенда по ID, к ним применяются изменения из потока
+    backendDevices: {},
     loading: false,
     error: null,
   }),
@@ -46,6 +48,7 @@ export const useDeviceStore = defineStore('devices', {
         this.error = null
         
         const response = await api.devices.getDevices()
+        this.backendDevices = Object.fromEntries(response.map(device => [device.id, device]))
         this.devices = response.map(device => this.mapDeviceFromBackend(device))
         
         return this.devices
@@ -58,6 +61,52 @@ export const useDeviceStore = defineStore('devices', {
       }
     },
     
+    // Применяет изменение устройства, полученное из потока /devices/stream
+    async applyDeviceEvent(event) {
+      const index = this.devices.findIndex(device => device.id === event.deviceId)
+
+      if (event.type === 'DELETED') {
+        delete this.backendDevices[event.deviceId]
+        if (index !== -1) {
+          this.devices.splice(index, 1)
+        }
+        return
+      }
+
+      const current = this.backendDevices[event.deviceId]
+      if (event.type === 'SAVED' || !current) {
+        // Метаданные изменились или устройство ещё не загружено - перечитываем его целиком
+        try {
+          const device = await api.devices.getDevice(event.deviceId)
+          this.backendDevices[device.id] = device
+          const position = this.devices.findIndex(item => item.id === device.id)
+          if (position !== -1) {
+            this.devices[position] = this.mapDeviceFromBackend(device)
+          } else {
+            this.devices.push(this.mapDeviceFromBackend(device))
+          }
+        } catch (error) {
+          console.error('Ошибка при получении устройства из потока изменений:', error)
+        }
+        return
+      }
+
+      const properties = { ...(current.properties || {}), ...event.properties }
+      for (const key of event.removed || []) {
+        delete properties[key]
+      }
+      const updated = {
+        ...current,
+        properties,
+        status: event.status || current.status,
+        lastSeen: event.lastSeen || current.lastSeen
+      }
+      this.backendDevices[event.deviceId] = updated
+      if (index !== -1) {
+        this.devices[index] = this.mapDeviceFromBackend(updated)
+      }
+    },
+    
     // Маппинг данных устройства с бэкенда в формат фронтенда
     mapDeviceFromBackend(backendDevice) {
       const properties = backendDevice.properties || {}
@@ -155,7 +155,10 @@ export const useNotificationsStore = defineStore('notifications', {
     notifications: [],
     loading: false,
     error: null,
-    unreadCount: 0
+    unreadCount: 0,
+    // Фильтры текущего списка и курсор следующей страницы (null - страниц больше нет)
+    filter: { status: 'all' },
+    nextCursor: null
   }),
   getters: {
     getUnreadCount: (state) => {
@@ -166,24 +169,19 @@ export const useNotificationsStore = defineStore('notifications', {
         .filter(n => !n.read)
         .sort((a, b) => new Date(b.timestamp) - new Date(a.timestamp))
         .slice(0, 5)
-    }
+    },
+    hasMore: (state) => state.nextCursor !== null
   },
   actions: {
-    async fetchNotifications() {
+    async fetchNotifications(filter = this.filter) {
       this.loading = true
       try {
-        // В реальном приложении здесь будет вызов API
-        // const response = await api.get('/notifications')
-        // this.notifications = response.data
-        
-        // Временные данные для демонстрации
-        this.notifications = [
-          { id: 1, message: 'Обнаружено движение (Гараж)', type: 'warning', read: false, timestamp: new Date() },
-          { id: 2, message: 'Низкий заряд батареи (Датчик)', type: 'warning', read: false, timestamp: new Date(Date.now() - 3600000) },
-          { id: 3, message: 'Завершено обновление ПО', type: 'info', read: true, timestamp: new Date(Date.now() - 86400000) }
-        ]
-        
-        this.unreadCount = this.notifications.filter(n => !n.read).length
+        const api = await import('@/services/api').then(m => m.default)
+        const page = await api.notifications.getNotifications(filter)
+        this.filter = filter
+        this.notifications = page.items
+        this.nextCursor = page.nextCursor
+        this.unreadCount = page.unreadCount
         this.error = null
       } catch (error) {
         this.error = error.message || 'Не удалось загрузить уведомления'
@@ -191,24 +189,52 @@ export const useNotificationsStore = defineStore('notifications', {
         this.loading = false
       }
     },
+    async fetchMore() {
+      if (this.nextCursor === null) {
+        return
+      }
+      try {
+        const api = await import('@/services/api').then(m => m.default)
+        const page = await api.notifications.getNotifications({ ...this.filter, before: this.nextCursor })
+        this.notifications.push(...page.items)
+        this.nextCursor = page.nextCursor
+        this.unreadCount = page.unreadCount
+      } catch (error) {
+        this.error = error.message || 'Не удалось загрузить уведомления'
+      }
+    },
     async markAsRead(id) {
       const notification = this.notifications.find(n => n.id === id)
       if (notification && !notification.read) {
         notification.read = true
-        this.unreadCount--
-        
-        // В реальном приложении здесь будет вызов API
-        // await api.put(`/notifications/${id}`, { read: true })
+        const api = await import('@/services/api').then(m => m.default)
+        const result = await api.notifications.markAsRead(id)
+        this.unreadCount = result.unreadCount
       }
     },
     async markAllAsRead() {
       this.notifications.forEach(n => {
         n.read = true
       })
+      const api = await import('@/services/api').then(m => m.default)
+      const result = await api.notifications.markAllAsRead()
+      this.unreadCount = result.unreadCount
+    },
+    async deleteNotification(id) {
+      const notification = this.notifications.find(n => n.id === id)
+      this.notifications = this.notifications.filter(n => n.id !== id)
+      const api = await import('@/services/api').then(m => m.default)
+      await api.notifications.deleteNotification(id)
+      if (notification && !notification.read) {
+        this.unreadCount = Math.max(0, this.unreadCount - 1)
+      }
+    },
+    async clearAll() {
+      this.notifications = []
+      this.nextCursor = null
+      const api = await import('@/services/api').then(m => m.default)
+      await api.notifications.deleteAll()
       this.unreadCount = 0
-      
-      // В реальном приложении здесь будет вызов API
-      // await api.put('/notifications/mark-all-read')
     }
   }
 })
@@ -229,20 +255,17 @@ export const useScenariosStore = defineStore('scenarios', {
     async fetchScenarios() {
       this.loading = true
       try {
-        // В реальном приложении здесь будет вызов API
-        // const response = await api.get('/scenarios')
-        // this.scenarios = response.data
-        
-        // Временные данные для демонстрации
+        const api = await import('@/services/api').then(m => m.default)
+        this.scenarios = await api.scenarios.getScenarios()
+        this.error = null
+      } catch (error) {
+        this.error = error.message || 'Не удалось загрузить сценарии'
+        // Если API недоступен - используем демо-данные
         this.scenarios = [
           { id: 1, name: 'Закрыть окна при дожде', isActive: true, trigger: 'weather', conditions: ['rain'] },
           { id: 2, name: 'Выключить свет при выходе', isActive: true, trigger: 'location', conditions: ['away'] },
           { id: 3, name: 'Ночной режим', isActive: false, trigger: 'time', conditions: ['22:00'] }
         ]
-        
-        this.error = null
-      } catch (error) {
-        this.error = error.message || 'Не удалось загрузить сценарии'
       } finally {
         this.loading = false
       }
@@ -252,9 +275,18 @@ export const useScenariosStore = defineStore('scenarios', {
       if (scenario) {
         scenario.isActive = !scenario.isActive
         
-        // В реальном приложении здесь будет вызов API
-        // await api.put(`/scenarios/${id}`, { isActive: scenario.isActive })
+        try {
+          const api = await import('@/services/api').then(m => m.default)
+          await api.scenarios.updateScenario(id, scenario)
+        } catch (error) {
+          scenario.isActive = !scenario.isActive
+          this.error = error.message || 'Не удалось изменить сценарий'
+        }
       }
+    },
+    async runScenario(id) {
+      const api = await import('@/services/api').then(m => m.default)
+      return api.scenarios.runScenario(id)
     }
   }
 }) 
\ No newline at end of file
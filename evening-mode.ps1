@@ -10,69 +10,69 @@ $livingRoomThermostatId = "2d75ed09-5bee-46a7-9549-d58066fdd4a0"  # Термос
 $bedroomThermostatId = "9818f47f-cb45-4a34-b699-df6dd289afc8"  # Термостат в спальне
 $tvSocketId = "b9931898-082e-4342-8f61-908c91f61b59"  # Умная розетка ТВ
 
-# 1. Приглушаем свет в гостиной
-Write-Host "Настраиваем освещение в гостиной..."
-$lightParams = @{
-    command = "setState"
-    parameters = @{
-        power = "on"
-        brightness = "30"
-        color = "FF9900"  # Теплый желтый свет
-    }
-} | ConvertTo-Json
-
-Invoke-RestMethod -Method Post -Uri "$baseUrl/devices/$livingRoomLightId/command" -ContentType "application/json" -Body $lightParams
-
-# 2. Включаем ночник в спальне
-Write-Host "Включаем ночник в спальне..."
-$nightLightParams = @{
-    command = "setState"
-    parameters = @{
-        power = "on"
-        brightness = "20"
-        color = "FF6A00"  # Очень теплый оранжевый свет
-    }
-} | ConvertTo-Json
-
-Invoke-RestMethod -Method Post -Uri "$baseUrl/devices/$bedroomLightId/command" -ContentType "application/json" -Body $nightLightParams
-
-# 3. Устанавливаем комфортную температуру в гостиной
-Write-Host "Настраиваем термостат в гостиной..."
-$livingRoomThermostatParams = @{
-    command = "setState"
-    parameters = @{
-        power = "on"
-        mode = "heat"
-        target_temperature = "22.0"
-    }
-} | ConvertTo-Json
-
-Invoke-RestMethod -Method Post -Uri "$baseUrl/devices/$livingRoomThermostatId/command" -ContentType "application/json" -Body $livingRoomThermostatParams
-
-# 4. Устанавливаем комфортную температуру в спальне для сна
-Write-Host "Настраиваем термостат в спальне..."
-$bedroomThermostatParams = @{
-    command = "setState"
-    parameters = @{
-        power = "on"
-        mode = "heat"
-        target_temperature = "20.0"  # Прохладнее для комфортного сна
-    }
-} | ConvertTo-Json
-
-Invoke-RestMethod -Method Post -Uri "$baseUrl/devices/$bedroomThermostatId/command" -ContentType "application/json" -Body $bedroomThermostatParams
+# Все команды сценария отправляются одним пакетом: сервер выполняет их параллельно
+# и записывает изменения свойств одной транзакцией
+Write-Host "Настраиваем освещение, термостаты и ТВ..."
+$sceneParams = @{
+    commands = @(
+        # 1. Приглушаем свет в гостиной
+        @{
+            deviceId = $livingRoomLightId
+            command = "setState"
+            parameters = @{
+                power = "on"
+                brightness = "30"
+                color = "FF9900"  # Теплый желтый свет
+            }
+        },
+        # 2. Включаем ночник в спальне
+        @{
+            deviceId = $bedroomLightId
+            command = "setState"
+            parameters = @{
+                power = "on"
+                brightness = "20"
+                color = "FF6A00"  # Очень теплый оранжевый свет
+            }
+        },
+        # 3. Устанавливаем комфортную температуру в гостиной
+        @{
+            deviceId = $livingRoomThermostatId
+            command = "setState"
+            parameters = @{
+                power = "on"
+                mode = "heat"
+                target_temperature = "22.0"
+            }
+        },
+        # 4. Устанавливаем комфортную температуру в спальне для сна
+        @{
+            deviceId = $bedroomThermostatId
+            command = "setState"
+            parameters = @{
+                power = "on"
+                mode = "heat"
+                target_temperature = "20.0"  # Прохладнее для комфортного сна
+            }
+        },
+        # 5. Включаем ТВ
+        @{
+            deviceId = $tvSocketId
+            command = "setState"
+            parameters = @{
+                state = "on"
+                power_consumption = "120"
+            }
+        }
+    )
+} | ConvertTo-Json -Depth 4
 
-# 5. Включаем ТВ
-Write-Host "Включаем умную розетку ТВ..."
-$tvSocketParams = @{
-    command = "setState"
-    parameters = @{
-        state = "on"
-        power_consumption = "120"
+$result = Invoke-RestMethod -Method Post -Uri "$baseUrl/devices/commands:batch" -ContentType "application/json" -Body $sceneParams
+foreach ($item in $result.results) {
+    if (-not $item.success) {
+        Write-Host "Ошибка для устройства $($item.device_id): $($item.error)"
     }
-} | ConvertTo-Json
-
-Invoke-RestMethod -Method Post -Uri "$baseUrl/devices/$tvSocketId/command" -ContentType "application/json" -Body $tvSocketParams
+}
 
 Write-Host "Вечерний режим активирован!"
 
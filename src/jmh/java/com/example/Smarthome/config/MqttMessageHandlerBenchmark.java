@@ -0,0 +1,122 @@
+package com.example.Smarthome.config;
+
+import com.example.Smarthome.protocol.MqttProtocolAdapter;
+import com.example.Smarthome.repository.InMemoryDeviceStateRepository;
+import com.example.Smarthome.service.DeviceEventPublisher;
+import com.example.Smarthome.service.DeviceStateStore;
+import com.example.Smarthome.service.MqttStateIngestionService;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость обработки одного MQTT сообщения о состоянии устройства
+ *
+ * handleStateMessage проходит весь путь приёма: разбор темы, разбор JSON, кэш адаптера
+ * и применение изменений в DeviceStateStore с публикацией события. Очередь приёма заменена
+ * синхронным вызовом хранилища, база данных - хранилищем в памяти.
+ * parseStatePayload измеряет только разбор JSON в Map<String, String>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MqttMessageHandlerBenchmark {
+
+    private static final TypeReference<Map<String, String>> PROPERTIES_TYPE = new TypeReference<>() {};
+
+    private MqttMessageHandler handler;
+    private ObjectMapper objectMapper;
+    private List<Message<byte[]>> messages;
+    private String[] payloads;
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        objectMapper = new ObjectMapper();
+        UUID deviceId = new UUID(42, 42);
+
+        Map<String, String> initial = new HashMap<>();
+        initial.put("temperature", "21.5");
+        initial.put("humidity", "45");
+        initial.put("battery", "87");
+        initial.put("rssi", "-61");
+        InMemoryDeviceStateRepository repository = new InMemoryDeviceStateRepository();
+        repository.addDevice(deviceId, "Датчик климата", initial);
+
+        DeviceEventPublisher publisher = new DeviceEventPublisher(event -> { });
+        setField(publisher, "bufferSize", 4096);
+        publisher.init();
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        DeviceStateStore store = new DeviceStateStore(repository, null, publisher, meterRegistry);
+
+        MqttStateIngestionService ingestion = new MqttStateIngestionService(store, null, meterRegistry) {
+            @Override
+            public boolean submit(UUID id, Map<String, String> properties) {
+                return store.updateProperties(id, properties).isPresent();
+            }
+        };
+
+        handler = new MqttMessageHandler();
+        setField(handler, "mqttProtocolAdapter", new MqttProtocolAdapter(null, objectMapper));
+        setField(handler, "stateIngestionService", ingestion);
+        setField(handler, "objectMapper", objectMapper);
+        setField(handler, "meterRegistry", meterRegistry);
+        handler.init();
+
+        // Чередование значений, чтобы каждое сообщение действительно меняло состояние
+        String topic = "smarthome/state/" + deviceId;
+        payloads = new String[16];
+        messages = new ArrayList<>(payloads.length);
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = "{\"temperature\":\"" + (20 + i * 0.1) + "\",\"humidity\":\"" + (40 + i)
+                    + "\",\"battery\":\"87\",\"rssi\":\"" + (-60 - i) + "\"}";
+            messages.add(MessageBuilder.withPayload(payloads[i].getBytes(StandardCharsets.UTF_8))
+                    .setHeader("mqtt_receivedTopic", topic)
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public void handleStateMessage() {
+        handler.handleMessage(messages.get(next++ & (messages.size() - 1)));
+    }
+
+    @Benchmark
+    public Map<String, String> parseStatePayload() throws Exception {
+        return objectMapper.readValue(payloads[next++ & (payloads.length - 1)], PROPERTIES_TYPE);
+    }
+
+    private static void setField(Object target, String name, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), name);
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+}
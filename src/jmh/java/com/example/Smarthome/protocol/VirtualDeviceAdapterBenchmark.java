@@ -0,0 +1,70 @@
+package com.example.Smarthome.protocol;
+
+import com.example.Smarthome.model.ConnectionProtocol;
+import com.example.Smarthome.model.Device;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость отправки команды и чтения свойств виртуального устройства
+ *
+ * Устройство инициализируется заранее, поэтому getDeviceProperties измеряет обычный
+ * путь чтения из кэша адаптера без периодической симуляции значений датчиков.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VirtualDeviceAdapterBenchmark {
+
+    private VirtualDeviceAdapter adapter;
+    private Device device;
+    private List<Map<String, String>> commands;
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        adapter = new VirtualDeviceAdapter(new ObjectMapper());
+
+        device = new Device();
+        device.setId(new UUID(7, 7));
+        device.setName("Виртуальный датчик");
+        device.setType("sensor");
+        device.setProtocol(ConnectionProtocol.VIRTUAL);
+        adapter.getDeviceProperties(device);
+
+        commands = new ArrayList<>(16);
+        for (int i = 0; i < 16; i++) {
+            commands.add(Map.of("power", i % 2 == 0 ? "on" : "off", "brightness", String.valueOf(i * 6)));
+        }
+    }
+
+    @Benchmark
+    public boolean sendCommand() {
+        return adapter.sendCommand(device, "setState", commands.get(next++ & (commands.size() - 1)));
+    }
+
+    @Benchmark
+    public Map<String, String> getDeviceProperties() {
+        return adapter.getDeviceProperties(device);
+    }
+}
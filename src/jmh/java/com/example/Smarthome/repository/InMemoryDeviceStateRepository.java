@@ -0,0 +1,62 @@
+package com.example.Smarthome.repository;
+
+import com.example.Smarthome.model.DeviceStatus;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Хранилище устройств в памяти вместо базы данных для микробенчмарков
+ *
+ * Чтение возвращает заранее добавленные устройства, запись только подсчитывает строки,
+ * поэтому результаты не зависят от состояния PostgreSQL и сети.
+ */
+public class InMemoryDeviceStateRepository extends DeviceStateJdbcRepository {
+
+    private final Map<UUID, DeviceRow> devices = new ConcurrentHashMap<>();
+    private final Map<UUID, Map<String, String>> properties = new ConcurrentHashMap<>();
+
+    public InMemoryDeviceStateRepository() {
+        super(null);
+    }
+
+    public void addDevice(UUID deviceId, String name, Map<String, String> initialProperties) {
+        devices.put(deviceId, new DeviceRow(name, DeviceStatus.ONLINE, LocalDateTime.now(), null));
+        properties.put(deviceId, new HashMap<>(initialProperties));
+    }
+
+    @Override
+    public Optional<DeviceRow> findDevice(UUID deviceId) {
+        return Optional.ofNullable(devices.get(deviceId));
+    }
+
+    @Override
+    public Map<String, String> findProperties(UUID deviceId) {
+        return new HashMap<>(properties.getOrDefault(deviceId, Map.of()));
+    }
+
+    @Override
+    public Map<UUID, Placement> findPlacements() {
+        return Map.of();
+    }
+
+    @Override
+    public int updateStatuses(Map<UUID, StatusUpdate> statuses) {
+        return statuses.size();
+    }
+
+    @Override
+    public int upsertProperties(Map<UUID, Map<String, String>> updates) {
+        return updates.values().stream().mapToInt(Map::size).sum();
+    }
+
+    @Override
+    public int deleteProperties(Map<UUID, Set<String>> deletes) {
+        return deletes.values().stream().mapToInt(Set::size).sum();
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.dto.DeviceDto;
+import com.example.Smarthome.model.ConnectionProtocol;
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.model.Location;
+import com.example.Smarthome.model.Room;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость построения ответа API для одного устройства
+ *
+ * toDto измеряет преобразование сущности в DTO (бывший DeviceController.convertToDto),
+ * toJson - преобразование вместе с сериализацией, как при промахе кэша DeviceReadModel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceReadModelBenchmark {
+
+    @Param({"4", "32"})
+    private int propertyCount;
+
+    private DeviceReadModel readModel;
+    private ObjectMapper objectMapper;
+    private Device device;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        objectMapper = new ObjectMapper().findAndRegisterModules();
+        readModel = new DeviceReadModel(null, null, objectMapper);
+
+        Location location = new Location();
+        location.setId(new UUID(1, 1));
+        location.setName("Дом");
+
+        Room room = new Room();
+        room.setId(new UUID(2, 2));
+        room.setName("Гостиная");
+        room.setLocation(location);
+
+        device = new Device();
+        device.setId(new UUID(3, 3));
+        device.setName("Умная розетка");
+        device.setType("switch");
+        device.setCategory("POWER");
+        device.setSubType("SOCKET");
+        device.setProtocol(ConnectionProtocol.MQTT);
+        device.setStatus(DeviceStatus.ONLINE);
+        device.setLastSeen(LocalDateTime.of(2025, 1, 1, 12, 0));
+        device.setManufacturer("Acme");
+        device.setModel("PS-1");
+        device.setFirmwareVersion("1.4.2");
+        device.setRoom(room);
+        device.setLocation(location);
+        for (int i = 0; i < propertyCount; i++) {
+            device.getProperties().put("property_" + i, String.valueOf(i * 1.5));
+        }
+        device.getCapabilities().put("power", "on/off");
+        device.getCapabilities().put("power_consumption", "W");
+        device.getAttributes().put("tb_type", "socket");
+    }
+
+    @Benchmark
+    public DeviceDto toDto() {
+        return readModel.toDto(device);
+    }
+
+    @Benchmark
+    public byte[] toJson() throws Exception {
+        return objectMapper.writeValueAsBytes(readModel.toDto(device));
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.AutomationRule;
+import com.example.Smarthome.model.RuleOperator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость проверки правил на одно изменение свойств в зависимости от общего количества правил
+ *
+ * Правила распределены по 1000 устройствам, при этом у "горячего" устройства всегда
+ * RULES_PER_PROPERTY правил на свойство humidity. Время evaluateIndexedUpdate
+ * и evaluateUnrelatedUpdate не должно расти вместе с ruleCount.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleIndexBenchmark {
+
+    private static final int DEVICES = 1000;
+    private static final int RULES_PER_PROPERTY = 8;
+    private static final String[] PROPERTIES = {"humidity", "temperature", "power", "brightness", "co2"};
+
+    @Param({"10", "100", "1000", "10000"})
+    private int ruleCount;
+
+    private RuleIndex index;
+    private UUID hotDevice;
+    private UUID ruleFreeDevice;
+    private List<Map<String, String>> updates;
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        Random random = new Random(42);
+        List<UUID> devices = new ArrayList<>(DEVICES);
+        for (int i = 0; i < DEVICES; i++) {
+            devices.add(new UUID(random.nextLong(), random.nextLong()));
+        }
+        hotDevice = devices.get(0);
+        ruleFreeDevice = new UUID(random.nextLong(), random.nextLong());
+
+        List<AutomationRule> rules = new ArrayList<>(ruleCount);
+        for (int i = 0; i < Math.min(RULES_PER_PROPERTY, ruleCount); i++) {
+            rules.add(rule(hotDevice, "humidity", RuleOperator.GT, String.valueOf(40 + i * 5)));
+        }
+        while (rules.size() < ruleCount) {
+            UUID device = devices.get(1 + random.nextInt(DEVICES - 1));
+            String property = PROPERTIES[random.nextInt(PROPERTIES.length)];
+            RuleOperator operator = RuleOperator.values()[random.nextInt(4)];
+            rules.add(rule(device, property, operator, String.valueOf(random.nextInt(100))));
+        }
+        index = RuleIndex.build(rules, RuleIndex.EMPTY);
+
+        // Чередование значений, чтобы условия переключались и срабатывания тоже учитывались
+        updates = new ArrayList<>(16);
+        for (int i = 0; i < 16; i++) {
+            updates.add(Map.of("humidity", String.valueOf(30 + i * 5), "temperature", "21.5"));
+        }
+    }
+
+    @Benchmark
+    public int evaluateIndexedUpdate(Blackhole blackhole) {
+        Map<String, String> update = updates.get(next++ & (updates.size() - 1));
+        return index.evaluate(hotDevice, update, System.nanoTime(), blackhole::consume);
+    }
+
+    @Benchmark
+    public int evaluateUnrelatedUpdate(Blackhole blackhole) {
+        Map<String, String> update = updates.get(next++ & (updates.size() - 1));
+        return index.evaluate(ruleFreeDevice, update, System.nanoTime(), blackhole::consume);
+    }
+
+    private static AutomationRule rule(UUID deviceId, String property, RuleOperator operator, String threshold) {
+        AutomationRule rule = new AutomationRule();
+        rule.setId(UUID.randomUUID());
+        rule.setName(property + " " + operator + " " + threshold);
+        rule.setDeviceId(deviceId);
+        rule.setProperty(property);
+        rule.setOperator(operator);
+        rule.setThreshold(threshold);
+        rule.setActionDeviceId(deviceId);
+        rule.setActionCommand("setState");
+        return rule;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.Smarthome.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость разбора ответа ThingsBoard с последними значениями телеметрии одного устройства
+ * (бывший ThingsBoardSyncService.extractValueFromTelemetry)
+ *
+ * extractChanged сбрасывает водяной знак перед каждым вызовом, поэтому все ключи считаются
+ * изменившимися; extractUnchanged измеряет частый случай опроса без новых значений.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThingsBoardTelemetryBenchmark {
+
+    private static final String DEVICE_ID = "5f2c1a40-3b7e-11ef-9a3c-0242ac120002";
+
+    @Param({"8", "64"})
+    private int keyCount;
+
+    private ThingsBoardTelemetryFetcher fetcher;
+    private Map<String, Object> timeseries;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fetcher = new ThingsBoardTelemetryFetcher(null, null);
+
+        // Формат ответа entitiesQuery: ключ -> {ts, value}
+        timeseries = new HashMap<>();
+        long ts = 1_735_725_600_000L;
+        for (int i = 0; i < keyCount; i++) {
+            Map<String, Object> tsValue = new HashMap<>();
+            tsValue.put("ts", ts + i);
+            tsValue.put("value", String.valueOf(20 + i * 0.5));
+            timeseries.put("key_" + i, tsValue);
+        }
+        fetcher.commitWatermarks(DEVICE_ID, fetcher.toTelemetry(DEVICE_ID, timeseries, true));
+    }
+
+    @Benchmark
+    public ThingsBoardTelemetryFetcher.DeviceTelemetry extractChanged() {
+        fetcher.resetWatermark(DEVICE_ID);
+        return fetcher.toTelemetry(DEVICE_ID, timeseries, true);
+    }
+
+    @Benchmark
+    public ThingsBoardTelemetryFetcher.DeviceTelemetry extractUnchanged() {
+        return fetcher.toTelemetry(DEVICE_ID, timeseries, false);
+    }
+}
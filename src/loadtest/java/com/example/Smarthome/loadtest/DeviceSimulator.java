@@ -0,0 +1,128 @@
+package com.example.Smarthome.loadtest;
+
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Симулятор устройств, публикующих состояние в smarthome/state/{id}
+ *
+ * Устройства распределены между несколькими MQTT-клиентами, каждый клиент публикует
+ * в своём потоке со своей долей общей частоты. Нагрузка открытая: время отправки каждого
+ * сообщения запланировано заранее и записывается в сообщение, поэтому задержка отправки
+ * из-за медленного брокера или приложения учитывается в измеренной задержке.
+ */
+class DeviceSimulator implements AutoCloseable {
+
+    private final List<MqttAsyncClient> clients = new ArrayList<>();
+    private final List<List<UUID>> devicesByClient = new ArrayList<>();
+    private final ExecutorService executor;
+    private final int qos;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    DeviceSimulator(String brokerUrl, List<UUID> devices, int clientCount, int qos) throws MqttException {
+        this.qos = qos;
+        int count = Math.max(1, Math.min(clientCount, devices.size()));
+        this.executor = Executors.newFixedThreadPool(count);
+
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setMaxInflight(65535);
+        for (int i = 0; i < count; i++) {
+            MqttAsyncClient client = new MqttAsyncClient(brokerUrl, "loadtest-" + i, new MemoryPersistence());
+            client.connect(options).waitForCompletion(10_000);
+            clients.add(client);
+            devicesByClient.add(new ArrayList<>());
+        }
+        for (int i = 0; i < devices.size(); i++) {
+            devicesByClient.get(i % count).add(devices.get(i));
+        }
+    }
+
+    /**
+     * Публикует сообщения с заданной общей частотой в течение указанного времени
+     * @param rate Сообщений в секунду по всем устройствам
+     * @param durationMs Длительность в миллисекундах
+     */
+    void run(double rate, long durationMs) throws Exception {
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        long intervalNanos = (long) (clients.size() * 1e9 / rate);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < clients.size(); i++) {
+            MqttAsyncClient client = clients.get(i);
+            List<UUID> devices = devicesByClient.get(i);
+            // Потоки сдвинуты друг относительно друга, чтобы сообщения не шли пачками
+            long offset = intervalNanos * i / clients.size();
+            futures.add(executor.submit(() -> publish(client, devices, start + offset, end, intervalNanos)));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    long getSentCount() {
+        return sent.sum();
+    }
+
+    long getFailedCount() {
+        return failed.sum();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (MqttAsyncClient client : clients) {
+            try {
+                client.disconnect().waitForCompletion(5_000);
+                client.close();
+            } catch (MqttException e) {
+                // Клиент уже отключён
+            }
+        }
+    }
+
+    private void publish(MqttAsyncClient client, List<UUID> devices, long start, long end, long intervalNanos) {
+        SplittableRandom random = new SplittableRandom(client.getClientId().hashCode());
+        String[] topics = devices.stream().map(id -> "smarthome/state/" + id).toArray(String[]::new);
+
+        for (long n = 0; ; n++) {
+            long due = start + n * intervalNanos;
+            if (due >= end || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            String payload = String.format(Locale.ROOT,
+                    "{\"temperature\":\"%.1f\",\"humidity\":\"%d\",\"power_consumption\":\"%.1f\",\"%s\":\"%d\"}",
+                    18 + random.nextDouble() * 8, 35 + random.nextInt(30), random.nextDouble() * 60,
+                    IngestLatencyProbe.SENT_AT, due);
+            try {
+                client.publish(topics[(int) (n % topics.length)], payload.getBytes(StandardCharsets.UTF_8), qos, false);
+                sent.increment();
+            } catch (MqttException e) {
+                failed.increment();
+            }
+        }
+    }
+}
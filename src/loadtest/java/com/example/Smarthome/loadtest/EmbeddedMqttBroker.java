@@ -0,0 +1,50 @@
+package com.example.Smarthome.loadtest;
+
+import io.moquette.BrokerConstants;
+import io.moquette.broker.Server;
+import io.moquette.broker.config.IConfig;
+import io.moquette.broker.config.MemoryConfig;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Properties;
+
+/**
+ * MQTT-брокер Moquette, запущенный в процессе нагрузочного теста
+ * Хранение сессий отключено: брокер только пересылает сообщения, чтобы его
+ * собственные накладные расходы не влияли на измерения приложения.
+ */
+class EmbeddedMqttBroker implements AutoCloseable {
+
+    private final Server server = new Server();
+    private final int port;
+
+    EmbeddedMqttBroker(int sessionQueueSize) throws IOException {
+        this.port = freePort();
+
+        Properties properties = new Properties();
+        properties.setProperty(IConfig.HOST_PROPERTY_NAME, "127.0.0.1");
+        properties.setProperty(IConfig.PORT_PROPERTY_NAME, String.valueOf(port));
+        properties.setProperty(IConfig.WEB_SOCKET_PORT_PROPERTY_NAME, BrokerConstants.DISABLED_PORT_BIND);
+        properties.setProperty(IConfig.ALLOW_ANONYMOUS_PROPERTY_NAME, "true");
+        properties.setProperty(IConfig.PERSISTENCE_ENABLED_PROPERTY_NAME, "false");
+        properties.setProperty(IConfig.ENABLE_TELEMETRY_NAME, "false");
+        properties.setProperty(IConfig.SESSION_QUEUE_SIZE, String.valueOf(sessionQueueSize));
+        server.startServer(new MemoryConfig(properties));
+    }
+
+    String getUrl() {
+        return "tcp://127.0.0.1:" + port;
+    }
+
+    @Override
+    public void close() {
+        server.stopServer();
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.Smarthome.loadtest;
+
+import com.example.Smarthome.repository.DeviceStateJdbcRepository;
+import com.example.Smarthome.service.DeviceChangeEvent;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Измеряет задержку от отправки MQTT сообщения до его применения и записи в базу
+ *
+ * Симулятор кладёт в каждое сообщение свойство load_sent_at с запланированным временем
+ * отправки (System.nanoTime, общий процесс). Задержка применения фиксируется по событию
+ * DeviceChangeEvent, задержка записи - после фиксации транзакции, в которой
+ * DeviceStateJdbcRepository.upsertProperties записал это значение.
+ * Значения, перезаписанные следующим сообщением до сброса, в базу не попадают и считаются объединёнными.
+ */
+class IngestLatencyProbe implements BeanPostProcessor, MethodInterceptor {
+
+    static final String SENT_AT = "load_sent_at";
+
+    // Задержки в микросекундах, до 10 минут с точностью 3 значащие цифры
+    private final Recorder applied = new Recorder(TimeUnit.MINUTES.toMicros(10), 3);
+    private final Recorder persisted = new Recorder(TimeUnit.MINUTES.toMicros(10), 3);
+    private final LongAdder appliedCount = new LongAdder();
+    private final LongAdder persistedCount = new LongAdder();
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!DeviceStateJdbcRepository.class.isAssignableFrom(AopUtils.getTargetClass(bean))) {
+            return bean;
+        }
+        if (bean instanceof Advised advised && !advised.isFrozen()) {
+            advised.addAdvice(0, this);
+            return bean;
+        }
+        ProxyFactory factory = new ProxyFactory(bean);
+        factory.setProxyTargetClass(true);
+        factory.addAdvice(this);
+        return factory.getProxy(bean.getClass().getClassLoader());
+    }
+
+    /**
+     * Фиксирует применение сообщения к хранилищу состояний
+     */
+    void onDeviceChange(DeviceChangeEvent event) {
+        String sentAt = event.properties().get(SENT_AT);
+        if (sentAt != null) {
+            record(applied, appliedCount, Long.parseLong(sentAt), System.nanoTime());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (!"upsertProperties".equals(invocation.getMethod().getName())) {
+            return invocation.proceed();
+        }
+
+        List<Long> sentAt = new ArrayList<>();
+        for (Map<String, String> values : ((Map<UUID, Map<String, String>>) invocation.getArguments()[0]).values()) {
+            String value = values.get(SENT_AT);
+            if (value != null) {
+                sentAt.add(Long.parseLong(value));
+            }
+        }
+
+        Object result = invocation.proceed();
+        if (sentAt.isEmpty()) {
+            return result;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    recordPersisted(sentAt);
+                }
+            });
+        } else {
+            recordPersisted(sentAt);
+        }
+        return result;
+    }
+
+    long getAppliedCount() {
+        return appliedCount.sum();
+    }
+
+    long getPersistedCount() {
+        return persistedCount.sum();
+    }
+
+    /**
+     * Возвращает задержки применения, накопленные с прошлого вызова
+     */
+    Histogram takeApplied() {
+        return applied.getIntervalHistogram();
+    }
+
+    /**
+     * Возвращает задержки записи, накопленные с прошлого вызова
+     */
+    Histogram takePersisted() {
+        return persisted.getIntervalHistogram();
+    }
+
+    private void recordPersisted(List<Long> sentAt) {
+        long now = System.nanoTime();
+        for (long value : sentAt) {
+            record(persisted, persistedCount, value, now);
+        }
+    }
+
+    private static void record(Recorder recorder, LongAdder count, long sentAt, long now) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(now - sentAt));
+        recorder.recordValue(Math.min(micros, TimeUnit.MINUTES.toMicros(10)));
+        count.increment();
+    }
+}
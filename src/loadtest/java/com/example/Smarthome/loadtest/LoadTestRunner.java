@@ -0,0 +1,340 @@
+package com.example.Smarthome.loadtest;
+
+import com.example.Smarthome.SmarthomeApplication;
+import com.example.Smarthome.model.ConnectionProtocol;
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.repository.DeviceStateJdbcRepository;
+import com.example.Smarthome.service.DeviceChangeEvent;
+import com.example.Smarthome.service.DeviceEventPublisher;
+import com.example.Smarthome.service.DeviceStateStore;
+import com.example.Smarthome.service.MqttStateIngestionService;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сквозной нагрузочный тест приёма состояний устройств
+ *
+ * Запускает приложение с профилем mqtt против встроенного брокера и заглушки ThingsBoard,
+ * регистрирует N устройств и ступенчато повышает частоту сообщений. Для каждой ступени
+ * выводятся пропускная способность, задержки p50/p99 от отправки до применения и до записи в базу,
+ * потери и статистика GC. Ступень считается перегруженной, если сообщения отбрасываются,
+ * приложение не успевает применять их с заданной частотой или p99 записи превышает порог;
+ * на первой перегруженной ступени тест останавливается.
+ *
+ * Настройки передаются свойствами loadtest.* (gradle loadtest -Ploadtest.devices=5000):
+ * devices, rates, stage-seconds, warmup-seconds, drain-seconds, clients, qos, max-p99-ms, continue,
+ * tb.latency-ms, tb.threads, broker.queue-size, db.url, db.username, db.password, args, report.
+ * База данных PostgreSQL должна быть доступна: по умолчанию используется spring.datasource.url приложения.
+ */
+public class LoadTestRunner {
+
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = Settings.fromSystemProperties();
+        IngestLatencyProbe probe = new IngestLatencyProbe();
+        List<Map<String, Object>> stages = new ArrayList<>();
+
+        try (EmbeddedMqttBroker broker = new EmbeddedMqttBroker(settings.brokerQueueSize());
+             ThingsBoardStub thingsBoard = new ThingsBoardStub(settings.tbThreads(), settings.tbLatencyMs());
+             ConfigurableApplicationContext context = startApplication(settings, broker, thingsBoard, probe)) {
+
+            List<UUID> devices = seedDevices(context, settings.devices());
+            MqttStateIngestionService ingestion = context.getBean(MqttStateIngestionService.class);
+            DeviceStateStore store = context.getBean(DeviceStateStore.class);
+
+            try (DeviceSimulator simulator = new DeviceSimulator(broker.getUrl(), devices, settings.clients(),
+                    settings.qos())) {
+                System.out.printf("%nПрогрев: %d с при %.0f сообщений/с%n", settings.warmupSeconds(), settings.rates()[0]);
+                simulator.run(settings.rates()[0], TimeUnit.SECONDS.toMillis(settings.warmupSeconds()));
+                drain(probe, ingestion, store, settings.drainSeconds());
+                probe.takeApplied();
+                probe.takePersisted();
+
+                printHeader();
+                for (double rate : settings.rates()) {
+                    Map<String, Object> stage = runStage(rate, settings, simulator, probe, ingestion, store, thingsBoard);
+                    stages.add(stage);
+                    printStage(stage);
+                    if (stage.get("overloadReason") != null && !settings.continueAfterOverload()) {
+                        break;
+                    }
+                }
+            }
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("settings", settings);
+            report.put("stages", stages);
+            report.put("maxSustainedRate", stages.stream()
+                    .filter(stage -> stage.get("overloadReason") == null)
+                    .mapToDouble(stage -> (double) stage.get("targetRate"))
+                    .max().orElse(0));
+            report.put("thingsBoardRequests", thingsBoard.getRequestCounts());
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(new File(settings.report()), report);
+
+            System.out.printf("%nМаксимальная устойчивая частота: %.0f сообщений/с (%d устройств)%n",
+                    report.get("maxSustainedRate"), settings.devices());
+            System.out.println("Запросы к ThingsBoard: " + thingsBoard.getRequestCounts());
+            System.out.println("Отчёт: " + settings.report());
+        }
+        System.exit(0);
+    }
+
+    private static ConfigurableApplicationContext startApplication(Settings settings, EmbeddedMqttBroker broker,
+                                                                   ThingsBoardStub thingsBoard, IngestLatencyProbe probe) {
+        List<String> args = new ArrayList<>(List.of(
+                "--spring.profiles.active=mqtt",
+                "--server.port=0",
+                "--mqtt.broker.url=" + broker.getUrl(),
+                "--thingsboard.url=" + thingsBoard.getUrl(),
+                // Отладочный журнал и вывод SQL на каждое сообщение исказили бы результаты
+                "--logging.level.com.example.Smarthome=INFO",
+                "--logging.level.org.springframework.integration=WARN",
+                "--spring.jpa.properties.hibernate.show_sql=false"));
+        if (settings.dbUrl() != null) {
+            args.add("--spring.datasource.url=" + settings.dbUrl());
+        }
+        if (settings.dbUsername() != null) {
+            args.add("--spring.datasource.username=" + settings.dbUsername());
+        }
+        if (settings.dbPassword() != null) {
+            args.add("--spring.datasource.password=" + settings.dbPassword());
+        }
+        if (!settings.args().isBlank()) {
+            args.addAll(Arrays.asList(settings.args().trim().split("\\s+")));
+        }
+
+        return new SpringApplicationBuilder(SmarthomeApplication.class)
+                .initializers(context -> {
+                    context.getBeanFactory().addBeanPostProcessor(probe);
+                    context.addApplicationListener(ApplicationListener.forPayload(
+                            (DeviceChangeEvent event) -> probe.onDeviceChange(event)));
+                })
+                .run(args.toArray(String[]::new));
+    }
+
+    /**
+     * Регистрирует устройства так же, как импорт из ThingsBoard: пакетная вставка и событие SAVED
+     */
+    private static List<UUID> seedDevices(ConfigurableApplicationContext context, int count) {
+        DeviceStateJdbcRepository repository = context.getBean(DeviceStateJdbcRepository.class);
+        DeviceEventPublisher publisher = context.getBean(DeviceEventPublisher.class);
+
+        List<UUID> ids = new ArrayList<>(count);
+        List<Device> batch = new ArrayList<>(SEED_BATCH_SIZE);
+        for (int i = 0; i < count; i++) {
+            Device device = new Device();
+            device.setId(UUID.randomUUID());
+            device.setName("Нагрузочный датчик " + i);
+            device.setType("sensor");
+            device.setProtocol(ConnectionProtocol.MQTT);
+            device.setStatus(DeviceStatus.ONLINE);
+            device.setLastSeen(LocalDateTime.now());
+            device.setThingsboardToken("loadtest-" + device.getId());
+            device.setThingsboardDeviceId(UUID.randomUUID().toString());
+            batch.add(device);
+            ids.add(device.getId());
+
+            if (batch.size() == SEED_BATCH_SIZE || i == count - 1) {
+                repository.insertDevices(batch);
+                batch.forEach(saved -> publisher.publishSaved(saved.getId(), saved.getStatus(), saved.getLastSeen()));
+                batch.clear();
+            }
+        }
+        System.out.printf("Зарегистрировано устройств: %d%n", count);
+        return ids;
+    }
+
+    private static Map<String, Object> runStage(double rate, Settings settings, DeviceSimulator simulator,
+                                                IngestLatencyProbe probe, MqttStateIngestionService ingestion,
+                                                DeviceStateStore store, ThingsBoardStub thingsBoard) throws Exception {
+        long sentBefore = simulator.getSentCount();
+        long failedBefore = simulator.getFailedCount();
+        long appliedBefore = probe.getAppliedCount();
+        long persistedBefore = probe.getPersistedCount();
+        long droppedBefore = ingestion.getDroppedCount();
+        long tbBefore = totalRequests(thingsBoard);
+        long[] gcBefore = gcTotals();
+        long cpuBefore = processCpuNanos();
+
+        long start = System.nanoTime();
+        simulator.run(rate, TimeUnit.SECONDS.toMillis(settings.stageSeconds()));
+        double sendSeconds = (System.nanoTime() - start) / 1e9;
+        long appliedInStage = probe.getAppliedCount() - appliedBefore;
+        boolean drained = drain(probe, ingestion, store, settings.drainSeconds());
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        long[] gcAfter = gcTotals();
+        double cpuSeconds = (processCpuNanos() - cpuBefore) / 1e9;
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        Histogram applied = probe.takeApplied();
+        Histogram persisted = probe.takePersisted();
+
+        long sent = simulator.getSentCount() - sentBefore;
+        long failed = simulator.getFailedCount() - failedBefore;
+        long dropped = ingestion.getDroppedCount() - droppedBefore;
+        long appliedTotal = probe.getAppliedCount() - appliedBefore;
+        long persistedTotal = probe.getPersistedCount() - persistedBefore;
+        double appliedRate = appliedInStage / sendSeconds;
+
+        String overloadReason = null;
+        if (failed > 0 || dropped > 0) {
+            overloadReason = "потери: публикация " + failed + ", очередь приёма " + dropped;
+        } else if (appliedRate < rate * 0.95) {
+            overloadReason = String.format("применено %.0f/с из %.0f/с", appliedRate, rate);
+        } else if (!drained) {
+            overloadReason = "очередь не разобрана за " + settings.drainSeconds() + " с";
+        } else if (persisted.getValueAtPercentile(99) > TimeUnit.MILLISECONDS.toMicros(settings.maxP99Ms())) {
+            overloadReason = "p99 записи выше " + settings.maxP99Ms() + " мс";
+        }
+
+        Map<String, Object> stage = new LinkedHashMap<>();
+        stage.put("targetRate", rate);
+        stage.put("devices", settings.devices());
+        stage.put("sent", sent);
+        stage.put("publishFailed", failed);
+        stage.put("droppedByIngest", dropped);
+        stage.put("applied", appliedTotal);
+        stage.put("appliedRate", appliedRate);
+        stage.put("persisted", persistedTotal);
+        // Значения, перезаписанные следующим сообщением того же устройства до сброса в базу
+        stage.put("coalesced", Math.max(0, appliedTotal - persistedTotal));
+        stage.put("lostInBroker", Math.max(0, sent - appliedTotal - dropped));
+        stage.put("appliedLatencyMs", latency(applied));
+        stage.put("persistedLatencyMs", latency(persisted));
+        stage.put("gcCount", gcAfter[0] - gcBefore[0]);
+        stage.put("gcTimeMs", gcAfter[1] - gcBefore[1]);
+        stage.put("gcTimePercent", 100.0 * (gcAfter[1] - gcBefore[1]) / (elapsedSeconds * 1000));
+        stage.put("heapUsedMb", heap.getUsed() / (1024 * 1024));
+        stage.put("heapMaxMb", heap.getMax() / (1024 * 1024));
+        stage.put("cpuCores", cpuSeconds / elapsedSeconds);
+        stage.put("thingsBoardRequests", totalRequests(thingsBoard) - tbBefore);
+        stage.put("overloadReason", overloadReason);
+        return stage;
+    }
+
+    /**
+     * Ждёт, пока очередь приёма и хранилище состояний запишут всё полученное
+     * @return true если всё записано до истечения времени
+     */
+    private static boolean drain(IngestLatencyProbe probe, MqttStateIngestionService ingestion,
+                                 DeviceStateStore store, int timeoutSeconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        long lastPersisted = -1;
+        while (System.nanoTime() < deadline) {
+            long persisted = probe.getPersistedCount();
+            if (ingestion.getPendingCount() == 0 && store.getDirtyCount() == 0 && persisted == lastPersisted) {
+                return true;
+            }
+            lastPersisted = persisted;
+            Thread.sleep(250);
+        }
+        return false;
+    }
+
+    private static Map<String, Double> latency(Histogram histogram) {
+        Map<String, Double> result = new LinkedHashMap<>();
+        result.put("p50", histogram.getValueAtPercentile(50) / 1000.0);
+        result.put("p99", histogram.getValueAtPercentile(99) / 1000.0);
+        result.put("p999", histogram.getValueAtPercentile(99.9) / 1000.0);
+        result.put("max", histogram.getMaxValue() / 1000.0);
+        return result;
+    }
+
+    private static long[] gcTotals() {
+        long count = 0;
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] {count, time};
+    }
+
+    private static long processCpuNanos() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    private static long totalRequests(ThingsBoardStub thingsBoard) {
+        return thingsBoard.getRequestCounts().values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    private static void printHeader() {
+        System.out.printf("%n%8s %9s %9s %8s %8s %9s %9s %9s %9s %5s %7s %6s %5s  %s%n",
+                "rate", "sent", "applied/s", "dropped", "coalesc", "apply p50", "apply p99",
+                "store p50", "store p99", "gc", "gc ms", "heapMB", "cpu", "итог");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void printStage(Map<String, Object> stage) {
+        Map<String, Double> applied = (Map<String, Double>) stage.get("appliedLatencyMs");
+        Map<String, Double> persisted = (Map<String, Double>) stage.get("persistedLatencyMs");
+        Object reason = stage.get("overloadReason");
+        System.out.printf("%8.0f %9d %9.0f %8d %8d %9.1f %9.1f %9.1f %9.1f %5d %7d %6d %5.2f  %s%n",
+                stage.get("targetRate"), stage.get("sent"), stage.get("appliedRate"),
+                (long) stage.get("droppedByIngest") + (long) stage.get("publishFailed"), stage.get("coalesced"),
+                applied.get("p50"), applied.get("p99"), persisted.get("p50"), persisted.get("p99"),
+                stage.get("gcCount"), stage.get("gcTimeMs"), stage.get("heapUsedMb"), stage.get("cpuCores"),
+                reason != null ? "перегрузка: " + reason : "ok");
+    }
+
+    /**
+     * Параметры нагрузочного теста
+     */
+    record Settings(int devices, double[] rates, int stageSeconds, int warmupSeconds, int drainSeconds,
+                    int clients, int qos, long maxP99Ms, boolean continueAfterOverload,
+                    long tbLatencyMs, int tbThreads, int brokerQueueSize,
+                    String dbUrl, String dbUsername, @JsonIgnore String dbPassword, String args, String report) {
+
+        static Settings fromSystemProperties() {
+            Map<String, String> values = new HashMap<>();
+            System.getProperties().forEach((key, value) -> {
+                if (key.toString().startsWith("loadtest.")) {
+                    values.put(key.toString().substring("loadtest.".length()), value.toString());
+                }
+            });
+            return new Settings(
+                    Integer.parseInt(values.getOrDefault("devices", "1000")),
+                    Arrays.stream(values.getOrDefault("rates", "500,1000,2000,5000,10000").split(","))
+                            .map(String::trim).mapToDouble(Double::parseDouble).toArray(),
+                    Integer.parseInt(values.getOrDefault("stage-seconds", "30")),
+                    Integer.parseInt(values.getOrDefault("warmup-seconds", "10")),
+                    Integer.parseInt(values.getOrDefault("drain-seconds", "30")),
+                    Integer.parseInt(values.getOrDefault("clients", "16")),
+                    Integer.parseInt(values.getOrDefault("qos", "0")),
+                    Long.parseLong(values.getOrDefault("max-p99-ms", "2000")),
+                    Boolean.parseBoolean(values.getOrDefault("continue", "false")),
+                    Long.parseLong(values.getOrDefault("tb.latency-ms", "20")),
+                    Integer.parseInt(values.getOrDefault("tb.threads", "16")),
+                    Integer.parseInt(values.getOrDefault("broker.queue-size", "16384")),
+                    values.get("db.url"),
+                    values.get("db.username"),
+                    values.get("db.password"),
+                    values.getOrDefault("args", ""),
+                    values.getOrDefault("report", "build/reports/loadtest/report.json"));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.Smarthome.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Заглушка REST API ThingsBoard для нагрузочного теста
+ *
+ * Отвечает на запросы, которые выполняют синхронизация и опрос телеметрии:
+ * вход, атрибуты и телеметрия по токену устройства, серверные атрибуты, ключи и последние значения
+ * телеметрии. Каждый ответ задерживается на latencyMs, чтобы имитировать удалённый сервер.
+ * Количество запросов считается по маршрутам, чтобы было видно нагрузку приложения на ThingsBoard.
+ */
+class ThingsBoardStub implements AutoCloseable {
+
+    private static final List<String> TELEMETRY_KEYS = List.of("temperature", "humidity");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMs;
+
+    ThingsBoardStub(int threads, long latencyMs) throws IOException {
+        this.latencyMs = latencyMs;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Количество запросов по маршрутам с момента запуска
+     */
+    Map<String, Long> getRequestCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        requests.forEach((route, count) -> counts.put(route, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+
+            String route = route(method, path);
+            requests.computeIfAbsent(route, key -> new LongAdder()).increment();
+
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs);
+            }
+            respond(exchange, 200, objectMapper.writeValueAsBytes(response(route, body)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            respond(exchange, 500, new byte[0]);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Нормализованный маршрут без токенов и ID устройств
+     */
+    private static String route(String method, String path) {
+        String[] parts = path.split("/");
+        if (path.startsWith("/api/v1/") && parts.length > 4) {
+            return method + " /api/v1/{token}/" + parts[4];
+        }
+        if (path.startsWith("/api/plugins/telemetry/DEVICE/") && parts.length > 5) {
+            return method + " /api/plugins/telemetry/DEVICE/{id}/" + String.join("/", List.of(parts).subList(6, parts.length));
+        }
+        if (path.startsWith("/api/device/") && parts.length > 3 && !"credentials".equals(parts[3])) {
+            return method + " /api/device/{id}" + (parts.length > 4 ? "/" + parts[4] : "");
+        }
+        return method + " " + path;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object response(String route, byte[] body) throws IOException {
+        long now = System.currentTimeMillis();
+        switch (route) {
+            case "POST /api/auth/login" -> {
+                return Map.of("token", "loadtest-token", "refreshToken", "loadtest-refresh-token");
+            }
+            case "GET /api/v1/{token}/attributes" -> {
+                return Map.of("client", Map.of(), "shared", Map.of());
+            }
+            case "GET /api/plugins/telemetry/DEVICE/{id}/values/attributes/SERVER_SCOPE" -> {
+                return List.of();
+            }
+            case "GET /api/plugins/telemetry/DEVICE/{id}/keys/timeseries" -> {
+                return TELEMETRY_KEYS;
+            }
+            case "GET /api/plugins/telemetry/DEVICE/{id}/values/timeseries" -> {
+                Map<String, Object> values = new TreeMap<>();
+                for (String key : TELEMETRY_KEYS) {
+                    values.put(key, List.of(Map.of("ts", now, "value", randomValue())));
+                }
+                return values;
+            }
+            case "POST /api/entitiesQuery/find/keys" -> {
+                return Map.of("timeseries", TELEMETRY_KEYS, "attribute", List.of());
+            }
+            case "POST /api/entitiesQuery/find" -> {
+                // Последние значения для всех устройств из entityList запроса
+                Map<String, Object> query = objectMapper.readValue(body, Map.class);
+                Map<String, Object> filter = (Map<String, Object>) query.getOrDefault("entityFilter", Map.of());
+                List<Object> ids = (List<Object>) filter.getOrDefault("entityList", List.of());
+                List<Map<String, Object>> data = new ArrayList<>(ids.size());
+                for (Object id : ids) {
+                    Map<String, Object> timeseries = new TreeMap<>();
+                    for (String key : TELEMETRY_KEYS) {
+                        timeseries.put(key, Map.of("ts", now, "value", randomValue()));
+                    }
+                    data.add(Map.of(
+                            "entityId", Map.of("entityType", "DEVICE", "id", id.toString()),
+                            "latest", Map.of("TIME_SERIES", timeseries)));
+                }
+                return Map.of("data", data, "hasNext", false, "totalElements", data.size());
+            }
+            case "GET /api/tenant/devices" -> {
+                return Map.of("data", List.of(), "hasNext", false, "totalPages", 0, "totalElements", 0);
+            }
+            default -> {
+                return Map.of();
+            }
+        }
+    }
+
+    private static String randomValue() {
+        return String.format(Locale.ROOT, "%.1f", 20 + ThreadLocalRandom.current().nextDouble() * 5);
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -2,7 +2,6 @@ package com.example.Smarthome.config;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 import org.springframework.web.filter.CorsFilter;
@@ -10,14 +9,6 @@ import org.springframework.web.filter.CorsFilter;
 @Configuration
 public class AppConfig {
 
-    /**
-     * Настройка RestTemplate для HTTP запросов
-     */
-    @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
-    }
-    
     /**
      * Настройка CORS для возможности запросов с веб-интерфейса
      */
@@ -31,6 +22,9 @@ public class AppConfig {
         config.addAllowedOriginPattern("*");
         config.addAllowedHeader("*");
         config.addAllowedMethod("*");
+        // Заголовки постраничного чтения уведомлений должны быть доступны клиенту
+        config.addExposedHeader("X-Next-Cursor");
+        config.addExposedHeader("X-Unread-Count");
         
         source.registerCorsConfiguration("/**", config);
         return new CorsFilter(source);
@@ -0,0 +1,46 @@
+package com.example.Smarthome.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Конфигурация пула потоков для завершения команд устройствам
+ */
+@Configuration
+public class DeviceCommandConfig {
+
+    /**
+     * Пул, в котором после ответа адаптера записываются изменения свойств и собирается ответ
+     * на команду, пакет команд или сценарий. Отделён от пула синхронизации с ThingsBoard:
+     * медленный сервер ThingsBoard и импорт устройств не задерживают ответы на команды.
+     * При переполнении очереди завершение выполняется в потоке, получившем результат адаптера,
+     * поэтому результат выполненной команды не теряется
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService deviceCommandExecutor(@Value("${device.commands.completion-threads:4}") int threads,
+                                                 @Value("${device.commands.completion-queue-capacity:1000}") int queueCapacity,
+                                                 MeterRegistry meterRegistry) {
+        AtomicInteger counter = new AtomicInteger();
+        BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>(Math.max(1, queueCapacity));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue,
+                runnable -> {
+                    Thread thread = new Thread(runnable, "device-command-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        Gauge.builder("smarthome.device.commands.completion.queue", queue, BlockingQueue::size)
+                .description("Завершения команд, ожидающие свободного потока")
+                .register(meterRegistry);
+        return executor;
+    }
+}
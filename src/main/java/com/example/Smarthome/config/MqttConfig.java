@@ -1,6 +1,5 @@
 package com.example.Smarthome.config;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
@@ -59,7 +58,10 @@ public class MqttConfig {
                 new MqttPahoMessageDrivenChannelAdapter(clientId + "-inbound", mqttClientFactory(), 
                         stateTopic, discoveryTopic);
         adapter.setCompletionTimeout(5000);
-        adapter.setConverter(new DefaultPahoMessageConverter());
+        // Обработчик разбирает содержимое сообщения как байты
+        DefaultPahoMessageConverter converter = new DefaultPahoMessageConverter();
+        converter.setPayloadAsBytes(true);
+        adapter.setConverter(converter);
         adapter.setQos(1);
         adapter.setOutputChannel(mqttInputChannel());
         return adapter;
@@ -79,9 +81,4 @@ public class MqttConfig {
         }
         return client;
     }
-    
-    @Bean
-    public ObjectMapper objectMapper() {
-        return new ObjectMapper();
-    }
 } 
\ No newline at end of file
@@ -5,13 +5,20 @@ import com.example.Smarthome.model.Device;
 import com.example.Smarthome.model.DeviceStatus;
 import com.example.Smarthome.protocol.MqttProtocolAdapter;
 import com.example.Smarthome.service.DeviceService;
+import com.example.Smarthome.service.MqttStateIngestionService;
+import com.example.Smarthome.service.SampledLog;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.integration.annotation.ServiceActivator;
 import org.springframework.messaging.Message;
@@ -24,6 +31,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -41,13 +49,45 @@ public class MqttMessageHandler implements MessageHandler {
     
     @Autowired
     private MqttProtocolAdapter mqttProtocolAdapter;
-    
+
+    @Autowired
+    private MqttStateIngestionService stateIngestionService;
+
     @Autowired
     private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${logging.sampling.interval-ms:1000}")
+    private long samplingIntervalMs;
     
     // Паттерн для извлечения ID устройства из топика
     private final Pattern stateTopicPattern = Pattern.compile("smarthome/state/([^/]+)");
     private final Pattern discoveryTopicPattern = Pattern.compile("smarthome/discovery");
+
+    private Counter stateMessages;
+    private Counter discoveryMessages;
+    private Counter unknownTopicMessages;
+    private Counter parseErrors;
+    private Timer parseTimer;
+
+    // Сообщения о состоянии приходят непрерывно, поэтому журналируются не чаще раза в интервал на устройство
+    private SampledLog sampledLog;
+
+    @PostConstruct
+    public void init() {
+        sampledLog = new SampledLog(log, samplingIntervalMs);
+        stateMessages = messageCounter("state");
+        discoveryMessages = messageCounter("discovery");
+        unknownTopicMessages = messageCounter("unknown");
+        parseErrors = Counter.builder("smarthome.mqtt.parse.errors")
+                .description("Сообщения о состоянии с некорректным JSON")
+                .register(meterRegistry);
+        parseTimer = Timer.builder("smarthome.mqtt.parse")
+                .description("Разбор JSON сообщения о состоянии устройства")
+                .register(meterRegistry);
+    }
     
     @Override
     @ServiceActivator(inputChannel = "mqttInputChannel")
@@ -56,8 +96,6 @@ public class MqttMessageHandler implements MessageHandler {
             String topic = (String) message.getHeaders().get("mqtt_receivedTopic");
             String payload = new String((byte[]) message.getPayload());
             
-            log.debug("Получено MQTT сообщение: тема={}, содержимое={}", topic, payload);
-            
             if (topic == null) {
                 return;
             }
@@ -65,6 +103,7 @@ public class MqttMessageHandler implements MessageHandler {
             // Обработка сообщений о состоянии устройств
             Matcher stateMatcher = stateTopicPattern.matcher(topic);
             if (stateMatcher.matches()) {
+                stateMessages.increment();
                 String deviceId = stateMatcher.group(1);
                 handleStateMessage(UUID.fromString(deviceId), payload);
                 return;
@@ -73,56 +112,58 @@ public class MqttMessageHandler implements MessageHandler {
             // Обработка сообщений обнаружения
             Matcher discoveryMatcher = discoveryTopicPattern.matcher(topic);
             if (discoveryMatcher.matches()) {
+                discoveryMessages.increment();
+                log.debug("Получено сообщение обнаружения: {}", payload);
                 handleDiscoveryMessage(payload);
                 return;
             }
             
-            log.warn("Получено сообщение с неизвестной темой: {}", topic);
+            unknownTopicMessages.increment();
+            sampledLog.atWarn(topic).log("Получено сообщение с неизвестной темой: {}", topic);
             
         } catch (Exception e) {
-            log.error("Ошибка при обработке MQTT сообщения: {}", e.getMessage(), e);
+            sampledLog.atError(e.getClass()).setCause(e)
+                    .log("Ошибка при обработке MQTT сообщения: {}", e.getMessage());
         }
     }
     
     /**
      * Обрабатывает сообщение о состоянии устройства
+     * Запись в базу выполняется асинхронно конвейером приёма состояний,
+     * поток клиента MQTT только разбирает сообщение и ставит его в очередь
      */
     private void handleStateMessage(UUID deviceId, String payload) {
+        long start = System.nanoTime();
         try {
             // Парсим JSON со свойствами устройства
-            Map<String, String> properties = objectMapper.readValue(payload, 
+            Map<String, String> properties = objectMapper.readValue(payload,
                     new TypeReference<Map<String, String>>() {});
-            
-            // Получаем устройство из базы данных
-            Optional<Device> deviceOpt = deviceService.getDeviceById(deviceId);
-            
-            if (deviceOpt.isPresent()) {
-                Device device = deviceOpt.get();
-                
-                // Обновляем статус и время последнего ответа
-                device.setStatus(DeviceStatus.ONLINE);
-                device.setLastSeen(LocalDateTime.now());
-                
-                // Обновляем свойства в кэше и в устройстве
-                mqttProtocolAdapter.updateDeviceProperties(deviceId.toString(), properties);
-                
-                // Обновляем свойства устройства
-                for (Map.Entry<String, String> entry : properties.entrySet()) {
-                    device.getProperties().put(entry.getKey(), entry.getValue());
-                }
-                
-                // Сохраняем обновленное устройство
-                deviceService.saveDevice(device);
-                
-                log.debug("Обновлены свойства устройства {}: {}", device.getName(), properties);
-            } else {
-                log.warn("Получено сообщение от неизвестного устройства с ID: {}", deviceId);
+            parseTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            // Обновляем свойства в кэше адаптера
+            mqttProtocolAdapter.updateDeviceProperties(deviceId.toString(), properties);
+
+            // Передаём обновление в конвейер пакетной записи
+            if (stateIngestionService.submit(deviceId, properties)) {
+                sampledLog.atDebug(deviceId)
+                        .addKeyValue("device", deviceId)
+                        .log("Обновление свойств устройства {} поставлено в очередь: {}", deviceId, properties);
             }
         } catch (JsonProcessingException e) {
-            log.error("Ошибка при разборе JSON состояния устройства: {}", e.getMessage(), e);
+            parseErrors.increment();
+            sampledLog.atError(deviceId)
+                    .addKeyValue("device", deviceId)
+                    .log("Ошибка при разборе JSON состояния устройства {}: {}", deviceId, e.getOriginalMessage());
         }
     }
     
+    private Counter messageCounter(String type) {
+        return Counter.builder("smarthome.mqtt.messages")
+                .description("Входящие MQTT сообщения по типу темы")
+                .tag("type", type)
+                .register(meterRegistry);
+    }
+    
     /**
      * Обрабатывает сообщение обнаружения устройства (для автоматической регистрации)
      */
@@ -0,0 +1,156 @@
+package com.example.Smarthome.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * HTTP-клиент для обращений к ThingsBoard
+ *
+ * По умолчанию используется Apache HttpClient с пулом постоянных соединений,
+ * что избавляет каждый запрос от установки TCP/TLS соединения.
+ * При thingsboard.http.client=jdk используется HttpClient из JDK с поддержкой HTTP/2
+ * (одно мультиплексированное соединение, статистика пула в этом режиме недоступна).
+ */
+@Configuration
+@Slf4j
+public class ThingsBoardHttpClientConfig {
+
+    @Value("${thingsboard.http.client:apache}")
+    private String clientType;
+
+    @Value("${thingsboard.http.max-connections:50}")
+    private int maxConnections;
+
+    @Value("${thingsboard.http.max-connections-per-route:20}")
+    private int maxConnectionsPerRoute;
+
+    @Value("${thingsboard.http.connect-timeout-ms:3000}")
+    private long connectTimeoutMs;
+
+    @Value("${thingsboard.http.read-timeout-ms:10000}")
+    private long readTimeoutMs;
+
+    @Value("${thingsboard.http.pool-wait-timeout-ms:2000}")
+    private long poolWaitTimeoutMs;
+
+    @Value("${thingsboard.http.keep-alive-ms:60000}")
+    private long keepAliveMs;
+
+    @Bean
+    public ThingsBoardHttpMetrics thingsBoardHttpMetrics(MeterRegistry meterRegistry) {
+        return new ThingsBoardHttpMetrics(isJdkClient() ? "jdk-http2" : "apache-pooled", meterRegistry);
+    }
+
+    /**
+     * RestTemplate для всех запросов к ThingsBoard
+     */
+    @Bean
+    public RestTemplate thingsBoardRestTemplate(ThingsBoardHttpMetrics metrics) {
+        ClientHttpRequestFactory requestFactory = isJdkClient()
+                ? jdkRequestFactory()
+                : pooledRequestFactory(metrics);
+
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        restTemplate.getInterceptors().add(metrics);
+        log.info("HTTP-клиент ThingsBoard: {}, таймауты подключения/чтения {}/{} мс",
+                clientType, connectTimeoutMs, readTimeoutMs);
+        return restTemplate;
+    }
+
+    private boolean isJdkClient() {
+        return "jdk".equalsIgnoreCase(clientType);
+    }
+
+    private ClientHttpRequestFactory jdkRequestFactory() {
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(httpClient);
+        factory.setReadTimeout(Duration.ofMillis(readTimeoutMs));
+        return factory;
+    }
+
+    private ClientHttpRequestFactory pooledRequestFactory(ThingsBoardHttpMetrics metrics) {
+        PoolingHttpClientConnectionManager connectionManager = new MeasuredConnectionManager(metrics);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        connectionManager.setDefaultConnectionConfig(ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                .setValidateAfterInactivity(TimeValue.ofSeconds(10))
+                .build());
+        metrics.setPoolStats(connectionManager::getTotalStats);
+
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(poolWaitTimeoutMs))
+                        .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .build())
+                .setKeepAliveStrategy((response, context) -> TimeValue.ofMilliseconds(keepAliveMs))
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(keepAliveMs))
+                .build();
+
+        return new HttpComponentsClientHttpRequestFactory(httpClient);
+    }
+
+    /**
+     * Пул соединений, измеряющий время ожидания свободного соединения
+     */
+    private static class MeasuredConnectionManager extends PoolingHttpClientConnectionManager {
+
+        private final ThingsBoardHttpMetrics metrics;
+
+        MeasuredConnectionManager(ThingsBoardHttpMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public LeaseRequest lease(String id, HttpRoute route, Timeout requestTimeout, Object state) {
+            long start = System.nanoTime();
+            LeaseRequest delegate = super.lease(id, route, requestTimeout, state);
+            return new LeaseRequest() {
+                @Override
+                public ConnectionEndpoint get(Timeout timeout)
+                        throws InterruptedException, ExecutionException, TimeoutException {
+                    try {
+                        return delegate.get(timeout);
+                    } finally {
+                        metrics.recordLeaseWait(System.nanoTime() - start);
+                    }
+                }
+
+                @Override
+                public boolean cancel() {
+                    return delegate.cancel();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.Smarthome.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.hc.core5.pool.PoolStats;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Метрики HTTP-клиента ThingsBoard: количество и длительность запросов,
+ * а также состояние пула соединений (если клиент его предоставляет)
+ *
+ * Помимо сводки для /api/sync/http-metrics запросы публикуются в Micrometer как таймер
+ * smarthome.thingsboard.http с тегами метода, адреса и исхода. В адресе токены и ID устройств
+ * заменяются шаблонами, чтобы количество рядов не росло с количеством устройств.
+ */
+public class ThingsBoardHttpMetrics implements ClientHttpRequestInterceptor {
+
+    private static final Pattern UUID_SEGMENT = Pattern.compile(
+            "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+    private final String clientType;
+    private final MeterRegistry meterRegistry;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    private final LongAdder leases = new LongAdder();
+    private final LongAdder totalLeaseWaitNanos = new LongAdder();
+
+    private volatile Supplier<PoolStats> poolStats;
+
+    private final Timer leaseWaitTimer;
+
+    public ThingsBoardHttpMetrics(String clientType, MeterRegistry meterRegistry) {
+        this.clientType = clientType;
+        this.meterRegistry = meterRegistry;
+        this.leaseWaitTimer = Timer.builder("smarthome.thingsboard.http.pool.wait")
+                .description("Ожидание свободного соединения в пуле")
+                .tag("client", clientType)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        String outcome = "IO_ERROR";
+        try {
+            ClientHttpResponse response = execution.execute(request, body);
+            failed = response.getStatusCode().is5xxServerError();
+            outcome = response.getStatusCode().value() / 100 + "xx";
+            return response;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            requests.increment();
+            totalLatencyNanos.add(elapsed);
+            maxLatencyNanos.accumulateAndGet(elapsed, Math::max);
+            if (failed) {
+                errors.increment();
+            }
+            Timer.builder("smarthome.thingsboard.http")
+                    .description("Запросы к ThingsBoard")
+                    .tag("method", request.getMethod().name())
+                    .tag("endpoint", endpoint(request.getURI()))
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(elapsed, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Учитывает время ожидания свободного соединения в пуле
+     * @param waitNanos Время ожидания в наносекундах
+     */
+    public void recordLeaseWait(long waitNanos) {
+        leases.increment();
+        totalLeaseWaitNanos.add(waitNanos);
+        leaseWaitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Подключает источник статистики пула соединений
+     * @param poolStats Поставщик статистики пула
+     */
+    public void setPoolStats(Supplier<PoolStats> poolStats) {
+        this.poolStats = poolStats;
+        poolGauge("leased", PoolStats::getLeased);
+        poolGauge("pending", PoolStats::getPending);
+        poolGauge("available", PoolStats::getAvailable);
+        poolGauge("max", PoolStats::getMax);
+    }
+
+    /**
+     * Возвращает текущие значения метрик
+     * @return Карта метрик
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        long count = requests.sum();
+        long leaseCount = leases.sum();
+
+        snapshot.put("client", clientType);
+        snapshot.put("requests", count);
+        snapshot.put("errors", errors.sum());
+        snapshot.put("avgLatencyMs", count > 0 ? toMillis(totalLatencyNanos.sum() / (double) count) : 0.0);
+        snapshot.put("maxLatencyMs", toMillis(maxLatencyNanos.get()));
+
+        Supplier<PoolStats> stats = poolStats;
+        if (stats != null) {
+            PoolStats pool = stats.get();
+            snapshot.put("leased", pool.getLeased());
+            snapshot.put("pending", pool.getPending());
+            snapshot.put("available", pool.getAvailable());
+            snapshot.put("max", pool.getMax());
+            snapshot.put("avgLeaseWaitMs", leaseCount > 0 ? toMillis(totalLeaseWaitNanos.sum() / (double) leaseCount) : 0.0);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Приводит адрес запроса к шаблону: без строки запроса, токен устройства и UUID заменены
+     * @param uri Адрес запроса
+     * @return Шаблон адреса, например /api/plugins/telemetry/DEVICE/{id}/values/timeseries
+     */
+    static String endpoint(URI uri) {
+        String[] segments = uri.getPath().split("/");
+        StringBuilder endpoint = new StringBuilder();
+        for (int i = 1; i < segments.length; i++) {
+            String segment = segments[i];
+            if (i == 3 && "api".equals(segments[1]) && "v1".equals(segments[2])) {
+                segment = "{token}";
+            } else if (UUID_SEGMENT.matcher(segment).matches()) {
+                segment = "{id}";
+            }
+            endpoint.append('/').append(segment);
+        }
+        return endpoint.isEmpty() ? "/" : endpoint.toString();
+    }
+
+    private void poolGauge(String state, ToDoubleFunction<PoolStats> value) {
+        Gauge.builder("smarthome.thingsboard.http.pool", this, metrics -> {
+                    Supplier<PoolStats> stats = metrics.poolStats;
+                    return stats != null ? value.applyAsDouble(stats.get()) : Double.NaN;
+                })
+                .description("Состояние пула соединений с ThingsBoard")
+                .tag("state", state)
+                .register(meterRegistry);
+    }
+
+    private static double toMillis(double nanos) {
+        return Math.round(nanos / TimeUnit.MILLISECONDS.toNanos(1) * 100.0) / 100.0;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.Smarthome.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Конфигурация пула потоков для опроса ThingsBoard
+ */
+@Configuration
+public class ThingsBoardSyncConfig {
+
+    /**
+     * Пул потоков, в котором выполняются запросы синхронизации отдельных устройств
+     * Число одновременных запросов к серверу дополнительно ограничивается
+     * параметром thingsboard.sync.concurrency
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService thingsBoardSyncExecutor(@Value("${thingsboard.sync.pool-size:8}") int poolSize) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "tb-sync-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Пул отправки изменений, сделанных командами, в ThingsBoard
+     * Очередь ограничена: при переполнении отправка отклоняется, изменения попадут
+     * в ThingsBoard при следующей периодической синхронизации (thingsboard.sync.interval)
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService thingsBoardPushExecutor(@Value("${thingsboard.push.threads:2}") int threads,
+                                                   @Value("${thingsboard.push.queue-capacity:500}") int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "tb-push-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(Math.max(1, queueCapacity)), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.Smarthome.controller;
 
 import com.example.Smarthome.dto.AvailableDeviceDto;
+import com.example.Smarthome.dto.DeviceCommandBatchRequest;
 import com.example.Smarthome.dto.DeviceCommandRequest;
 import com.example.Smarthome.dto.DeviceDto;
 import com.example.Smarthome.dto.DeviceRegistrationRequest;
@@ -9,23 +10,38 @@ import com.example.Smarthome.model.Device;
 import com.example.Smarthome.model.DeviceStatus;
 import com.example.Smarthome.model.Location;
 import com.example.Smarthome.model.Room;
+import com.example.Smarthome.service.DeviceChangeTracker;
+import com.example.Smarthome.service.DeviceCommandBatchService;
+import com.example.Smarthome.service.DeviceEventPublisher;
+import com.example.Smarthome.service.DeviceReadModel;
+import com.example.Smarthome.service.DeviceRefreshService;
 import com.example.Smarthome.service.DeviceService;
+import com.example.Smarthome.service.DeviceStateStore;
+import com.example.Smarthome.service.DeviceStreamService;
 import com.example.Smarthome.service.LocationService;
-import com.example.Smarthome.service.ProtocolAdapterService;
 import com.example.Smarthome.service.ThingsBoardIntegrationService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 
 @RestController
 @RequestMapping("/api/devices")
@@ -34,42 +50,98 @@ import java.util.HashMap;
 public class DeviceController {
 
     private final DeviceService deviceService;
-    private final ProtocolAdapterService protocolAdapterService;
     private final ThingsBoardIntegrationService thingsBoardService;
     private final LocationService locationService;
+    private final DeviceStreamService deviceStreamService;
+    private final DeviceChangeTracker deviceChangeTracker;
+    private final DeviceEventPublisher deviceEventPublisher;
+    private final DeviceReadModel deviceReadModel;
+    private final DeviceRefreshService deviceRefreshService;
+    private final DeviceCommandBatchService deviceCommandBatchService;
+    private final DeviceStateStore deviceStateStore;
+    private final ExecutorService deviceCommandExecutor;
+
+    @Value("${device.commands.batch-max-size:200}")
+    private int batchMaxSize;
 
     /**
      * Получение списка всех устройств
+     * Ответ собирается из готового JSON устройств и снабжается ETag с номером последнего изменения,
+     * повторный запрос с If-None-Match при отсутствии изменений получает 304 без тела.
+     * ETag слабый: время последнего ответа устройства без смены статуса публикуется не чаще
+     * раза в device.events.last-seen-granularity-ms, поэтому при одинаковом номере изменения
+     * lastSeen в теле может отличаться
+     */
+    @GetMapping(params = "!since")
+    public ResponseEntity<byte[]> getAllDevices(WebRequest request) {
+        if (request.checkNotModified(listETag(deviceEventPublisher.getCompletedSeq()))) {
+            return null;
+        }
+
+        DeviceReadModel.CachedList devices = deviceReadModel.getAllDevicesJson();
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(listETag(devices.seq()))
+                .body(devices.json());
+    }
+
+    private String listETag(long seq) {
+        return "W/\"" + deviceEventPublisher.formatEventId(seq) + "\"";
+    }
+
+    /**
+     * Получение изменений списка устройств с момента предыдущего запроса
+     * @param since Значение seq из предыдущего ответа
+     * @return изменённые и удалённые устройства; если изменения с указанного момента
+     * неизвестны, возвращается полный список с признаком full=true
      */
-    @GetMapping
-    public ResponseEntity<List<DeviceDto>> getAllDevices() {
-        List<Device> devices = deviceService.getAllDevices();
-        List<DeviceDto> deviceDtos = devices.stream()
-                .map(this::convertToDto)
-                .collect(Collectors.toList());
-        return ResponseEntity.ok(deviceDtos);
+    @GetMapping(params = "since")
+    public ResponseEntity<Map<String, Object>> getDeviceChanges(@RequestParam String since) {
+        Optional<DeviceChangeTracker.ChangeSet> changes =
+                deviceChangeTracker.getChangesSince(deviceEventPublisher.parseEventId(since));
+
+        Map<String, Object> response = new HashMap<>();
+        if (changes.isPresent()) {
+            DeviceChangeTracker.ChangeSet changeSet = changes.get();
+            List<DeviceDto> changed = deviceReadModel.getDevices(changeSet.changed());
+            response.put("seq", deviceEventPublisher.formatEventId(changeSet.seq()));
+            response.put("full", false);
+            response.put("changed", changed);
+            response.put("deleted", changeSet.deleted());
+        } else {
+            long seq = deviceEventPublisher.getCompletedSeq();
+            List<DeviceDto> devices = deviceService.getAllDevices().stream()
+                    .map(deviceReadModel::toDto)
+                    .collect(Collectors.toList());
+            response.put("seq", deviceEventPublisher.formatEventId(seq));
+            response.put("full", true);
+            response.put("changed", devices);
+            response.put("deleted", List.of());
+        }
+        return ResponseEntity.ok(response);
     }
 
     /**
      * Получение информации об устройстве по ID
+     * Возвращается последнее известное состояние, свойства из адаптера протокола
+     * обновляются в фоне и придут клиенту следующим чтением или через поток изменений
      */
     @GetMapping("/{id}")
-    public ResponseEntity<DeviceDto> getDevice(@PathVariable UUID id) {
-        Device device = deviceService.getDeviceById(id)
+    public ResponseEntity<byte[]> getDevice(@PathVariable UUID id) {
+        byte[] json = deviceReadModel.getDeviceJson(id)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, 
                         "Устройство с ID " + id + " не найдено"));
         
-        // Получаем актуальные свойства
-        Map<String, String> currentProperties = protocolAdapterService.getDeviceProperties(device);
-        if (!currentProperties.isEmpty()) {
-            // Обновляем свойства в устройстве
-            for (Map.Entry<String, String> entry : currentProperties.entrySet()) {
-                device.getProperties().put(entry.getKey(), entry.getValue());
-            }
-            deviceService.saveDevice(device);
-        }
-        
-        return ResponseEntity.ok(convertToDto(device));
+        deviceRefreshService.requestRefresh(id);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(json);
+    }
+
+    /**
+     * Показатели кэша представления устройств
+     */
+    @GetMapping("/read-model/stats")
+    public ResponseEntity<Map<String, Object>> getReadModelStats() {
+        return ResponseEntity.ok(deviceReadModel.getStats());
     }
 
     /**
@@ -183,7 +255,7 @@ public class DeviceController {
                 }
             }
             
-            return ResponseEntity.status(HttpStatus.CREATED).body(convertToDto(savedDevice));
+            return ResponseEntity.status(HttpStatus.CREATED).body(deviceReadModel.toDto(savedDevice));
         } catch (Exception e) {
             log.error("Ошибка при регистрации устройства: {}", e.getMessage(), e);
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, 
@@ -244,7 +316,7 @@ public class DeviceController {
             }
         }
         
-        return ResponseEntity.ok(convertToDto(updatedDevice));
+        return ResponseEntity.ok(deviceReadModel.toDto(updatedDevice));
     }
 
     /**
@@ -263,9 +335,10 @@ public class DeviceController {
 
     /**
      * Отправка команды на устройство
+     * Ответ формируется после завершения вызова адаптера, не занимая поток запроса
      */
     @PostMapping("/{id}/command")
-    public ResponseEntity<Map<String, Object>> sendCommand(@PathVariable UUID id, 
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> sendCommand(@PathVariable UUID id, 
                                                         @RequestBody DeviceCommandRequest request) {
         Device device = deviceService.getDeviceById(id)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, 
@@ -329,7 +402,7 @@ public class DeviceController {
                     "properties", finalDevice.getProperties()
             );
             
-            return ResponseEntity.ok(response);
+            return CompletableFuture.completedFuture(ResponseEntity.ok(response));
         }
         
         // Стандартная обработка для других команд
@@ -408,38 +481,87 @@ public class DeviceController {
             }
         }
         
-        // Отправляем только обычные параметры на устройство
-        boolean success = true;
-        if (!deviceParameters.isEmpty()) {
-            success = deviceService.sendCommandToDevice(id, request.getCommand(), deviceParameters);
-            
-            if (!success) {
-                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, 
-                        "Ошибка при отправке команды на устройство");
-            }
-            
-            // Для команды setState сразу обновляем свойства устройства в базе данных
-            if ("setState".equals(request.getCommand())) {
-                deviceParameters.forEach((key, value) -> 
-                    deviceService.updateDeviceProperty(id, key, value));
-                
-                // Получаем обновленное устройство
-                device = deviceService.getDeviceById(id).orElseThrow();
-            }
+        // Без обычных параметров обращаться к устройству не нужно
+        if (deviceParameters.isEmpty()) {
+            return CompletableFuture.completedFuture(ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "device_id", id.toString(),
+                    "command", request.getCommand(),
+                    "parameters", request.getParameters(),
+                    "properties", device.getProperties()
+            )));
         }
         
-        // Возвращаем обновленные свойства устройства
-        Map<String, String> updatedProperties = device.getProperties();
-        
-        Map<String, Object> response = Map.of(
-                "success", success,
-                "device_id", id.toString(),
-                "command", request.getCommand(),
-                "parameters", request.getParameters(),
-                "properties", updatedProperties
-        );
+        // Отправляем только обычные параметры на устройство; поток запроса не ждёт ответа адаптера.
+        // Обновление свойств обращается к базе и ThingsBoard, поэтому выполняется не в потоках
+        // обработки результатов адаптеров, а в отдельном пуле завершения команд
+        return deviceService.sendCommandToDeviceAsync(device, request.getCommand(), deviceParameters)
+                .thenApplyAsync(success -> {
+                    if (!success) {
+                        throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, 
+                                "Ошибка при отправке команды на устройство");
+                    }
+                    
+                    // Для команды setState сразу обновляем свойства устройства одной операцией
+                    Map<String, String> updatedProperties = device.getProperties();
+                    if ("setState".equals(request.getCommand())) {
+                        deviceService.updateDeviceProperties(id, deviceParameters);
+                        updatedProperties = deviceStateStore.getProperties(id).orElse(updatedProperties);
+                    }
+                    
+                    // Возвращаем обновленные свойства устройства
+                    Map<String, Object> response = Map.of(
+                            "success", true,
+                            "device_id", id.toString(),
+                            "command", request.getCommand(),
+                            "parameters", request.getParameters(),
+                            "properties", updatedProperties
+                    );
+                    
+                    return ResponseEntity.ok(response);
+                }, deviceCommandExecutor);
+    }
+
+    /**
+     * Пакетная отправка команд на несколько устройств
+     * Команды выполняются параллельно, изменения свойств записываются одной транзакцией.
+     * Ошибка одной команды не отменяет остальные: результат возвращается для каждой команды
+     */
+    @PostMapping("/commands:batch")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> sendCommandBatch(
+            @RequestBody DeviceCommandBatchRequest request) {
+        List<DeviceCommandBatchRequest.Item> commands = request.getCommands();
+        if (commands == null || commands.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Список команд пуст");
+        }
+        if (commands.size() > batchMaxSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, 
+                    "Слишком много команд в пакете: " + commands.size() + ", допустимо " + batchMaxSize);
+        }
         
-        return ResponseEntity.ok(response);
+        return deviceCommandBatchService.execute(commands).thenApply(results -> {
+            List<Map<String, Object>> items = new ArrayList<>(results.size());
+            int succeeded = 0;
+            for (DeviceCommandBatchService.CommandResult result : results) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("device_id", result.deviceId() != null ? result.deviceId().toString() : null);
+                item.put("command", result.command());
+                item.put("success", result.success());
+                if (result.success()) {
+                    item.put("properties", result.properties());
+                    succeeded++;
+                } else {
+                    item.put("error", result.error());
+                }
+                items.add(item);
+            }
+            
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("succeeded", succeeded);
+            response.put("failed", results.size() - succeeded);
+            response.put("results", items);
+            return ResponseEntity.ok(response);
+        });
     }
 
     /**
@@ -509,55 +631,29 @@ public class DeviceController {
     }
 
     /**
-     * Получение списка доступных устройств из ThingsBoard
+     * Поток изменений состояния устройств (Server-Sent Events)
+     * При переподключении браузер передаёт заголовок Last-Event-ID, вместо него можно указать параметр since
      */
-    @GetMapping("/available-devices")
-    public ResponseEntity<List<AvailableDeviceDto>> getAvailableDevices() {
-        List<AvailableDeviceDto> devices = thingsBoardService.getAvailableDevices();
-        return ResponseEntity.ok(devices);
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamDevices(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                    @RequestParam(required = false) String since) {
+        return deviceStreamService.subscribe(lastEventId != null ? lastEventId : since);
     }
 
     /**
-     * Конвертация модели устройства в DTO
+     * Получение списка доступных устройств из ThingsBoard
      */
-    private DeviceDto convertToDto(Device device) {
-        DeviceDto dto = new DeviceDto();
-        dto.setId(device.getId());
-        dto.setName(device.getName());
-        dto.setType(device.getType());
-        
-        // Добавляем категорию и подтип устройства
-        dto.setCategory(device.getCategory());
-        dto.setSubType(device.getSubType());
-        
-        dto.setProtocol(device.getProtocol().name());
-        dto.setStatus(device.getStatus().name());
-        dto.setConnectionParams(device.getConnectionParams());
-        dto.setLastSeen(device.getLastSeen());
-        dto.setProperties(device.getProperties());
-        dto.setCapabilities(device.getCapabilities());
-        dto.setManufacturer(device.getManufacturer());
-        dto.setModel(device.getModel());
-        dto.setFirmwareVersion(device.getFirmwareVersion());
-        dto.setThingsboardToken(device.getThingsboardToken());
-        dto.setThingsboardId(device.getThingsboardDeviceId());
-        
-        // Добавляем атрибуты
-        dto.setAttributes(device.getAttributes());
-        
-        if (device.getRoom() != null) {
-            dto.setRoomId(device.getRoom().getId());
-            dto.setRoomName(device.getRoom().getName());
-        }
-        
-        if (device.getLocation() != null) {
-            dto.setLocationId(device.getLocation().getId());
-            dto.setLocationName(device.getLocation().getName());
+    @GetMapping("/available-devices")
+    public ResponseEntity<List<AvailableDeviceDto>> getAvailableDevices() {
+        try {
+            List<AvailableDeviceDto> devices = thingsBoardService.getAvailableDevices();
+            return ResponseEntity.ok(devices);
+        } catch (IllegalStateException e) {
+            // Неполный список выдавался бы за полный, поэтому сообщаем об ошибке ThingsBoard
+            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, e.getMessage());
         }
-        
-        return dto;
     }
-    
+
     /**
      * Метод для автоматического добавления базовых свойств устройству в зависимости от категории и типа
      */
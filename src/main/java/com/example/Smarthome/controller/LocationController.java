@@ -7,6 +7,7 @@ import com.example.Smarthome.model.Location;
 import com.example.Smarthome.model.Room;
 import com.example.Smarthome.repository.DeviceRepository;
 import com.example.Smarthome.repository.RoomRepository;
+import com.example.Smarthome.service.DeviceService;
 import com.example.Smarthome.service.LocationService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -28,6 +29,7 @@ public class LocationController {
     private final LocationService locationService;
     private final RoomRepository roomRepository;
     private final DeviceRepository deviceRepository;
+    private final DeviceService deviceService;
 
     /**
      * Получение списка всех локаций
@@ -85,6 +87,7 @@ public class LocationController {
         location.setLongitude(locationDto.getLongitude());
         
         Location updatedLocation = locationService.saveLocation(location);
+        deviceService.notifyDevicesChanged(deviceRepository.findByLocation(updatedLocation));
         return ResponseEntity.ok(convertToDto(updatedLocation));
     }
 
@@ -105,7 +108,7 @@ public class LocationController {
         
         for (Device device : devices) {
             device.setLocation(null);
-            deviceRepository.save(device);
+            deviceService.saveDevice(device);
         }
         
         locationService.deleteLocation(id);
@@ -178,6 +181,7 @@ public class LocationController {
         room.setArea(roomDto.getArea());
         
         Room updatedRoom = roomRepository.save(room);
+        deviceService.notifyDevicesChanged(deviceRepository.findByRoom(updatedRoom));
         return ResponseEntity.ok(convertToRoomDto(updatedRoom));
     }
 
@@ -207,7 +211,7 @@ public class LocationController {
         List<Device> devices = deviceRepository.findByRoom(room);
         for (Device device : devices) {
             device.setRoom(null);
-            deviceRepository.save(device);
+            deviceService.saveDevice(device);
         }
         
         roomRepository.deleteById(roomId);
@@ -0,0 +1,136 @@
+package com.example.Smarthome.controller;
+
+import com.example.Smarthome.dto.NotificationDto;
+import com.example.Smarthome.model.Notification;
+import com.example.Smarthome.model.NotificationType;
+import com.example.Smarthome.service.NotificationService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@RestController
+@RequestMapping("/api/notifications")
+@RequiredArgsConstructor
+@Slf4j
+public class NotificationController {
+
+    private final NotificationService notificationService;
+
+    @Value("${notifications.page.max-size:200}")
+    private int maxPageSize;
+
+    /**
+     * Получение страницы уведомлений от новых к старым
+     * Курсор следующей страницы передаётся в заголовке X-Next-Cursor (отсутствует на последней странице),
+     * количество непрочитанных - в заголовке X-Unread-Count
+     */
+    @GetMapping
+    public ResponseEntity<List<NotificationDto>> getNotifications(
+            @RequestParam(defaultValue = "all") String status,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) Long before,
+            @RequestParam(defaultValue = "50") int limit) {
+        Boolean read = switch (status) {
+            case "all" -> null;
+            case "read" -> true;
+            case "unread" -> false;
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Неизвестный статус: " + status);
+        };
+        NotificationType notificationType = null;
+        if (type != null) {
+            try {
+                notificationType = NotificationType.valueOf(type.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Неизвестный тип уведомления: " + type);
+            }
+        }
+
+        NotificationService.Page page = notificationService.getPage(read, notificationType, before,
+                Math.max(1, Math.min(limit, maxPageSize)));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header("X-Unread-Count", String.valueOf(notificationService.getUnreadCount()));
+        if (page.nextCursor() != null) {
+            response.header("X-Next-Cursor", String.valueOf(page.nextCursor()));
+        }
+        return response.body(page.items().stream().map(this::convertToDto).collect(Collectors.toList()));
+    }
+
+    /**
+     * Количество непрочитанных уведомлений
+     */
+    @GetMapping("/unread-count")
+    public ResponseEntity<Map<String, Object>> getUnreadCount() {
+        return ResponseEntity.ok(Map.of("count", notificationService.getUnreadCount()));
+    }
+
+    /**
+     * Показатели очереди уведомлений
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> getStats() {
+        return ResponseEntity.ok(notificationService.getStats());
+    }
+
+    /**
+     * Пометить уведомление прочитанным
+     */
+    @PutMapping("/{id}/read")
+    public ResponseEntity<Map<String, Object>> markAsRead(@PathVariable long id) {
+        boolean changed = notificationService.markRead(id);
+        Map<String, Object> response = new HashMap<>();
+        response.put("id", id);
+        response.put("read", true);
+        response.put("changed", changed);
+        response.put("unreadCount", notificationService.getUnreadCount());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Пометить прочитанными все уведомления
+     */
+    @PutMapping("/mark-all-read")
+    public ResponseEntity<Map<String, Object>> markAllAsRead() {
+        int updated = notificationService.markAllRead();
+        return ResponseEntity.ok(Map.of("updated", updated, "unreadCount", notificationService.getUnreadCount()));
+    }
+
+    /**
+     * Удаление уведомления
+     */
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> deleteNotification(@PathVariable long id) {
+        if (!notificationService.delete(id)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Уведомление с ID " + id + " не найдено");
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Удаление всех уведомлений
+     */
+    @DeleteMapping
+    public ResponseEntity<Map<String, Object>> deleteAll() {
+        return ResponseEntity.ok(Map.of("deleted", notificationService.deleteAll()));
+    }
+
+    private NotificationDto convertToDto(Notification notification) {
+        NotificationDto dto = new NotificationDto();
+        dto.setId(notification.getId());
+        dto.setType(notification.getType().name().toLowerCase());
+        dto.setTitle(notification.getTitle());
+        dto.setMessage(notification.getMessage());
+        dto.setDeviceId(notification.getDeviceId());
+        dto.setRead(notification.isRead());
+        dto.setTimestamp(notification.getCreatedAt());
+        return dto;
+    }
+}
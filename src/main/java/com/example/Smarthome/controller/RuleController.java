@@ -0,0 +1,153 @@
+package com.example.Smarthome.controller;
+
+import com.example.Smarthome.dto.AutomationRuleDto;
+import com.example.Smarthome.model.AutomationRule;
+import com.example.Smarthome.model.RuleOperator;
+import com.example.Smarthome.service.RuleEngineService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+@RestController
+@RequestMapping("/api/rules")
+@RequiredArgsConstructor
+@Slf4j
+public class RuleController {
+
+    private final RuleEngineService ruleEngineService;
+
+    /**
+     * Получение списка всех правил автоматизации
+     */
+    @GetMapping
+    public ResponseEntity<List<AutomationRuleDto>> getAllRules() {
+        List<AutomationRuleDto> rules = ruleEngineService.getAllRules().stream()
+                .map(this::convertToDto)
+                .collect(Collectors.toList());
+        return ResponseEntity.ok(rules);
+    }
+
+    /**
+     * Получение правила по ID
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<AutomationRuleDto> getRule(@PathVariable UUID id) {
+        return ResponseEntity.ok(convertToDto(findRule(id)));
+    }
+
+    /**
+     * Показатели работы правил
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> getStats() {
+        return ResponseEntity.ok(ruleEngineService.getStats());
+    }
+
+    /**
+     * Создание нового правила
+     */
+    @PostMapping
+    public ResponseEntity<AutomationRuleDto> createRule(@RequestBody AutomationRuleDto ruleDto) {
+        AutomationRule rule = new AutomationRule();
+        applyDto(rule, ruleDto);
+        return ResponseEntity.status(HttpStatus.CREATED).body(convertToDto(save(rule)));
+    }
+
+    /**
+     * Обновление правила
+     */
+    @PutMapping("/{id}")
+    public ResponseEntity<AutomationRuleDto> updateRule(@PathVariable UUID id,
+                                                        @RequestBody AutomationRuleDto ruleDto) {
+        AutomationRule rule = findRule(id);
+        applyDto(rule, ruleDto);
+        return ResponseEntity.ok(convertToDto(save(rule)));
+    }
+
+    /**
+     * Удаление правила
+     */
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> deleteRule(@PathVariable UUID id) {
+        findRule(id);
+        ruleEngineService.deleteRule(id);
+        return ResponseEntity.noContent().build();
+    }
+
+    private AutomationRule findRule(UUID id) {
+        return ruleEngineService.getRuleById(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        "Правило с ID " + id + " не найдено"));
+    }
+
+    private AutomationRule save(AutomationRule rule) {
+        try {
+            return ruleEngineService.saveRule(rule);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * Переносит данные DTO в сущность
+     */
+    private void applyDto(AutomationRule rule, AutomationRuleDto ruleDto) {
+        if (ruleDto.getName() == null || ruleDto.getName().isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Не указано название правила");
+        }
+        RuleOperator operator;
+        try {
+            operator = RuleOperator.valueOf(String.valueOf(ruleDto.getOperator()).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Неизвестный оператор: " + ruleDto.getOperator());
+        }
+
+        rule.setName(ruleDto.getName());
+        if (ruleDto.getIsActive() != null) {
+            rule.setActive(ruleDto.getIsActive());
+        }
+        rule.setDeviceId(ruleDto.getDeviceId());
+        rule.setProperty(ruleDto.getProperty());
+        rule.setOperator(operator);
+        rule.setThreshold(ruleDto.getThreshold());
+        rule.setActionScenarioId(ruleDto.getActionScenarioId());
+        rule.setActionDeviceId(ruleDto.getActionDeviceId());
+        rule.setActionCommand(ruleDto.getActionCommand());
+        rule.getActionParameters().clear();
+        if (ruleDto.getActionParameters() != null) {
+            rule.getActionParameters().putAll(ruleDto.getActionParameters());
+        }
+        rule.setCooldownMs(ruleDto.getCooldownMs());
+    }
+
+    /**
+     * Преобразует правило в DTO
+     */
+    private AutomationRuleDto convertToDto(AutomationRule rule) {
+        AutomationRuleDto dto = new AutomationRuleDto();
+        dto.setId(rule.getId());
+        dto.setName(rule.getName());
+        dto.setIsActive(rule.isActive());
+        dto.setDeviceId(rule.getDeviceId());
+        dto.setProperty(rule.getProperty());
+        dto.setOperator(rule.getOperator() != null ? rule.getOperator().name() : null);
+        dto.setThreshold(rule.getThreshold());
+        dto.setActionScenarioId(rule.getActionScenarioId());
+        dto.setActionDeviceId(rule.getActionDeviceId());
+        dto.setActionCommand(rule.getActionCommand());
+        dto.setActionParameters(new HashMap<>(rule.getActionParameters()));
+        dto.setCooldownMs(rule.getCooldownMs());
+        dto.setUpdatedAt(rule.getUpdatedAt());
+        return dto;
+    }
+}
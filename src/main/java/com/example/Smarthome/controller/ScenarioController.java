@@ -0,0 +1,197 @@
+package com.example.Smarthome.controller;
+
+import com.example.Smarthome.dto.ScenarioDto;
+import com.example.Smarthome.model.Scenario;
+import com.example.Smarthome.model.ScenarioStep;
+import com.example.Smarthome.service.ScenarioService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+@RestController
+@RequestMapping("/api/scenarios")
+@RequiredArgsConstructor
+@Slf4j
+public class ScenarioController {
+
+    private final ScenarioService scenarioService;
+
+    /**
+     * Получение списка всех сценариев
+     */
+    @GetMapping
+    public ResponseEntity<List<ScenarioDto>> getAllScenarios() {
+        List<ScenarioDto> scenarios = scenarioService.getAllScenarios().stream()
+                .map(this::convertToDto)
+                .collect(Collectors.toList());
+        return ResponseEntity.ok(scenarios);
+    }
+
+    /**
+     * Получение сценария по ID
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<ScenarioDto> getScenario(@PathVariable UUID id) {
+        return ResponseEntity.ok(convertToDto(findScenario(id)));
+    }
+
+    /**
+     * Создание нового сценария
+     */
+    @PostMapping
+    public ResponseEntity<ScenarioDto> createScenario(@RequestBody ScenarioDto scenarioDto) {
+        Scenario scenario = new Scenario();
+        applyDto(scenario, scenarioDto);
+        return ResponseEntity.status(HttpStatus.CREATED).body(convertToDto(save(scenario)));
+    }
+
+    /**
+     * Обновление сценария
+     */
+    @PutMapping("/{id}")
+    public ResponseEntity<ScenarioDto> updateScenario(@PathVariable UUID id,
+                                                      @RequestBody ScenarioDto scenarioDto) {
+        Scenario scenario = findScenario(id);
+        applyDto(scenario, scenarioDto);
+        return ResponseEntity.ok(convertToDto(save(scenario)));
+    }
+
+    /**
+     * Удаление сценария
+     */
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> deleteScenario(@PathVariable UUID id) {
+        findScenario(id);
+        scenarioService.deleteScenario(id);
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Запуск сценария
+     * Независимые шаги выполняются параллельно, ответ возвращается после завершения всех шагов
+     */
+    @PostMapping("/{id}/run")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> runScenario(@PathVariable UUID id) {
+        CompletableFuture<ScenarioService.RunResult> run = scenarioService.runScenario(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        "Сценарий с ID " + id + " не найден"));
+
+        return run.thenApply(result -> {
+            List<Map<String, Object>> steps = new ArrayList<>(result.steps().size());
+            for (ScenarioService.StepResult step : result.steps()) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("key", step.key());
+                item.put("device_id", step.deviceId().toString());
+                item.put("command", step.command());
+                item.put("status", step.status().name());
+                item.put("duration_ms", step.durationMs());
+                if (step.error() != null) {
+                    item.put("error", step.error());
+                }
+                steps.add(item);
+            }
+
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("scenario_id", result.scenarioId().toString());
+            response.put("name", result.name());
+            response.put("success", result.success());
+            response.put("duration_ms", result.durationMs());
+            response.put("steps", steps);
+            return ResponseEntity.ok(response);
+        });
+    }
+
+    private Scenario findScenario(UUID id) {
+        return scenarioService.getScenarioById(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        "Сценарий с ID " + id + " не найден"));
+    }
+
+    private Scenario save(Scenario scenario) {
+        try {
+            return scenarioService.saveScenario(scenario);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * Переносит данные DTO в сущность
+     */
+    private void applyDto(Scenario scenario, ScenarioDto scenarioDto) {
+        if (scenarioDto.getName() == null || scenarioDto.getName().isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Не указано название сценария");
+        }
+        scenario.setName(scenarioDto.getName());
+        scenario.setDescription(scenarioDto.getDescription());
+        if (scenarioDto.getIsActive() != null) {
+            scenario.setActive(scenarioDto.getIsActive());
+        }
+        scenario.setTrigger(scenarioDto.getTrigger());
+
+        // Коллекции изменяются на месте, чтобы Hibernate удалил лишние строки
+        scenario.getConditions().clear();
+        if (scenarioDto.getConditions() != null) {
+            scenario.getConditions().addAll(scenarioDto.getConditions());
+        }
+
+        scenario.getSteps().clear();
+        if (scenarioDto.getSteps() != null) {
+            for (ScenarioDto.Step stepDto : scenarioDto.getSteps()) {
+                ScenarioStep step = new ScenarioStep();
+                step.setKey(stepDto.getKey());
+                step.setDeviceId(stepDto.getDeviceId());
+                step.setCommand(stepDto.getCommand());
+                step.setParameters(stepDto.getParameters() != null
+                        ? new HashMap<>(stepDto.getParameters()) : new HashMap<>());
+                step.setDependsOn(stepDto.getDependsOn() != null
+                        ? new HashSet<>(stepDto.getDependsOn()) : new HashSet<>());
+                step.setTimeoutMs(stepDto.getTimeoutMs());
+                step.setScenario(scenario);
+                scenario.getSteps().add(step);
+            }
+        }
+    }
+
+    /**
+     * Преобразует сценарий в DTO
+     */
+    private ScenarioDto convertToDto(Scenario scenario) {
+        ScenarioDto dto = new ScenarioDto();
+        dto.setId(scenario.getId());
+        dto.setName(scenario.getName());
+        dto.setDescription(scenario.getDescription());
+        dto.setIsActive(scenario.isActive());
+        dto.setTrigger(scenario.getTrigger());
+        dto.setConditions(new ArrayList<>(scenario.getConditions()));
+        dto.setUpdatedAt(scenario.getUpdatedAt());
+        dto.setLastRunAt(scenario.getLastRunAt());
+
+        List<ScenarioDto.Step> steps = new ArrayList<>(scenario.getSteps().size());
+        for (ScenarioStep step : scenario.getSteps()) {
+            ScenarioDto.Step stepDto = new ScenarioDto.Step();
+            stepDto.setKey(step.getKey());
+            stepDto.setDeviceId(step.getDeviceId());
+            stepDto.setCommand(step.getCommand());
+            stepDto.setParameters(new HashMap<>(step.getParameters()));
+            stepDto.setDependsOn(new HashSet<>(step.getDependsOn()));
+            stepDto.setTimeoutMs(step.getTimeoutMs());
+            steps.add(stepDto);
+        }
+        dto.setSteps(steps);
+        return dto;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.Smarthome.controller;
+
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.model.Location;
+import com.example.Smarthome.model.Room;
+import com.example.Smarthome.repository.RoomRepository;
+import com.example.Smarthome.service.DeviceService;
+import com.example.Smarthome.service.EnergyRollupService;
+import com.example.Smarthome.service.LocationService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@RestController
+@RequestMapping("/api/statistics")
+@RequiredArgsConstructor
+@Slf4j
+public class StatisticsController {
+
+    private final EnergyRollupService energyRollupService;
+    private final DeviceService deviceService;
+    private final LocationService locationService;
+    private final RoomRepository roomRepository;
+
+    @Value("${energy.consumption.top-devices:10}")
+    private int topDevices;
+
+    /**
+     * Распределение потребления энергии по комнатам, локациям и устройствам за период
+     */
+    @GetMapping("/consumption")
+    public ResponseEntity<Map<String, Object>> getConsumption(@RequestParam(defaultValue = "day") String period) {
+        EnergyRollupService.Window window;
+        try {
+            window = energyRollupService.window(period);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+
+        double totalWh = energyRollupService.getTotal(EnergyRollupService.TOTAL_SCOPE,
+                window.resolution(), window.from(), window.to());
+        Map<UUID, Double> rooms = energyRollupService.getTotals("room:", window.resolution(), window.from(), window.to());
+        Map<UUID, Double> locations = energyRollupService.getTotals("location:", window.resolution(), window.from(), window.to());
+        Map<UUID, Double> devices = energyRollupService.getTotals("device:", window.resolution(), window.from(), window.to());
+
+        // Имена загружаются только для областей с потреблением
+        Map<UUID, String> roomNames = roomRepository.findAllById(rooms.keySet()).stream()
+                .collect(Collectors.toMap(Room::getId, Room::getName, (a, b) -> a));
+        Map<UUID, String> locationNames = locationService.getAllLocations().stream()
+                .filter(location -> locations.containsKey(location.getId()))
+                .collect(Collectors.toMap(Location::getId, Location::getName, (a, b) -> a));
+        List<Map.Entry<UUID, Double>> top = devices.entrySet().stream()
+                .sorted(Map.Entry.<UUID, Double>comparingByValue().reversed())
+                .limit(topDevices)
+                .collect(Collectors.toList());
+        Map<UUID, String> deviceNames = deviceService.getDevicesByIds(top.stream().map(Map.Entry::getKey).toList()).stream()
+                .collect(Collectors.toMap(Device::getId, Device::getName, (a, b) -> a));
+
+        double tariff = energyRollupService.getTariffPerKwh();
+        Map<String, Object> response = new HashMap<>();
+        response.put("period", period);
+        response.put("from", LocalDateTime.ofInstant(Instant.ofEpochMilli(window.from()), energyRollupService.getZone()));
+        response.put("to", LocalDateTime.ofInstant(Instant.ofEpochMilli(window.to()), energyRollupService.getZone()));
+        response.put("unit", "kWh");
+        response.put("total", toKwh(totalWh));
+        response.put("cost", Math.round(totalWh / 1000 * tariff * 100) / 100.0);
+        response.put("rooms", toItems(rooms.entrySet().stream().toList(), roomNames::get));
+        response.put("locations", toItems(locations.entrySet().stream().toList(), locationNames::get));
+        response.put("devices", toItems(top, deviceNames::get));
+        return ResponseEntity.ok(response);
+    }
+
+    private static List<Map<String, Object>> toItems(List<Map.Entry<UUID, Double>> totals, Function<UUID, String> names) {
+        List<Map<String, Object>> items = new ArrayList<>(totals.size());
+        totals.stream()
+                .sorted(Map.Entry.<UUID, Double>comparingByValue(Comparator.reverseOrder()))
+                .forEach(entry -> {
+                    Map<String, Object> item = new HashMap<>();
+                    item.put("id", entry.getKey());
+                    item.put("name", names.apply(entry.getKey()));
+                    item.put("value", toKwh(entry.getValue()));
+                    items.add(item);
+                });
+        return items;
+    }
+
+    private static double toKwh(double wh) {
+        return Math.round(wh) / 1000.0;
+    }
+}
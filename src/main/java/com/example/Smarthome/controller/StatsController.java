@@ -0,0 +1,173 @@
+package com.example.Smarthome.controller;
+
+import com.example.Smarthome.model.EnergyResolution;
+import com.example.Smarthome.service.DashboardStatsService;
+import com.example.Smarthome.service.EnergyRollupService;
+import com.example.Smarthome.service.TelemetryHistoryService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/api/stats")
+@RequiredArgsConstructor
+@Slf4j
+public class StatsController {
+
+    private final TelemetryHistoryService telemetryHistoryService;
+    private final EnergyRollupService energyRollupService;
+    private final DashboardStatsService dashboardStatsService;
+
+    /**
+     * Сводка для главной страницы
+     */
+    @GetMapping("/dashboard")
+    public ResponseEntity<Map<String, Object>> getDashboard() {
+        return ResponseEntity.ok(dashboardStatsService.getDashboard());
+    }
+
+    /**
+     * Поток изменений сводки для главной страницы (Server-Sent Events)
+     */
+    @GetMapping(value = "/dashboard/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamDashboard() {
+        return dashboardStatsService.subscribe();
+    }
+
+    /**
+     * История значений свойств устройства
+     * По умолчанию возвращаются последние 24 часа всех числовых свойств
+     */
+    @GetMapping("/device-history")
+    public ResponseEntity<List<Map<String, Object>>> getDeviceHistory(
+            @RequestParam UUID deviceId,
+            @RequestParam(required = false) String key,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate,
+            @RequestParam(defaultValue = "0") long step) {
+        ZoneId zone = ZoneId.systemDefault();
+        long to = endDate != null ? endDate.atZone(zone).toInstant().toEpochMilli() : System.currentTimeMillis();
+        long from = startDate != null ? startDate.atZone(zone).toInstant().toEpochMilli() : to - 24 * 3600_000L;
+        if (from > to) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "startDate должна быть раньше endDate");
+        }
+
+        List<Map<String, Object>> result = new ArrayList<>();
+        telemetryHistoryService.getHistory(deviceId, key, from, to, step).forEach((seriesKey, history) -> {
+            List<Map<String, Object>> points = new ArrayList<>(history.points().size());
+            for (TelemetryHistoryService.Point point : history.points()) {
+                Map<String, Object> item = new HashMap<>();
+                item.put("timestamp", point.timestamp());
+                item.put("time", LocalDateTime.ofInstant(Instant.ofEpochMilli(point.timestamp()), zone));
+                item.put("value", point.avg());
+                item.put("min", point.min());
+                item.put("max", point.max());
+                item.put("count", point.count());
+                points.add(item);
+            }
+
+            Map<String, Object> series = new HashMap<>();
+            series.put("deviceId", deviceId);
+            series.put("key", seriesKey);
+            series.put("step", history.stepMs());
+            series.put("points", points);
+            result.add(series);
+        });
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * Показатели хранилища истории телеметрии
+     */
+    @GetMapping("/device-history/stats")
+    public ResponseEntity<Map<String, Object>> getHistoryStats() {
+        return ResponseEntity.ok(telemetryHistoryService.getStats());
+    }
+
+    /**
+     * Потребление энергии за период: day, week, month или year
+     * Без параметров области возвращается потребление всего дома
+     */
+    @GetMapping("/energy/{period}")
+    public ResponseEntity<Map<String, Object>> getEnergyConsumption(
+            @PathVariable String period,
+            @RequestParam(required = false) UUID deviceId,
+            @RequestParam(required = false) UUID roomId,
+            @RequestParam(required = false) UUID locationId) {
+        EnergyRollupService.Window window;
+        try {
+            window = energyRollupService.window(period);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        String scope = deviceId != null ? EnergyRollupService.deviceScope(deviceId)
+                : roomId != null ? EnergyRollupService.roomScope(roomId)
+                : locationId != null ? EnergyRollupService.locationScope(locationId)
+                : EnergyRollupService.TOTAL_SCOPE;
+        ZoneId zone = energyRollupService.getZone();
+        double tariff = energyRollupService.getTariffPerKwh();
+
+        List<Map<String, Object>> points = new ArrayList<>();
+        double periodWh = 0;
+        for (Map.Entry<Long, Double> bucket : energyRollupService
+                .getSeries(scope, window.resolution(), window.from(), window.to()).entrySet()) {
+            Map<String, Object> point = new HashMap<>();
+            point.put("timestamp", bucket.getKey());
+            point.put("time", LocalDateTime.ofInstant(Instant.ofEpochMilli(bucket.getKey()), zone));
+            point.put("value", toKwh(bucket.getValue()));
+            points.add(point);
+            periodWh += bucket.getValue();
+        }
+
+        // Сегодняшнее потребление и прогноз на месяц по среднему потреблению с начала месяца
+        ZonedDateTime now = Instant.ofEpochMilli(window.to()).atZone(zone);
+        long todayStart = now.toLocalDate().atStartOfDay(zone).toInstant().toEpochMilli();
+        ZonedDateTime monthStart = now.toLocalDate().withDayOfMonth(1).atStartOfDay(zone);
+        double todayWh = energyRollupService.getTotal(scope, EnergyResolution.DAY, todayStart, window.to());
+        double monthWh = energyRollupService.getTotal(scope, EnergyResolution.MONTH,
+                monthStart.toInstant().toEpochMilli(), window.to());
+        long monthLength = monthStart.plusMonths(1).toInstant().toEpochMilli() - monthStart.toInstant().toEpochMilli();
+        long elapsed = Math.max(1, window.to() - monthStart.toInstant().toEpochMilli());
+        double forecastWh = monthWh * monthLength / elapsed;
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("period", period);
+        response.put("scope", scope);
+        response.put("resolution", window.resolution());
+        response.put("from", LocalDateTime.ofInstant(Instant.ofEpochMilli(window.from()), zone));
+        response.put("to", LocalDateTime.ofInstant(Instant.ofEpochMilli(window.to()), zone));
+        response.put("unit", "kWh");
+        response.put("points", points);
+        response.put("periodUsage", toKwh(periodWh));
+        response.put("todayUsage", toKwh(todayWh));
+        response.put("todayCost", toMoney(todayWh / 1000 * tariff));
+        response.put("monthlyForecast", toKwh(forecastWh));
+        response.put("monthlyCost", toMoney(forecastWh / 1000 * tariff));
+        response.put("tariffPerKwh", tariff);
+        return ResponseEntity.ok(response);
+    }
+
+    private static double toKwh(double wh) {
+        return Math.round(wh) / 1000.0;
+    }
+
+    private static double toMoney(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -1,6 +1,8 @@
 package com.example.Smarthome.controller;
 
+import com.example.Smarthome.config.ThingsBoardHttpMetrics;
 import com.example.Smarthome.model.Device;
+import com.example.Smarthome.service.ThingsBoardDeviceImporter;
 import com.example.Smarthome.service.ThingsBoardSyncService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -20,6 +22,8 @@ import java.util.Map;
 public class SyncController {
 
     private final ThingsBoardSyncService thingsBoardSyncService;
+    private final ThingsBoardDeviceImporter thingsBoardDeviceImporter;
+    private final ThingsBoardHttpMetrics thingsBoardHttpMetrics;
     
     /**
      * Запускает принудительную синхронизацию телеметрии всех устройств
@@ -61,9 +65,14 @@ public class SyncController {
     @PostMapping("/import-devices")
     public ResponseEntity<Map<String, Object>> importDevices() {
         log.info("Запуск импорта устройств из ThingsBoard");
-        int importedCount = thingsBoardSyncService.importDevicesFromThingsBoard();
+        int importedCount = thingsBoardDeviceImporter.importDevices();
         
         Map<String, Object> response = new HashMap<>();
+        if (importedCount < 0) {
+            response.put("success", false);
+            response.put("message", "Импорт устройств уже выполняется");
+            return ResponseEntity.ok(response);
+        }
         response.put("success", true);
         response.put("message", "Импорт устройств завершен");
         response.put("importedCount", importedCount);
@@ -71,6 +80,14 @@ public class SyncController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Возвращает ход выполнения последнего импорта устройств
+     */
+    @GetMapping("/import-devices/progress")
+    public ResponseEntity<Map<String, Object>> getImportProgress() {
+        return ResponseEntity.ok(thingsBoardDeviceImporter.getProgress());
+    }
+
     /* Временно закомментировано, так как метод еще не реализован в сервисе
     /**
      * Проверка подключения к ThingsBoard
@@ -148,4 +165,12 @@ public class SyncController {
             return ResponseEntity.ok(response);
         }
     }
-} 
\ No newline at end of file
+
+    /**
+     * Возвращает метрики HTTP-клиента ThingsBoard (запросы, задержки, состояние пула соединений)
+     */
+    @GetMapping("/http-metrics")
+    public ResponseEntity<Map<String, Object>> getHttpMetrics() {
+        return ResponseEntity.ok(thingsBoardHttpMetrics.snapshot());
+    }
+}
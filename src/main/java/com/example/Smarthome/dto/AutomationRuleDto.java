@@ -0,0 +1,28 @@
+package com.example.Smarthome.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * DTO для передачи правила автоматизации через API
+ */
+@Data
+public class AutomationRuleDto {
+    private UUID id;
+    private String name;
+    private Boolean isActive;
+    private UUID deviceId;
+    private String property;
+    private String operator;
+    private String threshold;
+    private UUID actionScenarioId;
+    private UUID actionDeviceId;
+    private String actionCommand;
+    private Map<String, String> actionParameters = new HashMap<>();
+    private Long cooldownMs;
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,27 @@
+package com.example.Smarthome.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * DTO для пакетной отправки команд на несколько устройств
+ */
+@Data
+public class DeviceCommandBatchRequest {
+    private List<Item> commands = new ArrayList<>();
+
+    /**
+     * Команда для одного устройства
+     */
+    @Data
+    public static class Item {
+        private UUID deviceId;
+        private String command;
+        private Map<String, String> parameters = new HashMap<>();
+    }
+}
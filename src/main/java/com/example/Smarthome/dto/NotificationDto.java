@@ -0,0 +1,20 @@
+package com.example.Smarthome.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * DTO для передачи уведомления через API
+ */
+@Data
+public class NotificationDto {
+    private Long id;
+    private String type;        // info, warning, alert
+    private String title;
+    private String message;
+    private UUID deviceId;
+    private boolean read;
+    private LocalDateTime timestamp;
+}
@@ -0,0 +1,41 @@
+package com.example.Smarthome.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * DTO для передачи сценария автоматизации через API
+ */
+@Data
+public class ScenarioDto {
+    private UUID id;
+    private String name;
+    private String description;
+    private Boolean isActive;
+    private String trigger;
+    private List<String> conditions = new ArrayList<>();
+    private List<Step> steps = new ArrayList<>();
+    private LocalDateTime updatedAt;
+    private LocalDateTime lastRunAt;
+
+    /**
+     * Шаг сценария
+     */
+    @Data
+    public static class Step {
+        private String key;
+        private UUID deviceId;
+        private String command;
+        private Map<String, String> parameters = new HashMap<>();
+        private Set<String> dependsOn = new HashSet<>();
+        private Long timeoutMs;
+    }
+}
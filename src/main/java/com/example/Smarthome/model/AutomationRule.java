@@ -0,0 +1,49 @@
+package com.example.Smarthome.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+@Entity
+@Table(name = "automation_rules")
+@Data
+public class AutomationRule {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    private String name;
+    
+    @Column(name = "is_active")
+    private boolean active = true;
+    
+    // Условие: свойство устройства, оператор и пороговое значение
+    private UUID deviceId;
+    private String property;
+    
+    @Enumerated(EnumType.STRING)
+    private RuleOperator operator;
+    
+    private String threshold;
+    
+    // Действие: запуск сценария или команда устройству
+    private UUID actionScenarioId;
+    private UUID actionDeviceId;
+    private String actionCommand;
+    
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "automation_rule_parameters", joinColumns = @JoinColumn(name = "rule_id"))
+    @MapKeyColumn(name = "parameter_name")
+    @Column(name = "parameter_value")
+    private Map<String, String> actionParameters = new HashMap<>();
+    
+    // Минимальный интервал между срабатываниями (мс)
+    private Long cooldownMs;
+    
+    private LocalDateTime updatedAt;
+}
@@ -1,7 +1,10 @@
 package com.example.Smarthome.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.Map;
@@ -71,6 +74,13 @@ public class Device {
     @Column(name = "attribute_value")
     private Map<String, String> attributes = new HashMap<>();
     
+    // Версия хранилища состояний, с которой было наложено состояние при чтении (см. DeviceStateStore.overlay)
+    @Transient
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private Long stateVersion;
+    
     /**
      * Получает карту произвольных атрибутов устройства
      * @return Карта атрибутов
@@ -0,0 +1,11 @@
+package com.example.Smarthome.model;
+
+/**
+ * Интервал агрегирования потребления энергии
+ */
+public enum EnergyResolution {
+    MINUTE,     // Минута
+    HOUR,       // Час
+    DAY,        // Сутки (по часовому поясу сервера)
+    MONTH       // Календарный месяц
+}
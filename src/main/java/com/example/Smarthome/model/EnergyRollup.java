@@ -0,0 +1,44 @@
+package com.example.Smarthome.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * Потребление энергии одной области (устройство, комната, локация или весь дом) за один интервал
+ * Запись и чтение выполняются через EnergyRollupJdbcRepository
+ */
+@Entity
+@Table(name = "energy_rollups", indexes = {
+        @Index(name = "idx_energy_rollups_bucket", columnList = "resolution, bucket_start")
+})
+@IdClass(EnergyRollup.Key.class)
+@Data
+public class EnergyRollup {
+
+    // Область: total, device:<id>, room:<id> или location:<id>
+    @Id
+    @Column(name = "scope_key", nullable = false)
+    private String scopeKey;
+    
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(name = "resolution", nullable = false)
+    private EnergyResolution resolution;
+    
+    // Начало интервала (мс с начала эпохи)
+    @Id
+    @Column(name = "bucket_start", nullable = false)
+    private long bucketStart;
+    
+    @Column(name = "energy_wh", nullable = false)
+    private double energyWh;
+
+    @Data
+    public static class Key implements Serializable {
+        private String scopeKey;
+        private EnergyResolution resolution;
+        private long bucketStart;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.Smarthome.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Уведомление пользователя
+ * ID выдаются приложением по возрастанию и служат курсором постраничного чтения;
+ * запись и чтение выполняются через NotificationJdbcRepository
+ */
+@Entity
+@Table(name = "notifications", indexes = {
+        @Index(name = "idx_notifications_read", columnList = "is_read, id"),
+        @Index(name = "idx_notifications_created_at", columnList = "created_at")
+})
+@Data
+public class Notification {
+
+    @Id
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private NotificationType type;
+    
+    @Column(nullable = false)
+    private String title;
+    
+    @Column(length = 1000)
+    private String message;
+    
+    @Column(name = "device_id")
+    private UUID deviceId;
+    
+    @Column(name = "is_read", nullable = false)
+    private boolean read;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,10 @@
+package com.example.Smarthome.model;
+
+/**
+ * Тип уведомления
+ */
+public enum NotificationType {
+    INFO,       // Информация (устройство снова в сети)
+    WARNING,    // Предупреждение (устройство недоступно, низкий заряд)
+    ALERT       // Тревога (движение, открытие двери, протечка)
+}
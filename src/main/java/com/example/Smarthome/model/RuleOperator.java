@@ -0,0 +1,13 @@
+package com.example.Smarthome.model;
+
+/**
+ * Оператор сравнения значения свойства в условии правила автоматизации
+ */
+public enum RuleOperator {
+    GT,     // Больше
+    GTE,    // Больше или равно
+    LT,     // Меньше
+    LTE,    // Меньше или равно
+    EQ,     // Равно
+    NE      // Не равно
+}
@@ -0,0 +1,46 @@
+package com.example.Smarthome.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+@Entity
+@Table(name = "scenarios")
+@Data
+public class Scenario {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    private String name;
+    private String description;
+    
+    @Column(name = "is_active")
+    private boolean active = true;
+    
+    // Условие запуска (time, weather, location и т.д.) и его параметры
+    private String trigger;
+    
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "scenario_conditions", joinColumns = @JoinColumn(name = "scenario_id"))
+    @OrderColumn(name = "sort_order")
+    @Column(name = "condition_value")
+    private List<String> conditions = new ArrayList<>();
+    
+    // Шаги сценария: команды устройствам с зависимостями между ними
+    @OneToMany(mappedBy = "scenario", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.EAGER)
+    @OrderColumn(name = "sort_order")
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private List<ScenarioStep> steps = new ArrayList<>();
+    
+    private LocalDateTime updatedAt;
+    private LocalDateTime lastRunAt;
+}
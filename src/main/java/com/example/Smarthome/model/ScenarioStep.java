@@ -0,0 +1,50 @@
+package com.example.Smarthome.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+@Entity
+@Table(name = "scenario_steps")
+@Data
+public class ScenarioStep {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    // Ключ шага, уникальный в пределах сценария; используется в зависимостях
+    @Column(name = "step_key")
+    private String key;
+    
+    private UUID deviceId;
+    private String command;
+    
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "scenario_step_parameters", joinColumns = @JoinColumn(name = "step_id"))
+    @MapKeyColumn(name = "parameter_name")
+    @Column(name = "parameter_value")
+    private Map<String, String> parameters = new HashMap<>();
+    
+    // Ключи шагов, которые должны успешно завершиться до запуска этого шага
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "scenario_step_dependencies", joinColumns = @JoinColumn(name = "step_id"))
+    @Column(name = "depends_on")
+    private Set<String> dependsOn = new HashSet<>();
+    
+    // Ограничение времени шага (мс); если не задано, используется таймаут адаптера
+    private Long timeoutMs;
+    
+    @ManyToOne
+    @JoinColumn(name = "scenario_id")
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private Scenario scenario;
+}
@@ -0,0 +1,41 @@
+package com.example.Smarthome.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.util.UUID;
+
+/**
+ * Сжатый блок истории значений одного свойства устройства
+ * Точки закодированы GorillaCodec; запись и чтение выполняются через TelemetryJdbcRepository
+ */
+@Entity
+@Table(name = "telemetry_chunks", indexes = {
+        @Index(name = "idx_telemetry_chunks_series", columnList = "device_id, series_key, end_ts"),
+        @Index(name = "idx_telemetry_chunks_end_ts", columnList = "end_ts")
+})
+@Data
+public class TelemetryChunk {
+
+    @Id
+    private UUID id;
+
+    @Column(name = "device_id", nullable = false)
+    private UUID deviceId;
+    
+    @Column(name = "series_key", nullable = false)
+    private String seriesKey;
+    
+    // Время первой и последней точки блока (мс с начала эпохи)
+    @Column(name = "start_ts", nullable = false)
+    private long startTs;
+    
+    @Column(name = "end_ts", nullable = false)
+    private long endTs;
+    
+    @Column(name = "point_count", nullable = false)
+    private int pointCount;
+    
+    @Column(name = "data", nullable = false, columnDefinition = "bytea")
+    private byte[] data;
+}
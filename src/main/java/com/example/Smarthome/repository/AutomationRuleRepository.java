@@ -0,0 +1,13 @@
+package com.example.Smarthome.repository;
+
+import com.example.Smarthome.model.AutomationRule;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface AutomationRuleRepository extends JpaRepository<AutomationRule, UUID> {
+    List<AutomationRule> findByActiveTrue();
+}
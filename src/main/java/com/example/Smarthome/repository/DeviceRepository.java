@@ -3,6 +3,7 @@ package com.example.Smarthome.repository;
 import com.example.Smarthome.model.ConnectionProtocol;
 import com.example.Smarthome.model.Device;
 import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.model.Location;
 import com.example.Smarthome.model.Room;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
@@ -21,6 +22,8 @@ public interface DeviceRepository extends JpaRepository<Device, UUID> {
     
     List<Device> findByRoom(Room room);
     
+    List<Device> findByLocation(Location location);
+    
     List<Device> findByType(String type);
     
     /**
@@ -36,4 +39,13 @@ public interface DeviceRepository extends JpaRepository<Device, UUID> {
      * @return Optional с устройством, если найдено
      */
     Optional<Device> findByThingsboardToken(String token);
+    
+    /**
+     * Находит устройства по ID в ThingsBoard
+     * Уникальность ID в базе не гарантируется (например, после повторного импорта),
+     * поэтому возвращается список
+     * @param thingsboardDeviceId ID устройства в ThingsBoard
+     * @return список устройств с этим ID
+     */
+    List<Device> findByThingsboardDeviceId(String thingsboardDeviceId);
 } 
\ No newline at end of file
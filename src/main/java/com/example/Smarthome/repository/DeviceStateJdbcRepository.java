@@ -0,0 +1,297 @@
+package com.example.Smarthome.repository;
+
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.model.DeviceStatus;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Пакетная запись состояния устройств напрямую через JDBC
+ * Используется на горячих путях, где полное сохранение JPA-сущности
+ * (с перезаписью всех коллекций) слишком дорого
+ */
+@Repository
+@RequiredArgsConstructor
+public class DeviceStateJdbcRepository {
+
+    private static final String FIND_DEVICE_SQL =
+            "SELECT name, status, last_seen, thingsboard_token FROM devices WHERE id = ?";
+
+    private static final String FIND_PROPERTIES_SQL =
+            "SELECT property_name, property_value FROM device_properties WHERE device_id = ?";
+
+    private static final String FIND_TB_CREDENTIALS_SQL =
+            "SELECT thingsboard_device_id, thingsboard_token FROM devices " +
+            "WHERE thingsboard_device_id IS NOT NULL AND thingsboard_token IS NOT NULL AND thingsboard_token <> ''";
+
+    private static final String FIND_STATUSES_SQL =
+            "SELECT id, status FROM devices WHERE status IS NOT NULL";
+
+    private static final String FIND_LAST_SEEN_BY_STATUS_SQL =
+            "SELECT id, last_seen FROM devices WHERE status = ?";
+
+    // Локация устройства без явной локации берётся из его комнаты
+    private static final String FIND_PLACEMENTS_SQL =
+            "SELECT d.id, d.room_id, COALESCE(d.location_id, r.location_id) AS location_id " +
+            "FROM devices d LEFT JOIN rooms r ON r.id = d.room_id";
+
+    private static final String UPDATE_STATUS_SQL =
+            "UPDATE devices SET status = ?, last_seen = ? WHERE id = ?";
+
+    // Строка не перезаписывается, если значения не изменились
+    private static final String UPDATE_METADATA_SQL =
+            "UPDATE devices SET name = ?, manufacturer = ?, model = ?, firmware_version = ?, " +
+            "thingsboard_device_id = ? WHERE id = ? AND (name, manufacturer, model, firmware_version, " +
+            "thingsboard_device_id) IS DISTINCT FROM (?, ?, ?, ?, ?)";
+
+    // Условие EXISTS защищает пакет от устройств, удалённых до сброса
+    private static final String UPSERT_PROPERTY_SQL =
+            "INSERT INTO device_properties (device_id, property_name, property_value) " +
+            "SELECT ?, ?, ? WHERE EXISTS (SELECT 1 FROM devices WHERE id = ?) " +
+            "ON CONFLICT (device_id, property_name) DO UPDATE SET property_value = EXCLUDED.property_value";
+
+    // Устройства с уже существующим токеном пропускаются
+    private static final String INSERT_DEVICE_SQL =
+            "INSERT INTO devices (id, name, type, protocol, status, last_seen, thingsboard_token, thingsboard_device_id) " +
+            "SELECT ?, ?, ?, ?, ?, ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM devices WHERE thingsboard_token = ?)";
+
+    private static final String INSERT_ATTRIBUTE_SQL =
+            "INSERT INTO device_attributes (device_id, attribute_name, attribute_value) " +
+            "SELECT ?, ?, ? WHERE EXISTS (SELECT 1 FROM devices WHERE id = ?)";
+
+    private static final String DELETE_PROPERTY_SQL =
+            "DELETE FROM device_properties WHERE device_id = ? AND property_name = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Загружает основные поля устройства, необходимые для хранилища состояний
+     * @param deviceId ID устройства
+     * @return Optional с данными устройства, если оно существует
+     */
+    public Optional<DeviceRow> findDevice(UUID deviceId) {
+        List<DeviceRow> rows = jdbcTemplate.query(FIND_DEVICE_SQL, (rs, rowNum) -> {
+            String status = rs.getString("status");
+            Timestamp lastSeen = rs.getTimestamp("last_seen");
+            return new DeviceRow(
+                    rs.getString("name"),
+                    status != null ? DeviceStatus.valueOf(status) : null,
+                    lastSeen != null ? lastSeen.toLocalDateTime() : null,
+                    rs.getString("thingsboard_token"));
+        }, deviceId);
+        return rows.stream().findFirst();
+    }
+
+    /**
+     * Загружает свойства устройства
+     * @param deviceId ID устройства
+     * @return Карта свойств
+     */
+    public Map<String, String> findProperties(UUID deviceId) {
+        Map<String, String> properties = new HashMap<>();
+        jdbcTemplate.query(FIND_PROPERTIES_SQL,
+                rs -> { properties.put(rs.getString("property_name"), rs.getString("property_value")); },
+                deviceId);
+        return properties;
+    }
+
+    /**
+     * Загружает известные соответствия ID устройства в ThingsBoard и его токена
+     * @return Карта ThingsBoard ID -> токен
+     */
+    public Map<String, String> findThingsBoardCredentials() {
+        Map<String, String> credentials = new HashMap<>();
+        jdbcTemplate.query(FIND_TB_CREDENTIALS_SQL,
+                rs -> { credentials.put(rs.getString("thingsboard_device_id"), rs.getString("thingsboard_token")); });
+        return credentials;
+    }
+
+    /**
+     * Загружает статусы всех устройств
+     * @return Карта ID устройства -> статус
+     */
+    public Map<UUID, DeviceStatus> findStatuses() {
+        Map<UUID, DeviceStatus> statuses = new HashMap<>();
+        jdbcTemplate.query(FIND_STATUSES_SQL, rs -> {
+            statuses.put(rs.getObject("id", UUID.class), DeviceStatus.valueOf(rs.getString("status")));
+        });
+        return statuses;
+    }
+
+    /**
+     * Загружает время последнего ответа устройств с указанным статусом
+     * @param status Статус устройств
+     * @return Карта ID устройства -> время последнего ответа (может быть null)
+     */
+    public Map<UUID, LocalDateTime> findLastSeenByStatus(DeviceStatus status) {
+        Map<UUID, LocalDateTime> lastSeen = new HashMap<>();
+        jdbcTemplate.query(FIND_LAST_SEEN_BY_STATUS_SQL, rs -> {
+            Timestamp seenAt = rs.getTimestamp("last_seen");
+            lastSeen.put(rs.getObject("id", UUID.class), seenAt != null ? seenAt.toLocalDateTime() : null);
+        }, status.name());
+        return lastSeen;
+    }
+
+    /**
+     * Загружает комнату и локацию всех устройств
+     * @return Карта ID устройства -> размещение
+     */
+    public Map<UUID, Placement> findPlacements() {
+        Map<UUID, Placement> placements = new HashMap<>();
+        jdbcTemplate.query(FIND_PLACEMENTS_SQL, rs -> {
+            placements.put(rs.getObject("id", UUID.class), new Placement(
+                    rs.getObject("room_id", UUID.class),
+                    rs.getObject("location_id", UUID.class)));
+        });
+        return placements;
+    }
+
+    /**
+     * Обновляет статус и время последнего ответа для набора устройств одним пакетом
+     * @param statuses Карта ID устройства -> новый статус
+     * @return количество обновлённых устройств
+     */
+    public int updateStatuses(Map<UUID, StatusUpdate> statuses) {
+        if (statuses.isEmpty()) {
+            return 0;
+        }
+
+        List<Object[]> args = new ArrayList<>(statuses.size());
+        statuses.forEach((deviceId, update) -> args.add(new Object[] {
+                update.status() != null ? update.status().name() : null,
+                update.lastSeen() != null ? Timestamp.valueOf(update.lastSeen()) : null,
+                deviceId }));
+
+        int updated = 0;
+        for (int count : jdbcTemplate.batchUpdate(UPDATE_STATUS_SQL, args)) {
+            if (count != 0) {
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Обновляет только скалярные метаданные устройства, не затрагивая коллекции свойств
+     * @param device Устройство с актуальными метаданными
+     * @return true, если метаданные изменились
+     */
+    public boolean updateMetadata(Device device) {
+        return jdbcTemplate.update(UPDATE_METADATA_SQL,
+                device.getName(),
+                device.getManufacturer(),
+                device.getModel(),
+                device.getFirmwareVersion(),
+                device.getThingsboardDeviceId(),
+                device.getId(),
+                device.getName(),
+                device.getManufacturer(),
+                device.getModel(),
+                device.getFirmwareVersion(),
+                device.getThingsboardDeviceId()) > 0;
+    }
+
+    /**
+     * Вставляет или обновляет свойства устройств одним пакетом
+     * @param properties Карта ID устройства -> изменённые свойства
+     * @return количество записанных строк
+     */
+    public int upsertProperties(Map<UUID, Map<String, String>> properties) {
+        List<Object[]> args = new ArrayList<>();
+        properties.forEach((deviceId, values) ->
+                values.forEach((key, value) -> args.add(new Object[] { deviceId, key, value, deviceId })));
+
+        if (args.isEmpty()) {
+            return 0;
+        }
+
+        jdbcTemplate.batchUpdate(UPSERT_PROPERTY_SQL, args);
+        return args.size();
+    }
+
+    /**
+     * Удаляет свойства устройств одним пакетом
+     * @param properties Карта ID устройства -> имена удаляемых свойств
+     * @return количество удалённых строк
+     */
+    public int deleteProperties(Map<UUID, Set<String>> properties) {
+        List<Object[]> args = new ArrayList<>();
+        properties.forEach((deviceId, keys) ->
+                keys.forEach(key -> args.add(new Object[] { deviceId, key })));
+
+        if (args.isEmpty()) {
+            return 0;
+        }
+
+        jdbcTemplate.batchUpdate(DELETE_PROPERTY_SQL, args);
+        return args.size();
+    }
+
+    /**
+     * Вставляет новые устройства и их атрибуты пакетными запросами
+     * @param devices Устройства с заполненными ID
+     * @return количество вставленных устройств
+     */
+    public int insertDevices(List<Device> devices) {
+        if (devices.isEmpty()) {
+            return 0;
+        }
+
+        List<Object[]> deviceArgs = new ArrayList<>(devices.size());
+        List<Object[]> attributeArgs = new ArrayList<>();
+        for (Device device : devices) {
+            deviceArgs.add(new Object[] {
+                    device.getId(),
+                    device.getName(),
+                    device.getType(),
+                    device.getProtocol() != null ? device.getProtocol().name() : null,
+                    device.getStatus() != null ? device.getStatus().name() : null,
+                    device.getLastSeen() != null ? Timestamp.valueOf(device.getLastSeen()) : null,
+                    device.getThingsboardToken(),
+                    device.getThingsboardDeviceId(),
+                    device.getThingsboardToken() });
+            device.getAttributes().forEach((key, value) -> attributeArgs.add(new Object[] {
+                    device.getId(), key, value != null ? value.toString() : null, device.getId() }));
+        }
+
+        int inserted = 0;
+        for (int count : jdbcTemplate.batchUpdate(INSERT_DEVICE_SQL, deviceArgs)) {
+            if (count != 0) {
+                inserted++;
+            }
+        }
+        if (!attributeArgs.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_ATTRIBUTE_SQL, attributeArgs);
+        }
+        return inserted;
+    }
+
+    /**
+     * Основные поля устройства, хранящиеся в таблице devices
+     */
+    public record DeviceRow(String name, DeviceStatus status, LocalDateTime lastSeen, String thingsboardToken) {
+    }
+
+    /**
+     * Комната и локация устройства (любое из значений может быть null)
+     */
+    public record Placement(UUID roomId, UUID locationId) {
+    }
+
+    /**
+     * Новый статус устройства и время последнего ответа
+     */
+    public record StatusUpdate(DeviceStatus status, LocalDateTime lastSeen) {
+    }
+}
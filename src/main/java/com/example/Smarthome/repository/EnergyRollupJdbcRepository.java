@@ -0,0 +1,85 @@
+package com.example.Smarthome.repository;
+
+import com.example.Smarthome.model.EnergyResolution;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Запись и чтение агрегатов потребления энергии
+ */
+@Repository
+@RequiredArgsConstructor
+public class EnergyRollupJdbcRepository {
+
+    // В памяти хранится полное значение интервала, поэтому строка перезаписывается целиком
+    private static final String UPSERT_SQL =
+            "INSERT INTO energy_rollups (scope_key, resolution, bucket_start, energy_wh) VALUES (?, ?, ?, ?) " +
+            "ON CONFLICT (scope_key, resolution, bucket_start) DO UPDATE SET energy_wh = EXCLUDED.energy_wh";
+
+    private static final String FIND_SINCE_SQL =
+            "SELECT scope_key, bucket_start, energy_wh FROM energy_rollups WHERE resolution = ? AND bucket_start >= ?";
+
+    private static final String DELETE_OLDER_THAN_SQL =
+            "DELETE FROM energy_rollups WHERE resolution = ? AND bucket_start < ?";
+
+    private static final String DELETE_SCOPE_SQL =
+            "DELETE FROM energy_rollups WHERE scope_key = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Записывает значения интервалов одним пакетом
+     * @param rows Значения интервалов
+     */
+    public void upsert(List<RollupRow> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<Object[]> args = new ArrayList<>(rows.size());
+        for (RollupRow row : rows) {
+            args.add(new Object[] { row.scopeKey(), row.resolution().name(), row.bucketStart(), row.energyWh() });
+        }
+        jdbcTemplate.batchUpdate(UPSERT_SQL, args);
+    }
+
+    /**
+     * Загружает интервалы указанного разрешения, начиная с указанного времени
+     * @param resolution Разрешение
+     * @param from Начало диапазона (мс)
+     * @return значения интервалов
+     */
+    public List<RollupRow> findSince(EnergyResolution resolution, long from) {
+        return jdbcTemplate.query(FIND_SINCE_SQL,
+                (rs, rowNum) -> new RollupRow(
+                        rs.getString("scope_key"),
+                        resolution,
+                        rs.getLong("bucket_start"),
+                        rs.getDouble("energy_wh")),
+                resolution.name(), from);
+    }
+
+    /**
+     * Удаляет интервалы указанного разрешения, начавшиеся раньше указанного времени
+     * @return количество удалённых строк
+     */
+    public int deleteOlderThan(EnergyResolution resolution, long timestamp) {
+        return jdbcTemplate.update(DELETE_OLDER_THAN_SQL, resolution.name(), timestamp);
+    }
+
+    /**
+     * Удаляет все интервалы области
+     */
+    public int deleteScope(String scopeKey) {
+        return jdbcTemplate.update(DELETE_SCOPE_SQL, scopeKey);
+    }
+
+    /**
+     * Потребление области за один интервал
+     */
+    public record RollupRow(String scopeKey, EnergyResolution resolution, long bucketStart, double energyWh) {
+    }
+}
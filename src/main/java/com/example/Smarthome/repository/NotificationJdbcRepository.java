@@ -0,0 +1,169 @@
+package com.example.Smarthome.repository;
+
+import com.example.Smarthome.model.Notification;
+import com.example.Smarthome.model.NotificationType;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Пакетная запись и постраничное чтение уведомлений
+ */
+@Repository
+@RequiredArgsConstructor
+public class NotificationJdbcRepository {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO notifications (id, type, title, message, device_id, is_read, created_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?) ON CONFLICT (id) DO NOTHING";
+
+    private static final String MAX_ID_SQL =
+            "SELECT COALESCE(MAX(id), 0) FROM notifications";
+
+    private static final String COUNT_UNREAD_SQL =
+            "SELECT COUNT(*) FROM notifications WHERE is_read = FALSE";
+
+    private static final String SELECT_SQL =
+            "SELECT id, type, title, message, device_id, is_read, created_at FROM notifications WHERE id < ?";
+
+    private static final String MARK_READ_SQL =
+            "UPDATE notifications SET is_read = TRUE WHERE id = ? AND is_read = FALSE";
+
+    private static final String MARK_ALL_READ_SQL =
+            "UPDATE notifications SET is_read = TRUE WHERE is_read = FALSE";
+
+    // Возвращает количество удалённых и количество удалённых непрочитанных уведомлений
+    private static final String DELETE_SQL =
+            "WITH d AS (DELETE FROM notifications WHERE id = ? RETURNING is_read) " +
+            "SELECT COUNT(*) AS deleted, COUNT(*) FILTER (WHERE NOT is_read) AS unread FROM d";
+
+    private static final String DELETE_ALL_SQL =
+            "WITH d AS (DELETE FROM notifications RETURNING is_read) " +
+            "SELECT COUNT(*) AS deleted, COUNT(*) FILTER (WHERE NOT is_read) AS unread FROM d";
+
+    private static final String DELETE_OLDER_THAN_SQL =
+            "WITH d AS (DELETE FROM notifications WHERE created_at < ? RETURNING is_read) " +
+            "SELECT COUNT(*) AS deleted, COUNT(*) FILTER (WHERE NOT is_read) AS unread FROM d";
+
+    private static final RowMapper<Notification> ROW_MAPPER = (rs, rowNum) -> {
+        Notification notification = new Notification();
+        notification.setId(rs.getLong("id"));
+        notification.setType(NotificationType.valueOf(rs.getString("type")));
+        notification.setTitle(rs.getString("title"));
+        notification.setMessage(rs.getString("message"));
+        notification.setDeviceId(rs.getObject("device_id", UUID.class));
+        notification.setRead(rs.getBoolean("is_read"));
+        notification.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+        return notification;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Записывает уведомления одним пакетом
+     * @param notifications Уведомления с уже назначенными ID
+     * @return количество вставленных уведомлений; уже существующие ID пропускаются
+     */
+    public int insert(List<Notification> notifications) {
+        if (notifications.isEmpty()) {
+            return 0;
+        }
+        List<Object[]> args = new ArrayList<>(notifications.size());
+        for (Notification notification : notifications) {
+            args.add(new Object[] { notification.getId(), notification.getType().name(), notification.getTitle(),
+                    notification.getMessage(), notification.getDeviceId(), notification.isRead(),
+                    Timestamp.valueOf(notification.getCreatedAt()) });
+        }
+        int inserted = 0;
+        for (int result : jdbcTemplate.batchUpdate(INSERT_SQL, args)) {
+            // Драйвер может не сообщать количество строк для команды пакета
+            if (result > 0 || result == Statement.SUCCESS_NO_INFO) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    public long findMaxId() {
+        Long maxId = jdbcTemplate.queryForObject(MAX_ID_SQL, Long.class);
+        return maxId != null ? maxId : 0;
+    }
+
+    public long countUnread() {
+        Long count = jdbcTemplate.queryForObject(COUNT_UNREAD_SQL, Long.class);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Загружает страницу уведомлений, от новых к старым
+     * @param read Фильтр по признаку прочтения или null
+     * @param type Фильтр по типу или null
+     * @param before Курсор: ID последнего уведомления предыдущей страницы
+     * @param limit Размер страницы
+     * @return уведомления в порядке убывания ID
+     */
+    public List<Notification> findPage(Boolean read, NotificationType type, long before, int limit) {
+        StringBuilder sql = new StringBuilder(SELECT_SQL);
+        List<Object> args = new ArrayList<>(4);
+        args.add(before);
+        if (read != null) {
+            sql.append(" AND is_read = ?");
+            args.add(read);
+        }
+        if (type != null) {
+            sql.append(" AND type = ?");
+            args.add(type.name());
+        }
+        sql.append(" ORDER BY id DESC LIMIT ?");
+        args.add(limit);
+        return jdbcTemplate.query(sql.toString(), ROW_MAPPER, args.toArray());
+    }
+
+    /**
+     * Помечает уведомление прочитанным
+     * @return 1, если уведомление было непрочитанным
+     */
+    public int markRead(long id) {
+        return jdbcTemplate.update(MARK_READ_SQL, id);
+    }
+
+    /**
+     * Помечает прочитанными все уведомления
+     * @return количество уведомлений, бывших непрочитанными
+     */
+    public int markAllRead() {
+        return jdbcTemplate.update(MARK_ALL_READ_SQL);
+    }
+
+    public DeleteResult delete(long id) {
+        return jdbcTemplate.queryForObject(DELETE_SQL, this::mapDeleteResult, id);
+    }
+
+    public DeleteResult deleteAll() {
+        return jdbcTemplate.queryForObject(DELETE_ALL_SQL, this::mapDeleteResult);
+    }
+
+    public DeleteResult deleteOlderThan(LocalDateTime time) {
+        return jdbcTemplate.queryForObject(DELETE_OLDER_THAN_SQL, this::mapDeleteResult, Timestamp.valueOf(time));
+    }
+
+    private DeleteResult mapDeleteResult(ResultSet rs, int rowNum) throws SQLException {
+        return new DeleteResult(rs.getInt("deleted"), rs.getInt("unread"));
+    }
+
+    /**
+     * Результат удаления: всего удалено и из них непрочитанных
+     */
+    public record DeleteResult(int deleted, int unread) {
+    }
+}
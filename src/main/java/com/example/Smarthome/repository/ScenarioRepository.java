@@ -0,0 +1,24 @@
+package com.example.Smarthome.repository;
+
+import com.example.Smarthome.model.Scenario;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Repository
+public interface ScenarioRepository extends JpaRepository<Scenario, UUID> {
+
+    /**
+     * Фиксирует время последнего запуска, не загружая сценарий с шагами
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE Scenario s SET s.lastRunAt = :lastRunAt WHERE s.id = :id")
+    int updateLastRunAt(@Param("id") UUID id, @Param("lastRunAt") LocalDateTime lastRunAt);
+}
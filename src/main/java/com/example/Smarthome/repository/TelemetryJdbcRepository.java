@@ -0,0 +1,112 @@
+package com.example.Smarthome.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Запись и чтение сжатых блоков истории телеметрии
+ */
+@Repository
+@RequiredArgsConstructor
+public class TelemetryJdbcRepository {
+
+    private static final String INSERT_CHUNK_SQL =
+            "INSERT INTO telemetry_chunks (id, device_id, series_key, start_ts, end_ts, point_count, data) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?) ON CONFLICT (id) DO NOTHING";
+
+    // Блок попадает в диапазон, если пересекается с ним
+    private static final String FIND_CHUNKS_SQL =
+            "SELECT id, series_key, start_ts, end_ts, point_count, data FROM telemetry_chunks " +
+            "WHERE device_id = ? AND end_ts >= ? AND start_ts <= ? ORDER BY start_ts";
+
+    private static final String FIND_SERIES_CHUNKS_SQL =
+            "SELECT id, series_key, start_ts, end_ts, point_count, data FROM telemetry_chunks " +
+            "WHERE device_id = ? AND series_key = ? AND end_ts >= ? AND start_ts <= ? ORDER BY start_ts";
+
+    private static final String DELETE_OLDER_THAN_SQL =
+            "DELETE FROM telemetry_chunks WHERE end_ts < ?";
+
+    private static final String DELETE_DEVICE_SQL =
+            "DELETE FROM telemetry_chunks WHERE device_id = ?";
+
+    private static final String STATS_SQL =
+            "SELECT COUNT(*) AS chunks, COALESCE(SUM(point_count), 0) AS points, " +
+            "COALESCE(SUM(OCTET_LENGTH(data)), 0) AS bytes FROM telemetry_chunks";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Записывает блоки одним пакетом
+     * @param chunks Блоки
+     */
+    public void insertChunks(List<ChunkRow> chunks) {
+        if (chunks.isEmpty()) {
+            return;
+        }
+        List<Object[]> args = new ArrayList<>(chunks.size());
+        for (ChunkRow chunk : chunks) {
+            args.add(new Object[] { chunk.id(), chunk.deviceId(), chunk.seriesKey(), chunk.startTs(),
+                    chunk.endTs(), chunk.pointCount(), chunk.data() });
+        }
+        jdbcTemplate.batchUpdate(INSERT_CHUNK_SQL, args);
+    }
+
+    /**
+     * Загружает блоки устройства, пересекающиеся с диапазоном
+     * @param deviceId ID устройства
+     * @param seriesKey Имя свойства или null для всех свойств
+     * @param from Начало диапазона (мс)
+     * @param to Конец диапазона (мс)
+     * @return блоки в порядке времени начала
+     */
+    public List<ChunkRow> findChunks(UUID deviceId, String seriesKey, long from, long to) {
+        Object[] args = seriesKey != null
+                ? new Object[] { deviceId, seriesKey, from, to }
+                : new Object[] { deviceId, from, to };
+        return jdbcTemplate.query(seriesKey != null ? FIND_SERIES_CHUNKS_SQL : FIND_CHUNKS_SQL,
+                (rs, rowNum) -> new ChunkRow(
+                        rs.getObject("id", UUID.class),
+                        deviceId,
+                        rs.getString("series_key"),
+                        rs.getLong("start_ts"),
+                        rs.getLong("end_ts"),
+                        rs.getInt("point_count"),
+                        rs.getBytes("data")),
+                args);
+    }
+
+    /**
+     * Удаляет блоки, все точки которых старше указанного времени
+     * @return количество удалённых блоков
+     */
+    public int deleteOlderThan(long timestamp) {
+        return jdbcTemplate.update(DELETE_OLDER_THAN_SQL, timestamp);
+    }
+
+    /**
+     * Удаляет историю устройства
+     */
+    public int deleteDevice(UUID deviceId) {
+        return jdbcTemplate.update(DELETE_DEVICE_SQL, deviceId);
+    }
+
+    /**
+     * Возвращает количество блоков, точек и байт данных
+     */
+    public Map<String, Object> getStats() {
+        return jdbcTemplate.queryForMap(STATS_SQL);
+    }
+
+    /**
+     * Блок истории одного свойства
+     */
+    public record ChunkRow(UUID id, UUID deviceId, String seriesKey, long startTs, long endTs,
+                           int pointCount, byte[] data) {
+    }
+}
@@ -0,0 +1,482 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.model.DeviceStatus;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Сводка для главной страницы: статусы устройств по протоколам, устройства по комнатам
+ * и локациям, низкий заряд батареи и активные тревоги
+ *
+ * Счётчики полностью вычисляются один раз при запуске, далее изменяются только на вклад
+ * устройства, статус или свойства которого изменились. Ответ строится из счётчиков и
+ * не зависит от количества устройств; клиенты потока получают сводку после изменений
+ * не чаще одного раза за интервал рассылки.
+ *
+ * Каждому клиенту одновременно отправляется не более одной сводки, а пока отправка идёт,
+ * хранится только последняя неотправленная сводка. Клиент, отправка которому длится дольше
+ * dashboard.stream.send-timeout-ms, отключается, чтобы не занимать потоки отправки других клиентов.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DashboardStatsService {
+
+    private final DeviceService deviceService;
+    private final DeviceAlertRules alertRules;
+
+    @Value("${dashboard.stream.timeout-ms:1800000}")
+    private long emitterTimeoutMs;
+
+    @Value("${dashboard.stream.sender-threads:2}")
+    private int senderThreads;
+
+    @Value("${dashboard.stream.send-timeout-ms:5000}")
+    private long sendTimeoutMs;
+
+    // Вклад каждого устройства в счётчики; изменяется вместе со счётчиками под монитором сервиса
+    private final Map<UUID, Contribution> contributions = new HashMap<>();
+    private final Map<String, Map<DeviceStatus, Integer>> byProtocol = new TreeMap<>();
+    private final Map<UUID, Integer> byRoom = new HashMap<>();
+    private final Map<UUID, Integer> byLocation = new HashMap<>();
+    private final Map<String, Integer> alertsByKey = new TreeMap<>();
+    private int online;
+    private int lowBattery;
+    private int devicesWithAlerts;
+    private long version;
+    private Map<String, Object> cached;
+
+    // События до построения счётчиков; применяются после снимка, иначе снимок затёр бы более новые изменения
+    private List<DeviceChangeEvent> pendingEvents = new ArrayList<>();
+
+    // Устройства, метаданные которых (протокол, комната, локация) нужно перечитать
+    private final Set<UUID> staleDevices = ConcurrentHashMap.newKeySet();
+
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private ExecutorService sender;
+    private long pushedVersion = -1;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        sender = Executors.newFixedThreadPool(Math.max(1, senderThreads), runnable -> {
+            Thread thread = new Thread(runnable, "dashboard-stream-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        clients.forEach(client -> client.emitter.complete());
+        sender.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadCounters() {
+        List<Device> devices = List.of();
+        try {
+            devices = deviceService.getAllDevices();
+            log.info("Сводка главной страницы построена по {} устройствам", devices.size());
+        } catch (Exception e) {
+            log.warn("Не удалось построить сводку главной страницы: {}", e.getMessage());
+        }
+        synchronized (this) {
+            for (Device device : devices) {
+                apply(device.getId(), fromDevice(device));
+            }
+            // События, пришедшие во время загрузки, не старше снимка и применяются поверх него
+            List<DeviceChangeEvent> events = pendingEvents;
+            pendingEvents = null;
+            events.forEach(this::onDeviceChange);
+        }
+    }
+
+    @EventListener
+    public void onDeviceChange(DeviceChangeEvent event) {
+        UUID deviceId = event.deviceId();
+        switch (event.type()) {
+            case DELETED -> {
+                staleDevices.remove(deviceId);
+                synchronized (this) {
+                    if (!deferred(event)) {
+                        apply(deviceId, null);
+                    }
+                }
+            }
+            case SAVED -> staleDevices.add(deviceId);
+            case UPDATED -> {
+                synchronized (this) {
+                    if (deferred(event)) {
+                        return;
+                    }
+                    Contribution current = contributions.get(deviceId);
+                    if (current == null) {
+                        // Устройство ещё не известно сводке: метаданные будут прочитаны при обновлении
+                        staleDevices.add(deviceId);
+                        current = Contribution.EMPTY;
+                    }
+                    apply(deviceId, current.update(event, alertRules));
+                }
+            }
+        }
+    }
+
+    /**
+     * Откладывает событие до построения счётчиков; вызывается под монитором сервиса
+     * @return true, если событие отложено
+     */
+    private boolean deferred(DeviceChangeEvent event) {
+        if (pendingEvents == null) {
+            return false;
+        }
+        pendingEvents.add(event);
+        return true;
+    }
+
+    /**
+     * Перечитывает метаданные устройств, созданных или изменённых с прошлого обновления
+     * Статус и свойства из базы используются только для устройств, ещё не известных сводке,
+     * для остальных они уже поддерживаются событиями и могут быть новее данных сущности
+     */
+    @Scheduled(fixedDelayString = "${dashboard.refresh-interval-ms:2000}")
+    public void refreshStale() {
+        if (staleDevices.isEmpty()) {
+            return;
+        }
+        List<UUID> ids = List.copyOf(staleDevices);
+        staleDevices.removeAll(ids);
+        try {
+            List<Device> devices = deviceService.getDevicesByIds(ids);
+            synchronized (this) {
+                for (Device device : devices) {
+                    Contribution current = contributions.get(device.getId());
+                    Contribution loaded = fromDevice(device);
+                    apply(device.getId(), current == null || current.metadataUnknown()
+                            ? loaded
+                            : current.withMetadata(loaded));
+                }
+            }
+        } catch (Exception e) {
+            staleDevices.addAll(ids);
+            log.warn("Не удалось обновить сводку главной страницы: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Возвращает текущую сводку
+     * @return Карта показателей
+     */
+    public synchronized Map<String, Object> getDashboard() {
+        if (cached == null) {
+            cached = buildDashboard();
+        }
+        return cached;
+    }
+
+    /**
+     * Подключает клиента потока сводки; первое событие содержит текущую сводку
+     * @return SseEmitter клиента
+     */
+    public SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        Client client = new Client(emitter);
+        emitter.onCompletion(() -> clients.remove(client));
+        emitter.onTimeout(() -> clients.remove(client));
+        emitter.onError(e -> clients.remove(client));
+        clients.add(client);
+        offer(client, getDashboard());
+        return emitter;
+    }
+
+    /**
+     * Отключает клиентов, отправка которым зависла, и рассылает сводку остальным,
+     * если она изменилась с прошлой рассылки
+     */
+    @Scheduled(fixedDelayString = "${dashboard.push-interval-ms:1000}")
+    public void push() {
+        long now = System.nanoTime();
+        for (Client client : clients) {
+            if (client.isStalled(now, TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs))) {
+                close(client, "отправка длится дольше " + sendTimeoutMs + " мс");
+            }
+        }
+
+        Map<String, Object> dashboard;
+        synchronized (this) {
+            if (version == pushedVersion || clients.isEmpty()) {
+                return;
+            }
+            pushedVersion = version;
+            dashboard = getDashboard();
+        }
+        for (Client client : clients) {
+            offer(client, dashboard);
+        }
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * Заменяет вклад устройства в счётчики; вызывается под монитором сервиса
+     * @param next Новый вклад или null, если устройство удалено
+     */
+    private void apply(UUID deviceId, Contribution next) {
+        Contribution previous = next != null ? contributions.put(deviceId, next) : contributions.remove(deviceId);
+        if (next != null && next.equals(previous)) {
+            return;
+        }
+        if (previous != null) {
+            count(previous, -1);
+        }
+        if (next != null) {
+            count(next, 1);
+        }
+        version++;
+        cached = null;
+    }
+
+    private void count(Contribution contribution, int delta) {
+        DeviceStatus status = contribution.status() != null ? contribution.status() : DeviceStatus.OFFLINE;
+        byProtocol.computeIfAbsent(contribution.protocol(), protocol -> new TreeMap<>())
+                .merge(status, delta, Integer::sum);
+        if (status == DeviceStatus.ONLINE) {
+            online += delta;
+        }
+        if (contribution.roomId() != null) {
+            byRoom.merge(contribution.roomId(), delta, Integer::sum);
+        }
+        if (contribution.locationId() != null) {
+            byLocation.merge(contribution.locationId(), delta, Integer::sum);
+        }
+        if (contribution.lowBattery()) {
+            lowBattery += delta;
+        }
+        if (!contribution.alerts().isEmpty()) {
+            devicesWithAlerts += delta;
+            contribution.alerts().forEach(key -> alertsByKey.merge(key, delta, Integer::sum));
+        }
+    }
+
+    private Map<String, Object> buildDashboard() {
+        Map<String, Object> protocols = new LinkedHashMap<>();
+        byProtocol.forEach((protocol, statuses) -> {
+            int total = 0;
+            int protocolOnline = 0;
+            Map<String, Integer> byStatus = new LinkedHashMap<>();
+            for (Map.Entry<DeviceStatus, Integer> entry : statuses.entrySet()) {
+                if (entry.getValue() > 0) {
+                    byStatus.put(entry.getKey().name(), entry.getValue());
+                    total += entry.getValue();
+                }
+                if (entry.getKey() == DeviceStatus.ONLINE) {
+                    protocolOnline = entry.getValue();
+                }
+            }
+            if (total > 0) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("total", total);
+                item.put("online", protocolOnline);
+                item.put("offline", total - protocolOnline);
+                item.put("statuses", byStatus);
+                protocols.put(protocol, item);
+            }
+        });
+
+        Map<String, Object> dashboard = new LinkedHashMap<>();
+        dashboard.put("version", version);
+        dashboard.put("totalDevices", contributions.size());
+        dashboard.put("onlineDevices", online);
+        dashboard.put("offlineDevices", contributions.size() - online);
+        dashboard.put("protocols", protocols);
+        dashboard.put("devicesByRoom", positive(byRoom));
+        dashboard.put("devicesByLocation", positive(byLocation));
+        dashboard.put("lowBatteryDevices", lowBattery);
+        dashboard.put("activeSecurityEvents", devicesWithAlerts);
+        dashboard.put("securityEventsByType", positive(alertsByKey));
+        return dashboard;
+    }
+
+    private static <K> Map<String, Integer> positive(Map<K, Integer> counters) {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        counters.forEach((key, count) -> {
+            if (count > 0) {
+                result.put(key.toString(), count);
+            }
+        });
+        return result;
+    }
+
+    private void offer(Client client, Map<String, Object> dashboard) {
+        if (client.offer(dashboard)) {
+            sender.execute(() -> drain(client));
+        }
+    }
+
+    /**
+     * Отправляет клиенту последнюю сводку, пока во время отправки появляются новые
+     */
+    private void drain(Client client) {
+        Map<String, Object> dashboard;
+        while ((dashboard = client.take()) != null) {
+            client.sendingSince = System.nanoTime();
+            try {
+                client.emitter.send(SseEmitter.event().name("dashboard").data(dashboard, MediaType.APPLICATION_JSON));
+            } catch (IOException | IllegalStateException e) {
+                close(client, e.getMessage());
+                return;
+            } finally {
+                client.sendingSince = 0;
+            }
+        }
+    }
+
+    private void close(Client client, String reason) {
+        if (clients.remove(client)) {
+            log.debug("Клиент потока сводки отключён: {}", reason);
+            try {
+                client.emitter.complete();
+            } catch (IllegalStateException ignored) {
+                // соединение уже закрыто
+            }
+        }
+    }
+
+    private Contribution fromDevice(Device device) {
+        Set<String> alerts = new HashSet<>();
+        device.getProperties().forEach((key, value) -> {
+            if (alertRules.isAlert(key, value)) {
+                alerts.add(key);
+            }
+        });
+        return new Contribution(
+                device.getProtocol() != null ? device.getProtocol().name() : "UNKNOWN",
+                device.getStatus(),
+                device.getRoom() != null ? device.getRoom().getId() : null,
+                device.getLocation() != null ? device.getLocation().getId()
+                        : device.getRoom() != null && device.getRoom().getLocation() != null
+                        ? device.getRoom().getLocation().getId() : null,
+                alertRules.isLowBattery(device.getProperties().get(DeviceAlertRules.BATTERY_KEY)),
+                Set.copyOf(alerts));
+    }
+
+    /**
+     * Подключённый клиент потока и последняя неотправленная ему сводка
+     */
+    static class Client {
+
+        private final SseEmitter emitter;
+        private Map<String, Object> pending;
+        private boolean scheduled;
+        // Время начала текущей отправки (System.nanoTime) или 0
+        private volatile long sendingSince;
+
+        Client(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        /**
+         * Запоминает сводку для отправки, заменяя неотправленную
+         * @return true, если нужно запланировать отправку; false, если она уже запланирована
+         */
+        synchronized boolean offer(Map<String, Object> dashboard) {
+            pending = dashboard;
+            if (scheduled) {
+                return false;
+            }
+            scheduled = true;
+            return true;
+        }
+
+        /**
+         * Забирает сводку для отправки; если её нет, снимает признак запланированной отправки
+         */
+        synchronized Map<String, Object> take() {
+            Map<String, Object> dashboard = pending;
+            pending = null;
+            if (dashboard == null) {
+                scheduled = false;
+            }
+            return dashboard;
+        }
+
+        boolean isStalled(long now, long timeoutNanos) {
+            long since = sendingSince;
+            return since != 0 && now - since > timeoutNanos;
+        }
+    }
+
+    /**
+     * Вклад одного устройства в счётчики сводки
+     */
+    private record Contribution(String protocol, DeviceStatus status, UUID roomId, UUID locationId,
+                                boolean lowBattery, Set<String> alerts) {
+
+        static final Contribution EMPTY = new Contribution("UNKNOWN", null, null, null, false, Set.of());
+
+        boolean metadataUnknown() {
+            return "UNKNOWN".equals(protocol) && roomId == null && locationId == null;
+        }
+
+        Contribution withMetadata(Contribution loaded) {
+            return new Contribution(loaded.protocol(), status, loaded.roomId(), loaded.locationId(), lowBattery, alerts);
+        }
+
+        Contribution update(DeviceChangeEvent event, DeviceAlertRules rules) {
+            boolean battery = lowBattery;
+            Set<String> active = alerts;
+            if (event.properties().containsKey(DeviceAlertRules.BATTERY_KEY)) {
+                battery = rules.isLowBattery(event.properties().get(DeviceAlertRules.BATTERY_KEY));
+            } else if (event.removed().contains(DeviceAlertRules.BATTERY_KEY)) {
+                battery = false;
+            }
+            for (Map.Entry<String, String> entry : event.properties().entrySet()) {
+                if (rules.isAlertKey(entry.getKey())) {
+                    boolean alert = rules.isAlert(entry.getKey(), entry.getValue());
+                    if (alert != active.contains(entry.getKey())) {
+                        active = new HashSet<>(active);
+                        if (alert) {
+                            active.add(entry.getKey());
+                        } else {
+                            active.remove(entry.getKey());
+                        }
+                    }
+                }
+            }
+            if (!event.removed().isEmpty() && event.removed().stream().anyMatch(active::contains)) {
+                active = new HashSet<>(active);
+                active.removeAll(event.removed());
+            }
+            return new Contribution(protocol, event.status() != null ? event.status() : status,
+                    roomId, locationId, battery, active == alerts ? alerts : Set.copyOf(active));
+        }
+    }
+}
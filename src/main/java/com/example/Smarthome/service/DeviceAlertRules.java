@@ -0,0 +1,65 @@
+package com.example.Smarthome.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Правила, по которым свойства устройства считаются низким зарядом батареи или тревогой датчика
+ * Общие для сводки главной страницы и уведомлений, чтобы они не расходились
+ */
+@Component
+public class DeviceAlertRules {
+
+    public static final String BATTERY_KEY = "battery";
+
+    @Value("${dashboard.low-battery-threshold:20}")
+    private double lowBatteryThreshold;
+
+    // Свойство:значение, означающее тревогу; через запятую
+    @Value("${dashboard.security.alerts:motion:detected,smoke:detected,leak:detected,alarm:on,door:open,contact:open}")
+    private String[] securityAlerts;
+
+    private Map<String, Set<String>> alertValues;
+
+    @PostConstruct
+    public void init() {
+        alertValues = new HashMap<>();
+        for (String alert : securityAlerts) {
+            int separator = alert.indexOf(':');
+            if (separator > 0) {
+                alertValues.computeIfAbsent(alert.substring(0, separator).trim(), key -> new HashSet<>())
+                        .add(alert.substring(separator + 1).trim().toLowerCase());
+            }
+        }
+    }
+
+    /**
+     * Проверяет, что значение свойства battery ниже порога
+     * @param value Значение свойства или null
+     */
+    public boolean isLowBattery(String value) {
+        double level = PropertyValues.parseNumber(value);
+        return !Double.isNaN(level) && level < lowBatteryThreshold;
+    }
+
+    /**
+     * Проверяет, что свойство может сообщать о тревоге
+     */
+    public boolean isAlertKey(String key) {
+        return alertValues.containsKey(key);
+    }
+
+    /**
+     * Проверяет, что значение свойства означает тревогу
+     */
+    public boolean isAlert(String key, String value) {
+        Set<String> values = alertValues.get(key);
+        return values != null && value != null && values.contains(value.toLowerCase());
+    }
+}
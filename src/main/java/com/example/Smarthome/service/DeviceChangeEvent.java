@@ -0,0 +1,56 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.DeviceStatus;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Изменение состояния устройства
+ * Публикуется как событие Spring и передаётся клиентам потока /api/devices/stream
+ * @param seq Порядковый номер изменения (монотонно растёт в пределах запуска приложения)
+ * @param deviceId ID устройства
+ * @param type Тип изменения
+ * @param properties Изменённые свойства
+ * @param removed Удалённые свойства
+ * @param status Текущий статус устройства (если известен)
+ * @param lastSeen Время последнего ответа устройства (если известно)
+ */
+public record DeviceChangeEvent(long seq, UUID deviceId, Type type, Map<String, String> properties,
+                                Set<String> removed, DeviceStatus status, LocalDateTime lastSeen) {
+
+    public enum Type {
+        /** Изменились свойства или статус */
+        UPDATED,
+        /** Устройство создано или изменены его метаданные, клиенту следует перечитать устройство */
+        SAVED,
+        /** Устройство удалено */
+        DELETED
+    }
+
+    /**
+     * Объединяет это изменение с более поздним изменением того же устройства
+     * @param later Более позднее изменение
+     * @return изменение, эквивалентное последовательному применению обоих
+     */
+    public DeviceChangeEvent merge(DeviceChangeEvent later) {
+        if (later.type() != Type.UPDATED || type == Type.DELETED) {
+            return later;
+        }
+
+        Map<String, String> mergedProperties = new HashMap<>(properties);
+        Set<String> mergedRemoved = new HashSet<>(removed);
+        mergedProperties.keySet().removeAll(later.removed());
+        mergedRemoved.removeAll(later.properties().keySet());
+        mergedProperties.putAll(later.properties());
+        mergedRemoved.addAll(later.removed());
+
+        return new DeviceChangeEvent(later.seq(), deviceId, type, mergedProperties, mergedRemoved,
+                later.status() != null ? later.status() : status,
+                later.lastSeen() != null ? later.lastSeen() : lastSeen);
+    }
+}
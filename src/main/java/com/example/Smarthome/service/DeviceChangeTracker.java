@@ -0,0 +1,119 @@
+package com.example.Smarthome.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отслеживает номер последнего изменения каждого устройства
+ *
+ * Используется для инкрементальной выдачи списка устройств: клиент передаёт номер,
+ * полученный в предыдущем ответе, и получает только изменённые и удалённые с тех пор устройства.
+ * Сведения об удалённых устройствах хранятся tombstone-ttl-ms, более старые номера
+ * требуют полной загрузки списка.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DeviceChangeTracker {
+
+    private final DeviceEventPublisher deviceEventPublisher;
+
+    @Value("${device.changes.tombstone-ttl-ms:3600000}")
+    private long tombstoneTtlMs;
+
+    // ID устройства -> номер последнего изменения
+    private final Map<UUID, Long> changedAt = new ConcurrentHashMap<>();
+
+    // ID удалённого устройства -> номер удаления
+    private final Map<UUID, Tombstone> deletedAt = new ConcurrentHashMap<>();
+
+    // Номера не больше этого значения относятся к уже забытым удалениям
+    private volatile long purgedUpTo;
+
+    @EventListener
+    public void onDeviceChange(DeviceChangeEvent event) {
+        UUID deviceId = event.deviceId();
+        if (event.type() == DeviceChangeEvent.Type.DELETED) {
+            deletedAt.merge(deviceId, new Tombstone(event.seq(), System.nanoTime()),
+                    (current, added) -> current.seq() > added.seq() ? current : added);
+        } else {
+            changedAt.merge(deviceId, event.seq(), Math::max);
+        }
+    }
+
+    /**
+     * Возвращает изменения, произошедшие после указанного номера
+     * @param since Номер из предыдущего ответа
+     * @return Optional с изменениями или пустой, если номер устарел или относится к другому запуску приложения
+     */
+    public Optional<ChangeSet> getChangesSince(long since) {
+        // Номер ответа фиксируется до просмотра изменений: изменения, пришедшие во время
+        // просмотра, могут попасть в ответ, но будут повторно выданы в следующем
+        long seq = deviceEventPublisher.getCompletedSeq();
+        if (since < 0 || since > seq || since < purgedUpTo) {
+            return Optional.empty();
+        }
+
+        List<UUID> changed = new ArrayList<>();
+        List<UUID> deleted = new ArrayList<>();
+        deletedAt.forEach((deviceId, tombstone) -> {
+            Long changeSeq = changedAt.get(deviceId);
+            if (tombstone.seq() > since && (changeSeq == null || changeSeq < tombstone.seq())) {
+                deleted.add(deviceId);
+            }
+        });
+        changedAt.forEach((deviceId, changeSeq) -> {
+            if (changeSeq > since) {
+                Tombstone tombstone = deletedAt.get(deviceId);
+                if (tombstone == null || tombstone.seq() < changeSeq) {
+                    changed.add(deviceId);
+                }
+            }
+        });
+        return Optional.of(new ChangeSet(seq, changed, deleted));
+    }
+
+    /**
+     * Удаляет устаревшие сведения об удалённых устройствах
+     */
+    @Scheduled(fixedDelayString = "${device.changes.purge-interval-ms:60000}")
+    public void purgeTombstones() {
+        long threshold = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(tombstoneTtlMs);
+        deletedAt.entrySet().removeIf(entry -> {
+            Tombstone tombstone = entry.getValue();
+            if (tombstone.deletedAt() - threshold > 0) {
+                return false;
+            }
+            purgedUpTo = Math.max(purgedUpTo, tombstone.seq());
+            Long changeSeq = changedAt.get(entry.getKey());
+            if (changeSeq != null && changeSeq < tombstone.seq()) {
+                changedAt.remove(entry.getKey(), changeSeq);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Изменения устройств
+     * @param seq Номер, который клиент передаёт в следующем запросе
+     * @param changed ID изменённых или созданных устройств
+     * @param deleted ID удалённых устройств
+     */
+    public record ChangeSet(long seq, List<UUID> changed, List<UUID> deleted) {
+    }
+
+    private record Tombstone(long seq, long deletedAt) {
+    }
+}
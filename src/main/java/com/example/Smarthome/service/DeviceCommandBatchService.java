@@ -0,0 +1,204 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.dto.DeviceCommandBatchRequest;
+import com.example.Smarthome.model.ConnectionProtocol;
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.service.ProtocolAdapterService.AdapterCommand;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Пакетное выполнение команд на нескольких устройствах (сценарии)
+ *
+ * Устройства загружаются одним запросом, команды отправляются адаптерам параллельно.
+ * Свойства, изменённые командами setState, применяются в хранилище состояний
+ * и записываются в базу одной транзакцией, после чего в ThingsBoard уходит
+ * по одной отправке на устройство только с изменившимися ключами.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DeviceCommandBatchService {
+
+    private static final String ATTRIBUTE_PREFIX = "attr_";
+
+    private final DeviceService deviceService;
+    private final ProtocolAdapterService protocolAdapterService;
+    private final DeviceStateStore deviceStateStore;
+    private final DeviceLivenessTracker deviceLivenessTracker;
+    private final ThingsBoardIntegrationService thingsBoardService;
+    private final ExecutorService deviceCommandExecutor;
+    private final ExecutorService thingsBoardPushExecutor;
+
+    /**
+     * Выполняет пакет команд
+     * @param items Команды
+     * @return future с результатами в порядке команд
+     */
+    public CompletableFuture<List<CommandResult>> execute(List<DeviceCommandBatchRequest.Item> items) {
+        Set<UUID> ids = items.stream()
+                .map(DeviceCommandBatchRequest.Item::getDeviceId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        Map<UUID, Device> devices = deviceService.getDevicesByIds(ids).stream()
+                .collect(Collectors.toMap(Device::getId, Function.identity()));
+
+        CommandResult[] results = new CommandResult[items.size()];
+        List<Integer> dispatched = new ArrayList<>();
+        List<AdapterCommand> commands = new ArrayList<>();
+
+        for (int i = 0; i < items.size(); i++) {
+            DeviceCommandBatchRequest.Item item = items.get(i);
+            Map<String, String> parameters = item.getParameters() != null ? item.getParameters() : Map.of();
+            Device device = item.getDeviceId() != null ? devices.get(item.getDeviceId()) : null;
+
+            String error = null;
+            if (item.getCommand() == null || item.getCommand().isEmpty()) {
+                error = "Не указана команда";
+            } else if (device == null) {
+                error = "Устройство с ID " + item.getDeviceId() + " не найдено";
+            } else if (parameters.keySet().stream().anyMatch(key -> key.startsWith(ATTRIBUTE_PREFIX))) {
+                error = "Атрибуты ThingsBoard обновляются только командой для одного устройства";
+            } else {
+                error = checkAvailable(device);
+            }
+
+            if (error != null) {
+                results[i] = CommandResult.failed(item.getDeviceId(), item.getCommand(), error);
+            } else {
+                dispatched.add(i);
+                commands.add(new AdapterCommand(device, item.getCommand(), parameters));
+            }
+        }
+
+        // Запись изменений в базу не должна занимать потоки обработки результатов адаптеров,
+        // а ответ на пакет не должен ждать синхронизации с ThingsBoard
+        return protocolAdapterService.sendCommandsAsync(commands).thenApplyAsync(outcomes -> {
+            List<AdapterCommand> succeeded = new ArrayList<>();
+            for (int j = 0; j < outcomes.size(); j++) {
+                if (outcomes.get(j)) {
+                    succeeded.add(commands.get(j));
+                }
+            }
+            applyStateChanges(succeeded);
+
+            for (int j = 0; j < outcomes.size(); j++) {
+                int index = dispatched.get(j);
+                AdapterCommand command = commands.get(j);
+                UUID deviceId = command.device().getId();
+                results[index] = outcomes.get(j)
+                        ? new CommandResult(deviceId, command.command(), true, null,
+                                deviceStateStore.getProperties(deviceId).orElse(Map.of()))
+                        : CommandResult.failed(deviceId, command.command(), "Ошибка при отправке команды на устройство");
+            }
+            return List.of(results);
+        }, deviceCommandExecutor);
+    }
+
+    /**
+     * Проверяет, что устройство может принять команду
+     * Виртуальные устройства всегда доступны и отмечаются в сети
+     * @param device Устройство
+     * @return причина отказа или null, если команду можно отправлять
+     */
+    public String checkAvailable(Device device) {
+        if (device.getProtocol() == ConnectionProtocol.VIRTUAL) {
+            deviceLivenessTracker.heartbeat(device.getId());
+            return null;
+        }
+        if (device.getStatus() != DeviceStatus.ONLINE) {
+            return "Устройство " + device.getName() + " находится в состоянии OFFLINE";
+        }
+        return null;
+    }
+
+    /**
+     * Применяет свойства успешно выполненных команд setState
+     * Изменения записываются в базу одной транзакцией и отправляются в ThingsBoard
+     * по одной отправке на устройство
+     * @param commands Успешно выполненные команды в порядке применения
+     */
+    public void applyStateChanges(List<AdapterCommand> commands) {
+        // Одно устройство может встречаться несколько раз
+        Map<UUID, Map<String, String>> changed = new LinkedHashMap<>();
+        for (AdapterCommand command : commands) {
+            if ("setState".equals(command.command())) {
+                deviceStateStore.updateProperties(command.device().getId(), command.parameters())
+                        .filter(diff -> !diff.isEmpty())
+                        .ifPresent(diff -> changed
+                                .computeIfAbsent(command.device().getId(), id -> new HashMap<>())
+                                .putAll(diff.changed()));
+            }
+        }
+        if (!changed.isEmpty()) {
+            deviceStateStore.flush(changed.keySet());
+            pushToThingsBoard(changed);
+        }
+    }
+
+    /**
+     * Отправляет изменившиеся свойства в ThingsBoard, не задерживая ответ
+     * Отправки, не поместившиеся в очередь пула, пропускаются: изменения уйдут
+     * со следующей периодической синхронизацией
+     */
+    private void pushToThingsBoard(Map<UUID, Map<String, String>> changed) {
+        List<CompletableFuture<Void>> pushes = new ArrayList<>();
+        AtomicInteger failed = new AtomicInteger();
+        changed.forEach((deviceId, properties) -> deviceStateStore.getSnapshot(deviceId)
+                .filter(snapshot -> snapshot.thingsboardToken() != null && !snapshot.thingsboardToken().isEmpty())
+                .ifPresent(snapshot -> {
+                    try {
+                        pushes.add(CompletableFuture.runAsync(() -> {
+                            if (!thingsBoardService.sendDeviceUpdate(snapshot.name(), snapshot.thingsboardToken(),
+                                    properties, snapshot.status())) {
+                                failed.incrementAndGet();
+                            }
+                        }, thingsBoardPushExecutor));
+                    } catch (RejectedExecutionException e) {
+                        failed.incrementAndGet();
+                        log.warn("Очередь отправки в ThingsBoard заполнена, изменения устройства {} будут отправлены при синхронизации",
+                                snapshot.name());
+                    }
+                }));
+        if (pushes.isEmpty()) {
+            return;
+        }
+        CompletableFuture.allOf(pushes.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ignored, e) -> log.debug("Изменения пакета команд отправлены в ThingsBoard: {} устройств, ошибок: {}",
+                        pushes.size(), failed.get()));
+    }
+
+    /**
+     * Результат команды пакета
+     * @param deviceId ID устройства
+     * @param command Команда
+     * @param success Успешность выполнения
+     * @param error Причина ошибки или null
+     * @param properties Свойства устройства после выполнения команды или null при ошибке
+     */
+    public record CommandResult(UUID deviceId, String command, boolean success, String error,
+                                Map<String, String> properties) {
+
+        static CommandResult failed(UUID deviceId, String command, String error) {
+            return new CommandResult(deviceId, command, false, error, null);
+        }
+    }
+}
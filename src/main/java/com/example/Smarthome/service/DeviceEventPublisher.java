@@ -0,0 +1,191 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.DeviceStatus;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Публикует изменения состояния устройств
+ *
+ * Каждому изменению присваивается порядковый номер, последние изменения хранятся
+ * в кольцевом буфере, чтобы переподключившиеся клиенты могли получить пропущенное.
+ * Номера действительны в пределах эпохи — времени запуска приложения.
+ *
+ * Слушатели событий вызываются синхронно в потоке, изменившем состояние,
+ * поэтому должны выполняться быстро. Код, изменяющий состояние под блокировкой,
+ * получает событие через record* под блокировкой (это фиксирует порядок номеров)
+ * и передаёт его слушателям через dispatch после её снятия.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DeviceEventPublisher {
+
+    private final ApplicationEventPublisher applicationEventPublisher;
+
+    @Value("${device.events.buffer-size:4096}")
+    private int bufferSize;
+
+    private final long epoch = System.currentTimeMillis();
+
+    private DeviceChangeEvent[] buffer;
+    private long lastSeq;
+
+    // Номера изменений, слушатели которых ещё выполняются
+    private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+
+    @PostConstruct
+    public void init() {
+        buffer = new DeviceChangeEvent[Math.max(16, bufferSize)];
+    }
+
+    /**
+     * Публикует изменение свойств или статуса устройства
+     */
+    public void publishUpdate(UUID deviceId, Map<String, String> properties, Set<String> removed,
+                              DeviceStatus status, LocalDateTime lastSeen) {
+        publish(deviceId, DeviceChangeEvent.Type.UPDATED, properties, removed, status, lastSeen);
+    }
+
+    /**
+     * Регистрирует изменение свойств или статуса устройства без вызова слушателей
+     * Событие считается незавершённым, пока не будет передано в dispatch
+     * @return событие для последующей передачи в dispatch
+     */
+    DeviceChangeEvent recordUpdate(UUID deviceId, Map<String, String> properties, Set<String> removed,
+                                   DeviceStatus status, LocalDateTime lastSeen) {
+        return record(deviceId, DeviceChangeEvent.Type.UPDATED, properties, removed, status, lastSeen);
+    }
+
+    /**
+     * Передаёт зарегистрированное событие слушателям
+     * @param event Событие, полученное из recordUpdate, или null
+     */
+    void dispatch(DeviceChangeEvent event) {
+        if (event == null) {
+            return;
+        }
+        try {
+            applicationEventPublisher.publishEvent(event);
+        } finally {
+            inFlight.remove(event.seq());
+        }
+    }
+
+    /**
+     * Публикует создание или изменение метаданных устройства
+     */
+    public void publishSaved(UUID deviceId, DeviceStatus status, LocalDateTime lastSeen) {
+        publish(deviceId, DeviceChangeEvent.Type.SAVED, Map.of(), Set.of(), status, lastSeen);
+    }
+
+    /**
+     * Публикует удаление устройства
+     */
+    public void publishDeleted(UUID deviceId) {
+        publish(deviceId, DeviceChangeEvent.Type.DELETED, Map.of(), Set.of(), null, null);
+    }
+
+    /**
+     * Эпоха номеров изменений (время запуска приложения)
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Номер последнего опубликованного изменения
+     */
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * Номер, до которого (включительно) все изменения уже переданы слушателям
+     * Номера присваиваются до вызова слушателей, поэтому изменение с меньшим номером
+     * может быть доставлено позже изменения с большим
+     */
+    public synchronized long getCompletedSeq() {
+        return inFlight.isEmpty() ? lastSeq : inFlight.first() - 1;
+    }
+
+    /**
+     * Формирует идентификатор изменения вида "эпоха-номер"
+     */
+    public String formatEventId(long seq) {
+        return epoch + "-" + seq;
+    }
+
+    /**
+     * Разбирает идентификатор изменения вида "эпоха-номер" (или только номер)
+     * @return номер изменения или -1, если идентификатор отсутствует, некорректен или относится к другой эпохе
+     */
+    public long parseEventId(String eventId) {
+        if (eventId == null || eventId.isBlank()) {
+            return -1;
+        }
+        int separator = eventId.indexOf('-');
+        try {
+            if (separator < 0) {
+                return Long.parseLong(eventId.trim());
+            }
+            long eventEpoch = Long.parseLong(eventId.substring(0, separator).trim());
+            return eventEpoch == epoch ? Long.parseLong(eventId.substring(separator + 1).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Возвращает изменения с номером больше указанного
+     * @param since Номер последнего полученного клиентом изменения
+     * @return Optional со списком изменений или пустой, если часть изменений уже вытеснена из буфера
+     */
+    public synchronized Optional<List<DeviceChangeEvent>> getEventsSince(long since) {
+        if (since > lastSeq) {
+            return Optional.empty();
+        }
+        long oldest = Math.max(1, lastSeq - buffer.length + 1);
+        if (since + 1 < oldest) {
+            return Optional.empty();
+        }
+
+        List<DeviceChangeEvent> events = new ArrayList<>((int) (lastSeq - since));
+        for (long seq = since + 1; seq <= lastSeq; seq++) {
+            events.add(buffer[(int) (seq % buffer.length)]);
+        }
+        return Optional.of(events);
+    }
+
+    private void publish(UUID deviceId, DeviceChangeEvent.Type type, Map<String, String> properties,
+                         Set<String> removed, DeviceStatus status, LocalDateTime lastSeen) {
+        dispatch(record(deviceId, type, properties, removed, status, lastSeen));
+    }
+
+    private synchronized DeviceChangeEvent record(UUID deviceId, DeviceChangeEvent.Type type,
+                                                  Map<String, String> properties, Set<String> removed,
+                                                  DeviceStatus status, LocalDateTime lastSeen) {
+        DeviceChangeEvent event = new DeviceChangeEvent(++lastSeq, deviceId, type,
+                Collections.unmodifiableMap(new HashMap<>(properties)),
+                Collections.unmodifiableSet(new HashSet<>(removed)), status, lastSeen);
+        buffer[(int) (event.seq() % buffer.length)] = event;
+        inFlight.add(event.seq());
+        return event;
+    }
+}
@@ -0,0 +1,301 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.repository.DeviceStateJdbcRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отслеживание доступности устройств
+ *
+ * Для каждого устройства в статусе ONLINE хранится срок: время последнего ответа плюс timeout-ms.
+ * Сроки размещаются в хешированном колесе таймеров с шагом tick-ms, разбитом на шарды по ID устройства.
+ * Ответ устройства только переносит срок, не трогая колесо; при срабатывании ячейки устройство
+ * либо переносится на свой новый срок, либо переводится в OFFLINE. Таким образом, каждый шаг
+ * обрабатывает только истёкшие сроки, а не весь парк устройств.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DeviceLivenessTracker {
+
+    private final DeviceStateStore deviceStateStore;
+    private final DeviceStateJdbcRepository deviceStateJdbcRepository;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${device.liveness.timeout-ms:300000}")
+    private long timeoutMs;
+
+    @Value("${device.liveness.tick-ms:1000}")
+    private long tickMs;
+
+    @Value("${device.liveness.wheel-size:512}")
+    private int wheelSize;
+
+    @Value("${device.liveness.shards:4}")
+    private int shardCount;
+
+    private final long origin = System.nanoTime();
+    private Shard[] shards;
+
+    private Timer tickTimer;
+    private Counter offlineTransitions;
+
+    @PostConstruct
+    public void init() {
+        shards = new Shard[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(Math.max(16, wheelSize), currentTick());
+        }
+
+        tickTimer = Timer.builder("smarthome.device.liveness.tick")
+                .description("Шаг проверки доступности устройств")
+                .register(meterRegistry);
+        offlineTransitions = Counter.builder("smarthome.device.liveness.offline")
+                .description("Устройства, переведённые в OFFLINE по таймауту")
+                .register(meterRegistry);
+        Gauge.builder("smarthome.device.liveness.tracked", this, DeviceLivenessTracker::getTrackedCount)
+                .description("Устройства в сети, для которых отслеживается срок ответа")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Ставит на отслеживание устройства, которые были в сети на момент запуска
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnlineDevices() {
+        try {
+            Map<UUID, LocalDateTime> online = deviceStateJdbcRepository.findLastSeenByStatus(DeviceStatus.ONLINE);
+            LocalDateTime now = LocalDateTime.now();
+            online.forEach((deviceId, lastSeen) -> schedule(deviceId, deadlineTick(lastSeen, now)));
+            log.info("Отслеживание доступности запущено для {} устройств", online.size());
+        } catch (Exception e) {
+            log.warn("Не удалось загрузить устройства для отслеживания доступности: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Фиксирует ответ устройства: отмечает его в сети и переносит срок
+     * @param deviceId ID устройства
+     * @return true если устройство существует
+     */
+    public boolean heartbeat(UUID deviceId) {
+        if (!deviceStateStore.markSeen(deviceId, DeviceStatus.ONLINE, LocalDateTime.now())) {
+            return false;
+        }
+        schedule(deviceId, currentTick() + timeoutTicks());
+        return true;
+    }
+
+    /**
+     * Следит за изменениями статуса, сделанными в обход heartbeat (создание устройства, ручная смена статуса)
+     */
+    @EventListener
+    public void onDeviceChange(DeviceChangeEvent event) {
+        if (event.type() == DeviceChangeEvent.Type.DELETED
+                || (event.status() != null && event.status() != DeviceStatus.ONLINE)) {
+            shardOf(event.deviceId()).remove(event.deviceId());
+        } else if (event.status() == DeviceStatus.ONLINE) {
+            shardOf(event.deviceId()).scheduleIfAbsent(event.deviceId(),
+                    deadlineTick(event.lastSeen(), LocalDateTime.now()));
+        }
+    }
+
+    /**
+     * Продвигает колесо до текущего шага и переводит в OFFLINE устройства с истёкшим сроком
+     */
+    @Scheduled(fixedRateString = "${device.liveness.tick-ms:1000}")
+    public void advance() {
+        long start = System.nanoTime();
+        long now = currentTick();
+        List<UUID> expired = new ArrayList<>();
+        for (Shard shard : shards) {
+            shard.advance(now, expired);
+        }
+        if (expired.isEmpty()) {
+            tickTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return;
+        }
+
+        // Статусы меняются в хранилище состояний и записываются в базу его пакетным сбросом.
+        // Устройство могло ответить после снятия с колеса: такой ответ хранилище учтёт
+        // при проверке времени последнего ответа, а heartbeat уже поставил новый срок
+        LocalDateTime seenBefore = LocalDateTime.now().minus(Duration.ofMillis(timeoutMs));
+        int offline = 0;
+        for (UUID deviceId : expired) {
+            if (deviceStateStore.expireStatus(deviceId, seenBefore)) {
+                offline++;
+            } else {
+                // Устройство осталось в сети: продолжаем отслеживать его по фактическому времени ответа
+                deviceStateStore.getSnapshot(deviceId)
+                        .filter(snapshot -> snapshot.status() == DeviceStatus.ONLINE)
+                        .ifPresent(snapshot -> shardOf(deviceId).scheduleIfAbsent(deviceId,
+                                deadlineTick(snapshot.lastSeen(), LocalDateTime.now())));
+            }
+        }
+        offlineTransitions.increment(offline);
+        tickTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (offline > 0) {
+            log.info("Устройства не в сети (таймаут): {}", offline);
+        }
+    }
+
+    /**
+     * Количество отслеживаемых устройств
+     */
+    public int getTrackedCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            count += shard.size();
+        }
+        return count;
+    }
+
+    private void schedule(UUID deviceId, long deadlineTick) {
+        shardOf(deviceId).schedule(deviceId, deadlineTick);
+    }
+
+    private Shard shardOf(UUID deviceId) {
+        return shards[(deviceId.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - origin) / TimeUnit.MILLISECONDS.toNanos(tickMs);
+    }
+
+    private long timeoutTicks() {
+        return (timeoutMs + tickMs - 1) / tickMs;
+    }
+
+    /**
+     * Вычисляет шаг истечения срока по времени последнего ответа
+     */
+    private long deadlineTick(LocalDateTime lastSeen, LocalDateTime now) {
+        if (lastSeen == null) {
+            return currentTick() + timeoutTicks();
+        }
+        long remainingMs = timeoutMs - Duration.between(lastSeen, now).toMillis();
+        return currentTick() + Math.max(0, (remainingMs + tickMs - 1) / tickMs);
+    }
+
+    /**
+     * Шард колеса таймеров; все поля защищены монитором шарда
+     */
+    private static final class Shard {
+
+        private final Map<UUID, Deadline> deadlines = new HashMap<>();
+        private final List<Set<UUID>> buckets;
+        private long tick;
+
+        Shard(int size, long tick) {
+            this.buckets = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                buckets.add(new HashSet<>());
+            }
+            this.tick = tick;
+        }
+
+        synchronized void schedule(UUID deviceId, long requestedTick) {
+            // Пройденные ячейки повторно не обрабатываются, поэтому срок не может быть раньше следующего шага
+            long deadlineTick = Math.max(requestedTick, tick + 1);
+            Deadline deadline = deadlines.get(deviceId);
+            if (deadline == null) {
+                deadlines.put(deviceId, new Deadline(deadlineTick, deadlineTick));
+                bucket(deadlineTick).add(deviceId);
+                return;
+            }
+            deadline.deadlineTick = deadlineTick;
+            // Более поздний срок будет учтён при срабатывании текущей ячейки
+            if (deadlineTick < deadline.scheduledTick) {
+                deadline.scheduledTick = deadlineTick;
+                bucket(deadlineTick).add(deviceId);
+            }
+        }
+
+        synchronized void scheduleIfAbsent(UUID deviceId, long deadlineTick) {
+            if (!deadlines.containsKey(deviceId)) {
+                schedule(deviceId, deadlineTick);
+            }
+        }
+
+        synchronized void remove(UUID deviceId) {
+            // Запись в ячейке будет отброшена при её срабатывании
+            deadlines.remove(deviceId);
+        }
+
+        synchronized int size() {
+            return deadlines.size();
+        }
+
+        synchronized void advance(long now, List<UUID> expired) {
+            // После длительной паузы достаточно одного оборота колеса
+            long from = Math.max(tick + 1, now - buckets.size() + 1);
+            List<UUID> rescheduled = new ArrayList<>();
+            for (long t = from; t <= now; t++) {
+                Iterator<UUID> iterator = bucket(t).iterator();
+                while (iterator.hasNext()) {
+                    UUID deviceId = iterator.next();
+                    Deadline deadline = deadlines.get(deviceId);
+                    if (deadline == null || bucketIndex(deadline.scheduledTick) != bucketIndex(t)) {
+                        // Устройство снято с отслеживания или перенесено в другую ячейку
+                        iterator.remove();
+                    } else if (deadline.scheduledTick <= now) {
+                        iterator.remove();
+                        if (deadline.deadlineTick <= now) {
+                            deadlines.remove(deviceId);
+                            expired.add(deviceId);
+                        } else {
+                            deadline.scheduledTick = deadline.deadlineTick;
+                            rescheduled.add(deviceId);
+                        }
+                    }
+                    // Иначе срок относится к одному из следующих оборотов колеса
+                }
+            }
+            for (UUID deviceId : rescheduled) {
+                bucket(deadlines.get(deviceId).scheduledTick).add(deviceId);
+            }
+            tick = Math.max(tick, now);
+        }
+
+        private Set<UUID> bucket(long tick) {
+            return buckets.get(bucketIndex(tick));
+        }
+
+        private int bucketIndex(long tick) {
+            return (int) Math.floorMod(tick, (long) buckets.size());
+        }
+    }
+
+    private static final class Deadline {
+        private long deadlineTick;
+        private long scheduledTick;
+
+        Deadline(long deadlineTick, long scheduledTick) {
+            this.deadlineTick = deadlineTick;
+            this.scheduledTick = scheduledTick;
+        }
+    }
+}
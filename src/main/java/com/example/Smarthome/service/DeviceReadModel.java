@@ -0,0 +1,302 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.dto.DeviceDto;
+import com.example.Smarthome.model.Device;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Готовое к выдаче представление устройств
+ *
+ * Для каждого устройства хранится DeviceDto и его JSON. Запись сбрасывается событием
+ * изменения устройства и строится заново при следующем чтении, поэтому ответы
+ * GET /api/devices и GET /api/devices/{id} в основном собираются из готовых байтов.
+ * Полный список дополнительно кэшируется целиком до следующего изменения.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DeviceReadModel {
+
+    private static final Comparator<Entry> LIST_ORDER = Comparator
+            .comparing((Entry entry) -> entry.dto().getName() != null ? entry.dto().getName().toLowerCase() : "")
+            .thenComparing(entry -> entry.dto().getId());
+
+    private final DeviceService deviceService;
+    private final DeviceEventPublisher deviceEventPublisher;
+    private final ObjectMapper objectMapper;
+
+    // ID устройства -> запись; запись без JSON означает, что устройство изменилось и её нужно построить заново
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+    // Весь список загружен хотя бы раз, и entries содержит все устройства
+    private volatile boolean complete;
+
+    private volatile CachedList cachedList;
+
+    // Счётчик удалений: запись не кэшируется, если устройство могло быть удалено во время чтения
+    private final AtomicLong deletions = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder listHits = new LongAdder();
+    private final LongAdder listBuilds = new LongAdder();
+
+    /**
+     * Сбрасывает запись изменившегося устройства
+     */
+    @EventListener
+    public void onDeviceChange(DeviceChangeEvent event) {
+        invalidations.increment();
+        if (event.type() == DeviceChangeEvent.Type.DELETED) {
+            deletions.incrementAndGet();
+            entries.remove(event.deviceId());
+        } else {
+            entries.compute(event.deviceId(), (id, current) -> Entry.stale(current == null ? 1 : current.version() + 1));
+        }
+    }
+
+    /**
+     * Возвращает JSON устройства
+     * @param id ID устройства
+     * @return Optional с JSON или пустой, если устройство не существует
+     */
+    public Optional<byte[]> getDeviceJson(UUID id) {
+        Entry entry = entries.get(id);
+        if (entry != null && entry.isReady()) {
+            hits.increment();
+            return Optional.of(entry.json());
+        }
+        misses.increment();
+        long version = entry != null ? entry.version() : 0;
+        long deletionCount = deletions.get();
+        return deviceService.getDeviceById(id).map(device -> store(device, version, deletionCount).json());
+    }
+
+    /**
+     * Возвращает DTO устройств с указанными ID
+     * @param ids ID устройств
+     * @return DTO существующих устройств
+     */
+    public List<DeviceDto> getDevices(Collection<UUID> ids) {
+        List<DeviceDto> result = new ArrayList<>(ids.size());
+        long deletionCount = deletions.get();
+        List<UUID> missing = new ArrayList<>();
+        Map<UUID, Long> versions = new HashMap<>();
+        for (UUID id : ids) {
+            Entry entry = entries.get(id);
+            if (entry != null && entry.isReady()) {
+                hits.increment();
+                result.add(entry.dto());
+            } else {
+                misses.increment();
+                missing.add(id);
+                versions.put(id, entry != null ? entry.version() : 0);
+            }
+        }
+        for (Device device : deviceService.getDevicesByIds(missing)) {
+            result.add(store(device, versions.get(device.getId()), deletionCount).dto());
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает JSON-массив всех устройств
+     * @return JSON и номер изменения, по состоянию на который он построен
+     */
+    public CachedList getAllDevicesJson() {
+        // Номер фиксируется до чтения, поэтому он никогда не опережает содержимое списка
+        long seq = deviceEventPublisher.getCompletedSeq();
+        CachedList cached = cachedList;
+        if (cached != null && cached.seq() == seq) {
+            listHits.increment();
+            return cached;
+        }
+        listBuilds.increment();
+        long deletionCount = deletions.get();
+
+        // Заново построенные записи попадают в ответ, даже если их не удалось сохранить
+        // из-за изменения устройства во время чтения: они не старше номера ответа
+        Map<UUID, Entry> fresh = new HashMap<>();
+        if (!complete) {
+            Map<UUID, Long> versions = new HashMap<>();
+            entries.forEach((id, entry) -> versions.put(id, entry.version()));
+            for (Device device : deviceService.getAllDevices()) {
+                fresh.put(device.getId(), store(device, versions.getOrDefault(device.getId(), 0L), deletionCount));
+            }
+            complete = true;
+        } else {
+            Map<UUID, Entry> stale = new HashMap<>();
+            entries.forEach((id, entry) -> {
+                if (!entry.isReady()) {
+                    stale.put(id, entry);
+                }
+            });
+            if (!stale.isEmpty()) {
+                misses.add(stale.size());
+                for (Device device : deviceService.getDevicesByIds(stale.keySet())) {
+                    fresh.put(device.getId(), store(device, stale.remove(device.getId()).version(), deletionCount));
+                }
+                // Устройства, которых уже нет в базе
+                stale.forEach(entries::remove);
+            }
+        }
+
+        List<Entry> ready = new ArrayList<>(entries.size());
+        entries.forEach((id, entry) -> {
+            Entry built = fresh.get(id);
+            if (built != null) {
+                ready.add(built);
+            } else if (entry.isReady()) {
+                ready.add(entry);
+            }
+        });
+        ready.sort(LIST_ORDER);
+
+        int size = 2;
+        for (Entry entry : ready) {
+            size += entry.json().length + 1;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        out.write('[');
+        for (int i = 0; i < ready.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.writeBytes(ready.get(i).json());
+        }
+        out.write(']');
+
+        CachedList built = new CachedList(seq, out.toByteArray());
+        cachedList = built;
+        return built;
+    }
+
+    /**
+     * Преобразует модель устройства в DTO
+     */
+    public DeviceDto toDto(Device device) {
+        DeviceDto dto = new DeviceDto();
+        dto.setId(device.getId());
+        dto.setName(device.getName());
+        dto.setType(device.getType());
+
+        // Добавляем категорию и подтип устройства
+        dto.setCategory(device.getCategory());
+        dto.setSubType(device.getSubType());
+
+        dto.setProtocol(device.getProtocol().name());
+        dto.setStatus(device.getStatus().name());
+        dto.setConnectionParams(device.getConnectionParams());
+        dto.setLastSeen(device.getLastSeen());
+        dto.setProperties(new HashMap<>(device.getProperties()));
+        dto.setCapabilities(new HashMap<>(device.getCapabilities()));
+        dto.setManufacturer(device.getManufacturer());
+        dto.setModel(device.getModel());
+        dto.setFirmwareVersion(device.getFirmwareVersion());
+        dto.setThingsboardToken(device.getThingsboardToken());
+        dto.setThingsboardId(device.getThingsboardDeviceId());
+
+        // Добавляем атрибуты
+        dto.setAttributes(device.getAttributes());
+
+        if (device.getRoom() != null) {
+            dto.setRoomId(device.getRoom().getId());
+            dto.setRoomName(device.getRoom().getName());
+        }
+
+        if (device.getLocation() != null) {
+            dto.setLocationId(device.getLocation().getId());
+            dto.setLocationName(device.getLocation().getName());
+        }
+
+        return dto;
+    }
+
+    /**
+     * Возвращает показатели работы кэша
+     * @return Карта метрик
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entries", entries.size());
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount > 0
+                ? Math.round(hitCount * 1000.0 / (hitCount + missCount)) / 1000.0 : 0.0);
+        stats.put("invalidations", invalidations.sum());
+        stats.put("listHits", listHits.sum());
+        stats.put("listBuilds", listBuilds.sum());
+        CachedList cached = cachedList;
+        stats.put("listBytes", cached != null ? cached.json().length : 0);
+        return stats;
+    }
+
+    /**
+     * Строит запись устройства и сохраняет её, если устройство не изменилось во время построения
+     * @param version Версия записи на момент чтения устройства
+     * @param deletionCount Значение счётчика удалений на момент чтения устройства
+     */
+    private Entry store(Device device, long version, long deletionCount) {
+        DeviceDto dto = toDto(device);
+        Entry built;
+        try {
+            built = new Entry(version, dto, objectMapper.writeValueAsBytes(dto));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Не удалось сериализовать устройство " + device.getId(), e);
+        }
+        entries.compute(device.getId(), (id, current) -> {
+            if (current == null) {
+                return version == 0 && deletions.get() == deletionCount ? built : null;
+            }
+            return current.version() == version && !current.isReady() ? built : current;
+        });
+        return built;
+    }
+
+    /**
+     * Запись кэша устройства
+     * @param version Номер сброса записи
+     * @param dto DTO устройства или null, если запись сброшена
+     * @param json JSON устройства или null, если запись сброшена
+     */
+    private record Entry(long version, DeviceDto dto, byte[] json) {
+
+        static Entry stale(long version) {
+            return new Entry(version, null, null);
+        }
+
+        boolean isReady() {
+            return json != null;
+        }
+    }
+
+    /**
+     * JSON полного списка устройств
+     * @param seq Номер изменения, по состоянию на который построен список
+     * @param json JSON-массив устройств
+     */
+    public record CachedList(long seq, byte[] json) {
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.Smarthome.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Фоновое обновление свойств устройств через адаптеры протоколов
+ *
+ * Чтение устройства не ждёт адаптер: клиент получает последнее известное состояние,
+ * а обновление выполняется в отдельном пуле. Для одного устройства одновременно
+ * выполняется не более одного обновления и не чаще, чем раз в min-interval-ms.
+ * Полученные значения передаются в хранилище состояний, которое запишет в базу
+ * и опубликует только действительно изменившиеся свойства.
+ *
+ * Статус устройства здесь не меняется: адаптеры могут отдавать закешированные свойства,
+ * поэтому признаком связи считаются только входящие сообщения и выполненные команды.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DeviceRefreshService {
+
+    private final DeviceService deviceService;
+    private final ProtocolAdapterService protocolAdapterService;
+    private final DeviceStateStore deviceStateStore;
+
+    @Value("${device.refresh.threads:2}")
+    private int threads;
+
+    @Value("${device.refresh.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${device.refresh.min-interval-ms:5000}")
+    private long minIntervalMs;
+
+    // Устройства, обновление которых запланировано или выполняется
+    private final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+
+    // ID устройства -> время последнего обновления (System.nanoTime)
+    private final Map<UUID, Long> refreshedAt = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "device-refresh-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Планирует обновление свойств устройства
+     * @param deviceId ID устройства
+     * @return true, если обновление запланировано; false, если оно уже запланировано или выполнялось недавно
+     */
+    public boolean requestRefresh(UUID deviceId) {
+        Long last = refreshedAt.get(deviceId);
+        if (last != null && System.nanoTime() - last < TimeUnit.MILLISECONDS.toNanos(minIntervalMs)) {
+            return false;
+        }
+        if (!pending.add(deviceId)) {
+            return false;
+        }
+
+        try {
+            executor.execute(() -> refresh(deviceId));
+            return true;
+        } catch (RejectedExecutionException e) {
+            pending.remove(deviceId);
+            log.debug("Очередь обновления устройств заполнена, обновление устройства {} пропущено", deviceId);
+            return false;
+        }
+    }
+
+    @EventListener
+    public void onDeviceChange(DeviceChangeEvent event) {
+        if (event.type() == DeviceChangeEvent.Type.DELETED) {
+            refreshedAt.remove(event.deviceId());
+        }
+    }
+
+    private void refresh(UUID deviceId) {
+        try {
+            deviceService.getDeviceById(deviceId).ifPresent(device -> {
+                Map<String, String> properties = protocolAdapterService.getDeviceProperties(device);
+                if (!properties.isEmpty()) {
+                    deviceStateStore.updateProperties(deviceId, properties)
+                            .filter(diff -> !diff.isEmpty())
+                            .ifPresent(diff -> log.debug("Обновлены свойства устройства {}: {}",
+                                    device.getName(), diff.changed().keySet()));
+                }
+            });
+        } catch (Exception e) {
+            log.error("Ошибка при обновлении свойств устройства {}: {}", deviceId, e.getMessage(), e);
+        } finally {
+            refreshedAt.put(deviceId, System.nanoTime());
+            pending.remove(deviceId);
+        }
+    }
+}
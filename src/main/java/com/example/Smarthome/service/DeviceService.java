@@ -9,14 +9,16 @@ import com.example.Smarthome.repository.RoomRepository;
 import com.example.Smarthome.service.ThingsBoardIntegrationService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 @RequiredArgsConstructor
@@ -27,70 +29,136 @@ public class DeviceService {
     private final ProtocolAdapterService protocolAdapterService;
     private final ThingsBoardIntegrationService thingsBoardService;
     private final RoomRepository roomRepository;
+    private final DeviceStateStore deviceStateStore;
+    private final DeviceEventPublisher deviceEventPublisher;
     
     public List<Device> getAllDevices() {
-        return deviceRepository.findAll();
+        List<Device> devices = deviceRepository.findAll();
+        devices.forEach(deviceStateStore::overlay);
+        return devices;
+    }
+    
+    public List<Device> getDevicesByIds(Collection<UUID> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        List<Device> devices = deviceRepository.findAllById(ids);
+        devices.forEach(deviceStateStore::overlay);
+        return devices;
+    }
+    
+    /**
+     * Сообщает об изменении данных, отображаемых вместе с устройствами (например, названия комнаты)
+     * @param devices Затронутые устройства
+     */
+    public void notifyDevicesChanged(Collection<Device> devices) {
+        devices.forEach(device -> deviceEventPublisher.publishSaved(device.getId(), device.getStatus(), device.getLastSeen()));
     }
     
     public Optional<Device> getDeviceById(UUID id) {
-        return deviceRepository.findById(id);
+        return deviceRepository.findById(id).map(deviceStateStore::overlay);
     }
     
     public Device saveDevice(Device device) {
-        return deviceRepository.save(device);
+        // merge возвращает копию без transient-полей, поэтому версию состояния запоминаем заранее
+        Long stateVersion = device.getStateVersion();
+        Device saved = deviceRepository.save(device);
+        deviceStateStore.sync(saved, stateVersion);
+        deviceEventPublisher.publishSaved(saved.getId(), saved.getStatus(), saved.getLastSeen());
+        return saved;
     }
     
     public void deleteDevice(UUID id) {
         deviceRepository.deleteById(id);
+        deviceStateStore.evict(id);
+        deviceEventPublisher.publishDeleted(id);
     }
     
+    /**
+     * Возвращает устройства с указанным статусом
+     * Статус берётся из хранилища состояний: записанный в базу статус может быть устаревшим
+     * @param status Статус
+     * @return Устройства с этим статусом
+     */
     public List<Device> getDevicesByStatus(DeviceStatus status) {
-        return deviceRepository.findByStatus(status);
+        List<UUID> ids = deviceStateStore.getStatuses().entrySet().stream()
+                .filter(entry -> entry.getValue() == status)
+                .map(Map.Entry::getKey)
+                .toList();
+        // Статус мог измениться между чтением статусов и загрузкой устройств
+        return getDevicesByIds(ids).stream()
+                .filter(device -> device.getStatus() == status)
+                .toList();
     }
     
     public List<Device> getDevicesByProtocol(ConnectionProtocol protocol) {
-        return deviceRepository.findByProtocol(protocol);
+        List<Device> devices = deviceRepository.findByProtocol(protocol);
+        devices.forEach(deviceStateStore::overlay);
+        return devices;
     }
     
     public Device updateDeviceStatus(UUID deviceId, DeviceStatus status) {
-        Optional<Device> deviceOpt = deviceRepository.findById(deviceId);
+        // Сущность дополняется состоянием из хранилища, иначе сохранение затёрло бы ещё не записанные изменения
+        Optional<Device> deviceOpt = getDeviceById(deviceId);
         if (deviceOpt.isPresent()) {
             Device device = deviceOpt.get();
             device.setStatus(status);
             if (status == DeviceStatus.ONLINE) {
                 device.setLastSeen(LocalDateTime.now());
             }
-            return deviceRepository.save(device);
+            return saveDevice(device);
         }
         throw new IllegalArgumentException("Устройство с ID " + deviceId + " не найдено");
     }
     
+    /**
+     * Асинхронно отправляет команду на устройство
+     * @param device Устройство
+     * @param command Команда
+     * @param parameters Параметры команды
+     * @return future с успешностью выполнения; завершается не позже таймаута адаптера
+     */
+    public CompletableFuture<Boolean> sendCommandToDeviceAsync(Device device, String command, Map<String, String> parameters) {
+        return protocolAdapterService.sendCommandAsync(device, command, parameters);
+    }
+    
     /**
      * Обновляет свойство устройства
+     * Изменение применяется в хранилище состояний и записывается в базу отложенно
      * @param deviceId ID устройства
      * @param propertyName Имя свойства
      * @param propertyValue Значение свойства
      * @return true если свойство успешно обновлено
      */
     public boolean updateDeviceProperty(UUID deviceId, String propertyName, String propertyValue) {
-        Optional<Device> deviceOptional = deviceRepository.findById(deviceId);
-        if (deviceOptional.isPresent()) {
-            Device device = deviceOptional.get();
-            device.getProperties().put(propertyName, propertyValue);
-            deviceRepository.save(device);
-            
-            // Синхронизируем с ThingsBoard, если имеется токен
-            if (device.getThingsboardToken() != null && !device.getThingsboardToken().isEmpty()) {
-                thingsBoardService.sendDeviceUpdate(device);
-            }
-            
-            return true;
-        }
-        return false;
+        Map<String, String> update = new HashMap<>();
+        update.put(propertyName, propertyValue);
+        return updateDeviceProperties(deviceId, update).isPresent();
+    }
+    
+    /**
+     * Обновляет несколько свойств устройства за одну операцию
+     * Все значения применяются под одной блокировкой устройства и записываются в базу одним сбросом,
+     * в ThingsBoard отправляется одна телеметрия только с фактически изменившимися ключами
+     * @param deviceId ID устройства
+     * @param properties Новые значения свойств
+     * @return Optional с фактически изменёнными значениями или пустой, если устройство не существует
+     */
+    public Optional<DeviceStateStore.PropertyDiff> updateDeviceProperties(UUID deviceId, Map<String, String> properties) {
+        Optional<DeviceStateStore.PropertyDiff> diff = deviceStateStore.updateProperties(deviceId, properties);
+        
+        // Синхронизируем с ThingsBoard, если имеется токен и значения действительно изменились
+        diff.filter(changes -> !changes.isEmpty())
+                .flatMap(changes -> deviceStateStore.getSnapshot(deviceId))
+                .filter(snapshot -> snapshot.thingsboardToken() != null && !snapshot.thingsboardToken().isEmpty())
+                .ifPresent(snapshot -> thingsBoardService.sendDeviceUpdate(snapshot.name(),
+                        snapshot.thingsboardToken(), diff.get().changed(), snapshot.status()));
+        
+        return diff;
     }
     
     public boolean sendCommandToDevice(UUID deviceId, String command, Map<String, String> parameters) {
-        Optional<Device> deviceOpt = deviceRepository.findById(deviceId);
+        Optional<Device> deviceOpt = getDeviceById(deviceId);
         if (deviceOpt.isPresent()) {
             Device device = deviceOpt.get();
             return protocolAdapterService.sendCommand(device, command, parameters);
@@ -98,36 +166,6 @@ public class DeviceService {
         throw new IllegalArgumentException("Устройство с ID " + deviceId + " не найдено");
     }
     
-    // Планировщик для проверки состояния устройств
-    @Scheduled(fixedRate = 60000) // каждую минуту
-    public void checkDevicesStatus() {
-        log.debug("Выполняется проверка состояния устройств");
-        List<Device> onlineDevices = deviceRepository.findByStatus(DeviceStatus.ONLINE);
-        
-        for (Device device : onlineDevices) {
-            // Проверяем, не превышен ли таймаут
-            if (device.getLastSeen() != null &&
-                    device.getLastSeen().plusMinutes(5).isBefore(LocalDateTime.now())) {
-                log.info("Устройство {} не в сети (таймаут)", device.getName());
-                device.setStatus(DeviceStatus.OFFLINE);
-                deviceRepository.save(device);
-            } else {
-                // Запрашиваем статус через адаптер
-                boolean isOnline = protocolAdapterService.checkDeviceStatus(device);
-                if (!isOnline && device.getStatus() == DeviceStatus.ONLINE) {
-                    log.info("Устройство {} перешло в статус OFFLINE", device.getName());
-                    device.setStatus(DeviceStatus.OFFLINE);
-                    deviceRepository.save(device);
-                } else if (isOnline && device.getStatus() == DeviceStatus.OFFLINE) {
-                    log.info("Устройство {} перешло в статус ONLINE", device.getName());
-                    device.setStatus(DeviceStatus.ONLINE);
-                    device.setLastSeen(LocalDateTime.now());
-                    deviceRepository.save(device);
-                }
-            }
-        }
-    }
-    
     /**
      * Находит устройство по его ID в ThingsBoard
      * @param thingsBoardId ID устройства в ThingsBoard
@@ -136,16 +174,32 @@ public class DeviceService {
     public Optional<Device> findByThingsBoardId(String thingsBoardId) {
         log.debug("Поиск устройства по ThingsBoard ID: {}", thingsBoardId);
         
+        // Сначала ищем по сохранённому ID, это не требует обращения к ThingsBoard
+        List<Device> byId = deviceRepository.findByThingsboardDeviceId(thingsBoardId);
+        if (byId.size() == 1) {
+            return Optional.of(deviceStateStore.overlay(byId.get(0)));
+        }
+        
         // Получаем токен устройства по его ID в ThingsBoard
         String deviceToken = thingsBoardService.getTokenByDeviceId(thingsBoardId);
         
+        if (!byId.isEmpty()) {
+            // Несколько устройств с одним ThingsBoard ID: выбираем то, чей токен совпадает с токеном в ThingsBoard
+            log.warn("Найдено {} устройств с ThingsBoard ID {}", byId.size(), thingsBoardId);
+            Device resolved = byId.stream()
+                    .filter(device -> deviceToken != null && deviceToken.equals(device.getThingsboardToken()))
+                    .findFirst()
+                    .orElse(byId.get(0));
+            return Optional.of(deviceStateStore.overlay(resolved));
+        }
+        
         if (deviceToken == null) {
             log.warn("Не удалось получить токен для устройства с ID {} в ThingsBoard", thingsBoardId);
             return Optional.empty();
         }
         
         // Ищем устройство по токену
-        return deviceRepository.findByThingsboardToken(deviceToken);
+        return deviceRepository.findByThingsboardToken(deviceToken).map(deviceStateStore::overlay);
     }
     
     /**
@@ -159,7 +213,7 @@ public class DeviceService {
             return null;
         }
         
-        return deviceRepository.findByThingsboardToken(token).orElse(null);
+        return deviceRepository.findByThingsboardToken(token).map(deviceStateStore::overlay).orElse(null);
     }
     
     /**
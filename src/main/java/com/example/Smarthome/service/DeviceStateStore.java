@@ -0,0 +1,619 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.repository.DeviceStateJdbcRepository;
+import com.example.Smarthome.repository.DeviceStateJdbcRepository.DeviceRow;
+import com.example.Smarthome.repository.DeviceStateJdbcRepository.StatusUpdate;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Хранилище текущего состояния устройств в памяти с отложенной записью в базу
+ *
+ * Является основным источником актуальных свойств и статуса устройств.
+ * Изменения применяются в памяти, а периодический сброс записывает в Postgres
+ * только изменённые и удалённые ключи пакетными JDBC-запросами, не затрагивая
+ * JPA-сущность и её коллекции. Устройство загружается в хранилище при первом обращении.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DeviceStateStore {
+
+    private final DeviceStateJdbcRepository deviceStateJdbcRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final DeviceEventPublisher deviceEventPublisher;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${device.events.last-seen-granularity-ms:30000}")
+    private long lastSeenGranularityMs;
+
+    @Value("${logging.sampling.interval-ms:1000}")
+    private long samplingIntervalMs;
+
+    private final Map<UUID, DeviceState> states = new ConcurrentHashMap<>();
+    private final Set<UUID> dirtyDevices = ConcurrentHashMap.newKeySet();
+
+    private Timer flushTimer;
+    private Timer failedFlushTimer;
+    private SampledLog sampledLog;
+
+    @PostConstruct
+    public void init() {
+        sampledLog = new SampledLog(log, samplingIntervalMs);
+        flushTimer = flushTimer("success");
+        failedFlushTimer = flushTimer("failure");
+        Gauge.builder("smarthome.device.state.dirty", dirtyDevices, Set::size)
+                .description("Устройства с изменениями, ожидающими записи в базу")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Возвращает копию текущих свойств устройства
+     * @param deviceId ID устройства
+     * @return Optional со свойствами или пустой, если устройство не существует
+     */
+    public Optional<Map<String, String>> getProperties(UUID deviceId) {
+        DeviceState state = load(deviceId);
+        if (state == null) {
+            return Optional.empty();
+        }
+        synchronized (state) {
+            return Optional.of(new HashMap<>(state.properties));
+        }
+    }
+
+    /**
+     * Возвращает согласованный снимок состояния устройства
+     * @param deviceId ID устройства
+     * @return Optional со снимком или пустой, если устройство не существует
+     */
+    public Optional<DeviceSnapshot> getSnapshot(UUID deviceId) {
+        DeviceState state = load(deviceId);
+        if (state == null) {
+            return Optional.empty();
+        }
+        synchronized (state) {
+            return Optional.of(new DeviceSnapshot(deviceId, state.name, state.thingsboardToken,
+                    state.status, state.lastSeen, new HashMap<>(state.properties)));
+        }
+    }
+
+    /**
+     * Возвращает статусы всех устройств
+     * Для загруженных в хранилище устройств статус берётся из памяти: он может быть новее записанного в базу
+     * @return Карта ID устройства -> статус
+     */
+    public Map<UUID, DeviceStatus> getStatuses() {
+        Map<UUID, DeviceStatus> statuses = deviceStateJdbcRepository.findStatuses();
+        states.forEach((deviceId, state) -> {
+            synchronized (state) {
+                if (state.status != null) {
+                    statuses.put(deviceId, state.status);
+                }
+            }
+        });
+        return statuses;
+    }
+
+    /**
+     * Применяет изменения свойств устройства
+     * @param deviceId ID устройства
+     * @param properties Новые значения свойств
+     * @return Optional с фактически изменёнными значениями или пустой, если устройство не существует
+     */
+    public Optional<PropertyDiff> updateProperties(UUID deviceId, Map<String, String> properties) {
+        DeviceState state = load(deviceId);
+        if (state == null) {
+            return Optional.empty();
+        }
+
+        Map<String, String> changed;
+        DeviceChangeEvent event = null;
+        synchronized (state) {
+            changed = applyProperties(state, properties);
+            if (!changed.isEmpty()) {
+                dirtyDevices.add(deviceId);
+                event = deviceEventPublisher.recordUpdate(deviceId, changed, Set.of(), state.status, state.lastSeen);
+            }
+        }
+        deviceEventPublisher.dispatch(event);
+        return Optional.of(new PropertyDiff(changed, Set.of()));
+    }
+
+    /**
+     * Заменяет полный набор свойств устройства: отсутствующие ключи удаляются
+     * @param deviceId ID устройства
+     * @param properties Полный набор свойств
+     * @return Optional с изменёнными и удалёнными ключами или пустой, если устройство не существует
+     */
+    public Optional<PropertyDiff> replaceProperties(UUID deviceId, Map<String, String> properties) {
+        return replaceProperties(deviceId, properties, key -> true);
+    }
+
+    /**
+     * Заменяет набор свойств устройства в пределах области: удаляются только отсутствующие ключи,
+     * принадлежащие области, остальные свойства не затрагиваются
+     * @param deviceId ID устройства
+     * @param properties Полный набор свойств области
+     * @param scope Принадлежность ключа области
+     * @return Optional с изменёнными и удалёнными ключами или пустой, если устройство не существует
+     */
+    public Optional<PropertyDiff> replaceProperties(UUID deviceId, Map<String, String> properties,
+                                                    Predicate<String> scope) {
+        DeviceState state = load(deviceId);
+        if (state == null) {
+            return Optional.empty();
+        }
+
+        Set<String> removed = new HashSet<>();
+        Map<String, String> changed;
+        DeviceChangeEvent event = null;
+        synchronized (state) {
+            for (String key : new ArrayList<>(state.properties.keySet())) {
+                if (scope.test(key) && !properties.containsKey(key)) {
+                    state.properties.remove(key);
+                    state.dirtyKeys.remove(key);
+                    state.removedKeys.add(key);
+                    state.touch(key);
+                    removed.add(key);
+                }
+            }
+            changed = applyProperties(state, properties);
+            if (!changed.isEmpty() || !removed.isEmpty()) {
+                dirtyDevices.add(deviceId);
+                event = deviceEventPublisher.recordUpdate(deviceId, changed, removed, state.status, state.lastSeen);
+            }
+        }
+        deviceEventPublisher.dispatch(event);
+        return Optional.of(new PropertyDiff(changed, removed));
+    }
+
+    /**
+     * Фиксирует ответ устройства: обновляет статус и время последнего ответа
+     * @param deviceId ID устройства
+     * @param status Новый статус
+     * @param seenAt Время ответа
+     * @return true если устройство существует
+     */
+    public boolean markSeen(UUID deviceId, DeviceStatus status, LocalDateTime seenAt) {
+        DeviceState state = load(deviceId);
+        if (state == null) {
+            return false;
+        }
+        DeviceChangeEvent event = null;
+        synchronized (state) {
+            boolean statusChanged = state.status != status;
+            state.status = status;
+            state.lastSeen = seenAt;
+            state.statusDirty = true;
+            dirtyDevices.add(deviceId);
+            // Время ответа меняется с каждым сообщением, поэтому без смены статуса
+            // оно публикуется не чаще, чем раз в last-seen-granularity-ms
+            if (statusChanged || state.publishedSeen == null || seenAt == null
+                    || Duration.between(state.publishedSeen, seenAt).toMillis() >= lastSeenGranularityMs) {
+                state.publishedSeen = seenAt;
+                event = deviceEventPublisher.recordUpdate(deviceId, Map.of(), Set.of(), status, seenAt);
+            }
+        }
+        deviceEventPublisher.dispatch(event);
+        return true;
+    }
+
+    /**
+     * Изменяет статус устройства, не трогая время последнего ответа
+     * @param deviceId ID устройства
+     * @param status Новый статус
+     * @return true если устройство существует
+     */
+    public boolean updateStatus(UUID deviceId, DeviceStatus status) {
+        DeviceState state = load(deviceId);
+        if (state == null) {
+            return false;
+        }
+        DeviceChangeEvent event = null;
+        synchronized (state) {
+            boolean statusChanged = state.status != status;
+            state.status = status;
+            state.statusDirty = true;
+            dirtyDevices.add(deviceId);
+            if (statusChanged) {
+                event = deviceEventPublisher.recordUpdate(deviceId, Map.of(), Set.of(), status, state.lastSeen);
+            }
+        }
+        deviceEventPublisher.dispatch(event);
+        return true;
+    }
+
+    /**
+     * Переводит устройство в OFFLINE, если оно не отвечало после указанного момента
+     * Проверка и смена статуса выполняются атомарно, поэтому ответ, пришедший после
+     * истечения срока, но до смены статуса, не будет перезаписан
+     * @param deviceId ID устройства
+     * @param seenBefore Момент, после которого устройство не должно было отвечать
+     * @return true если статус изменён на OFFLINE
+     */
+    public boolean expireStatus(UUID deviceId, LocalDateTime seenBefore) {
+        DeviceState state = load(deviceId);
+        if (state == null) {
+            return false;
+        }
+        DeviceChangeEvent event = null;
+        synchronized (state) {
+            if (state.status == DeviceStatus.OFFLINE
+                    || (state.lastSeen != null && state.lastSeen.isAfter(seenBefore))) {
+                return false;
+            }
+            state.status = DeviceStatus.OFFLINE;
+            state.statusDirty = true;
+            dirtyDevices.add(deviceId);
+            event = deviceEventPublisher.recordUpdate(deviceId, Map.of(), Set.of(), DeviceStatus.OFFLINE, state.lastSeen);
+        }
+        deviceEventPublisher.dispatch(event);
+        return true;
+    }
+
+    /**
+     * Переносит актуальное состояние из хранилища в загруженную JPA-сущность
+     * Устройства, ещё не загруженные в хранилище, не изменяются: для них база актуальна.
+     * Такой сущности назначается версия 0: всё, что хранилище загрузит или изменит позже,
+     * не старше прочитанного из базы
+     * @param device Устройство
+     * @return то же устройство
+     */
+    public Device overlay(Device device) {
+        if (device == null || device.getId() == null) {
+            return device;
+        }
+        DeviceState state = states.get(device.getId());
+        if (state == null) {
+            device.setStateVersion(0L);
+            return device;
+        }
+
+        synchronized (state) {
+            Map<String, String> target = device.getProperties();
+            if (!target.equals(state.properties)) {
+                target.keySet().retainAll(state.properties.keySet());
+                target.putAll(state.properties);
+            }
+            if (state.status != null) {
+                device.setStatus(state.status);
+            }
+            if (state.lastSeen != null) {
+                device.setLastSeen(state.lastSeen);
+            }
+            device.setStateVersion(state.version);
+        }
+        return device;
+    }
+
+    /**
+     * Синхронизирует хранилище после полного сохранения сущности через JPA
+     *
+     * Сущность могла быть прочитана до изменений, пришедших в хранилище позже (например, по MQTT),
+     * и JPA записала в базу её устаревший снимок свойств. Поэтому значения сущности принимаются
+     * только для ключей, не изменявшихся в хранилище после чтения сущности (версия loadedVersion,
+     * выставленная overlay). Более поздние значения хранилища сохраняются и снова ставятся в очередь
+     * на запись, чтобы исправить снимок, записанный JPA.
+     * @param device Сохранённое устройство
+     * @param loadedVersion Версия хранилища при чтении сущности или null, если состояние
+     *                      на сущность не накладывалось (тогда значения сущности считаются актуальными)
+     */
+    public void sync(Device device, Long loadedVersion) {
+        if (device == null || device.getId() == null) {
+            return;
+        }
+        DeviceState state = states.get(device.getId());
+        if (state == null) {
+            return;
+        }
+
+        long since = loadedVersion != null ? loadedVersion : Long.MAX_VALUE;
+        boolean dirty = false;
+        synchronized (state) {
+            Map<String, String> entityProperties = device.getProperties();
+            for (String key : new ArrayList<>(state.properties.keySet())) {
+                if (entityProperties.containsKey(key)) {
+                    continue;
+                }
+                if (state.modifiedAfter(key, since)) {
+                    // Ключ появился после чтения сущности: JPA удалила его из базы, записываем снова
+                    state.dirtyKeys.add(key);
+                    dirty = true;
+                } else {
+                    state.properties.remove(key);
+                    state.dirtyKeys.remove(key);
+                    state.removedKeys.remove(key);
+                    state.touch(key);
+                }
+            }
+            for (Map.Entry<String, String> entry : entityProperties.entrySet()) {
+                String key = entry.getKey();
+                if (state.modifiedAfter(key, since)) {
+                    if (state.properties.containsKey(key)) {
+                        if (!Objects.equals(state.properties.get(key), entry.getValue())) {
+                            state.dirtyKeys.add(key);
+                            dirty = true;
+                        }
+                    } else {
+                        // Ключ удалён из хранилища после чтения сущности
+                        state.removedKeys.add(key);
+                        dirty = true;
+                    }
+                    continue;
+                }
+                if (!state.properties.containsKey(key) || !Objects.equals(state.properties.get(key), entry.getValue())) {
+                    state.properties.put(key, entry.getValue());
+                    state.touch(key);
+                }
+                state.dirtyKeys.remove(key);
+                state.removedKeys.remove(key);
+            }
+            device.setStateVersion(state.version);
+
+            state.name = device.getName();
+            state.thingsboardToken = device.getThingsboardToken();
+            if (!state.statusDirty) {
+                state.status = device.getStatus();
+                state.lastSeen = device.getLastSeen();
+            }
+        }
+        if (dirty) {
+            dirtyDevices.add(device.getId());
+        }
+    }
+
+    /**
+     * Синхронизирует хранилище после сохранения сущности, значения которой считаются актуальными
+     * @param device Сохранённое устройство
+     */
+    public void sync(Device device) {
+        sync(device, null);
+    }
+
+    /**
+     * Удаляет устройство из хранилища (например, после удаления из базы)
+     * @param deviceId ID устройства
+     */
+    public void evict(UUID deviceId) {
+        dirtyDevices.remove(deviceId);
+        states.remove(deviceId);
+    }
+
+    /**
+     * Количество устройств с изменениями, ожидающими записи
+     */
+    public int getDirtyCount() {
+        return dirtyDevices.size();
+    }
+
+    /**
+     * Периодически записывает накопленные изменения в базу
+     */
+    @Scheduled(fixedDelayString = "${device.state.flush-interval:1000}")
+    public void flush() {
+        if (!dirtyDevices.isEmpty()) {
+            flush(new ArrayList<>(dirtyDevices));
+        }
+    }
+
+    /**
+     * Немедленно записывает изменения указанных устройств в базу одной транзакцией
+     * @param deviceIds ID устройств
+     */
+    public void flush(Collection<UUID> deviceIds) {
+        Map<UUID, Map<String, String>> upserts = new HashMap<>();
+        Map<UUID, Set<String>> deletes = new HashMap<>();
+        Map<UUID, StatusUpdate> statuses = new HashMap<>();
+
+        for (UUID deviceId : deviceIds) {
+            if (!dirtyDevices.remove(deviceId)) {
+                continue;
+            }
+            DeviceState state = states.get(deviceId);
+            if (state == null) {
+                continue;
+            }
+
+            synchronized (state) {
+                if (!state.dirtyKeys.isEmpty()) {
+                    Map<String, String> values = new HashMap<>();
+                    for (String key : state.dirtyKeys) {
+                        values.put(key, state.properties.get(key));
+                    }
+                    upserts.put(deviceId, values);
+                    state.dirtyKeys.clear();
+                }
+                if (!state.removedKeys.isEmpty()) {
+                    deletes.put(deviceId, new HashSet<>(state.removedKeys));
+                    state.removedKeys.clear();
+                }
+                if (state.statusDirty) {
+                    statuses.put(deviceId, new StatusUpdate(state.status, state.lastSeen));
+                    state.statusDirty = false;
+                }
+            }
+        }
+
+        if (upserts.isEmpty() && deletes.isEmpty() && statuses.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(tx -> {
+                deviceStateJdbcRepository.updateStatuses(statuses);
+                deviceStateJdbcRepository.deleteProperties(deletes);
+                deviceStateJdbcRepository.upsertProperties(upserts);
+            });
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            sampledLog.atDebug("flush").log("Записано состояние устройств: свойств={}, удалений={}, статусов={}",
+                    upserts.size(), deletes.size(), statuses.size());
+        } catch (Exception e) {
+            failedFlushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            sampledLog.atError("flush-failure").setCause(e)
+                    .log("Ошибка при записи состояния устройств, изменения будут повторены: {}", e.getMessage());
+            requeue(upserts, deletes, statuses);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private Timer flushTimer(String outcome) {
+        return Timer.builder("smarthome.device.state.flush")
+                .description("Запись накопленных изменений состояния устройств в базу")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Возвращает неудачно записанные изменения в очередь
+     */
+    private void requeue(Map<UUID, Map<String, String>> upserts,
+                         Map<UUID, Set<String>> deletes,
+                         Map<UUID, StatusUpdate> statuses) {
+        Set<UUID> deviceIds = new HashSet<>(upserts.keySet());
+        deviceIds.addAll(deletes.keySet());
+        deviceIds.addAll(statuses.keySet());
+
+        for (UUID deviceId : deviceIds) {
+            DeviceState state = states.get(deviceId);
+            if (state == null) {
+                continue;
+            }
+            synchronized (state) {
+                upserts.getOrDefault(deviceId, Map.of()).keySet().stream()
+                        .filter(state.properties::containsKey)
+                        .forEach(state.dirtyKeys::add);
+                deletes.getOrDefault(deviceId, Set.of()).stream()
+                        .filter(key -> !state.properties.containsKey(key))
+                        .forEach(state.removedKeys::add);
+                if (statuses.containsKey(deviceId)) {
+                    state.statusDirty = true;
+                }
+            }
+            dirtyDevices.add(deviceId);
+        }
+    }
+
+    /**
+     * Применяет значения свойств к состоянию; вызывается под монитором состояния
+     * @return фактически изменённые значения
+     */
+    private Map<String, String> applyProperties(DeviceState state, Map<String, String> properties) {
+        Map<String, String> changed = new HashMap<>();
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            if (!state.properties.containsKey(key) || !Objects.equals(state.properties.get(key), value)) {
+                state.properties.put(key, value);
+                state.dirtyKeys.add(key);
+                state.removedKeys.remove(key);
+                state.touch(key);
+                changed.put(key, value);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Возвращает состояние устройства, при необходимости загружая его из базы
+     * @return состояние или null, если устройство не существует
+     */
+    private DeviceState load(UUID deviceId) {
+        DeviceState state = states.get(deviceId);
+        if (state != null) {
+            return state;
+        }
+
+        Optional<DeviceRow> row = deviceStateJdbcRepository.findDevice(deviceId);
+        if (row.isEmpty()) {
+            return null;
+        }
+
+        DeviceState loaded = new DeviceState();
+        loaded.name = row.get().name();
+        loaded.status = row.get().status();
+        loaded.lastSeen = row.get().lastSeen();
+        loaded.thingsboardToken = row.get().thingsboardToken();
+        loaded.properties.putAll(deviceStateJdbcRepository.findProperties(deviceId));
+
+        DeviceState existing = states.putIfAbsent(deviceId, loaded);
+        return existing != null ? existing : loaded;
+    }
+
+    /**
+     * Изменения свойств, фактически применённые к хранилищу
+     */
+    public record PropertyDiff(Map<String, String> changed, Set<String> removed) {
+
+        public static final PropertyDiff EMPTY = new PropertyDiff(Map.of(), Set.of());
+
+        public boolean isEmpty() {
+            return changed.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    /**
+     * Неизменяемый снимок состояния устройства
+     */
+    public record DeviceSnapshot(UUID id, String name, String thingsboardToken, DeviceStatus status,
+                                 LocalDateTime lastSeen, Map<String, String> properties) {
+    }
+
+    /**
+     * Состояние одного устройства; все поля защищены монитором объекта
+     */
+    private static class DeviceState {
+        private final Map<String, String> properties = new HashMap<>();
+        private final Set<String> dirtyKeys = new HashSet<>();
+        private final Set<String> removedKeys = new HashSet<>();
+        private String name;
+        private String thingsboardToken;
+        private DeviceStatus status;
+        private LocalDateTime lastSeen;
+        private LocalDateTime publishedSeen;
+        private boolean statusDirty;
+        // Номер последнего изменения свойств и номера изменений отдельных ключей
+        private long version;
+        private final Map<String, Long> keyVersions = new HashMap<>();
+
+        void touch(String key) {
+            keyVersions.put(key, ++version);
+        }
+
+        boolean modifiedAfter(String key, long since) {
+            Long keyVersion = keyVersions.get(key);
+            return keyVersion != null && keyVersion > since;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.example.Smarthome.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Поток изменений состояния устройств для клиентов (Server-Sent Events)
+ *
+ * Каждый клиент получает только изменённые свойства устройств. Изменения, не успевшие
+ * уйти медленному клиенту, объединяются по устройству, а очередь клиента ограничена
+ * device.stream.max-pending устройствами. Клиент, очередь которого переполнена или отправка
+ * которому длится дольше device.stream.send-timeout-ms, отключается, чтобы не занимать
+ * потоки отправки других клиентов; браузер переподключится и продолжит поток с последнего
+ * полученного события. Идентификатор события имеет вид "эпоха-номер":
+ * при переподключении браузер передаёт его в Last-Event-ID, и клиент получает
+ * пропущенные изменения из буфера публикатора. Если изменения уже вытеснены
+ * или приложение было перезапущено, клиент получает признак resumed=false
+ * и должен перечитать список устройств целиком.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DeviceStreamService {
+
+    private final DeviceEventPublisher deviceEventPublisher;
+
+    @Value("${device.stream.timeout-ms:1800000}")
+    private long emitterTimeoutMs;
+
+    @Value("${device.stream.sender-threads:2}")
+    private int senderThreads;
+
+    @Value("${device.stream.max-pending:1000}")
+    private int maxPending;
+
+    @Value("${device.stream.send-timeout-ms:5000}")
+    private long sendTimeoutMs;
+
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private ExecutorService sender;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        sender = Executors.newFixedThreadPool(Math.max(1, senderThreads), runnable -> {
+            Thread thread = new Thread(runnable, "device-stream-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        clients.forEach(client -> client.emitter.complete());
+        sender.shutdownNow();
+    }
+
+    /**
+     * Подключает нового клиента
+     * @param resumeFrom Идентификатор последнего полученного события ("эпоха-номер") или null
+     * @return SseEmitter клиента
+     */
+    public SseEmitter subscribe(String resumeFrom) {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        Client client = new Client(emitter, Math.max(1, maxPending));
+        emitter.onCompletion(() -> clients.remove(client));
+        emitter.onTimeout(() -> clients.remove(client));
+        emitter.onError(e -> clients.remove(client));
+
+        // Все изменения до этого номера уже отражены в состоянии, которое клиент прочитает при полной загрузке
+        long completedSeq = deviceEventPublisher.getCompletedSeq();
+
+        // Клиент регистрируется до чтения буфера, чтобы не пропустить изменения,
+        // опубликованные во время подключения. Повторная доставка безопасна:
+        // изменения содержат итоговые значения свойств
+        clients.add(client);
+
+        long epoch = deviceEventPublisher.getEpoch();
+        long since = deviceEventPublisher.parseEventId(resumeFrom);
+        List<DeviceChangeEvent> missed = since >= 0
+                ? deviceEventPublisher.getEventsSince(since).orElse(null)
+                : null;
+        boolean resumed = missed != null;
+
+        try {
+            emitter.send(SseEmitter.event()
+                    .id(deviceEventPublisher.formatEventId(resumed ? since : completedSeq))
+                    .name("hello")
+                    .data(Map.of(
+                            "epoch", epoch,
+                            "seq", resumed ? since : completedSeq,
+                            "resumed", resumed), MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            clients.remove(client);
+            emitter.completeWithError(e);
+            return emitter;
+        }
+
+        if (resumed) {
+            for (DeviceChangeEvent event : missed) {
+                if (!client.enqueue(event)) {
+                    close(client, "переполнена очередь");
+                    return emitter;
+                }
+            }
+            log.debug("Клиент потока устройств возобновлён с номера {}, пропущено изменений: {}",
+                    since, missed.size());
+        } else if (resumeFrom != null) {
+            log.debug("Клиент потока устройств не может возобновить поток с {}, требуется полная загрузка",
+                    resumeFrom);
+        }
+        schedule(client);
+        return emitter;
+    }
+
+    /**
+     * Передаёт изменение всем подключённым клиентам
+     */
+    @EventListener
+    public void onDeviceChange(DeviceChangeEvent event) {
+        for (Client client : clients) {
+            if (client.enqueue(event)) {
+                schedule(client);
+            } else {
+                close(client, "переполнена очередь");
+            }
+        }
+    }
+
+    /**
+     * Периодически отправляет комментарий, чтобы прокси не закрывали простаивающие соединения
+     * и отключившиеся клиенты обнаруживались без ожидания изменений
+     * Клиенты, отправка которым зависла, отключаются
+     */
+    @Scheduled(fixedDelayString = "${device.stream.heartbeat-ms:15000}")
+    public void heartbeat() {
+        long now = System.nanoTime();
+        for (Client client : clients) {
+            long sendingSince = client.sendingSince;
+            if (sendingSince != 0) {
+                // Пока идёт отправка, соединение и так активно
+                if (now - sendingSince > TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs)) {
+                    close(client, "отправка длится дольше " + sendTimeoutMs + " мс");
+                }
+                continue;
+            }
+            sender.execute(() -> send(client, SseEmitter.event().comment("ping")));
+        }
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    private void schedule(Client client) {
+        if (client.markScheduled()) {
+            sender.execute(() -> drain(client));
+        }
+    }
+
+    /**
+     * Отправляет клиенту накопленные изменения
+     * Для одного клиента одновременно выполняется не более одной отправки,
+     * пока она идёт, новые изменения объединяются в очереди клиента
+     */
+    private void drain(Client client) {
+        List<DeviceChangeEvent> batch;
+        while (!(batch = client.takePending()).isEmpty()) {
+            // Номер, гарантирующий, что все более ранние изменения уже отправлены клиенту
+            long safeSeq = Math.min(batch.get(batch.size() - 1).seq(), deviceEventPublisher.getCompletedSeq());
+            for (int i = 0; i < batch.size(); i++) {
+                DeviceChangeEvent event = batch.get(i);
+                SseEmitter.SseEventBuilder builder = SseEmitter.event()
+                        .name("device")
+                        .data(event, MediaType.APPLICATION_JSON);
+                // Идентификатор передаётся только с последним событием пакета: изменения внутри
+                // пакета упорядочены по номеру, но объединённые изменения содержат и более ранние
+                if (i == batch.size() - 1) {
+                    builder.id(deviceEventPublisher.formatEventId(safeSeq));
+                }
+                if (!send(client, builder)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Отправляет событие клиенту, отмечая время начала отправки для обнаружения зависших клиентов
+     * @return false, если отправка не удалась и клиент отключён
+     */
+    private boolean send(Client client, SseEmitter.SseEventBuilder event) {
+        client.sendingSince = System.nanoTime();
+        try {
+            client.emitter.send(event);
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            close(client, e.getMessage());
+            return false;
+        } finally {
+            client.sendingSince = 0;
+        }
+    }
+
+    private void close(Client client, String reason) {
+        if (clients.remove(client)) {
+            log.debug("Клиент потока устройств отключён: {}", reason);
+            try {
+                client.emitter.complete();
+            } catch (IllegalStateException ignored) {
+                // соединение уже закрыто
+            }
+        }
+    }
+
+    /**
+     * Подключённый клиент и его очередь неотправленных изменений
+     */
+    static class Client {
+
+        private final SseEmitter emitter;
+        private final int maxPending;
+        private final Map<UUID, DeviceChangeEvent> pending = new LinkedHashMap<>();
+        private boolean scheduled;
+        // Время начала текущей отправки (System.nanoTime) или 0
+        private volatile long sendingSince;
+
+        Client(SseEmitter emitter, int maxPending) {
+            this.emitter = emitter;
+            this.maxPending = maxPending;
+        }
+
+        /**
+         * Добавляет изменение в очередь, объединяя его с ожидающим изменением того же устройства
+         * @return false, если очередь переполнена и изменение не добавлено
+         */
+        synchronized boolean enqueue(DeviceChangeEvent event) {
+            if (pending.size() >= maxPending && !pending.containsKey(event.deviceId())) {
+                return false;
+            }
+            // Изменения из буфера и текущие изменения могут прийти в любом порядке
+            pending.merge(event.deviceId(), event,
+                    (queued, added) -> queued.seq() <= added.seq() ? queued.merge(added) : added.merge(queued));
+            return true;
+        }
+
+        synchronized boolean markScheduled() {
+            if (scheduled || pending.isEmpty()) {
+                return false;
+            }
+            scheduled = true;
+            return true;
+        }
+
+        /**
+         * Забирает накопленные изменения; если их нет, снимает признак запланированной отправки
+         */
+        synchronized List<DeviceChangeEvent> takePending() {
+            if (pending.isEmpty()) {
+                scheduled = false;
+                return List.of();
+            }
+            List<DeviceChangeEvent> batch = new ArrayList<>(pending.values());
+            pending.clear();
+            batch.sort(Comparator.comparingLong(DeviceChangeEvent::seq));
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,483 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.model.EnergyResolution;
+import com.example.Smarthome.repository.DeviceStateJdbcRepository;
+import com.example.Smarthome.repository.DeviceStateJdbcRepository.Placement;
+import com.example.Smarthome.repository.EnergyRollupJdbcRepository;
+import com.example.Smarthome.repository.EnergyRollupJdbcRepository.RollupRow;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Потребление энергии устройствами, комнатами, локациями и домом в целом
+ *
+ * Мощность из свойств устройств (по умолчанию power_consumption, Вт) интегрируется по времени
+ * по мере поступления изменений и по таймеру, пока мощность не меняется. Энергия сразу
+ * добавляется в агрегаты всех областей устройства для минут, часов, суток и месяцев, поэтому
+ * запрос за период читает только интервалы этого периода, независимо от длины истории.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class EnergyRollupService {
+
+    public static final String TOTAL_SCOPE = "total";
+
+    private static final long MINUTE_MS = 60_000L;
+    private static final double MS_PER_HOUR = 3_600_000.0;
+
+    // Интервалы, сохраняемые в базе; минутные агрегаты хранятся только в памяти
+    private static final EnergyResolution[] PERSISTED = {
+            EnergyResolution.HOUR, EnergyResolution.DAY, EnergyResolution.MONTH };
+
+    private final EnergyRollupJdbcRepository energyRollupJdbcRepository;
+    private final DeviceStateJdbcRepository deviceStateJdbcRepository;
+
+    @Value("${energy.power-keys:power_consumption}")
+    private String[] powerKeys;
+
+    @Value("${energy.max-gap-ms:900000}")
+    private long maxGapMs;
+
+    @Value("${energy.tariff-per-kwh:8.0}")
+    private double tariffPerKwh;
+
+    @Value("${energy.retention.minutes:1440}")
+    private int retentionMinutes;
+
+    @Value("${energy.retention.hours:2232}")
+    private int retentionHours;
+
+    @Value("${energy.retention.days:800}")
+    private int retentionDays;
+
+    @Value("${energy.retention.months:120}")
+    private int retentionMonths;
+
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private Set<String> powerKeySet;
+
+    // Последняя известная мощность устройств с измерением мощности
+    private final Map<UUID, Meter> meters = new ConcurrentHashMap<>();
+
+    // Область -> агрегаты
+    private final Map<String, Rollup> rollups = new ConcurrentHashMap<>();
+
+    // Области удалённых устройств, агрегаты которых будут удалены из базы
+    private final Set<String> deletedScopes = ConcurrentHashMap.newKeySet();
+
+    private volatile Map<UUID, Placement> placements = Map.of();
+    private volatile boolean placementsStale = true;
+
+    // До загрузки сохранённых агрегатов запись в базу не выполняется, иначе она затёрла бы их
+    private volatile boolean loaded;
+
+    @PostConstruct
+    public void init() {
+        powerKeySet = Arrays.stream(powerKeys).map(String::trim).filter(key -> !key.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadRollups() {
+        try {
+            refreshPlacements();
+            long now = System.currentTimeMillis();
+            int rows = 0;
+            for (EnergyResolution resolution : PERSISTED) {
+                for (RollupRow row : energyRollupJdbcRepository.findSince(resolution, retentionCutoff(resolution, now))) {
+                    rollup(row.scopeKey()).load(resolution, row.bucketStart(), row.energyWh());
+                    rows++;
+                }
+            }
+            log.info("Загружено агрегатов потребления энергии: {}", rows);
+        } catch (Exception e) {
+            log.warn("Не удалось загрузить агрегаты потребления энергии: {}", e.getMessage());
+        }
+        loaded = true;
+    }
+
+    @EventListener
+    public void onDeviceChange(DeviceChangeEvent event) {
+        UUID deviceId = event.deviceId();
+        switch (event.type()) {
+            case DELETED -> {
+                meters.remove(deviceId);
+                String scope = deviceScope(deviceId);
+                rollups.remove(scope);
+                deletedScopes.add(scope);
+                placementsStale = true;
+            }
+            case SAVED -> placementsStale = true;
+            case UPDATED -> {
+                Double watts = null;
+                for (String key : powerKeySet) {
+                    String value = event.properties().get(key);
+                    if (value != null) {
+                        double number = PropertyValues.parseNumber(value);
+                        watts = Double.isNaN(number) ? 0.0 : Math.max(0.0, number);
+                        break;
+                    }
+                }
+                Meter meter = watts != null
+                        ? meters.computeIfAbsent(deviceId, id -> new Meter())
+                        : meters.get(deviceId);
+                if (meter == null) {
+                    return;
+                }
+                synchronized (meter) {
+                    // Энергия до этого изменения считается по прежней мощности
+                    accrue(deviceId, meter, System.currentTimeMillis());
+                    if (watts != null) {
+                        meter.watts = watts;
+                    }
+                    if (event.status() != null) {
+                        meter.online = event.status() == DeviceStatus.ONLINE;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Досчитывает энергию устройств с неизменной мощностью и записывает изменённые агрегаты
+     */
+    @Scheduled(fixedDelayString = "${energy.tick-interval-ms:60000}")
+    public void tick() {
+        if (placementsStale) {
+            try {
+                refreshPlacements();
+            } catch (Exception e) {
+                placementsStale = true;
+                log.warn("Не удалось обновить размещение устройств для учёта энергии: {}", e.getMessage());
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        meters.forEach((deviceId, meter) -> {
+            synchronized (meter) {
+                accrue(deviceId, meter, now);
+            }
+        });
+        rollups.values().forEach(rollup -> rollup.prune(now));
+        if (loaded) {
+            persist();
+        }
+    }
+
+    /**
+     * Удаляет из базы агрегаты старше срока хранения
+     */
+    @Scheduled(fixedDelayString = "${energy.retention-check-interval-ms:3600000}")
+    public void purgeExpired() {
+        try {
+            long now = System.currentTimeMillis();
+            int deleted = 0;
+            for (EnergyResolution resolution : PERSISTED) {
+                deleted += energyRollupJdbcRepository.deleteOlderThan(resolution, retentionCutoff(resolution, now));
+            }
+            if (deleted > 0) {
+                log.info("Удалено устаревших агрегатов потребления энергии: {}", deleted);
+            }
+        } catch (Exception e) {
+            log.error("Ошибка при удалении устаревших агрегатов потребления энергии: {}", e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (loaded) {
+            long now = System.currentTimeMillis();
+            meters.forEach((deviceId, meter) -> {
+                synchronized (meter) {
+                    accrue(deviceId, meter, now);
+                }
+            });
+            persist();
+        }
+    }
+
+    /**
+     * Возвращает потребление области по интервалам
+     * @param scope Область
+     * @param resolution Разрешение
+     * @param from Начало диапазона (мс)
+     * @param to Конец диапазона (мс)
+     * @return Начало интервала -> энергия (Вт·ч); интервалы без потребления отсутствуют
+     */
+    public TreeMap<Long, Double> getSeries(String scope, EnergyResolution resolution, long from, long to) {
+        Rollup rollup = rollups.get(scope);
+        return rollup != null ? rollup.series(resolution, from, to) : new TreeMap<>();
+    }
+
+    /**
+     * Возвращает суммарное потребление области за диапазон
+     * @return энергия (Вт·ч)
+     */
+    public double getTotal(String scope, EnergyResolution resolution, long from, long to) {
+        Rollup rollup = rollups.get(scope);
+        return rollup != null ? rollup.total(resolution, from, to) : 0.0;
+    }
+
+    /**
+     * Возвращает потребление всех областей одного вида за диапазон
+     * @param prefix Вид области: "device:", "room:" или "location:"
+     * @return ID -> энергия (Вт·ч) для областей с ненулевым потреблением
+     */
+    public Map<UUID, Double> getTotals(String prefix, EnergyResolution resolution, long from, long to) {
+        Map<UUID, Double> totals = new HashMap<>();
+        rollups.forEach((scope, rollup) -> {
+            if (scope.startsWith(prefix)) {
+                double total = rollup.total(resolution, from, to);
+                if (total > 0) {
+                    totals.put(UUID.fromString(scope.substring(prefix.length())), total);
+                }
+            }
+        });
+        return totals;
+    }
+
+    /**
+     * Определяет диапазон и разрешение для периода отчёта
+     * @param period day (сегодня по часам), week и month (7 и 30 дней по суткам), year (12 месяцев)
+     * @throws IllegalArgumentException если период неизвестен
+     */
+    public Window window(String period) {
+        ZonedDateTime now = ZonedDateTime.now(zone);
+        ZonedDateTime today = now.toLocalDate().atStartOfDay(zone);
+        return switch (period) {
+            case "day" -> new Window(EnergyResolution.HOUR, today.toInstant().toEpochMilli(), now.toInstant().toEpochMilli());
+            case "week" -> new Window(EnergyResolution.DAY, today.minusDays(6).toInstant().toEpochMilli(), now.toInstant().toEpochMilli());
+            case "month" -> new Window(EnergyResolution.DAY, today.minusDays(29).toInstant().toEpochMilli(), now.toInstant().toEpochMilli());
+            case "year" -> new Window(EnergyResolution.MONTH,
+                    today.withDayOfMonth(1).minusMonths(11).toInstant().toEpochMilli(), now.toInstant().toEpochMilli());
+            default -> throw new IllegalArgumentException("Неизвестный период: " + period);
+        };
+    }
+
+    public double getTariffPerKwh() {
+        return tariffPerKwh;
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    public static String deviceScope(UUID deviceId) {
+        return "device:" + deviceId;
+    }
+
+    public static String roomScope(UUID roomId) {
+        return "room:" + roomId;
+    }
+
+    public static String locationScope(UUID locationId) {
+        return "location:" + locationId;
+    }
+
+    /**
+     * Добавляет энергию устройства с момента предыдущего учёта до указанного времени;
+     * вызывается под монитором счётчика
+     */
+    private void accrue(UUID deviceId, Meter meter, long to) {
+        // Интервал ограничен, чтобы пропуск данных (перезапуск, потеря связи) не превращался в потребление
+        long from = Math.max(meter.lastTs, to - maxGapMs);
+        meter.lastTs = Math.max(meter.lastTs, to);
+        if (meter.watts <= 0 || !meter.online || from >= to) {
+            return;
+        }
+
+        Placement placement = placements.get(deviceId);
+        List<Rollup> targets = new ArrayList<>(4);
+        targets.add(rollup(deviceScope(deviceId)));
+        if (placement != null && placement.roomId() != null) {
+            targets.add(rollup(roomScope(placement.roomId())));
+        }
+        if (placement != null && placement.locationId() != null) {
+            targets.add(rollup(locationScope(placement.locationId())));
+        }
+        targets.add(rollup(TOTAL_SCOPE));
+
+        // Энергия распределяется по минутам, в которые она потреблялась
+        long[] starts = new long[EnergyResolution.values().length];
+        for (long start = from; start < to; ) {
+            long minute = Math.floorDiv(start, MINUTE_MS) * MINUTE_MS;
+            long end = Math.min(to, minute + MINUTE_MS);
+            double wh = meter.watts * (end - start) / MS_PER_HOUR;
+            fillBucketStarts(minute, starts);
+            for (Rollup target : targets) {
+                target.add(starts, wh);
+            }
+            start = end;
+        }
+    }
+
+    private void fillBucketStarts(long minute, long[] starts) {
+        ZonedDateTime time = Instant.ofEpochMilli(minute).atZone(zone);
+        LocalDate date = time.toLocalDate();
+        starts[EnergyResolution.MINUTE.ordinal()] = minute;
+        starts[EnergyResolution.HOUR.ordinal()] = time.truncatedTo(ChronoUnit.HOURS).toInstant().toEpochMilli();
+        starts[EnergyResolution.DAY.ordinal()] = date.atStartOfDay(zone).toInstant().toEpochMilli();
+        starts[EnergyResolution.MONTH.ordinal()] = date.withDayOfMonth(1).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    private long retentionCutoff(EnergyResolution resolution, long now) {
+        ZonedDateTime time = Instant.ofEpochMilli(now).atZone(zone);
+        return switch (resolution) {
+            case MINUTE -> now - retentionMinutes * MINUTE_MS;
+            case HOUR -> time.minusHours(retentionHours).toInstant().toEpochMilli();
+            case DAY -> time.minusDays(retentionDays).toInstant().toEpochMilli();
+            case MONTH -> time.minusMonths(retentionMonths).toInstant().toEpochMilli();
+        };
+    }
+
+    private Rollup rollup(String scope) {
+        return rollups.computeIfAbsent(scope, Rollup::new);
+    }
+
+    private void refreshPlacements() {
+        placementsStale = false;
+        placements = deviceStateJdbcRepository.findPlacements();
+    }
+
+    private void persist() {
+        try {
+            for (String scope : List.copyOf(deletedScopes)) {
+                energyRollupJdbcRepository.deleteScope(scope);
+                deletedScopes.remove(scope);
+            }
+        } catch (Exception e) {
+            log.error("Ошибка при удалении агрегатов потребления энергии: {}", e.getMessage(), e);
+        }
+
+        List<RollupRow> rows = new ArrayList<>();
+        rollups.values().forEach(rollup -> rollup.drainDirty(rows));
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            energyRollupJdbcRepository.upsert(rows);
+            log.debug("Записано агрегатов потребления энергии: {}", rows.size());
+        } catch (Exception e) {
+            // Строки пишутся полным значением интервала, поэтому их достаточно пометить для повторной записи
+            rows.forEach(row -> {
+                Rollup rollup = rollups.get(row.scopeKey());
+                if (rollup != null) {
+                    rollup.markDirty(row.resolution(), row.bucketStart());
+                }
+            });
+            log.error("Ошибка при записи агрегатов потребления энергии: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Последняя известная мощность устройства; поля защищены монитором объекта
+     */
+    private static final class Meter {
+        private double watts;
+        private boolean online = true;
+        private long lastTs;
+    }
+
+    private static final class Bucket {
+        private double wh;
+        private boolean dirty;
+    }
+
+    /**
+     * Агрегаты одной области по всем разрешениям
+     */
+    private final class Rollup {
+
+        private final String scope;
+        private final Map<EnergyResolution, TreeMap<Long, Bucket>> buckets = new EnumMap<>(EnergyResolution.class);
+
+        Rollup(String scope) {
+            this.scope = scope;
+            for (EnergyResolution resolution : EnergyResolution.values()) {
+                buckets.put(resolution, new TreeMap<>());
+            }
+        }
+
+        synchronized void add(long[] starts, double wh) {
+            for (EnergyResolution resolution : EnergyResolution.values()) {
+                Bucket bucket = buckets.get(resolution).computeIfAbsent(starts[resolution.ordinal()], start -> new Bucket());
+                bucket.wh += wh;
+                bucket.dirty = resolution != EnergyResolution.MINUTE;
+            }
+        }
+
+        synchronized void load(EnergyResolution resolution, long start, double wh) {
+            buckets.get(resolution).computeIfAbsent(start, s -> new Bucket()).wh += wh;
+        }
+
+        synchronized void markDirty(EnergyResolution resolution, long start) {
+            Bucket bucket = buckets.get(resolution).get(start);
+            if (bucket != null) {
+                bucket.dirty = true;
+            }
+        }
+
+        synchronized void drainDirty(List<RollupRow> rows) {
+            for (EnergyResolution resolution : PERSISTED) {
+                buckets.get(resolution).forEach((start, bucket) -> {
+                    if (bucket.dirty) {
+                        bucket.dirty = false;
+                        rows.add(new RollupRow(scope, resolution, start, bucket.wh));
+                    }
+                });
+            }
+        }
+
+        synchronized void prune(long now) {
+            buckets.forEach((resolution, series) -> series.headMap(retentionCutoff(resolution, now)).clear());
+        }
+
+        synchronized TreeMap<Long, Double> series(EnergyResolution resolution, long from, long to) {
+            TreeMap<Long, Double> result = new TreeMap<>();
+            buckets.get(resolution).subMap(from, true, to, true)
+                    .forEach((start, bucket) -> result.put(start, bucket.wh));
+            return result;
+        }
+
+        synchronized double total(EnergyResolution resolution, long from, long to) {
+            double total = 0;
+            for (Bucket bucket : buckets.get(resolution).subMap(from, true, to, true).values()) {
+                total += bucket.wh;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Диапазон и разрешение отчёта за период
+     */
+    public record Window(EnergyResolution resolution, long from, long to) {
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.Smarthome.service;
+
+import java.util.Arrays;
+
+/**
+ * Сжатие временных рядов по схеме Gorilla (Facebook, VLDB 2015)
+ *
+ * Метки времени кодируются разностью второго порядка (delta-of-delta): при равномерной
+ * отправке телеметрии большинство точек занимает один бит. Значения кодируются XOR
+ * с предыдущим значением, сохраняются только значащие биты. Для типичной телеметрии
+ * точка занимает единицы байт вместо десятков байт строки таблицы.
+ */
+public final class GorillaCodec {
+
+    private GorillaCodec() {
+    }
+
+    /**
+     * Получатель декодированных точек
+     */
+    @FunctionalInterface
+    public interface PointConsumer {
+        void accept(long timestamp, double value);
+    }
+
+    /**
+     * Последовательная запись точек одного ряда
+     * Метки времени должны не убывать; объект не потокобезопасен
+     */
+    public static final class Encoder {
+
+        private final BitOutput out;
+        private int count;
+        private long firstTimestamp;
+        private long lastTimestamp;
+        private long lastDelta;
+        private long lastValueBits;
+        private int lastLeading = -1;
+        private int lastTrailing;
+
+        public Encoder(int initialBytes) {
+            this.out = new BitOutput(initialBytes);
+        }
+
+        public void append(long timestamp, double value) {
+            long valueBits = Double.doubleToRawLongBits(value);
+            if (count == 0) {
+                out.write(timestamp, 64);
+                out.write(valueBits, 64);
+                firstTimestamp = timestamp;
+            } else {
+                writeTimestamp(timestamp);
+                writeValue(valueBits);
+            }
+            lastTimestamp = timestamp;
+            lastValueBits = valueBits;
+            count++;
+        }
+
+        private void writeTimestamp(long timestamp) {
+            long delta = timestamp - lastTimestamp;
+            long dod = delta - lastDelta;
+            lastDelta = delta;
+            if (dod == 0) {
+                out.write(0, 1);
+            } else if (dod >= -63 && dod <= 64) {
+                out.write(0b10, 2);
+                out.write(dod + 63, 7);
+            } else if (dod >= -255 && dod <= 256) {
+                out.write(0b110, 3);
+                out.write(dod + 255, 9);
+            } else if (dod >= -2047 && dod <= 2048) {
+                out.write(0b1110, 4);
+                out.write(dod + 2047, 12);
+            } else {
+                out.write(0b1111, 4);
+                out.write(dod, 64);
+            }
+        }
+
+        private void writeValue(long valueBits) {
+            long xor = valueBits ^ lastValueBits;
+            if (xor == 0) {
+                out.write(0, 1);
+                return;
+            }
+            out.write(1, 1);
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (lastLeading >= 0 && leading >= lastLeading && trailing >= lastTrailing) {
+                // Значащие биты помещаются в окно предыдущего значения
+                out.write(0, 1);
+                out.write(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+            } else {
+                int significant = 64 - leading - trailing;
+                out.write(1, 1);
+                out.write(leading, 5);
+                // 64 значащих бита записываются как 0
+                out.write(significant & 63, 6);
+                out.write(xor >>> trailing, significant);
+                lastLeading = leading;
+                lastTrailing = trailing;
+            }
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public long firstTimestamp() {
+            return firstTimestamp;
+        }
+
+        public long lastTimestamp() {
+            return lastTimestamp;
+        }
+
+        /**
+         * Размер закодированных данных в байтах
+         */
+        public int sizeInBytes() {
+            return out.sizeInBytes();
+        }
+
+        /**
+         * Копия закодированных данных
+         */
+        public byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Декодирует точки блока
+     * @param data Закодированные данные
+     * @param count Количество точек
+     * @param consumer Получатель точек
+     */
+    public static void decode(byte[] data, int count, PointConsumer consumer) {
+        if (count == 0) {
+            return;
+        }
+        BitInput in = new BitInput(data);
+        long timestamp = in.read(64);
+        long valueBits = in.read(64);
+        consumer.accept(timestamp, Double.longBitsToDouble(valueBits));
+
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            long dod;
+            if (in.read(1) == 0) {
+                dod = 0;
+            } else if (in.read(1) == 0) {
+                dod = in.read(7) - 63;
+            } else if (in.read(1) == 0) {
+                dod = in.read(9) - 255;
+            } else if (in.read(1) == 0) {
+                dod = in.read(12) - 2047;
+            } else {
+                dod = in.read(64);
+            }
+            delta += dod;
+            timestamp += delta;
+
+            if (in.read(1) == 1) {
+                if (in.read(1) == 1) {
+                    leading = (int) in.read(5);
+                    int significant = (int) in.read(6);
+                    if (significant == 0) {
+                        significant = 64;
+                    }
+                    trailing = 64 - leading - significant;
+                }
+                valueBits ^= in.read(64 - leading - trailing) << trailing;
+            }
+            consumer.accept(timestamp, Double.longBitsToDouble(valueBits));
+        }
+    }
+
+    /**
+     * Запись битов в расширяемый массив
+     */
+    private static final class BitOutput {
+
+        private byte[] buffer;
+        private long position;
+
+        BitOutput(int initialBytes) {
+            this.buffer = new byte[Math.max(16, initialBytes)];
+        }
+
+        void write(long value, int bits) {
+            ensureCapacity(bits);
+            for (int remaining = bits; remaining > 0; ) {
+                int index = (int) (position >>> 3);
+                int free = 8 - (int) (position & 7);
+                int take = Math.min(free, remaining);
+                int chunk = (int) ((value >>> (remaining - take)) & ((1 << take) - 1));
+                buffer[index] |= (byte) (chunk << (free - take));
+                position += take;
+                remaining -= take;
+            }
+        }
+
+        private void ensureCapacity(int bits) {
+            long required = (position + bits + 7) >>> 3;
+            if (required > buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) Math.max(required, buffer.length * 2L));
+            }
+        }
+
+        int sizeInBytes() {
+            return (int) ((position + 7) >>> 3);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, sizeInBytes());
+        }
+    }
+
+    /**
+     * Чтение битов из массива
+     */
+    private static final class BitInput {
+
+        private final byte[] buffer;
+        private long position;
+
+        BitInput(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        long read(int bits) {
+            long value = 0;
+            for (int remaining = bits; remaining > 0; ) {
+                int index = (int) (position >>> 3);
+                int available = 8 - (int) (position & 7);
+                int take = Math.min(available, remaining);
+                int chunk = (buffer[index] >>> (available - take)) & ((1 << take) - 1);
+                value = (value << take) | chunk;
+                position += take;
+                remaining -= take;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.Smarthome.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Асинхронный конвейер приёма состояний устройств из MQTT
+ *
+ * Сообщения из топика smarthome/state/+ не обрабатываются в потоке Paho,
+ * а помещаются в ограниченную очередь. Рабочие потоки забирают сообщения,
+ * объединяют обновления одного устройства в пределах короткого окна
+ * и применяют их к хранилищу состояний, которое записывает изменения
+ * в базу пакетными JDBC-запросами.
+ *
+ * Очереди разбиты по шардам (по хэшу ID устройства), поэтому обновления
+ * одного устройства всегда обрабатываются одним потоком и не переупорядочиваются.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+@Profile("mqtt")
+public class MqttStateIngestionService {
+
+    private final DeviceStateStore deviceStateStore;
+    private final DeviceLivenessTracker deviceLivenessTracker;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${mqtt.ingest.workers:2}")
+    private int workerCount;
+
+    @Value("${mqtt.ingest.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${mqtt.ingest.batch-window-ms:50}")
+    private long batchWindowMs;
+
+    @Value("${mqtt.ingest.max-batch-size:500}")
+    private int maxBatchSize;
+
+    @Value("${mqtt.ingest.enqueue-timeout-ms:1000}")
+    private long enqueueTimeoutMs;
+
+    @Value("${logging.sampling.interval-ms:1000}")
+    private long samplingIntervalMs;
+
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+    private volatile boolean running;
+    private List<BlockingQueue<StateUpdate>> queues;
+    private List<Thread> workers;
+
+    private Timer batchTimer;
+    private DistributionSummary batchSize;
+    private Counter unknownDevices;
+    private SampledLog sampledLog;
+
+    @PostConstruct
+    public void start() {
+        int shards = Math.max(1, workerCount);
+        int capacityPerShard = Math.max(1, queueCapacity / shards);
+
+        sampledLog = new SampledLog(log, samplingIntervalMs);
+        queues = new ArrayList<>(shards);
+        workers = new ArrayList<>(shards);
+        running = true;
+
+        for (int i = 0; i < shards; i++) {
+            BlockingQueue<StateUpdate> queue = new ArrayBlockingQueue<>(capacityPerShard);
+            queues.add(queue);
+
+            Thread worker = new Thread(() -> runWorker(queue), "mqtt-ingest-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+
+        batchTimer = Timer.builder("smarthome.mqtt.ingest.batch")
+                .description("Применение пакета обновлений к хранилищу состояний")
+                .register(meterRegistry);
+        batchSize = DistributionSummary.builder("smarthome.mqtt.ingest.batch.size")
+                .description("Количество сообщений в пакете до объединения")
+                .register(meterRegistry);
+        unknownDevices = Counter.builder("smarthome.mqtt.ingest.unknown.devices")
+                .description("Обновления от устройств, отсутствующих в базе")
+                .register(meterRegistry);
+        Gauge.builder("smarthome.mqtt.ingest.pending", this, MqttStateIngestionService::getPendingCount)
+                .description("Сообщения, ожидающие записи")
+                .register(meterRegistry);
+        FunctionCounter.builder("smarthome.mqtt.ingest.dropped", droppedMessages, AtomicLong::get)
+                .description("Сообщения, отброшенные при переполнении очереди")
+                .register(meterRegistry);
+
+        log.info("Запущен конвейер приёма MQTT: потоков={}, ёмкость очереди={}, окно={} мс",
+                shards, capacityPerShard * shards, batchWindowMs);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Сбрасываем в базу всё, что осталось в очередях
+        for (BlockingQueue<StateUpdate> queue : queues) {
+            List<StateUpdate> remaining = new ArrayList<>();
+            queue.drainTo(remaining);
+            if (!remaining.isEmpty()) {
+                flush(coalesce(remaining));
+            }
+        }
+        log.info("Конвейер приёма MQTT остановлен");
+    }
+
+    /**
+     * Ставит обновление состояния устройства в очередь на запись
+     * При переполнении очереди поток вызывающего ждёт не дольше enqueue-timeout-ms,
+     * что создаёт обратное давление на клиент MQTT
+     * @param deviceId ID устройства
+     * @param properties Полученные свойства
+     * @return true если обновление принято
+     */
+    public boolean submit(UUID deviceId, Map<String, String> properties) {
+        BlockingQueue<StateUpdate> queue = queues.get(Math.floorMod(deviceId.hashCode(), queues.size()));
+        try {
+            if (queue.offer(new StateUpdate(deviceId, properties), enqueueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        long dropped = droppedMessages.incrementAndGet();
+        sampledLog.atWarn("overflow")
+                .addKeyValue("device", deviceId)
+                .log("Очередь приёма MQTT переполнена, обновление устройства {} отброшено (всего отброшено: {})",
+                        deviceId, dropped);
+        return false;
+    }
+
+    /**
+     * Возвращает текущее количество сообщений, ожидающих записи
+     */
+    public int getPendingCount() {
+        int pending = 0;
+        for (BlockingQueue<StateUpdate> queue : queues) {
+            pending += queue.size();
+        }
+        return pending;
+    }
+
+    public long getDroppedCount() {
+        return droppedMessages.get();
+    }
+
+    private void runWorker(BlockingQueue<StateUpdate> queue) {
+        List<StateUpdate> batch = new ArrayList<>(maxBatchSize);
+
+        while (running) {
+            try {
+                StateUpdate first = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Собираем обновления в течение окна или до достижения размера пакета
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWindowMs);
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    StateUpdate next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                batchSize.record(batch.size());
+                flush(coalesce(batch));
+            } catch (InterruptedException e) {
+                // Не теряем уже собранную часть пакета при остановке
+                if (!batch.isEmpty()) {
+                    flush(coalesce(batch));
+                }
+                if (!running) {
+                    break;
+                }
+            } catch (Exception e) {
+                log.error("Ошибка при пакетной записи состояний устройств: {}", e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Объединяет обновления одного устройства, более поздние значения перекрывают ранние
+     */
+    private Map<UUID, Map<String, String>> coalesce(List<StateUpdate> updates) {
+        Map<UUID, Map<String, String>> merged = new LinkedHashMap<>();
+        for (StateUpdate update : updates) {
+            merged.computeIfAbsent(update.deviceId(), id -> new HashMap<>()).putAll(update.properties());
+        }
+        return merged;
+    }
+
+    private void flush(Map<UUID, Map<String, String>> updates) {
+        long start = System.nanoTime();
+        int changed = 0;
+        for (Map.Entry<UUID, Map<String, String>> entry : updates.entrySet()) {
+            UUID deviceId = entry.getKey();
+            if (deviceStateStore.updateProperties(deviceId, entry.getValue()).isEmpty()) {
+                unknownDevices.increment();
+                sampledLog.atWarn(deviceId)
+                        .addKeyValue("device", deviceId)
+                        .log("Получено сообщение от неизвестного устройства с ID: {}", deviceId);
+                continue;
+            }
+            deviceLivenessTracker.heartbeat(deviceId);
+            changed++;
+        }
+        batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        sampledLog.atDebug("batch").log("Применены обновления состояния {} устройств", changed);
+    }
+
+    private record StateUpdate(UUID deviceId, Map<String, String> properties) {
+    }
+}
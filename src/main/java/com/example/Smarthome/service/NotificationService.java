@@ -0,0 +1,445 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.model.Notification;
+import com.example.Smarthome.model.NotificationType;
+import com.example.Smarthome.repository.NotificationJdbcRepository;
+import com.example.Smarthome.repository.NotificationJdbcRepository.DeleteResult;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Уведомления о переходах статуса устройств, низком заряде батареи и тревогах датчиков
+ *
+ * Обработчик изменений только определяет переход и кладёт его в ограниченную очередь,
+ * не дожидаясь записи. Очередь периодически разбирается пакетами: однотипные массовые
+ * переходы (например, все устройства отключились после перезапуска брокера) объединяются
+ * в одно уведомление, остальные записываются в базу одним пакетным запросом.
+ * При переполнении очереди новые переходы отбрасываются с подсчётом, а пользователь
+ * получает уведомление о количестве пропущенных. Количество непрочитанных поддерживается
+ * счётчиком и не требует COUNT(*) при каждом запросе.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class NotificationService {
+
+    private static final int SUMMARY_NAMES = 10;
+
+    private final NotificationJdbcRepository notificationJdbcRepository;
+    private final DeviceStateStore deviceStateStore;
+    private final DeviceAlertRules alertRules;
+
+    @Value("${notifications.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${notifications.batch-size:500}")
+    private int batchSize;
+
+    @Value("${notifications.burst-threshold:20}")
+    private int burstThreshold;
+
+    @Value("${notifications.retention-days:30}")
+    private int retentionDays;
+
+    private BlockingQueue<Transition> queue;
+
+    // Последнее известное состояние устройств для определения переходов
+    private final Map<UUID, DeviceStatus> lastStatus = new ConcurrentHashMap<>();
+    private final Map<UUID, Boolean> lowBattery = new ConcurrentHashMap<>();
+    private final Map<UUID, Set<String>> activeAlerts = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong unreadCount = new AtomicLong();
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private long droppedReported;
+
+    // Счётчик непрочитанных изменяется вместе с записью в базу под этим монитором
+    private final Object counterLock = new Object();
+
+    // Пакет, который не удалось записать; повторяется при следующем разборе очереди
+    private List<Notification> retry = List.of();
+
+    // До чтения максимального ID и счётчика из базы очередь только накапливается
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void init() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        // Без известного статуса первый переход после запуска не был бы замечен
+        try {
+            deviceStateStore.getStatuses().forEach(lastStatus::putIfAbsent);
+        } catch (Exception e) {
+            log.warn("Не удалось загрузить статусы устройств для уведомлений: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Читает максимальный ID и количество непрочитанных; при ошибке повторяется при разборе очереди
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadCounters() {
+        try {
+            nextId.set(notificationJdbcRepository.findMaxId());
+            unreadCount.set(notificationJdbcRepository.countUnread());
+            ready = true;
+            log.info("Непрочитанных уведомлений: {}", unreadCount.get());
+        } catch (Exception e) {
+            log.warn("Не удалось загрузить счётчики уведомлений: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * Определяет переходы, о которых нужно уведомить; вызывается в потоке публикации изменения
+     */
+    @EventListener
+    public void onDeviceChange(DeviceChangeEvent event) {
+        UUID deviceId = event.deviceId();
+        if (event.type() == DeviceChangeEvent.Type.DELETED) {
+            lastStatus.remove(deviceId);
+            lowBattery.remove(deviceId);
+            activeAlerts.remove(deviceId);
+            return;
+        }
+        if (event.type() != DeviceChangeEvent.Type.UPDATED) {
+            return;
+        }
+
+        if (event.status() != null) {
+            DeviceStatus previous = lastStatus.put(deviceId, event.status());
+            if (previous == DeviceStatus.ONLINE
+                    && (event.status() == DeviceStatus.OFFLINE || event.status() == DeviceStatus.ERROR)) {
+                enqueue(new Transition(Kind.WENT_OFFLINE, deviceId, null, event.status().name(), LocalDateTime.now()));
+            } else if (previous != null && previous != DeviceStatus.ONLINE && event.status() == DeviceStatus.ONLINE) {
+                enqueue(new Transition(Kind.CAME_ONLINE, deviceId, null, null, LocalDateTime.now()));
+            }
+        }
+
+        String battery = event.properties().get(DeviceAlertRules.BATTERY_KEY);
+        if (battery != null) {
+            boolean low = alertRules.isLowBattery(battery);
+            Boolean wasLow = lowBattery.put(deviceId, low);
+            if (low && !Boolean.TRUE.equals(wasLow)) {
+                enqueue(new Transition(Kind.LOW_BATTERY, deviceId, DeviceAlertRules.BATTERY_KEY, battery,
+                        LocalDateTime.now()));
+            }
+        }
+
+        for (Map.Entry<String, String> entry : event.properties().entrySet()) {
+            if (!alertRules.isAlertKey(entry.getKey())) {
+                continue;
+            }
+            boolean alert = alertRules.isAlert(entry.getKey(), entry.getValue());
+            Set<String> active = activeAlerts.computeIfAbsent(deviceId, id -> ConcurrentHashMap.newKeySet());
+            if (!alert) {
+                active.remove(entry.getKey());
+            } else if (active.add(entry.getKey())) {
+                enqueue(new Transition(Kind.ALERT, deviceId, entry.getKey(), entry.getValue(), LocalDateTime.now()));
+            }
+        }
+    }
+
+    /**
+     * Записывает накопленные уведомления пакетами
+     */
+    @Scheduled(fixedDelayString = "${notifications.flush-interval-ms:500}")
+    public synchronized void flush() {
+        if (!ready) {
+            loadCounters();
+            if (!ready) {
+                return;
+            }
+        }
+        List<Transition> batch = new ArrayList<>(batchSize);
+        while (true) {
+            List<Notification> notifications = retry;
+            retry = List.of();
+            if (notifications.isEmpty()) {
+                batch.clear();
+                queue.drainTo(batch, batchSize);
+                notifications = render(batch);
+            }
+            if (notifications.isEmpty()) {
+                return;
+            }
+            if (!write(notifications)) {
+                retry = notifications;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Удаляет уведомления старше срока хранения
+     */
+    @Scheduled(fixedDelayString = "${notifications.retention-check-interval-ms:3600000}")
+    public void purgeExpired() {
+        try {
+            DeleteResult result;
+            synchronized (counterLock) {
+                result = notificationJdbcRepository.deleteOlderThan(LocalDateTime.now().minusDays(retentionDays));
+                unreadCount.addAndGet(-result.unread());
+            }
+            if (result.deleted() > 0) {
+                log.info("Удалено устаревших уведомлений: {}", result.deleted());
+            }
+        } catch (Exception e) {
+            log.error("Ошибка при удалении устаревших уведомлений: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Возвращает страницу уведомлений от новых к старым
+     * @param read Фильтр по признаку прочтения или null
+     * @param type Фильтр по типу или null
+     * @param before Курсор из предыдущей страницы или null для первой страницы
+     * @param limit Размер страницы
+     * @return страница и курсор следующей страницы
+     */
+    public Page getPage(Boolean read, NotificationType type, Long before, int limit) {
+        List<Notification> items = notificationJdbcRepository.findPage(read, type,
+                before != null ? before : Long.MAX_VALUE, limit + 1);
+        Long nextCursor = null;
+        if (items.size() > limit) {
+            items = items.subList(0, limit);
+            nextCursor = items.get(limit - 1).getId();
+        }
+        return new Page(items, nextCursor);
+    }
+
+    public long getUnreadCount() {
+        return unreadCount.get();
+    }
+
+    /**
+     * Помечает уведомление прочитанным
+     * @return true, если уведомление было непрочитанным
+     */
+    public boolean markRead(long id) {
+        synchronized (counterLock) {
+            if (notificationJdbcRepository.markRead(id) == 0) {
+                return false;
+            }
+            unreadCount.decrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Помечает прочитанными все уведомления
+     * @return количество уведомлений, бывших непрочитанными
+     */
+    public int markAllRead() {
+        synchronized (counterLock) {
+            int updated = notificationJdbcRepository.markAllRead();
+            unreadCount.addAndGet(-updated);
+            return updated;
+        }
+    }
+
+    /**
+     * Удаляет уведомление
+     * @return true, если уведомление существовало
+     */
+    public boolean delete(long id) {
+        synchronized (counterLock) {
+            DeleteResult result = notificationJdbcRepository.delete(id);
+            unreadCount.addAndGet(-result.unread());
+            return result.deleted() > 0;
+        }
+    }
+
+    /**
+     * Удаляет все уведомления
+     * @return количество удалённых уведомлений
+     */
+    public int deleteAll() {
+        synchronized (counterLock) {
+            DeleteResult result = notificationJdbcRepository.deleteAll();
+            unreadCount.addAndGet(-result.unread());
+            return result.deleted();
+        }
+    }
+
+    /**
+     * Возвращает показатели работы очереди уведомлений
+     * @return Карта метрик
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("unread", unreadCount.get());
+        stats.put("queued", queue.size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("generated", generated.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("written", written.sum());
+        return stats;
+    }
+
+    private void enqueue(Transition transition) {
+        generated.increment();
+        if (!queue.offer(transition)) {
+            dropped.increment();
+        }
+    }
+
+    private boolean write(List<Notification> notifications) {
+        try {
+            // Уведомления повторного пакета могли быть записаны до ошибки и не вставляются повторно
+            int inserted;
+            synchronized (counterLock) {
+                inserted = notificationJdbcRepository.insert(notifications);
+                unreadCount.addAndGet(inserted);
+            }
+            written.add(inserted);
+            return true;
+        } catch (Exception e) {
+            log.error("Ошибка при записи уведомлений ({} шт.): {}", notifications.size(), e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Формирует уведомления из переходов; массовые однотипные переходы объединяются
+     */
+    private List<Notification> render(List<Transition> batch) {
+        List<Notification> notifications = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+
+        Map<Kind, List<Transition>> byKind = new HashMap<>();
+        for (Transition transition : batch) {
+            byKind.computeIfAbsent(transition.kind(), kind -> new ArrayList<>()).add(transition);
+        }
+        byKind.forEach((kind, transitions) -> {
+            if (transitions.size() > burstThreshold) {
+                notifications.add(summary(kind, transitions));
+            } else {
+                transitions.forEach(transition -> notifications.add(single(transition)));
+            }
+        });
+
+        long droppedTotal = dropped.sum();
+        if (droppedTotal > droppedReported) {
+            notifications.add(notification(NotificationType.WARNING, "Часть уведомлений пропущена",
+                    "Очередь уведомлений была переполнена, пропущено событий: " + (droppedTotal - droppedReported),
+                    null, now));
+            droppedReported = droppedTotal;
+        }
+        return notifications;
+    }
+
+    private Notification single(Transition transition) {
+        String name = deviceName(transition.deviceId());
+        LocalDateTime time = transition.time();
+        return switch (transition.kind()) {
+            case WENT_OFFLINE -> notification(NotificationType.WARNING, "Устройство недоступно",
+                    name + ": статус " + transition.value(), transition.deviceId(), time);
+            case CAME_ONLINE -> notification(NotificationType.INFO, "Устройство снова в сети",
+                    name + " снова в сети", transition.deviceId(), time);
+            case LOW_BATTERY -> notification(NotificationType.WARNING, "Низкий заряд батареи",
+                    name + ": заряд " + transition.value() + "%", transition.deviceId(), time);
+            case ALERT -> notification(NotificationType.ALERT, alertTitle(transition.key()),
+                    name + ": " + transition.key() + " = " + transition.value(), transition.deviceId(), time);
+        };
+    }
+
+    private Notification summary(Kind kind, List<Transition> transitions) {
+        String title = switch (kind) {
+            case WENT_OFFLINE -> "Недоступно устройств: " + transitions.size();
+            case CAME_ONLINE -> "Снова в сети устройств: " + transitions.size();
+            case LOW_BATTERY -> "Низкий заряд батареи у устройств: " + transitions.size();
+            case ALERT -> "Тревоги датчиков: " + transitions.size();
+        };
+        List<String> names = new ArrayList<>(SUMMARY_NAMES);
+        for (int i = 0; i < Math.min(SUMMARY_NAMES, transitions.size()); i++) {
+            names.add(deviceName(transitions.get(i).deviceId()));
+        }
+        String message = String.join(", ", names)
+                + (transitions.size() > SUMMARY_NAMES ? " и ещё " + (transitions.size() - SUMMARY_NAMES) : "");
+        NotificationType type = kind == Kind.CAME_ONLINE ? NotificationType.INFO
+                : kind == Kind.ALERT ? NotificationType.ALERT : NotificationType.WARNING;
+        return notification(type, title, message, null, transitions.get(0).time());
+    }
+
+    private Notification notification(NotificationType type, String title, String message, UUID deviceId,
+                                      LocalDateTime time) {
+        Notification notification = new Notification();
+        notification.setId(nextId.incrementAndGet());
+        notification.setType(type);
+        notification.setTitle(title);
+        notification.setMessage(message);
+        notification.setDeviceId(deviceId);
+        notification.setCreatedAt(time);
+        return notification;
+    }
+
+    private String deviceName(UUID deviceId) {
+        try {
+            return deviceStateStore.getSnapshot(deviceId)
+                    .map(DeviceStateStore.DeviceSnapshot::name)
+                    .orElse("Устройство " + deviceId);
+        } catch (Exception e) {
+            return "Устройство " + deviceId;
+        }
+    }
+
+    private static String alertTitle(String key) {
+        return switch (key) {
+            case "motion" -> "Обнаружено движение";
+            case "smoke" -> "Обнаружен дым";
+            case "leak" -> "Обнаружена протечка";
+            case "door", "contact" -> "Открыта дверь";
+            case "alarm" -> "Сработала сигнализация";
+            default -> "Тревога датчика";
+        };
+    }
+
+    private enum Kind {
+        WENT_OFFLINE,
+        CAME_ONLINE,
+        LOW_BATTERY,
+        ALERT
+    }
+
+    /**
+     * Переход состояния устройства, ожидающий записи
+     */
+    private record Transition(Kind kind, UUID deviceId, String key, String value, LocalDateTime time) {
+    }
+
+    /**
+     * Страница уведомлений
+     * @param items Уведомления от новых к старым
+     * @param nextCursor Курсор следующей страницы или null, если страница последняя
+     */
+    public record Page(List<Notification> items, Long nextCursor) {
+    }
+}
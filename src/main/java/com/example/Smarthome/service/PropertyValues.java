@@ -0,0 +1,31 @@
+package com.example.Smarthome.service;
+
+/**
+ * Разбор значений свойств устройств, которые хранятся строками
+ */
+final class PropertyValues {
+
+    private PropertyValues() {
+    }
+
+    /**
+     * Разбирает число без исключений для заведомо нечисловых значений ("on", "off" и т.п.)
+     * @return число или NaN
+     */
+    static double parseNumber(String value) {
+        if (value == null || value.isEmpty()) {
+            return Double.NaN;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < '0' || c > '9') && c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E') {
+                return Double.NaN;
+            }
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -3,14 +3,38 @@ package com.example.Smarthome.service;
 import com.example.Smarthome.model.ConnectionProtocol;
 import com.example.Smarthome.model.Device;
 import com.example.Smarthome.protocol.*;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 @Service
 @Slf4j
@@ -18,12 +42,37 @@ public class ProtocolAdapterService {
 
     private final Map<ConnectionProtocol, ProtocolAdapter> protocolAdapters = new HashMap<>();
     private final VirtualDeviceAdapter virtualDeviceAdapter;
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+    
+    // Отдельный пул потоков для каждого протокола: медленный адаптер не влияет на остальные
+    private final Map<ConnectionProtocol, ExecutorService> bulkheads = new EnumMap<>(ConnectionProtocol.class);
+    private ExecutorService callbackExecutor;
+    
+    @Value("${protocol.adapter.timeout-ms:3000}")
+    private long timeoutMs;
+    
+    @Value("${protocol.adapter.pool-size:4}")
+    private int defaultPoolSize;
+    
+    @Value("${protocol.adapter.queue-capacity:100}")
+    private int defaultQueueCapacity;
+    
+    @Value("${protocol.adapter.callback-threads:4}")
+    private int callbackThreads;
+    
+    @Value("${protocol.adapter.callback-queue-capacity:1000}")
+    private int callbackQueueCapacity;
     
     // Конструктор с профилями для разных конфигураций
     @Autowired
     public ProtocolAdapterService(VirtualDeviceAdapter virtualDeviceAdapter, 
-                                  List<ProtocolAdapter> adapters) {
+                                  List<ProtocolAdapter> adapters,
+                                  Environment environment,
+                                  MeterRegistry meterRegistry) {
         this.virtualDeviceAdapter = virtualDeviceAdapter;
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
         
         // Регистрируем адаптеры, найденные в контексте Spring
         for (ProtocolAdapter adapter : adapters) {
@@ -44,64 +93,228 @@ public class ProtocolAdapterService {
         log.info("Зарегистрирован виртуальный адаптер протокола");
     }
     
+    @PostConstruct
+    public void init() {
+        for (ConnectionProtocol protocol : protocolAdapters.keySet()) {
+            String prefix = "protocol.adapter." + protocol.name().toLowerCase() + ".";
+            int poolSize = environment.getProperty(prefix + "pool-size", Integer.class, defaultPoolSize);
+            int queueCapacity = environment.getProperty(prefix + "queue-capacity", Integer.class, defaultQueueCapacity);
+            BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>(queueCapacity);
+            bulkheads.put(protocol, newExecutor("adapter-" + protocol.name().toLowerCase(), poolSize, queue,
+                    new ThreadPoolExecutor.AbortPolicy()));
+            Gauge.builder("smarthome.protocol.adapter.queue", queue, BlockingQueue::size)
+                    .description("Вызовы адаптера, ожидающие свободного потока")
+                    .tag("protocol", protocol.name())
+                    .register(meterRegistry);
+            log.info("Пул адаптера {}: {} потоков, очередь {}", protocol, poolSize, queueCapacity);
+        }
+        // При переполнении очереди результат обрабатывается в завершившем вызов потоке:
+        // это тормозит пул адаптера, но ни один результат не теряется
+        callbackExecutor = newExecutor("adapter-callback", callbackThreads,
+                new LinkedBlockingQueue<>(Math.max(1, callbackQueueCapacity)), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        bulkheads.values().forEach(ExecutorService::shutdownNow);
+        callbackExecutor.shutdownNow();
+    }
+    
     /**
      * Отправляет команду на устройство через соответствующий протокол
+     * Вызывающий поток ждёт не дольше таймаута адаптера
      * @param device Устройство
      * @param command Команда
      * @param parameters Параметры команды
      * @return Успешность выполнения
      */
     public boolean sendCommand(Device device, String command, Map<String, String> parameters) {
-        ProtocolAdapter adapter = getAdapterForDevice(device);
-        if (adapter != null) {
-            try {
-                return adapter.sendCommand(device, command, parameters);
-            } catch (Exception e) {
-                log.error("Ошибка при отправке команды {} на устройство {}: {}", 
-                        command, device.getName(), e.getMessage(), e);
-                return false;
-            }
-        }
-        log.warn("Не найден адаптер для протокола {} устройства {}", 
-                device.getProtocol(), device.getName());
-        return false;
+        return sendCommandAsync(device, command, parameters).join();
     }
     
     /**
      * Проверяет статус устройства через соответствующий протокол
+     * Вызывающий поток ждёт не дольше таймаута адаптера
      * @param device Устройство
      * @return Онлайн ли устройство
      */
     public boolean checkDeviceStatus(Device device) {
-        ProtocolAdapter adapter = getAdapterForDevice(device);
-        if (adapter != null) {
-            try {
-                return adapter.checkDeviceStatus(device);
-            } catch (Exception e) {
-                log.error("Ошибка при проверке статуса устройства {}: {}", 
-                        device.getName(), e.getMessage(), e);
-                return false;
-            }
-        }
-        return false;
+        return checkDeviceStatusAsync(device).join();
     }
     
     /**
      * Получает текущие свойства устройства через соответствующий протокол
+     * Вызывающий поток ждёт не дольше таймаута адаптера
      * @param device Устройство
      * @return Карта свойств устройства
      */
     public Map<String, String> getDeviceProperties(Device device) {
+        return getDevicePropertiesAsync(device).join();
+    }
+    
+    /**
+     * Асинхронно отправляет команду на устройство
+     * @return future с успешностью выполнения; false при ошибке, таймауте или переполнении пула протокола
+     */
+    public CompletableFuture<Boolean> sendCommandAsync(Device device, String command, Map<String, String> parameters) {
+        return sendCommandAsync(device, command, parameters, timeoutMs);
+    }
+    
+    /**
+     * Асинхронно отправляет команду на устройство с собственным ограничением времени
+     * @param timeoutMs Максимальное время выполнения (мс)
+     * @return future с успешностью выполнения; false при ошибке, таймауте или переполнении пула протокола
+     */
+    public CompletableFuture<Boolean> sendCommandAsync(Device device, String command, Map<String, String> parameters,
+                                                       long timeoutMs) {
+        return call(device, "command", "отправка команды " + command,
+                adapter -> adapter.sendCommand(device, command, parameters), false, timeoutMs);
+    }
+    
+    /**
+     * Ограничение времени вызова адаптера по умолчанию (мс)
+     */
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+    
+    /**
+     * Асинхронно проверяет статус устройства
+     * @return future с признаком того, что устройство в сети
+     */
+    public CompletableFuture<Boolean> checkDeviceStatusAsync(Device device) {
+        return call(device, "status", "проверка статуса", adapter -> adapter.checkDeviceStatus(device), false, timeoutMs);
+    }
+    
+    /**
+     * Асинхронно получает текущие свойства устройства
+     * @return future с картой свойств; пустая карта при ошибке или таймауте
+     */
+    public CompletableFuture<Map<String, String>> getDevicePropertiesAsync(Device device) {
+        return call(device, "properties", "получение свойств", adapter -> adapter.getDeviceProperties(device), Map.of(), timeoutMs);
+    }
+    
+    /**
+     * Параллельно отправляет команды на несколько устройств
+     * Команды разных протоколов выполняются в своих пулах и не задерживают друг друга
+     * @param commands Команды
+     * @return future с результатами в порядке команд
+     */
+    public CompletableFuture<List<Boolean>> sendCommandsAsync(List<AdapterCommand> commands) {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>(commands.size());
+        for (AdapterCommand command : commands) {
+            futures.add(sendCommandAsync(command.device(), command.command(), command.parameters()));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> futures.stream().map(CompletableFuture::join).toList());
+    }
+    
+    /**
+     * Параллельно получает свойства нескольких устройств
+     * @param devices Устройства
+     * @return future с картой ID устройства -> свойства (устройства без ответа не включаются)
+     */
+    public CompletableFuture<Map<UUID, Map<String, String>>> getDevicePropertiesAsync(Collection<Device> devices) {
+        Map<UUID, CompletableFuture<Map<String, String>>> futures = new LinkedHashMap<>();
+        for (Device device : devices) {
+            futures.put(device.getId(), getDevicePropertiesAsync(device));
+        }
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    Map<UUID, Map<String, String>> result = new LinkedHashMap<>();
+                    futures.forEach((deviceId, future) -> {
+                        Map<String, String> properties = future.join();
+                        if (!properties.isEmpty()) {
+                            result.put(deviceId, properties);
+                        }
+                    });
+                    return result;
+                });
+    }
+    
+    /**
+     * Выполняет вызов адаптера в пуле его протокола с ограничением по времени
+     * По истечении таймаута задача прерывается, а future завершается значением по умолчанию.
+     * Результат передаётся в отдельный пул, чтобы продолжения вызывающего кода
+     * не занимали потоки адаптера.
+     * Длительность вызова с учётом ожидания в очереди пула и его исход записываются в метрику
+     * smarthome.protocol.adapter.calls.
+     * @param operation Тип операции для метрик
+     * @param description Описание операции для журнала
+     */
+    private <T> CompletableFuture<T> call(Device device, String operation, String description,
+                                          Function<ProtocolAdapter, T> action, T fallback, long timeoutMs) {
         ProtocolAdapter adapter = getAdapterForDevice(device);
-        if (adapter != null) {
-            try {
-                return adapter.getDeviceProperties(device);
-            } catch (Exception e) {
-                log.error("Ошибка при получении свойств устройства {}: {}", 
-                        device.getName(), e.getMessage(), e);
-            }
+        ExecutorService bulkhead = adapter != null ? bulkheads.get(device.getProtocol()) : null;
+        if (bulkhead == null) {
+            log.warn("Не найден адаптер для протокола {} устройства {}", 
+                    device.getProtocol(), device.getName());
+            return CompletableFuture.completedFuture(fallback);
         }
-        return new HashMap<>();
+        
+        long start = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task;
+        try {
+            task = bulkhead.submit(() -> {
+                try {
+                    result.complete(action.apply(adapter));
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Пул адаптера {} переполнен, {} для устройства {} отклонена", 
+                    device.getProtocol(), description, device.getName());
+            recordCall(device, operation, "rejected", start);
+            return CompletableFuture.completedFuture(fallback);
+        }
+        
+        return result
+                .orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .handleAsync((value, error) -> {
+                    if (error == null) {
+                        recordCall(device, operation, "success", start);
+                        return value;
+                    }
+                    task.cancel(true);
+                    if (error instanceof TimeoutException) {
+                        recordCall(device, operation, "timeout", start);
+                        log.error("Превышено время ожидания адаптера ({} мс): {} для устройства {}", 
+                                timeoutMs, description, device.getName());
+                    } else {
+                        recordCall(device, operation, "error", start);
+                        log.error("Ошибка адаптера: {} для устройства {}: {}", 
+                                description, device.getName(), error.getMessage(), error);
+                    }
+                    return fallback;
+                }, callbackExecutor);
+    }
+    
+    private void recordCall(Device device, String operation, String outcome, long start) {
+        Timer.builder("smarthome.protocol.adapter.calls")
+                .description("Вызовы адаптеров протоколов")
+                .tag("protocol", device.getProtocol().name())
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+    
+    private static ExecutorService newExecutor(String name, int threads, BlockingQueue<Runnable> queue,
+                                               RejectedExecutionHandler rejectionHandler) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, rejectionHandler);
+    }
+    
+    /**
+     * Команда для устройства в пакетной отправке
+     */
+    public record AdapterCommand(Device device, String command, Map<String, String> parameters) {
     }
     
     /**
@@ -0,0 +1,207 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.dto.DeviceCommandBatchRequest;
+import com.example.Smarthome.model.AutomationRule;
+import com.example.Smarthome.repository.AutomationRuleRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Правила автоматизации: "если свойство устройства удовлетворяет условию, выполнить действие"
+ *
+ * Условия проверяются по мере применения изменений свойств (MQTT, синхронизация с ThingsBoard,
+ * команды), без периодического опроса. Проверка выполняется в потоке, опубликовавшем изменение,
+ * и затрагивает только правила изменившихся свойств; действия выполняются в отдельном пуле.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RuleEngineService {
+
+    private final AutomationRuleRepository automationRuleRepository;
+    private final ScenarioService scenarioService;
+    private final DeviceCommandBatchService deviceCommandBatchService;
+
+    @Value("${rules.action-threads:2}")
+    private int actionThreads;
+
+    @Value("${rules.action-queue-capacity:1000}")
+    private int actionQueueCapacity;
+
+    private volatile RuleIndex index = RuleIndex.EMPTY;
+    private ThreadPoolExecutor actionExecutor;
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder skippedInactive = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        actionExecutor = new ThreadPoolExecutor(actionThreads, actionThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(actionQueueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "rule-action-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        actionExecutor.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadRules() {
+        try {
+            rebuildIndex();
+            log.info("Загружено правил автоматизации: {}", index.size());
+        } catch (Exception e) {
+            log.warn("Не удалось загрузить правила автоматизации: {}", e.getMessage());
+        }
+    }
+
+    public List<AutomationRule> getAllRules() {
+        return automationRuleRepository.findAll();
+    }
+
+    public Optional<AutomationRule> getRuleById(UUID id) {
+        return automationRuleRepository.findById(id);
+    }
+
+    /**
+     * Проверяет и сохраняет правило
+     * @param rule Правило
+     * @return сохранённое правило
+     * @throws IllegalArgumentException если правило некорректно
+     */
+    public AutomationRule saveRule(AutomationRule rule) {
+        RuleIndex.CompiledRule.compile(rule);
+        if (rule.getActionScenarioId() != null && scenarioService.getScenarioById(rule.getActionScenarioId()).isEmpty()) {
+            throw new IllegalArgumentException("Сценарий с ID " + rule.getActionScenarioId() + " не найден");
+        }
+        rule.setUpdatedAt(LocalDateTime.now());
+        AutomationRule saved = automationRuleRepository.save(rule);
+        rebuildIndex();
+        return saved;
+    }
+
+    public void deleteRule(UUID id) {
+        automationRuleRepository.deleteById(id);
+        rebuildIndex();
+    }
+
+    /**
+     * Проверяет правила, затронутые изменением свойств устройства
+     */
+    @EventListener
+    public void onDeviceChange(DeviceChangeEvent event) {
+        if (event.type() != DeviceChangeEvent.Type.UPDATED || event.properties().isEmpty()) {
+            return;
+        }
+        RuleIndex current = index;
+        if (current.size() == 0) {
+            return;
+        }
+        updates.increment();
+        int evaluated = current.evaluate(event.deviceId(), event.properties(), System.nanoTime(), this::fire);
+        if (evaluated > 0) {
+            evaluations.add(evaluated);
+        }
+    }
+
+    /**
+     * Возвращает показатели работы правил
+     * @return Карта метрик
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rules", index.size());
+        stats.put("updates", updates.sum());
+        stats.put("evaluations", evaluations.sum());
+        stats.put("fired", fired.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("skippedInactive", skippedInactive.sum());
+        stats.put("queuedActions", actionExecutor.getQueue().size());
+        return stats;
+    }
+
+    /**
+     * Перестраивает индекс по активным правилам
+     * Перестроения выполняются по очереди, чтобы более старый список правил не заменил более новый
+     */
+    private synchronized void rebuildIndex() {
+        index = RuleIndex.build(automationRuleRepository.findByActiveTrue(), index);
+    }
+
+    /**
+     * Передаёт действие сработавшего правила в пул действий
+     * Вызывается в потоке публикации изменения, поэтому не выполняет ввод-вывод
+     */
+    private void fire(RuleIndex.CompiledRule rule) {
+        fired.increment();
+        try {
+            actionExecutor.execute(() -> runAction(rule));
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+            log.warn("Очередь действий правил заполнена, действие правила {} пропущено", rule.name());
+        }
+    }
+
+    private void runAction(RuleIndex.CompiledRule rule) {
+        try {
+            if (rule.actionScenarioId() != null) {
+                Optional<ScenarioPlan> plan = scenarioService.getPlan(rule.actionScenarioId());
+                if (plan.isEmpty()) {
+                    log.warn("Правило {}: сценарий {} не найден", rule.name(), rule.actionScenarioId());
+                } else if (!plan.get().active()) {
+                    // Выключенный сценарий запускается только вручную
+                    skippedInactive.increment();
+                    log.debug("Правило {}: сценарий {} выключен, запуск пропущен", rule.name(), plan.get().name());
+                } else {
+                    scenarioService.runScenario(rule.actionScenarioId()).ifPresent(
+                            run -> run.thenAccept(result -> log.info("Правило {}: сценарий {} выполнен, успешно: {}",
+                                    rule.name(), result.name(), result.success())));
+                }
+                return;
+            }
+
+            DeviceCommandBatchRequest.Item item = new DeviceCommandBatchRequest.Item();
+            item.setDeviceId(rule.actionDeviceId());
+            item.setCommand(rule.actionCommand());
+            item.setParameters(new HashMap<>(rule.actionParameters()));
+            deviceCommandBatchService.execute(List.of(item)).thenAccept(results -> {
+                DeviceCommandBatchService.CommandResult result = results.get(0);
+                if (result.success()) {
+                    log.info("Правило {}: команда {} выполнена", rule.name(), rule.actionCommand());
+                } else {
+                    log.warn("Правило {}: команда {} не выполнена: {}", rule.name(), rule.actionCommand(), result.error());
+                }
+            });
+        } catch (Exception e) {
+            log.error("Ошибка при выполнении действия правила {}: {}", rule.name(), e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.AutomationRule;
+import com.example.Smarthome.model.RuleOperator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Индекс правил автоматизации по паре (устройство, свойство)
+ *
+ * Индекс неизменяем и перестраивается целиком при изменении правил. Изменение свойств
+ * устройства проверяет только правила, ссылающиеся на изменившиеся свойства этого устройства,
+ * поэтому стоимость проверки не зависит от общего количества правил. Числовое значение
+ * свойства разбирается один раз для всех правил этого свойства.
+ */
+public final class RuleIndex {
+
+    public static final RuleIndex EMPTY = new RuleIndex(Map.of(), 0);
+
+    // ID устройства -> свойство -> правила
+    private final Map<UUID, Map<String, CompiledRule[]>> byDevice;
+    private final int size;
+
+    private RuleIndex(Map<UUID, Map<String, CompiledRule[]>> byDevice, int size) {
+        this.byDevice = byDevice;
+        this.size = size;
+    }
+
+    /**
+     * Строит индекс из правил
+     * Состояние срабатывания переносится из предыдущего индекса для правил с неизменным условием
+     * @param rules Активные правила
+     * @param previous Предыдущий индекс
+     * @return новый индекс
+     * @throws IllegalArgumentException если правило некорректно
+     */
+    public static RuleIndex build(Collection<AutomationRule> rules, RuleIndex previous) {
+        Map<UUID, CompiledRule> previousRules = new HashMap<>();
+        previous.byDevice.values().forEach(byProperty -> byProperty.values().forEach(compiled -> {
+            for (CompiledRule rule : compiled) {
+                previousRules.put(rule.id(), rule);
+            }
+        }));
+
+        Map<UUID, Map<String, List<CompiledRule>>> grouped = new HashMap<>();
+        for (AutomationRule rule : rules) {
+            CompiledRule compiled = CompiledRule.compile(rule);
+            CompiledRule existing = previousRules.get(rule.getId());
+            if (existing != null && existing.sameCondition(compiled)) {
+                compiled.matched.set(existing.matched.get());
+                compiled.lastFiredAt.set(existing.lastFiredAt.get());
+            }
+            grouped.computeIfAbsent(rule.getDeviceId(), id -> new HashMap<>())
+                    .computeIfAbsent(rule.getProperty(), property -> new ArrayList<>())
+                    .add(compiled);
+        }
+
+        Map<UUID, Map<String, CompiledRule[]>> byDevice = new HashMap<>(grouped.size() * 2);
+        grouped.forEach((deviceId, byProperty) -> {
+            Map<String, CompiledRule[]> compiled = new HashMap<>(byProperty.size() * 2);
+            byProperty.forEach((property, list) -> compiled.put(property, list.toArray(new CompiledRule[0])));
+            byDevice.put(deviceId, compiled);
+        });
+        return new RuleIndex(byDevice, rules.size());
+    }
+
+    /**
+     * Проверяет правила, затронутые изменением свойств устройства
+     * Правило срабатывает при переходе условия из ложного в истинное и не чаще своего интервала
+     * @param deviceId ID устройства
+     * @param changed Изменённые свойства
+     * @param nowNanos Текущее время (System.nanoTime)
+     * @param onFire Получатель сработавших правил
+     * @return количество проверенных правил
+     */
+    public int evaluate(UUID deviceId, Map<String, String> changed, long nowNanos, Consumer<CompiledRule> onFire) {
+        Map<String, CompiledRule[]> byProperty = byDevice.get(deviceId);
+        if (byProperty == null) {
+            return 0;
+        }
+        int evaluated = 0;
+        // Обходится меньшая из двух карт
+        if (changed.size() <= byProperty.size()) {
+            for (Map.Entry<String, String> entry : changed.entrySet()) {
+                CompiledRule[] rules = byProperty.get(entry.getKey());
+                if (rules != null) {
+                    evaluated += evaluate(rules, entry.getValue(), nowNanos, onFire);
+                }
+            }
+        } else {
+            for (Map.Entry<String, CompiledRule[]> entry : byProperty.entrySet()) {
+                String value = changed.get(entry.getKey());
+                if (value != null || changed.containsKey(entry.getKey())) {
+                    evaluated += evaluate(entry.getValue(), value, nowNanos, onFire);
+                }
+            }
+        }
+        return evaluated;
+    }
+
+    /**
+     * Количество правил в индексе
+     */
+    public int size() {
+        return size;
+    }
+
+    private static int evaluate(CompiledRule[] rules, String value, long nowNanos, Consumer<CompiledRule> onFire) {
+        double numeric = PropertyValues.parseNumber(value);
+        for (CompiledRule rule : rules) {
+            if (rule.matches(value, numeric)) {
+                if (rule.matched.compareAndSet(false, true) && rule.acquire(nowNanos)) {
+                    onFire.accept(rule);
+                }
+            } else {
+                rule.matched.set(false);
+            }
+        }
+        return rules.length;
+    }
+
+    /**
+     * Скомпилированное правило и его состояние срабатывания
+     */
+    public static final class CompiledRule {
+
+        private final UUID id;
+        private final String name;
+        private final UUID deviceId;
+        private final String property;
+        private final RuleOperator operator;
+        private final String threshold;
+        private final double numericThreshold;
+        private final UUID actionScenarioId;
+        private final UUID actionDeviceId;
+        private final String actionCommand;
+        private final Map<String, String> actionParameters;
+        private final long cooldownNanos;
+
+        // Условие было истинным при последней проверке
+        private final AtomicBoolean matched = new AtomicBoolean();
+        // Время последнего срабатывания (System.nanoTime) или Long.MIN_VALUE
+        private final AtomicLong lastFiredAt = new AtomicLong(Long.MIN_VALUE);
+
+        private CompiledRule(AutomationRule rule) {
+            this.id = rule.getId();
+            this.name = rule.getName();
+            this.deviceId = rule.getDeviceId();
+            this.property = rule.getProperty();
+            this.operator = rule.getOperator();
+            this.threshold = rule.getThreshold();
+            this.numericThreshold = PropertyValues.parseNumber(rule.getThreshold());
+            this.actionScenarioId = rule.getActionScenarioId();
+            this.actionDeviceId = rule.getActionDeviceId();
+            this.actionCommand = rule.getActionCommand();
+            this.actionParameters = new HashMap<>(rule.getActionParameters());
+            this.cooldownNanos = rule.getCooldownMs() != null ? rule.getCooldownMs() * 1_000_000L : 0;
+        }
+
+        static CompiledRule compile(AutomationRule rule) {
+            if (rule.getDeviceId() == null || rule.getProperty() == null || rule.getProperty().isEmpty()) {
+                throw new IllegalArgumentException("Не указаны устройство и свойство условия правила");
+            }
+            if (rule.getOperator() == null || rule.getThreshold() == null) {
+                throw new IllegalArgumentException("Не указаны оператор и значение условия правила");
+            }
+            boolean numericOperator = rule.getOperator() != RuleOperator.EQ && rule.getOperator() != RuleOperator.NE;
+            if (numericOperator && Double.isNaN(PropertyValues.parseNumber(rule.getThreshold()))) {
+                throw new IllegalArgumentException("Оператор " + rule.getOperator()
+                        + " требует числового значения, получено: " + rule.getThreshold());
+            }
+            boolean scenarioAction = rule.getActionScenarioId() != null;
+            boolean commandAction = rule.getActionDeviceId() != null
+                    && rule.getActionCommand() != null && !rule.getActionCommand().isEmpty();
+            if (scenarioAction == commandAction) {
+                throw new IllegalArgumentException("Правило должно запускать либо сценарий, либо команду устройству");
+            }
+            if (rule.getCooldownMs() != null && rule.getCooldownMs() < 0) {
+                throw new IllegalArgumentException("Интервал между срабатываниями не может быть отрицательным");
+            }
+            return new CompiledRule(rule);
+        }
+
+        boolean matches(String value, double numeric) {
+            if (value == null) {
+                return false;
+            }
+            // Сравнение чисел выполняется, если оба значения числовые
+            if (!Double.isNaN(numericThreshold) && !Double.isNaN(numeric)) {
+                return switch (operator) {
+                    case GT -> numeric > numericThreshold;
+                    case GTE -> numeric >= numericThreshold;
+                    case LT -> numeric < numericThreshold;
+                    case LTE -> numeric <= numericThreshold;
+                    case EQ -> numeric == numericThreshold;
+                    case NE -> numeric != numericThreshold;
+                };
+            }
+            return switch (operator) {
+                case EQ -> value.equalsIgnoreCase(threshold);
+                case NE -> !value.equalsIgnoreCase(threshold);
+                default -> false;
+            };
+        }
+
+        /**
+         * Занимает срабатывание, если с предыдущего прошло не меньше интервала правила
+         */
+        boolean acquire(long nowNanos) {
+            long last = lastFiredAt.get();
+            if (last != Long.MIN_VALUE && nowNanos - last < cooldownNanos) {
+                return false;
+            }
+            return lastFiredAt.compareAndSet(last, nowNanos);
+        }
+
+        boolean sameCondition(CompiledRule other) {
+            return Objects.equals(deviceId, other.deviceId)
+                    && Objects.equals(property, other.property)
+                    && operator == other.operator
+                    && Objects.equals(threshold, other.threshold);
+        }
+
+        public UUID id() {
+            return id;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public UUID actionScenarioId() {
+            return actionScenarioId;
+        }
+
+        public UUID actionDeviceId() {
+            return actionDeviceId;
+        }
+
+        public String actionCommand() {
+            return actionCommand;
+        }
+
+        public Map<String, String> actionParameters() {
+            return actionParameters;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.Smarthome.service;
+
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+import org.slf4j.spi.LoggingEventBuilder;
+import org.slf4j.spi.NOPLoggingEventBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Журнал горячих путей с ограничением частоты по ключу
+ *
+ * Для каждого ключа (например, ID устройства или пары устройство + свойство) сообщение
+ * выводится не чаще одного раза за интервал, остальные только подсчитываются, и количество
+ * пропущенных добавляется к следующему выведенному сообщению полем suppressed.
+ * Возвращается построитель событий SLF4J: если уровень отключён или сообщение пропускается,
+ * построитель пустой, поэтому аргументы, переданные как Supplier, не вычисляются
+ * и сообщение не форматируется.
+ *
+ * Пример: sampledLog.atDebug(deviceId).setMessage("Состояние {}").addArgument(() -> state).log();
+ */
+public final class SampledLog {
+
+    private static final int DEFAULT_MAX_KEYS = 10_000;
+
+    private final Logger log;
+    private final long intervalNanos;
+    private final int maxKeys;
+    private final Map<Object, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * @param log Журнал, в который выводятся сообщения
+     * @param intervalMs Минимальный интервал между сообщениями с одним ключом (мс), 0 - без ограничения
+     */
+    public SampledLog(Logger log, long intervalMs) {
+        this(log, intervalMs, DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * @param maxKeys Максимальное количество отслеживаемых ключей; при превышении счётчики сбрасываются
+     */
+    public SampledLog(Logger log, long intervalMs, int maxKeys) {
+        this.log = log;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, intervalMs));
+        this.maxKeys = Math.max(1, maxKeys);
+    }
+
+    public LoggingEventBuilder atDebug(Object key) {
+        return at(Level.DEBUG, key);
+    }
+
+    public LoggingEventBuilder atInfo(Object key) {
+        return at(Level.INFO, key);
+    }
+
+    public LoggingEventBuilder atWarn(Object key) {
+        return at(Level.WARN, key);
+    }
+
+    public LoggingEventBuilder atError(Object key) {
+        return at(Level.ERROR, key);
+    }
+
+    /**
+     * Возвращает построитель события, если уровень включён и интервал для ключа истёк
+     * @param level Уровень сообщения
+     * @param key Ключ ограничения частоты
+     * @return Построитель события или пустой построитель, если сообщение пропускается
+     */
+    public LoggingEventBuilder at(Level level, Object key) {
+        if (!log.isEnabledForLevel(level)) {
+            return NOPLoggingEventBuilder.singleton();
+        }
+        if (intervalNanos == 0) {
+            return log.atLevel(level);
+        }
+
+        long now = System.nanoTime();
+        Window window = windows.get(key);
+        if (window == null) {
+            // Ключи не вытесняются по одному: при переполнении сбрасываются все счётчики
+            if (windows.size() >= maxKeys) {
+                windows.clear();
+            }
+            window = windows.computeIfAbsent(key, k -> new Window(now));
+        }
+
+        long suppressed = window.tryAcquire(now, intervalNanos);
+        if (suppressed < 0) {
+            return NOPLoggingEventBuilder.singleton();
+        }
+        LoggingEventBuilder builder = log.atLevel(level);
+        if (suppressed > 0) {
+            builder.addKeyValue("suppressed", suppressed);
+        }
+        return builder;
+    }
+
+    /**
+     * Окно одного ключа: время, с которого можно вывести следующее сообщение, и число пропущенных
+     */
+    private static final class Window {
+
+        private final AtomicLong nextAllowed;
+        private final AtomicLong suppressed = new AtomicLong();
+
+        Window(long now) {
+            this.nextAllowed = new AtomicLong(now);
+        }
+
+        /**
+         * @return количество пропущенных с прошлого вывода сообщений или -1, если сообщение пропускается
+         */
+        long tryAcquire(long now, long intervalNanos) {
+            long next = nextAllowed.get();
+            if (now - next < 0 || !nextAllowed.compareAndSet(next, now + intervalNanos)) {
+                suppressed.incrementAndGet();
+                return -1;
+            }
+            return suppressed.getAndSet(0);
+        }
+    }
+}
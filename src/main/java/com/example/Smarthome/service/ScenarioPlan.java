@@ -0,0 +1,129 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.Scenario;
+import com.example.Smarthome.model.ScenarioStep;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Скомпилированный граф шагов сценария
+ *
+ * Шаги упорядочены топологически: зависимости шага всегда стоят раньше него,
+ * поэтому при запуске достаточно одного прохода по списку.
+ * @param scenarioId ID сценария
+ * @param name Название сценария
+ * @param active Сценарий включён и может запускаться правилами автоматизации
+ * @param steps Шаги в топологическом порядке
+ */
+public record ScenarioPlan(UUID scenarioId, String name, boolean active, List<Step> steps) {
+
+    /**
+     * Проверяет сценарий и строит граф шагов
+     * @param scenario Сценарий
+     * @param defaultTimeoutMs Ограничение времени шага, если оно не задано
+     * @param maxTimeoutMs Максимально допустимое ограничение времени шага
+     * @param maxSteps Максимальное количество шагов
+     * @return скомпилированный граф
+     * @throws IllegalArgumentException если сценарий некорректен или содержит циклические зависимости
+     */
+    public static ScenarioPlan compile(Scenario scenario, long defaultTimeoutMs, long maxTimeoutMs, int maxSteps) {
+        List<ScenarioStep> steps = scenario.getSteps();
+        if (steps.size() > maxSteps) {
+            throw new IllegalArgumentException("Слишком много шагов в сценарии: " + steps.size()
+                    + ", допустимо " + maxSteps);
+        }
+
+        Map<String, Integer> indexByKey = new HashMap<>();
+        for (int i = 0; i < steps.size(); i++) {
+            ScenarioStep step = steps.get(i);
+            if (step.getKey() == null || step.getKey().isEmpty()) {
+                throw new IllegalArgumentException("Не указан ключ шага " + (i + 1));
+            }
+            if (indexByKey.put(step.getKey(), i) != null) {
+                throw new IllegalArgumentException("Повторяющийся ключ шага: " + step.getKey());
+            }
+            if (step.getDeviceId() == null) {
+                throw new IllegalArgumentException("Не указано устройство шага " + step.getKey());
+            }
+            if (step.getCommand() == null || step.getCommand().isEmpty()) {
+                throw new IllegalArgumentException("Не указана команда шага " + step.getKey());
+            }
+            if (step.getTimeoutMs() != null && (step.getTimeoutMs() <= 0 || step.getTimeoutMs() > maxTimeoutMs)) {
+                throw new IllegalArgumentException("Недопустимое ограничение времени шага " + step.getKey()
+                        + ": должно быть от 1 до " + maxTimeoutMs + " мс");
+            }
+        }
+
+        // Сортировка Кана: шаг попадает в порядок, когда выполнены все его зависимости
+        int[] remaining = new int[steps.size()];
+        List<List<Integer>> dependents = new ArrayList<>(steps.size());
+        for (int i = 0; i < steps.size(); i++) {
+            dependents.add(new ArrayList<>());
+        }
+        for (int i = 0; i < steps.size(); i++) {
+            for (String dependency : steps.get(i).getDependsOn()) {
+                Integer from = indexByKey.get(dependency);
+                if (from == null) {
+                    throw new IllegalArgumentException("Шаг " + steps.get(i).getKey()
+                            + " зависит от несуществующего шага " + dependency);
+                }
+                dependents.get(from).add(i);
+                remaining[i]++;
+            }
+        }
+
+        Deque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < steps.size(); i++) {
+            if (remaining[i] == 0) {
+                ready.add(i);
+            }
+        }
+        int[] position = new int[steps.size()];
+        List<Integer> order = new ArrayList<>(steps.size());
+        while (!ready.isEmpty()) {
+            int current = ready.poll();
+            position[current] = order.size();
+            order.add(current);
+            for (int next : dependents.get(current)) {
+                if (--remaining[next] == 0) {
+                    ready.add(next);
+                }
+            }
+        }
+        if (order.size() != steps.size()) {
+            throw new IllegalArgumentException("Сценарий содержит циклические зависимости между шагами");
+        }
+
+        List<Step> compiled = new ArrayList<>(steps.size());
+        for (int index : order) {
+            ScenarioStep step = steps.get(index);
+            int[] dependencies = step.getDependsOn().stream()
+                    .mapToInt(key -> position[indexByKey.get(key)])
+                    .toArray();
+            compiled.add(new Step(step.getKey(), index, step.getDeviceId(), step.getCommand(),
+                    new HashMap<>(step.getParameters()), dependencies,
+                    step.getTimeoutMs() != null ? step.getTimeoutMs() : defaultTimeoutMs));
+        }
+        return new ScenarioPlan(scenario.getId(), scenario.getName(), scenario.isActive(), List.copyOf(compiled));
+    }
+
+    /**
+     * Шаг графа
+     * @param key Ключ шага
+     * @param definitionIndex Позиция шага в определении сценария
+     * @param deviceId ID устройства
+     * @param command Команда
+     * @param parameters Параметры команды
+     * @param dependencies Позиции зависимостей в топологическом порядке
+     * @param timeoutMs Ограничение времени шага (мс)
+     */
+    public record Step(String key, int definitionIndex, UUID deviceId, String command,
+                       Map<String, String> parameters, int[] dependencies, long timeoutMs) {
+    }
+}
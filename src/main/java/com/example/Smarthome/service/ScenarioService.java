@@ -0,0 +1,230 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.model.Scenario;
+import com.example.Smarthome.repository.ScenarioRepository;
+import com.example.Smarthome.service.ProtocolAdapterService.AdapterCommand;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Сценарии автоматизации: хранение и выполнение
+ *
+ * При сохранении сценарий компилируется в граф шагов, который кэшируется до следующего изменения.
+ * При запуске каждый шаг отправляется адаптеру, как только успешно завершились его зависимости,
+ * поэтому независимые шаги выполняются параллельно и сценарий завершается за время самой
+ * длинной цепочки шагов. Шаги, зависимости которых не выполнены, пропускаются.
+ *
+ * Свойства успешных шагов setState применяются после завершения всех шагов, а не по мере
+ * их выполнения: шаги не читают состояние друг друга, а отложенное применение даёт одну
+ * транзакцию на сценарий и одну отправку в ThingsBoard на устройство, даже если
+ * устройство встречается в нескольких шагах.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ScenarioService {
+
+    private final ScenarioRepository scenarioRepository;
+    private final DeviceService deviceService;
+    private final ProtocolAdapterService protocolAdapterService;
+    private final DeviceCommandBatchService deviceCommandBatchService;
+    private final ExecutorService deviceCommandExecutor;
+
+    @Value("${scenario.max-steps:100}")
+    private int maxSteps;
+
+    @Value("${scenario.step.max-timeout-ms:30000}")
+    private long maxStepTimeoutMs;
+
+    // ID сценария -> скомпилированный граф шагов
+    private final Map<UUID, ScenarioPlan> plans = new ConcurrentHashMap<>();
+
+    public List<Scenario> getAllScenarios() {
+        return scenarioRepository.findAll();
+    }
+
+    public Optional<Scenario> getScenarioById(UUID id) {
+        return scenarioRepository.findById(id);
+    }
+
+    /**
+     * Проверяет и сохраняет сценарий
+     * @param scenario Сценарий
+     * @return сохранённый сценарий
+     * @throws IllegalArgumentException если сценарий некорректен
+     */
+    public Scenario saveScenario(Scenario scenario) {
+        compile(scenario);
+        scenario.getSteps().forEach(step -> step.setScenario(scenario));
+        scenario.setUpdatedAt(LocalDateTime.now());
+        Scenario saved = scenarioRepository.save(scenario);
+        plans.put(saved.getId(), compile(saved));
+        return saved;
+    }
+
+    public void deleteScenario(UUID id) {
+        scenarioRepository.deleteById(id);
+        plans.remove(id);
+    }
+
+    /**
+     * Запускает сценарий
+     * @param id ID сценария
+     * @return Optional с future результата или пустой, если сценарий не найден
+     */
+    public Optional<CompletableFuture<RunResult>> runScenario(UUID id) {
+        return getPlan(id).map(this::run);
+    }
+
+    /**
+     * Возвращает скомпилированный граф сценария, при необходимости загружая сценарий из базы
+     * @param id ID сценария
+     * @return Optional с графом или пустой, если сценарий не найден
+     */
+    public Optional<ScenarioPlan> getPlan(UUID id) {
+        ScenarioPlan plan = plans.get(id);
+        if (plan == null) {
+            Optional<Scenario> scenario = scenarioRepository.findById(id);
+            if (scenario.isEmpty()) {
+                return Optional.empty();
+            }
+            plan = compile(scenario.get());
+            plans.put(id, plan);
+        }
+        return Optional.of(plan);
+    }
+
+    private CompletableFuture<RunResult> run(ScenarioPlan plan) {
+        long started = System.nanoTime();
+        List<ScenarioPlan.Step> steps = plan.steps();
+
+        // Все устройства сценария загружаются одним запросом
+        Set<UUID> deviceIds = steps.stream().map(ScenarioPlan.Step::deviceId).collect(Collectors.toSet());
+        Map<UUID, Device> devices = deviceService.getDevicesByIds(deviceIds).stream()
+                .collect(Collectors.toMap(Device::getId, Function.identity()));
+
+        List<CompletableFuture<StepResult>> futures = new ArrayList<>(steps.size());
+        for (ScenarioPlan.Step step : steps) {
+            // Зависимости стоят раньше шага, поэтому их future уже созданы
+            List<CompletableFuture<StepResult>> dependencies = Arrays.stream(step.dependencies())
+                    .mapToObj(futures::get)
+                    .toList();
+            CompletableFuture<Void> ready = dependencies.isEmpty()
+                    ? CompletableFuture.completedFuture(null)
+                    : CompletableFuture.allOf(dependencies.toArray(new CompletableFuture<?>[0]));
+            futures.add(ready.thenCompose(ignored -> runStep(step, devices.get(step.deviceId()), dependencies)));
+        }
+
+        // Запись в базу не должна занимать потоки обработки результатов адаптеров
+        // и ждать запросов синхронизации с ThingsBoard
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApplyAsync(ignored -> {
+            // Свойства применяются в топологическом порядке, то есть в порядке зависимостей
+            List<AdapterCommand> succeeded = new ArrayList<>();
+            StepResult[] results = new StepResult[steps.size()];
+            for (int i = 0; i < steps.size(); i++) {
+                ScenarioPlan.Step step = steps.get(i);
+                StepResult result = futures.get(i).join();
+                results[step.definitionIndex()] = result;
+                if (result.status() == StepStatus.SUCCESS) {
+                    succeeded.add(new AdapterCommand(devices.get(step.deviceId()), step.command(), step.parameters()));
+                }
+            }
+            deviceCommandBatchService.applyStateChanges(succeeded);
+            scenarioRepository.updateLastRunAt(plan.scenarioId(), LocalDateTime.now());
+
+            long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            boolean success = succeeded.size() == steps.size();
+            log.info("Сценарий {} выполнен за {} мс: успешно {} из {} шагов",
+                    plan.name(), durationMs, succeeded.size(), steps.size());
+            return new RunResult(plan.scenarioId(), plan.name(), success, durationMs, List.of(results));
+        }, deviceCommandExecutor);
+    }
+
+    /**
+     * Выполняет шаг после завершения его зависимостей
+     */
+    private CompletableFuture<StepResult> runStep(ScenarioPlan.Step step, Device device,
+                                                  List<CompletableFuture<StepResult>> dependencies) {
+        for (CompletableFuture<StepResult> dependency : dependencies) {
+            StepResult result = dependency.join();
+            if (result.status() != StepStatus.SUCCESS) {
+                return CompletableFuture.completedFuture(StepResult.of(step, StepStatus.SKIPPED,
+                        "Не выполнен шаг " + result.key(), 0));
+            }
+        }
+        if (device == null) {
+            return CompletableFuture.completedFuture(StepResult.of(step, StepStatus.FAILED,
+                    "Устройство с ID " + step.deviceId() + " не найдено", 0));
+        }
+        String error = deviceCommandBatchService.checkAvailable(device);
+        if (error != null) {
+            return CompletableFuture.completedFuture(StepResult.of(step, StepStatus.FAILED, error, 0));
+        }
+
+        long started = System.nanoTime();
+        return protocolAdapterService.sendCommandAsync(device, step.command(), step.parameters(), step.timeoutMs())
+                .thenApply(success -> {
+                    long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                    return success
+                            ? StepResult.of(step, StepStatus.SUCCESS, null, durationMs)
+                            : StepResult.of(step, StepStatus.FAILED,
+                                    "Ошибка при отправке команды или превышено время ожидания", durationMs);
+                });
+    }
+
+    private ScenarioPlan compile(Scenario scenario) {
+        return ScenarioPlan.compile(scenario, protocolAdapterService.getTimeoutMs(), maxStepTimeoutMs, maxSteps);
+    }
+
+    public enum StepStatus {
+        SUCCESS,
+        FAILED,
+        SKIPPED
+    }
+
+    /**
+     * Результат шага сценария
+     * @param key Ключ шага
+     * @param deviceId ID устройства
+     * @param command Команда
+     * @param status Итог выполнения
+     * @param error Причина ошибки или пропуска
+     * @param durationMs Время выполнения команды (мс)
+     */
+    public record StepResult(String key, UUID deviceId, String command, StepStatus status, String error,
+                             long durationMs) {
+
+        static StepResult of(ScenarioPlan.Step step, StepStatus status, String error, long durationMs) {
+            return new StepResult(step.key(), step.deviceId(), step.command(), status, error, durationMs);
+        }
+    }
+
+    /**
+     * Результат запуска сценария
+     * @param scenarioId ID сценария
+     * @param name Название сценария
+     * @param success Все шаги выполнены успешно
+     * @param durationMs Общее время выполнения (мс)
+     * @param steps Результаты шагов в порядке определения сценария
+     */
+    public record RunResult(UUID scenarioId, String name, boolean success, long durationMs, List<StepResult> steps) {
+    }
+}
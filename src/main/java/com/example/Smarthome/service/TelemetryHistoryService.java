@@ -0,0 +1,371 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.repository.TelemetryJdbcRepository;
+import com.example.Smarthome.repository.TelemetryJdbcRepository.ChunkRow;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * История значений свойств устройств
+ *
+ * Каждое изменение числового (или логического on/off) свойства добавляется в открытый блок
+ * ряда (устройство, свойство), сжатый GorillaCodec. Блок закрывается по количеству точек
+ * или возрасту и записывается в базу пакетом одной строкой на блок. Запросы диапазона
+ * читают только пересекающиеся блоки и агрегируют точки в интервалы заданного шага.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TelemetryHistoryService {
+
+    private final TelemetryJdbcRepository telemetryJdbcRepository;
+
+    @Value("${telemetry.chunk.max-points:720}")
+    private int maxPoints;
+
+    @Value("${telemetry.chunk.max-age-ms:3600000}")
+    private long maxAgeMs;
+
+    @Value("${telemetry.retention-days:30}")
+    private int retentionDays;
+
+    @Value("${telemetry.query.max-buckets:1000}")
+    private int maxBuckets;
+
+    // ID устройства -> свойство -> открытый блок
+    private final Map<UUID, Map<String, Series>> series = new ConcurrentHashMap<>();
+
+    // Закрытые блоки, ещё не записанные в базу; доступны запросам до записи
+    private final Map<UUID, ChunkRow> pending = new ConcurrentHashMap<>();
+
+    // Удалённые устройства, история которых будет удалена при следующей записи
+    private final Set<UUID> deletedDevices = ConcurrentHashMap.newKeySet();
+
+    @EventListener
+    public void onDeviceChange(DeviceChangeEvent event) {
+        if (event.type() == DeviceChangeEvent.Type.DELETED) {
+            series.remove(event.deviceId());
+            pending.values().removeIf(chunk -> chunk.deviceId().equals(event.deviceId()));
+            deletedDevices.add(event.deviceId());
+            return;
+        }
+        if (event.properties().isEmpty()) {
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+        event.properties().forEach((key, value) -> {
+            double number = toNumber(value);
+            if (!Double.isNaN(number)) {
+                append(event.deviceId(), key, timestamp, number);
+            }
+        });
+    }
+
+    /**
+     * Добавляет точку в историю
+     * @param deviceId ID устройства
+     * @param key Имя свойства
+     * @param timestamp Время (мс с начала эпохи)
+     * @param value Значение
+     */
+    public void append(UUID deviceId, String key, long timestamp, double value) {
+        Series current = series.computeIfAbsent(deviceId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(key, k -> new Series(deviceId, k));
+        synchronized (current) {
+            GorillaCodec.Encoder encoder = current.encoder;
+            if (encoder != null && (encoder.count() >= maxPoints || timestamp - encoder.firstTimestamp() >= maxAgeMs)) {
+                seal(current);
+            }
+            if (current.encoder == null) {
+                current.encoder = new GorillaCodec.Encoder(64);
+            } else if (timestamp < current.encoder.lastTimestamp()) {
+                // Метки времени внутри блока не убывают, даже если системные часы перевели назад
+                timestamp = current.encoder.lastTimestamp();
+            }
+            current.encoder.append(timestamp, value);
+        }
+    }
+
+    /**
+     * Возвращает историю устройства, агрегированную по интервалам
+     * @param deviceId ID устройства
+     * @param key Имя свойства или null для всех свойств
+     * @param from Начало диапазона (мс)
+     * @param to Конец диапазона (мс)
+     * @param stepMs Шаг агрегации (мс); если не задан или слишком мал, выбирается автоматически
+     * @return Свойство -> история
+     */
+    public Map<String, History> getHistory(UUID deviceId, String key, long from, long to, long stepMs) {
+        long step = Math.max(stepMs, Math.max(1000, (to - from) / maxBuckets + 1));
+        int buckets = (int) ((to - from) / step + 1);
+
+        // Закрытые блоки читаются до базы: блок, записанный в промежутке, будет найден в базе,
+        // а повторно прочитанные блоки отбрасываются по ID
+        Map<UUID, ChunkRow> chunks = new HashMap<>();
+        for (ChunkRow chunk : pending.values()) {
+            if (chunk.deviceId().equals(deviceId) && overlaps(chunk, key, from, to)) {
+                chunks.put(chunk.id(), chunk);
+            }
+        }
+        for (ChunkRow chunk : telemetryJdbcRepository.findChunks(deviceId, key, from, to)) {
+            chunks.putIfAbsent(chunk.id(), chunk);
+        }
+        List<ChunkRow> all = new ArrayList<>(chunks.values());
+        Map<String, Series> open = series.getOrDefault(deviceId, Map.of());
+        for (Series current : open.values()) {
+            if (key == null || key.equals(current.key)) {
+                ChunkRow snapshot = current.snapshot();
+                if (snapshot != null && overlaps(snapshot, key, from, to)) {
+                    all.add(snapshot);
+                }
+            }
+        }
+
+        Map<String, Aggregator> aggregators = new TreeMap<>();
+        for (ChunkRow chunk : all) {
+            Aggregator aggregator = aggregators.computeIfAbsent(chunk.seriesKey(), k -> new Aggregator(buckets));
+            GorillaCodec.decode(chunk.data(), chunk.pointCount(), (timestamp, value) -> {
+                if (timestamp >= from && timestamp <= to) {
+                    aggregator.add((int) ((timestamp - from) / step), value);
+                }
+            });
+        }
+
+        Map<String, History> result = new LinkedHashMap<>();
+        aggregators.forEach((seriesKey, aggregator) -> result.put(seriesKey, aggregator.toHistory(from, step)));
+        return result;
+    }
+
+    /**
+     * Закрывает устаревшие блоки и записывает закрытые блоки в базу
+     */
+    @Scheduled(fixedDelayString = "${telemetry.flush-interval-ms:10000}")
+    public void flush() {
+        long now = System.currentTimeMillis();
+        for (Map<String, Series> deviceSeries : series.values()) {
+            for (Series current : deviceSeries.values()) {
+                synchronized (current) {
+                    if (current.encoder != null && now - current.encoder.firstTimestamp() >= maxAgeMs) {
+                        seal(current);
+                    }
+                }
+            }
+        }
+        write();
+    }
+
+    /**
+     * Удаляет историю старше срока хранения
+     */
+    @Scheduled(fixedDelayString = "${telemetry.retention-check-interval-ms:3600000}")
+    public void purgeExpired() {
+        try {
+            int deleted = telemetryJdbcRepository.deleteOlderThan(
+                    System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays));
+            if (deleted > 0) {
+                log.info("Удалено устаревших блоков истории телеметрии: {}", deleted);
+            }
+        } catch (Exception e) {
+            log.error("Ошибка при удалении устаревшей истории телеметрии: {}", e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Map<String, Series> deviceSeries : series.values()) {
+            for (Series current : deviceSeries.values()) {
+                synchronized (current) {
+                    seal(current);
+                }
+            }
+        }
+        write();
+    }
+
+    /**
+     * Возвращает показатели хранилища истории
+     * @return Карта метрик
+     */
+    public Map<String, Object> getStats() {
+        int openSeries = 0;
+        long openPoints = 0;
+        long openBytes = 0;
+        for (Map<String, Series> deviceSeries : series.values()) {
+            for (Series current : deviceSeries.values()) {
+                synchronized (current) {
+                    if (current.encoder != null) {
+                        openSeries++;
+                        openPoints += current.encoder.count();
+                        openBytes += current.encoder.sizeInBytes();
+                    }
+                }
+            }
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("openSeries", openSeries);
+        stats.put("openPoints", openPoints);
+        stats.put("openBytes", openBytes);
+        stats.put("pendingChunks", pending.size());
+        Map<String, Object> stored = telemetryJdbcRepository.getStats();
+        long points = ((Number) stored.get("points")).longValue();
+        long bytes = ((Number) stored.get("bytes")).longValue();
+        stats.put("storedChunks", ((Number) stored.get("chunks")).longValue());
+        stats.put("storedPoints", points);
+        stats.put("storedBytes", bytes);
+        stats.put("bytesPerPoint", points > 0 ? Math.round(bytes * 100.0 / points) / 100.0 : 0.0);
+        return stats;
+    }
+
+    /**
+     * Переводит значение свойства в число: числа как есть, on/off и true/false как 1/0
+     * @return число или NaN, если значение не числовое
+     */
+    static double toNumber(String value) {
+        double number = PropertyValues.parseNumber(value);
+        if (!Double.isNaN(number) || value == null) {
+            return number;
+        }
+        if (value.equalsIgnoreCase("on") || value.equalsIgnoreCase("true")) {
+            return 1;
+        }
+        if (value.equalsIgnoreCase("off") || value.equalsIgnoreCase("false")) {
+            return 0;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Закрывает открытый блок ряда; вызывается под монитором ряда
+     */
+    private void seal(Series current) {
+        GorillaCodec.Encoder encoder = current.encoder;
+        if (encoder == null || encoder.count() == 0) {
+            return;
+        }
+        ChunkRow chunk = new ChunkRow(UUID.randomUUID(), current.deviceId, current.key,
+                encoder.firstTimestamp(), encoder.lastTimestamp(), encoder.count(), encoder.toByteArray());
+        pending.put(chunk.id(), chunk);
+        current.encoder = null;
+    }
+
+    private void write() {
+        try {
+            for (UUID deviceId : List.copyOf(deletedDevices)) {
+                telemetryJdbcRepository.deleteDevice(deviceId);
+                deletedDevices.remove(deviceId);
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<ChunkRow> chunks = new ArrayList<>(pending.values());
+            telemetryJdbcRepository.insertChunks(chunks);
+            chunks.forEach(chunk -> pending.remove(chunk.id()));
+            log.debug("Записано блоков истории телеметрии: {}", chunks.size());
+        } catch (Exception e) {
+            log.error("Ошибка при записи истории телеметрии, блоки будут записаны повторно: {}", e.getMessage(), e);
+        }
+    }
+
+    private static boolean overlaps(ChunkRow chunk, String key, long from, long to) {
+        return (key == null || key.equals(chunk.seriesKey())) && chunk.endTs() >= from && chunk.startTs() <= to;
+    }
+
+    /**
+     * Ряд значений одного свойства; поле encoder защищено монитором объекта
+     */
+    private static final class Series {
+
+        private final UUID deviceId;
+        private final String key;
+        private GorillaCodec.Encoder encoder;
+
+        Series(UUID deviceId, String key) {
+            this.deviceId = deviceId;
+            this.key = key;
+        }
+
+        synchronized ChunkRow snapshot() {
+            if (encoder == null || encoder.count() == 0) {
+                return null;
+            }
+            return new ChunkRow(null, deviceId, key, encoder.firstTimestamp(), encoder.lastTimestamp(),
+                    encoder.count(), encoder.toByteArray());
+        }
+    }
+
+    /**
+     * Агрегаты значений по интервалам
+     */
+    private static final class Aggregator {
+
+        private final double[] sum;
+        private final double[] min;
+        private final double[] max;
+        private final int[] count;
+
+        Aggregator(int buckets) {
+            this.sum = new double[buckets];
+            this.min = new double[buckets];
+            this.max = new double[buckets];
+            this.count = new int[buckets];
+        }
+
+        void add(int bucket, double value) {
+            if (count[bucket] == 0) {
+                min[bucket] = value;
+                max[bucket] = value;
+            } else {
+                min[bucket] = Math.min(min[bucket], value);
+                max[bucket] = Math.max(max[bucket], value);
+            }
+            sum[bucket] += value;
+            count[bucket]++;
+        }
+
+        History toHistory(long from, long step) {
+            List<Point> points = new ArrayList<>();
+            for (int i = 0; i < count.length; i++) {
+                if (count[i] > 0) {
+                    points.add(new Point(from + i * step, sum[i] / count[i], min[i], max[i], count[i]));
+                }
+            }
+            return new History(step, points);
+        }
+    }
+
+    /**
+     * История одного свойства
+     * @param stepMs Шаг агрегации (мс)
+     * @param points Непустые интервалы в порядке времени
+     */
+    public record History(long stepMs, List<Point> points) {
+    }
+
+    /**
+     * Агрегированный интервал
+     * @param timestamp Начало интервала (мс с начала эпохи)
+     * @param avg Среднее значение
+     * @param min Минимальное значение
+     * @param max Максимальное значение
+     * @param count Количество точек
+     */
+    public record Point(long timestamp, double avg, double min, double max, int count) {
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.repository.DeviceStateJdbcRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Двунаправленный кэш соответствия токен устройства <-> ID устройства в ThingsBoard
+ *
+ * Заполняется из локальной базы при старте приложения и пополняется каждым
+ * успешным запросом учётных данных к ThingsBoard. Записи устаревают через ttl-ms,
+ * а при превышении max-size вытесняются давно не использовавшиеся записи.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ThingsBoardCredentialsCache {
+
+    private final DeviceStateJdbcRepository deviceStateJdbcRepository;
+
+    @Value("${thingsboard.credentials-cache.ttl-ms:3600000}")
+    private long ttlMs;
+
+    @Value("${thingsboard.credentials-cache.max-size:10000}")
+    private int maxSize;
+
+    // ID устройства -> запись; порядок доступа используется для вытеснения
+    private final LinkedHashMap<String, Entry> byDeviceId = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > maxSize) {
+                byToken.remove(eldest.getValue().token());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    // Токен -> ID устройства
+    private final Map<String, String> byToken = new HashMap<>();
+
+    /**
+     * Заполняет кэш известными соответствиями из локальной базы
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        try {
+            Map<String, String> credentials = deviceStateJdbcRepository.findThingsBoardCredentials();
+            putAll(credentials);
+            log.info("Кэш учётных данных ThingsBoard заполнен из базы: {} устройств", credentials.size());
+        } catch (Exception e) {
+            log.warn("Не удалось заполнить кэш учётных данных ThingsBoard: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Возвращает ID устройства в ThingsBoard по токену
+     * @param token Токен устройства
+     * @return Optional с ID, если соответствие известно и не устарело
+     */
+    public synchronized Optional<String> getDeviceId(String token) {
+        if (token == null) {
+            return Optional.empty();
+        }
+        String deviceId = byToken.get(token);
+        if (deviceId == null) {
+            return Optional.empty();
+        }
+        return getValid(deviceId).map(entry -> deviceId);
+    }
+
+    /**
+     * Возвращает токен устройства по его ID в ThingsBoard
+     * @param deviceId ID устройства в ThingsBoard
+     * @return Optional с токеном, если соответствие известно и не устарело
+     */
+    public synchronized Optional<String> getToken(String deviceId) {
+        if (deviceId == null) {
+            return Optional.empty();
+        }
+        return getValid(deviceId).map(Entry::token);
+    }
+
+    /**
+     * Запоминает соответствие токена и ID устройства
+     * @param deviceId ID устройства в ThingsBoard
+     * @param token Токен устройства
+     */
+    public synchronized void put(String deviceId, String token) {
+        if (deviceId == null || token == null || token.isEmpty()) {
+            return;
+        }
+        Entry previous = byDeviceId.put(deviceId, new Entry(token, System.nanoTime()));
+        if (previous != null && !previous.token().equals(token)) {
+            byToken.remove(previous.token());
+        }
+        String previousDevice = byToken.put(token, deviceId);
+        if (previousDevice != null && !previousDevice.equals(deviceId)) {
+            byDeviceId.remove(previousDevice);
+        }
+    }
+
+    /**
+     * Запоминает набор соответствий
+     * @param credentials ID устройства -> токен
+     */
+    public synchronized void putAll(Map<String, String> credentials) {
+        credentials.forEach(this::put);
+    }
+
+    /**
+     * Удаляет устройство из кэша
+     * @param deviceId ID устройства в ThingsBoard
+     */
+    public synchronized void invalidate(String deviceId) {
+        Entry entry = byDeviceId.remove(deviceId);
+        if (entry != null) {
+            byToken.remove(entry.token());
+        }
+    }
+
+    public synchronized int size() {
+        return byDeviceId.size();
+    }
+
+    private Optional<Entry> getValid(String deviceId) {
+        Entry entry = byDeviceId.get(deviceId);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        if (System.nanoTime() - entry.loadedAt() > TimeUnit.MILLISECONDS.toNanos(ttlMs)) {
+            invalidate(deviceId);
+            return Optional.empty();
+        }
+        return Optional.of(entry);
+    }
+
+    private record Entry(String token, long loadedAt) {
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.ConnectionProtocol;
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.repository.DeviceRepository;
+import com.example.Smarthome.repository.DeviceStateJdbcRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Потоковый импорт устройств из ThingsBoard
+ *
+ * Список устройств тенанта обрабатывается постранично. Токены устройств страницы
+ * запрашиваются параллельно, новые устройства вставляются в базу пакетными JDBC-запросами.
+ * Загрузка атрибутов и телеметрии откладывается: импортированные устройства
+ * помещаются в фоновую очередь и обрабатываются отдельным потоком.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ThingsBoardDeviceImporter {
+
+    private final ThingsBoardIntegrationService thingsBoardService;
+    private final ThingsBoardSyncService thingsBoardSyncService;
+    private final DeviceRepository deviceRepository;
+    private final DeviceStateJdbcRepository deviceStateJdbcRepository;
+    private final ExecutorService thingsBoardSyncExecutor;
+    private final DeviceEventPublisher deviceEventPublisher;
+
+    @Value("${thingsboard.import.hydration-batch-size:200}")
+    private int hydrationBatchSize;
+
+    private final AtomicBoolean importRunning = new AtomicBoolean();
+    private final BlockingQueue<UUID> hydrationQueue = new LinkedBlockingQueue<>();
+    private volatile ImportProgress progress = new ImportProgress("IDLE");
+
+    private volatile boolean running;
+    private Thread hydrationWorker;
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        hydrationWorker = new Thread(this::runHydration, "tb-import-hydrate");
+        hydrationWorker.setDaemon(true);
+        hydrationWorker.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        hydrationWorker.interrupt();
+    }
+
+    /**
+     * Импортирует все устройства тенанта, отсутствующие в локальной базе
+     * @return количество импортированных устройств или -1, если импорт уже выполняется
+     */
+    public int importDevices() {
+        if (!importRunning.compareAndSet(false, true)) {
+            log.warn("Импорт устройств из ThingsBoard уже выполняется");
+            return -1;
+        }
+
+        ImportProgress current = new ImportProgress("RUNNING");
+        progress = current;
+        try {
+            log.info("Запуск импорта устройств из ThingsBoard");
+
+            // Известные устройства загружаются одним запросом вместо проверки каждого устройства
+            Map<String, String> known = deviceStateJdbcRepository.findThingsBoardCredentials();
+            Set<String> knownIds = new HashSet<>(known.keySet());
+            Set<String> knownTokens = new HashSet<>(known.values());
+
+            int pages = thingsBoardService.forEachDevicePage(page -> {
+                importPage(page, knownIds, knownTokens, current);
+                current.pages.incrementAndGet();
+            });
+
+            current.finish(pages < 0 ? "FAILED" : "COMPLETED");
+            log.info("Импорт устройств из ThingsBoard завершен. Импортировано: {}/{}, пропущено: {}, ошибок: {}",
+                    current.imported.get(), current.seen.get(), current.skipped.get(), current.failed.get());
+            return current.imported.get();
+        } catch (RuntimeException e) {
+            current.finish("FAILED");
+            throw e;
+        } finally {
+            importRunning.set(false);
+        }
+    }
+
+    /**
+     * Возвращает состояние последнего импорта
+     * @return Карта с показателями импорта
+     */
+    public Map<String, Object> getProgress() {
+        return progress.snapshot(hydrationQueue.size());
+    }
+
+    private void importPage(List<Map<String, Object>> page, Set<String> knownIds, Set<String> knownTokens,
+                            ImportProgress current) {
+        current.seen.addAndGet(page.size());
+
+        List<Map<String, Object>> fresh = new ArrayList<>(page.size());
+        for (Map<String, Object> tbDevice : page) {
+            String tbDeviceId = thingsBoardService.extractDeviceId(tbDevice);
+            if (tbDeviceId == null) {
+                current.failed.incrementAndGet();
+            } else if (knownIds.contains(tbDeviceId)) {
+                current.skipped.incrementAndGet();
+            } else {
+                fresh.add(tbDevice);
+            }
+        }
+
+        // Токены устройств страницы запрашиваются параллельно
+        List<CompletableFuture<Device>> futures = new ArrayList<>(fresh.size());
+        for (Map<String, Object> tbDevice : fresh) {
+            futures.add(CompletableFuture.supplyAsync(() -> toDevice(tbDevice), thingsBoardSyncExecutor));
+        }
+
+        List<Device> devices = new ArrayList<>(futures.size());
+        for (CompletableFuture<Device> future : futures) {
+            Device device = future.exceptionally(e -> {
+                log.error("Ошибка при импорте устройства из ThingsBoard: {}", e.getMessage(), e);
+                return null;
+            }).join();
+
+            if (device == null) {
+                current.failed.incrementAndGet();
+            } else if (!knownTokens.add(device.getThingsboardToken())) {
+                log.debug("Устройство с токеном {} уже существует в базе", device.getThingsboardToken());
+                current.skipped.incrementAndGet();
+            } else {
+                devices.add(device);
+            }
+        }
+
+        int inserted = deviceStateJdbcRepository.insertDevices(devices);
+        current.imported.addAndGet(inserted);
+        current.skipped.addAndGet(devices.size() - inserted);
+
+        for (Device device : devices) {
+            knownIds.add(device.getThingsboardDeviceId());
+            hydrationQueue.offer(device.getId());
+            deviceEventPublisher.publishSaved(device.getId(), device.getStatus(), device.getLastSeen());
+        }
+        log.info("Обработана страница устройств ThingsBoard: получено {}, импортировано {}", page.size(), inserted);
+    }
+
+    /**
+     * Создаёт локальное устройство по данным ThingsBoard, запрашивая его токен
+     * @return устройство или null, если токен получить не удалось
+     */
+    private Device toDevice(Map<String, Object> tbDevice) {
+        String tbDeviceId = thingsBoardService.extractDeviceId(tbDevice);
+        String name = String.valueOf(tbDevice.get("name"));
+
+        String token = thingsBoardService.getTokenByDeviceId(tbDeviceId);
+        if (token == null) {
+            log.warn("Невозможно получить токен для устройства {} из ThingsBoard", name);
+            return null;
+        }
+
+        Device device = new Device();
+        device.setId(UUID.randomUUID());
+        device.setName(name);
+        device.setType(String.valueOf(tbDevice.get("type")));
+        device.setThingsboardToken(token);
+        device.setThingsboardDeviceId(tbDeviceId); // Сохраняем ThingsBoard UUID
+        device.setProtocol(ConnectionProtocol.VIRTUAL);
+        device.setStatus(DeviceStatus.ONLINE);
+        device.setLastSeen(LocalDateTime.now());
+
+        // Дополнительные данные из ThingsBoard
+        if (tbDevice.containsKey("label")) {
+            device.updateAttribute("label", tbDevice.get("label"));
+        }
+        return device;
+    }
+
+    /**
+     * Фоновая загрузка атрибутов и телеметрии импортированных устройств
+     */
+    private void runHydration() {
+        List<UUID> batch = new ArrayList<>();
+        while (running) {
+            try {
+                UUID first = hydrationQueue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                hydrationQueue.drainTo(batch, Math.max(1, hydrationBatchSize) - 1);
+
+                List<Device> devices = deviceRepository.findAllById(batch);
+                Set<UUID> notReached = thingsBoardSyncService.hydrateDevices(devices);
+                hydrationQueue.addAll(notReached);
+                progress.hydrated.addAndGet(devices.size() - notReached.size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("Ошибка при загрузке данных импортированных устройств: {}", e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Показатели выполнения импорта
+     */
+    private static class ImportProgress {
+        private volatile String state;
+        private final LocalDateTime startedAt = LocalDateTime.now();
+        private volatile LocalDateTime finishedAt;
+        private final AtomicInteger pages = new AtomicInteger();
+        private final AtomicInteger seen = new AtomicInteger();
+        private final AtomicInteger imported = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger hydrated = new AtomicInteger();
+
+        ImportProgress(String state) {
+            this.state = state;
+        }
+
+        void finish(String finalState) {
+            finishedAt = LocalDateTime.now();
+            state = finalState;
+        }
+
+        Map<String, Object> snapshot(int hydrationPending) {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("state", state);
+            snapshot.put("startedAt", startedAt);
+            snapshot.put("finishedAt", finishedAt);
+            snapshot.put("pages", pages.get());
+            snapshot.put("devicesSeen", seen.get());
+            snapshot.put("imported", imported.get());
+            snapshot.put("skipped", skipped.get());
+            snapshot.put("failed", failed.get());
+            snapshot.put("hydrated", hydrated.get());
+            snapshot.put("hydrationPending", hydrationPending);
+            return snapshot;
+        }
+    }
+}
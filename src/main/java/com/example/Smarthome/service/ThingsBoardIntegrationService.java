@@ -2,7 +2,13 @@ package com.example.Smarthome.service;
 
 import com.example.Smarthome.dto.AvailableDeviceDto;
 import com.example.Smarthome.model.Device;
+import com.example.Smarthome.model.DeviceStatus;
 import com.example.Smarthome.repository.DeviceRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -18,6 +24,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Сервис для интеграции с ThingsBoard
@@ -30,6 +38,9 @@ public class ThingsBoardIntegrationService {
 
     private final RestTemplate restTemplate;
     private final DeviceRepository deviceRepository;
+    private final DeviceStateStore deviceStateStore;
+    private final ThingsBoardCredentialsCache credentialsCache;
+    private final MeterRegistry meterRegistry;
     
     @Value("${thingsboard.url}")
     private String thingsBoardUrl;
@@ -40,7 +51,22 @@ public class ThingsBoardIntegrationService {
     @Value("${thingsboard.password}")
     private String thingsBoardPassword;
     
-    private String accessToken;
+    @Value("${thingsboard.import.page-size:500}")
+    private int devicePageSize;
+    
+    @Value("${logging.sampling.interval-ms:1000}")
+    private long samplingIntervalMs;
+    
+    private volatile String accessToken;
+    private final Object authLock = new Object();
+    
+    // Ошибки отправки повторяются для каждого устройства в каждом цикле, пока ThingsBoard недоступен
+    private SampledLog sampledLog;
+    
+    @PostConstruct
+    public void init() {
+        sampledLog = new SampledLog(log, samplingIntervalMs);
+    }
     
     /**
      * Создает устройство в ThingsBoard
@@ -272,19 +298,33 @@ public class ThingsBoardIntegrationService {
      * @return true если данные успешно отправлены
      */
     public boolean sendDeviceUpdate(Device device) {
-        if (device.getThingsboardToken() == null || device.getThingsboardToken().isEmpty()) {
-            log.debug("Устройство {} не имеет токена ThingsBoard, пропускаем отправку", device.getName());
+        return sendDeviceUpdate(device.getName(), device.getThingsboardToken(),
+                device.getProperties(), device.getStatus());
+    }
+
+    /**
+     * Отправляет данные устройства в ThingsBoard без загрузки JPA-сущности
+     * @param deviceName Имя устройства (для журнала)
+     * @param token Токен устройства в ThingsBoard
+     * @param properties Свойства устройства
+     * @param status Статус устройства
+     * @return true если данные успешно отправлены
+     */
+    public boolean sendDeviceUpdate(String deviceName, String token, Map<String, String> properties,
+                                    DeviceStatus status) {
+        if (token == null || token.isEmpty()) {
+            log.debug("Устройство {} не имеет токена ThingsBoard, пропускаем отправку", deviceName);
             return false;
         }
         
         try {
-            String url = thingsBoardUrl + "/api/v1/" + device.getThingsboardToken() + "/telemetry";
+            String url = thingsBoardUrl + "/api/v1/" + token + "/telemetry";
             
             // Формируем телеметрию
             Map<String, Object> telemetry = new HashMap<>();
             
             // Добавляем только свойства телеметрии, исключая атрибуты
-            for (Map.Entry<String, String> entry : device.getProperties().entrySet()) {
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
                 String key = entry.getKey();
                 // Исключаем атрибуты
                 if (!key.startsWith("attr_")) {
@@ -298,18 +338,21 @@ public class ThingsBoardIntegrationService {
             }
             
             // Добавляем статус устройства
-            telemetry.put("status", device.getStatus().toString());
+            if (status != null) {
+                telemetry.put("status", status.toString());
+            }
             
             // Отправляем данные в ThingsBoard
             ResponseEntity<Void> response = restTemplate.postForEntity(url, telemetry, Void.class);
             
             log.debug("Данные устройства {} отправлены в ThingsBoard, ответ: {}", 
-                    device.getName(), response.getStatusCode());
+                    deviceName, response.getStatusCode());
             
             return response.getStatusCode().is2xxSuccessful();
         } catch (RestClientException e) {
-            log.error("Ошибка при отправке данных устройства {} в ThingsBoard: {}", 
-                    device.getName(), e.getMessage(), e);
+            // Сообщение исключения содержит URL с токеном устройства, поэтому стек не журналируется
+            sampledLog.atError(token)
+                    .log("Ошибка при отправке данных устройства {} в ThingsBoard: {}", deviceName, redact(e, token));
             return false;
         }
     }
@@ -320,6 +363,11 @@ public class ThingsBoardIntegrationService {
      * @return токен доступа или null в случае ошибки
      */
     private String getDeviceCredentials(String deviceId) {
+        Optional<String> cached = credentialsCache.getToken(deviceId);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        
         if (!ensureAuthenticated()) {
             log.error("Не удалось аутентифицироваться в ThingsBoard для получения токена устройства");
             return null;
@@ -345,6 +393,7 @@ public class ThingsBoardIntegrationService {
                 log.info("Ответ при получении токена: {}", response.getBody());
                 String token = (String) response.getBody().get("credentialsId");
                 log.info("Получен токен устройства: {}", token);
+                credentialsCache.put(deviceId, token);
                 return token;
             }
             
@@ -424,6 +473,11 @@ public class ThingsBoardIntegrationService {
      * @return ID устройства или null в случае ошибки
      */
     public String getDeviceIdByToken(String token) {
+        Optional<String> cached = credentialsCache.getDeviceId(token);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        
         if (!ensureAuthenticated()) {
             log.error("Не удалось аутентифицироваться в ThingsBoard");
             return null;
@@ -432,7 +486,7 @@ public class ThingsBoardIntegrationService {
         try {
             // Исправленный URL для получения учетных данных устройства
             String url = thingsBoardUrl + "/api/device/credentials?credentialsType=ACCESS_TOKEN&credentialsId=" + token;
-            log.info("Запрашиваем ID устройства по токену из ThingsBoard: {}", url);
+            log.debug("Запрашиваем ID устройства по токену из ThingsBoard");
             
             HttpHeaders headers = new HttpHeaders();
             headers.set("X-Authorization", "Bearer " + accessToken);
@@ -446,18 +500,17 @@ public class ThingsBoardIntegrationService {
                     Map.class);
             
             if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                log.info("Ответ при получении ID устройства по токену: {}", response.getBody());
-                
                 if (response.getBody().containsKey("deviceId")) {
                     Map<String, Object> deviceIdObj = (Map<String, Object>) response.getBody().get("deviceId");
                     if (deviceIdObj != null && deviceIdObj.containsKey("id")) {
                         String deviceId = deviceIdObj.get("id").toString();
-                        log.info("Получен ID устройства по токену: {}", deviceId);
+                        log.debug("Получен ID устройства по токену: {}", deviceId);
+                        credentialsCache.put(deviceId, token);
                         return deviceId;
                     }
                 }
                 
-                log.error("Не удалось извлечь ID устройства из ответа: {}", response.getBody());
+                log.error("Не удалось извлечь ID устройства из ответа ThingsBoard");
             } else {
                 // Попробуем использовать альтернативный метод - получить список устройств и найти по токену
                 log.warn("Не удалось получить ID устройства через API учетных данных, пробуем получить через список устройств");
@@ -467,7 +520,7 @@ public class ThingsBoardIntegrationService {
             log.error("Ошибка при получении ID устройства по токену. Код: {}", response.getStatusCode());
             return null;
         } catch (RestClientException e) {
-            log.error("Ошибка при получении ID устройства по токену: {}", e.getMessage(), e);
+            log.error("Ошибка при получении ID устройства по токену: {}", redact(e, token));
             // Попробуем альтернативный метод при ошибке
             log.warn("Пробуем получить ID устройства через список устройств");
             return findDeviceIdByTokenFromDevicesList(token);
@@ -495,6 +548,11 @@ public class ThingsBoardIntegrationService {
                     if (idObj != null && idObj.containsKey("id")) {
                         String deviceId = idObj.get("id").toString();
                         
+                        // Токен этого устройства уже известен и не совпадает - запрос не нужен
+                        if (credentialsCache.getToken(deviceId).isPresent()) {
+                            continue;
+                        }
+                        
                         // Получаем учетные данные устройства
                         String credentialsUrl = thingsBoardUrl + "/api/device/" + deviceId + "/credentials";
                         
@@ -510,8 +568,12 @@ public class ThingsBoardIntegrationService {
                                 Map.class);
                         
                         if (credResponse.getStatusCode().is2xxSuccessful() && credResponse.getBody() != null) {
-                            if (credResponse.getBody().containsKey("credentialsId") && 
-                                    token.equals(credResponse.getBody().get("credentialsId"))) {
+                            // Запоминаем все полученные по пути соответствия
+                            Object credentialsId = credResponse.getBody().get("credentialsId");
+                            if (credentialsId != null) {
+                                credentialsCache.put(deviceId, credentialsId.toString());
+                            }
+                            if (token.equals(credentialsId)) {
                                 log.info("Найден ID устройства по токену через список устройств: {}", deviceId);
                                 return deviceId;
                             }
@@ -520,7 +582,7 @@ public class ThingsBoardIntegrationService {
                 }
             }
             
-            log.error("Устройство с токеном {} не найдено в списке устройств", token);
+            log.error("Устройство с указанным токеном не найдено в списке устройств");
             return null;
         } catch (Exception e) {
             log.error("Ошибка при поиске устройства по токену: {}", e.getMessage(), e);
@@ -528,6 +590,14 @@ public class ThingsBoardIntegrationService {
         }
     }
     
+    /**
+     * Убирает токен устройства из сообщения исключения: оно может содержать URL запроса
+     */
+    private static String redact(Exception e, String token) {
+        String message = String.valueOf(e.getMessage());
+        return token != null && !token.isEmpty() ? message.replace(token, "***") : message;
+    }
+    
     /**
      * Выполняет аутентификацию в ThingsBoard
      * @return токен доступа или null в случае ошибки
@@ -537,26 +607,34 @@ public class ThingsBoardIntegrationService {
             return true; // Предполагаем, что токен еще действителен
         }
         
-        try {
-            String url = thingsBoardUrl + "/api/auth/login";
-            
-            Map<String, String> loginRequest = new HashMap<>();
-            loginRequest.put("username", thingsBoardUsername);
-            loginRequest.put("password", thingsBoardPassword);
-            
-            ResponseEntity<Map> response = restTemplate.postForEntity(url, loginRequest, Map.class);
-            
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                accessToken = (String) response.getBody().get("token");
-                log.debug("Успешная аутентификация в ThingsBoard");
+        // Синхронизация опроса выполняется параллельно: вход выполняет только один поток
+        synchronized (authLock) {
+            if (accessToken != null) {
                 return true;
             }
             
-            log.error("Ошибка аутентификации в ThingsBoard. Код: {}", response.getStatusCode());
-            return false;
-        } catch (RestClientException e) {
-            log.error("Ошибка при аутентификации в ThingsBoard: {}", e.getMessage(), e);
-            return false;
+            try {
+                String url = thingsBoardUrl + "/api/auth/login";
+                
+                Map<String, String> loginRequest = new HashMap<>();
+                loginRequest.put("username", thingsBoardUsername);
+                loginRequest.put("password", thingsBoardPassword);
+                
+                ResponseEntity<Map> response = restTemplate.postForEntity(url, loginRequest, Map.class);
+                
+                if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
+                    accessToken = (String) response.getBody().get("token");
+                    log.debug("Успешная аутентификация в ThingsBoard");
+                    return true;
+                }
+                
+                sampledLog.atError("auth").log("Ошибка аутентификации в ThingsBoard. Код: {}", response.getStatusCode());
+                return false;
+            } catch (RestClientException e) {
+                sampledLog.atError("auth").setCause(e)
+                        .log("Ошибка при аутентификации в ThingsBoard: {}", e.getMessage());
+                return false;
+            }
         }
     }
     
@@ -576,21 +654,37 @@ public class ThingsBoardIntegrationService {
             return;
         }
         
-        log.info("Синхронизация {} устройств с ThingsBoard", devices.size());
+        log.debug("Синхронизация {} устройств с ThingsBoard", devices.size());
         
+        long start = System.nanoTime();
         int successCount = 0;
         for (Device device : devices) {
             try {
+                // Свойства в базе могут отставать от хранилища состояний
+                deviceStateStore.overlay(device);
                 boolean success = sendDeviceUpdate(device);
                 if (success) {
                     successCount++;
                 }
             } catch (Exception e) {
-                log.error("Ошибка при синхронизации устройства {} с ThingsBoard: {}", 
-                        device.getName(), e.getMessage());
+                sampledLog.atError(device.getId())
+                        .log("Ошибка при синхронизации устройства {} с ThingsBoard: {}", device.getName(), e.getMessage());
             }
         }
         
+        Timer.builder("smarthome.thingsboard.push.cycle")
+                .description("Длительность цикла отправки устройств в ThingsBoard")
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("smarthome.thingsboard.push.devices")
+                .description("Количество устройств в цикле отправки в ThingsBoard")
+                .register(meterRegistry)
+                .record(devices.size());
+        Counter.builder("smarthome.thingsboard.push.failures")
+                .description("Устройства, которые не удалось отправить в ThingsBoard")
+                .register(meterRegistry)
+                .increment(devices.size() - successCount);
+        
         log.info("Синхронизация завершена. Успешно: {}/{}", successCount, devices.size());
     }
 
@@ -632,43 +726,67 @@ public class ThingsBoardIntegrationService {
 
     /**
      * Получает список всех устройств из ThingsBoard
-     * @return список устройств или пустой список в случае ошибки
+     * @return список устройств
+     * @throws IllegalStateException если список получен не полностью (ошибка аутентификации или запроса страницы)
      */
     public List<Map<String, Object>> getAllDevicesFromThingsBoard() {
+        List<Map<String, Object>> devices = new ArrayList<>();
+        int pages = forEachDevicePage(devices::addAll);
+        if (pages < 0) {
+            throw new IllegalStateException("Не удалось получить полный список устройств из ThingsBoard, получено "
+                    + devices.size());
+        }
+        log.info("Получено {} устройств из ThingsBoard", devices.size());
+        return devices;
+    }
+    
+    /**
+     * Последовательно запрашивает страницы списка устройств тенанта и передаёт каждую обработчику,
+     * не накапливая весь список в памяти
+     * @param pageConsumer Обработчик страницы устройств
+     * @return количество полученных страниц или -1, если запрос завершился ошибкой
+     */
+    public int forEachDevicePage(Consumer<List<Map<String, Object>>> pageConsumer) {
         if (!ensureAuthenticated()) {
             log.error("Не удалось аутентифицироваться в ThingsBoard");
-            return List.of();
+            return -1;
         }
         
+        int page = 0;
         try {
-            // Получаем список всех устройств из ThingsBoard
-            String url = thingsBoardUrl + "/api/tenant/devices?pageSize=100&page=0";
-            log.info("Запрашиваем список устройств из ThingsBoard: {}", url);
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.set("X-Authorization", "Bearer " + accessToken);
-            
-            HttpEntity<Void> entity = new HttpEntity<>(headers);
-            
-            ResponseEntity<Map> response = restTemplate.exchange(
-                    url, 
-                    HttpMethod.GET, 
-                    entity, 
-                    Map.class);
-            
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                if (response.getBody().containsKey("data")) {
-                    List<Map<String, Object>> devices = (List<Map<String, Object>>) response.getBody().get("data");
-                    log.info("Получено {} устройств из ThingsBoard", devices.size());
-                    return devices;
+            boolean hasNext = true;
+            while (hasNext) {
+                String url = thingsBoardUrl + "/api/tenant/devices?pageSize=" + devicePageSize
+                        + "&page=" + page + "&sortProperty=createdTime&sortOrder=ASC";
+                log.debug("Запрашиваем страницу {} списка устройств из ThingsBoard: {}", page, url);
+                
+                HttpHeaders headers = new HttpHeaders();
+                headers.set("X-Authorization", "Bearer " + accessToken);
+                
+                HttpEntity<Void> entity = new HttpEntity<>(headers);
+                
+                ResponseEntity<Map> response = restTemplate.exchange(
+                        url, 
+                        HttpMethod.GET, 
+                        entity, 
+                        Map.class);
+                
+                if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+                    log.error("Ошибка при получении списка устройств из ThingsBoard. Код: {}", response.getStatusCode());
+                    return -1;
+                }
+                
+                Object data = response.getBody().get("data");
+                if (data instanceof List) {
+                    pageConsumer.accept((List<Map<String, Object>>) data);
                 }
+                hasNext = Boolean.TRUE.equals(response.getBody().get("hasNext"));
+                page++;
             }
-            
-            log.error("Ошибка при получении списка устройств из ThingsBoard. Код: {}", response.getStatusCode());
-            return List.of();
+            return page;
         } catch (Exception e) {
             log.error("Ошибка при получении списка устройств из ThingsBoard: {}", e.getMessage(), e);
-            return List.of();
+            return -1;
         }
     }
 
@@ -1022,7 +1140,7 @@ public class ThingsBoardIntegrationService {
      * @param device данные устройства из ThingsBoard
      * @return ID устройства или null в случае ошибки
      */
-    private String extractDeviceId(Map<String, Object> device) {
+    public String extractDeviceId(Map<String, Object> device) {
         if (device.containsKey("id")) {
             Map<String, Object> idObj = (Map<String, Object>) device.get("id");
             if (idObj != null && idObj.containsKey("id")) {
@@ -1,9 +1,13 @@
 package com.example.Smarthome.service;
 
 import com.example.Smarthome.model.Device;
-import com.example.Smarthome.model.ConnectionProtocol;
-import com.example.Smarthome.model.DeviceStatus;
 import com.example.Smarthome.repository.DeviceRepository;
+import com.example.Smarthome.repository.DeviceStateJdbcRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -13,12 +17,27 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
-import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 /**
  * Сервис для синхронизации данных из ThingsBoard
@@ -31,43 +50,83 @@ public class ThingsBoardSyncService {
     private final DeviceRepository deviceRepository;
     private final ThingsBoardIntegrationService thingsBoardService;
     private final DeviceService deviceService;
+    private final DeviceStateStore deviceStateStore;
+    private final DeviceStateJdbcRepository deviceStateJdbcRepository;
+    private final DeviceEventPublisher deviceEventPublisher;
+    private final ThingsBoardTelemetryFetcher telemetryFetcher;
     private final RestTemplate restTemplate;
+    private final MeterRegistry meterRegistry;
+    
+    private final ExecutorService thingsBoardSyncExecutor;
     
     @Value("${thingsboard.url}")
     private String thingsBoardUrl;
     
+    @Value("${thingsboard.sync.concurrency:4}")
+    private int concurrency;
+    
+    @Value("${thingsboard.sync.cycle-deadline-ms:8000}")
+    private long cycleDeadlineMs;
+    
+    @Value("${logging.sampling.interval-ms:1000}")
+    private long samplingIntervalMs;
+    
+    // Ограничение числа одновременных запросов к серверу ThingsBoard
+    private Semaphore hostLimiter;
+    
+    // Изменения отдельных атрибутов и телеметрии журналируются не чаще раза в интервал на устройство и ключ
+    private SampledLog sampledLog;
+    
+    private final AtomicBoolean attributesCycleRunning = new AtomicBoolean();
+    private final AtomicBoolean telemetryCycleRunning = new AtomicBoolean();
+    
+    // Устройства, не обработанные в предыдущем цикле
+    private final Set<UUID> attributesCarryOver = ConcurrentHashMap.newKeySet();
+    private final Set<UUID> telemetryCarryOver = ConcurrentHashMap.newKeySet();
+    
+    // Устройства, запрос которых ещё выполняется, в том числе после окончания своего цикла
+    private final Set<UUID> inFlightDevices = ConcurrentHashMap.newKeySet();
+    
+    @PostConstruct
+    public void init() {
+        hostLimiter = new Semaphore(Math.max(1, concurrency));
+        sampledLog = new SampledLog(log, samplingIntervalMs);
+    }
+    
     /**
      * Периодически синхронизирует данные устройств из ThingsBoard
      * Выполняется каждый час
      */
     @Scheduled(fixedRateString = "${thingsboard.pull.interval:3600000}")
     public void syncFromThingsBoard() {
-        log.info("Запуск синхронизации устройств из ThingsBoard");
-        
-        // Получаем все устройства с токенами ThingsBoard
-        List<Device> devices = deviceRepository.findAllByThingsboardTokenIsNotNull();
-        
-        if (devices.isEmpty()) {
-            log.debug("Нет устройств с токенами ThingsBoard для синхронизации");
+        if (!attributesCycleRunning.compareAndSet(false, true)) {
+            cycleCounter("smarthome.thingsboard.sync.skipped", "Циклы, пропущенные из-за незавершённого предыдущего", "attributes").increment();
+            log.debug("Предыдущий цикл синхронизации устройств из ThingsBoard ещё выполняется, пропускаем");
             return;
         }
         
-        log.info("Синхронизация {} устройств из ThingsBoard", devices.size());
-        
-        int updatedCount = 0;
-        for (Device device : devices) {
-            try {
-                boolean updated = syncDeviceFromThingsBoard(device);
-                if (updated) {
-                    updatedCount++;
-                }
-            } catch (Exception e) {
-                log.error("Ошибка при синхронизации устройства {} из ThingsBoard: {}", 
-                        device.getName(), e.getMessage(), e);
+        try {
+            log.debug("Запуск синхронизации устройств из ThingsBoard");
+            
+            // Получаем все устройства с токенами ThingsBoard
+            List<Device> devices = deviceRepository.findAllByThingsboardTokenIsNotNull();
+            
+            if (devices.isEmpty()) {
+                log.debug("Нет устройств с токенами ThingsBoard для синхронизации");
+                return;
             }
+            
+            log.debug("Синхронизация {} устройств из ThingsBoard", devices.size());
+            
+            long start = System.nanoTime();
+            CycleResult result = runSyncCycle(devices, this::syncDeviceFromThingsBoard, attributesCarryOver);
+            recordCycle("attributes", start, devices.size(), result);
+            
+            log.info("Синхронизация из ThingsBoard завершена. Обновлено: {}/{}, перенесено на следующий цикл: {}",
+                    result.updated(), devices.size(), result.carriedOver());
+        } finally {
+            attributesCycleRunning.set(false);
         }
-        
-        log.info("Синхронизация из ThingsBoard завершена. Обновлено: {}/{}", updatedCount, devices.size());
     }
     
     /**
@@ -77,32 +136,139 @@ public class ThingsBoardSyncService {
      */
     @Scheduled(fixedRateString = "${thingsboard.sync.telemetry.interval:300000}")
     public void syncTelemetryFromThingsBoard() {
-        log.info("Запуск синхронизации телеметрии устройств из ThingsBoard");
-        
-        // Получаем все устройства с токенами ThingsBoard
-        List<Device> devices = deviceRepository.findAllByThingsboardTokenIsNotNull();
-        
-        if (devices.isEmpty()) {
-            log.debug("Нет устройств с токенами ThingsBoard для синхронизации телеметрии");
+        if (!telemetryCycleRunning.compareAndSet(false, true)) {
+            cycleCounter("smarthome.thingsboard.sync.skipped", "Циклы, пропущенные из-за незавершённого предыдущего", "telemetry").increment();
+            log.debug("Предыдущий цикл синхронизации телеметрии ещё выполняется, пропускаем");
             return;
         }
         
-        log.info("Синхронизация телеметрии {} устройств из ThingsBoard", devices.size());
-        
-        int updatedCount = 0;
+        try {
+            log.debug("Запуск синхронизации телеметрии устройств из ThingsBoard");
+            
+            // Получаем все устройства с токенами ThingsBoard
+            List<Device> devices = deviceRepository.findAllByThingsboardTokenIsNotNull();
+            
+            if (devices.isEmpty()) {
+                log.debug("Нет устройств с токенами ThingsBoard для синхронизации телеметрии");
+                return;
+            }
+            
+            log.debug("Синхронизация телеметрии {} устройств из ThingsBoard", devices.size());
+            
+            // Атрибуты запрашиваются по устройствам, а телеметрия всех обработанных устройств — пакетно
+            long start = System.nanoTime();
+            CycleResult result = runSyncCycle(devices, this::syncDeviceAttributesAndId, telemetryCarryOver);
+            int telemetryUpdated = applyTelemetry(result.completed(), result.deadline(), telemetryCarryOver);
+            recordCycle("telemetry", start, devices.size(), result);
+            
+            log.info("Синхронизация телеметрии из ThingsBoard завершена. Обновлено атрибутов: {}, телеметрии: {} из {}, " +
+                    "перенесено на следующий цикл: {}", result.updated(), telemetryUpdated, devices.size(), result.carriedOver());
+        } finally {
+            telemetryCycleRunning.set(false);
+        }
+    }
+    
+    /**
+     * Выполняет синхронизацию набора устройств в пуле потоков
+     * Одновременно к серверу ThingsBoard выполняется не больше thingsboard.sync.concurrency запросов,
+     * а весь цикл ограничен по времени thingsboard.sync.cycle-deadline-ms. Устройства, до которых
+     * очередь не дошла, запоминаются и обрабатываются первыми в следующем цикле.
+     * Запросы, не завершившиеся к концу цикла, продолжают выполняться в фоне; пока запрос
+     * устройства не завершён, следующие циклы его пропускают и переносят дальше, чтобы
+     * две синхронизации одного устройства не сохраняли его одновременно.
+     * @param devices Устройства для синхронизации
+     * @param task Синхронизация одного устройства, возвращает true если устройство обновлено
+     * @param carryOver Устройства, перенесённые из предыдущего цикла
+     * @return результат цикла
+     */
+    private CycleResult runSyncCycle(List<Device> devices, Predicate<Device> task, Set<UUID> carryOver) {
+        // Сначала обрабатываем устройства, не обработанные в прошлый раз
+        List<Device> ordered = new ArrayList<>(devices.size());
+        List<Device> rest = new ArrayList<>(devices.size());
         for (Device device : devices) {
-            try {
-                boolean updated = syncDeviceTelemetryFromThingsBoard(device);
-                if (updated) {
-                    updatedCount++;
+            (carryOver.contains(device.getId()) ? ordered : rest).add(device);
+        }
+        ordered.addAll(rest);
+        carryOver.clear();
+        
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cycleDeadlineMs);
+        AtomicInteger updated = new AtomicInteger();
+        Queue<Device> completed = new ConcurrentLinkedQueue<>();
+        List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+        
+        int index = 0;
+        int busy = 0;
+        try {
+            for (; index < ordered.size(); index++) {
+                Device device = ordered.get(index);
+                // Запрос устройства из предыдущего цикла ещё выполняется
+                if (!inFlightDevices.add(device.getId())) {
+                    carryOver.add(device.getId());
+                    busy++;
+                    continue;
+                }
+                
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !hostLimiter.tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+                    inFlightDevices.remove(device.getId());
+                    break;
+                }
+                
+                try {
+                    inFlight.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            deviceStateStore.overlay(device);
+                            if (task.test(device)) {
+                                updated.incrementAndGet();
+                            }
+                            completed.add(device);
+                        } catch (Exception e) {
+                            log.error("Ошибка при синхронизации устройства {} из ThingsBoard: {}", 
+                                    device.getName(), e.getMessage(), e);
+                        } finally {
+                            inFlightDevices.remove(device.getId());
+                            hostLimiter.release();
+                        }
+                    }, thingsBoardSyncExecutor));
+                } catch (RejectedExecutionException e) {
+                    inFlightDevices.remove(device.getId());
+                    hostLimiter.release();
+                    break;
                 }
-            } catch (Exception e) {
-                log.error("Ошибка при синхронизации телеметрии устройства {} из ThingsBoard: {}", 
-                        device.getName(), e.getMessage(), e);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (index < ordered.size()) {
+                inFlightDevices.remove(ordered.get(index).getId());
+            }
+        }
+        
+        // Не начатые устройства переносим на следующий цикл
+        for (int i = index; i < ordered.size(); i++) {
+            carryOver.add(ordered.get(i).getId());
+        }
+        if (busy > 0) {
+            log.debug("Пропущено устройств с незавершёнными запросами предыдущего цикла: {}", busy);
+        }
+        
+        // Дожидаемся уже начатых запросов, но не дольше оставшегося времени цикла
+        boolean deadlineExceeded = index < ordered.size();
+        try {
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0]))
+                    .get(remaining, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            deadlineExceeded = true;
+            log.warn("Цикл синхронизации с ThingsBoard превысил отведённое время ({} мс), " +
+                    "незавершённые запросы продолжат выполняться в фоне", cycleDeadlineMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Ошибка в цикле синхронизации с ThingsBoard: {}", e.getMessage(), e);
         }
         
-        log.info("Синхронизация телеметрии из ThingsBoard завершена. Обновлено: {}/{}", updatedCount, devices.size());
+        return new CycleResult(updated.get(), ordered.size() - index + busy, new ArrayList<>(completed),
+                deadlineExceeded, deadline);
     }
     
     /**
@@ -184,8 +350,7 @@ public class ThingsBoardSyncService {
                         if (currentValue == null || !currentValue.equals(stringValue)) {
                             device.getProperties().put(propKey, stringValue);
                             updated = true;
-                            log.info("Обновлен client-атрибут {} устройства {}: {} -> {}", 
-                                    key, device.getName(), currentValue, stringValue);
+                            logChange("Обновлен client-атрибут", device, key, currentValue, stringValue);
                         }
                     }
                 }
@@ -209,8 +374,7 @@ public class ThingsBoardSyncService {
                         if (currentValue == null || !currentValue.equals(stringValue)) {
                             device.getProperties().put(propKey, stringValue);
                             updated = true;
-                            log.info("Обновлен shared-атрибут {} устройства {}: {} -> {}", 
-                                    key, device.getName(), currentValue, stringValue);
+                            logChange("Обновлен shared-атрибут", device, key, currentValue, stringValue);
                         }
                     }
                 }
@@ -274,8 +438,7 @@ public class ThingsBoardSyncService {
                                     if (currentValue == null || !currentValue.equals(stringValue)) {
                                         device.getProperties().put(propKey, stringValue);
                                         updated = true;
-                                        log.info("Обновлен server-атрибут {} устройства {}: {} -> {}", 
-                                                key, device.getName(), currentValue, stringValue);
+                                        logChange("Обновлен server-атрибут", device, key, currentValue, stringValue);
                                     }
                                 }
                             }
@@ -323,15 +486,17 @@ public class ThingsBoardSyncService {
             
             // Если есть изменения, сохраняем устройство
             if (updated) {
-                deviceRepository.save(device);
-                log.info("Устройство {} обновлено на основе данных из ThingsBoard", device.getName());
+                persistDevice(device);
+                sampledLog.atDebug(device.getId())
+                        .log("Устройство {} обновлено на основе данных из ThingsBoard", device.getName());
                 return true;
             }
             
             return false;
         } catch (RestClientException e) {
-            log.error("Ошибка при синхронизации устройства {} из ThingsBoard: {}", 
-                    device.getName(), e.getMessage(), e);
+            // При недоступности ThingsBoard ошибка повторяется для каждого устройства в каждом цикле
+            sampledLog.atError(device.getId()).setCause(e)
+                    .log("Ошибка при синхронизации устройства {} из ThingsBoard: {}", device.getName(), e.getMessage());
             return false;
         }
     }
@@ -342,6 +507,18 @@ public class ThingsBoardSyncService {
      * @return true если телеметрия была обновлена
      */
     private boolean syncDeviceTelemetryFromThingsBoard(Device device) {
+        boolean updated = syncDeviceAttributesAndId(device);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cycleDeadlineMs);
+        return applyTelemetry(List.of(device), deadline, new HashSet<>()) > 0 || updated;
+    }
+    
+    /**
+     * Синхронизирует атрибуты устройства и при необходимости получает его ThingsBoard ID,
+     * необходимый для пакетного запроса телеметрии
+     * @param device Устройство для синхронизации
+     * @return true если устройство было обновлено
+     */
+    private boolean syncDeviceAttributesAndId(Device device) {
         if (device.getThingsboardToken() == null || device.getThingsboardToken().isEmpty()) {
             log.debug("Устройство {} не имеет токена ThingsBoard, пропускаем синхронизацию телеметрии", device.getName());
             return false;
@@ -349,306 +526,198 @@ public class ThingsBoardSyncService {
         
         boolean updated = false;
         
-        try {
-            // 1. Получаем свежие атрибуты устройства 
-            // Используем существующий метод для синхронизации атрибутов
-            boolean attributesUpdated = syncDeviceFromThingsBoard(device);
-            if (attributesUpdated) {
-                updated = true;
-                log.info("Успешно обновлены атрибуты устройства {}", device.getName());
-            }
-            
-            // 2. Для получения телеметрии используем API v2, который требует аутентификации
-            // Сначала проверяем, что мы авторизованы
-            if (!thingsBoardService.ensureAuthenticated()) {
-                log.error("Не удалось аутентифицироваться в ThingsBoard для получения телеметрии");
-                return updated; // возвращаем updated, т.к. атрибуты могли обновиться
+        // 1. Получаем свежие атрибуты устройства
+        // Используем существующий метод для синхронизации атрибутов
+        boolean attributesUpdated = syncDeviceFromThingsBoard(device);
+        if (attributesUpdated) {
+            updated = true;
+            log.debug("Успешно обновлены атрибуты устройства {}", device.getName());
+        }
+        
+        // 2. Телеметрия запрашивается по ThingsBoard ID устройства
+        if (device.getThingsboardDeviceId() == null || device.getThingsboardDeviceId().isEmpty()) {
+            String deviceId = thingsBoardService.getDeviceIdByToken(device.getThingsboardToken());
+            if (deviceId == null) {
+                sampledLog.atError(device.getId())
+                        .log("Не удалось получить ThingsBoard ID устройства {} по токену", device.getName());
+                return updated;
             }
-            
-            // Получаем deviceId от ThingsBoard
-            String deviceId;
-            
-            // Если у устройства уже сохранен ThingsBoard ID
+            // Сохраняем ID для будущих запросов
+            device.setThingsboardDeviceId(deviceId);
+            updateMetadata(device);
+            updated = true; // ID обновлен
+        }
+        
+        return updated;
+    }
+    
+    /**
+     * Получает телеметрию набора устройств пакетными запросами и применяет изменения
+     * Пакетные запросы выполняются под тем же ограничением числа одновременных запросов
+     * и в пределах того же времени, что и цикл, в котором получены устройства. Устройства,
+     * до которых не дошла очередь, переносятся на следующий цикл.
+     * @param devices Устройства с известным ThingsBoard ID
+     * @param deadline Время окончания цикла (System.nanoTime)
+     * @param carryOver Устройства, перенесённые на следующий цикл
+     * @return количество устройств, телеметрия которых изменилась
+     */
+    private int applyTelemetry(List<Device> devices, long deadline, Set<UUID> carryOver) {
+        Map<String, Device> byThingsBoardId = new HashMap<>();
+        for (Device device : devices) {
             if (device.getThingsboardDeviceId() != null && !device.getThingsboardDeviceId().isEmpty()) {
-                deviceId = device.getThingsboardDeviceId();
-            } else {
-                // Если нет, получаем ID устройства по токену
-                deviceId = thingsBoardService.getDeviceIdByToken(device.getThingsboardToken());
-                if (deviceId == null) {
-                    log.error("Не удалось получить ID устройства по токену: {}", device.getThingsboardToken());
-                    return updated; // возвращаем updated, т.к. атрибуты могли обновиться
-                }
-                // Сохраняем ID для будущих запросов
-                device.setThingsboardDeviceId(deviceId);
-                deviceRepository.save(device);
-                updated = true; // ID обновлен
+                byThingsBoardId.put(device.getThingsboardDeviceId(), device);
             }
-            
-            // Используем API v2 для получения последних значений телеметрии
-            String telemetryUrl = thingsBoardUrl + "/api/plugins/telemetry/DEVICE/" + deviceId + "/values/timeseries";
-            log.info("Запрашиваем телеметрию устройства {} через API v2: {}", device.getName(), telemetryUrl);
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.set("X-Authorization", "Bearer " + thingsBoardService.getAccessToken());
-            
-            HttpEntity<Void> entity = new HttpEntity<>(headers);
-            
-            ResponseEntity<Map> telemetryResponse = restTemplate.exchange(
-                    telemetryUrl,
-                    HttpMethod.GET,
-                    entity,
-                    Map.class);
-            
-            log.info("Ответ на запрос телеметрии для {} (код {}): {}", 
-                    device.getName(), telemetryResponse.getStatusCode(), telemetryResponse.getBody());
-            
-            if (telemetryResponse.getStatusCode().is2xxSuccessful() && 
-                    telemetryResponse.getBody() != null && 
-                    !telemetryResponse.getBody().isEmpty()) {
-                
-                // Обрабатываем ответ с телеметрией в новом формате ThingsBoard v4
-                Map<String, Object> telemetryData = telemetryResponse.getBody();
-                log.info("Полученные данные телеметрии для {}: {}", device.getName(), telemetryData);
-                
-                boolean telemetryUpdated = false;
-                
-                // Сохраняем текущие ключи телеметрии
-                Set<String> currentKeys = new HashSet<>(telemetryData.keySet());
-                
-                // Создаем копию существующих свойств для поиска удаленных полей
-                Set<String> keysToRemove = new HashSet<>();
-                for (String key : device.getProperties().keySet()) {
-                    // Проверяем только поля телеметрии, не трогаем другие свойства
-                    if (key.startsWith("tb_") && !currentKeys.contains(key.substring(3))) {
-                        keysToRemove.add(key);
-                    }
+        }
+        if (byThingsBoardId.isEmpty()) {
+            return 0;
+        }
+        
+        List<String> ids = new ArrayList<>(new TreeSet<>(byThingsBoardId.keySet()));
+        int groupSize = telemetryFetcher.getGroupSize();
+        int updatedCount = 0;
+        int from = 0;
+        try {
+            for (; from < ids.size(); from += groupSize) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !hostLimiter.tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+                    break;
                 }
-                
-                // Удаляем отсутствующие поля телеметрии
-                for (String key : keysToRemove) {
-                    device.getProperties().remove(key);
-                    telemetryUpdated = true;
-                    log.info("Удалено отсутствующее свойство телеметрии {} устройства {}", 
-                            key, device.getName());
+                Map<String, ThingsBoardTelemetryFetcher.DeviceTelemetry> telemetry;
+                try {
+                    telemetry = telemetryFetcher.fetchLatest(ids.subList(from, Math.min(ids.size(), from + groupSize)));
+                } finally {
+                    hostLimiter.release();
                 }
-                
-                // Проходим по каждому ключу в телеметрии и обновляем свойства устройства
-                for (Map.Entry<String, Object> entry : telemetryData.entrySet()) {
-                    String key = entry.getKey();
-                    Object value = entry.getValue();
-                    
-                    // Извлекаем значение из различных форматов телеметрии
-                    String stringValue = extractValueFromTelemetry(value);
-                    if (stringValue != null) {
-                        // Сравниваем с текущим значением
-                        // Используем префикс tb_ для различения полей телеметрии от других свойств
-                        String propKey = "tb_" + key;
-                        String currentValue = device.getProperties().get(propKey);
-                        if (currentValue == null || !currentValue.equals(stringValue)) {
-                            device.getProperties().put(propKey, stringValue);
-                            telemetryUpdated = true;
-                            log.info("Обновлена телеметрия {} устройства {}: {} -> {}", 
-                                    key, device.getName(), currentValue, stringValue);
-                        }
+                for (Map.Entry<String, ThingsBoardTelemetryFetcher.DeviceTelemetry> entry : telemetry.entrySet()) {
+                    Device device = byThingsBoardId.get(entry.getKey());
+                    if (device != null && persistTelemetry(device, entry.getKey(), entry.getValue())) {
+                        updatedCount++;
                     }
                 }
-                
-                // Если были обновления, сохраняем устройство
-                if (telemetryUpdated) {
-                    deviceRepository.save(device);
-                    log.info("Сохранены обновления телеметрии для устройства {}", device.getName());
-                    return true;
-                }
-            } else {
-                log.warn("Нет данных телеметрии для устройства {} из ThingsBoard. Код: {}, Тело: {}", 
-                        device.getName(), telemetryResponse.getStatusCode(), telemetryResponse.getBody());
-                
-                // Пробуем получить конкретные ключи телеметрии
-                updated = testAndUpdateTelemetryPost(device, "status", updated);
-                updated = testAndUpdateTelemetryPost(device, "temperature", updated);
-                updated = testAndUpdateTelemetryPost(device, "humidity", updated);
-                updated = testAndUpdateTelemetryPost(device, "power", updated);
-                updated = testAndUpdateTelemetryPost(device, "brightness", updated);
-                updated = testAndUpdateTelemetryPost(device, "color", updated);
-                updated = testAndUpdateTelemetryPost(device, "startTs", updated);
-                updated = testAndUpdateTelemetryPost(device, "endTs", updated);
-                updated = testAndUpdateTelemetryPost(device, "keys", updated);
-                
-                // Добавляем специфичные ключи для устройства
-                updated = testAndUpdateTelemetryPost(device, "ewfwe", updated);
-                
-                // Если были обновления, сохраняем устройство
-                if (updated) {
-                    deviceRepository.save(device);
-                    log.info("Сохранены обновления отдельных ключей телеметрии для устройства {}", device.getName());
-                    return true;
-                }
             }
-            
-            return updated;
-        } catch (Exception e) {
-            log.error("Ошибка при синхронизации данных устройства {} из ThingsBoard: {}", 
-                    device.getName(), e.getMessage(), e);
-            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        for (int i = from; i < ids.size(); i++) {
+            carryOver.add(byThingsBoardId.get(ids.get(i)).getId());
+        }
+        if (from < ids.size()) {
+            log.warn("Телеметрия {} устройств не запрошена до окончания цикла, перенесена на следующий цикл",
+                    ids.size() - from);
         }
+        return updatedCount;
     }
     
     /**
-     * Пробует получить и обновить конкретный ключ телеметрии для устройства
+     * Применяет и сохраняет телеметрию устройства, после сохранения сдвигает водяные знаки
      * @param device Устройство
-     * @param key Ключ телеметрии
-     * @param currentlyUpdated Текущий статус обновления
-     * @return true если произошло обновление
+     * @param thingsBoardId ThingsBoard ID устройства
+     * @param telemetry Полученная телеметрия
+     * @return true если свойства устройства изменились
      */
-    private boolean testAndUpdateTelemetryPost(Device device, String key, boolean currentlyUpdated) {
+    private boolean persistTelemetry(Device device, String thingsBoardId, ThingsBoardTelemetryFetcher.DeviceTelemetry telemetry) {
         try {
-            // Для получения телеметрии используем API v2, который требует аутентификации
-            if (!thingsBoardService.ensureAuthenticated()) {
-                log.error("Не удалось аутентифицироваться в ThingsBoard для получения телеметрии");
-                return false;
-            }
-            
-            // Получаем deviceId от ThingsBoard
-            String deviceId;
-            
-            // Если у устройства уже сохранен ThingsBoard ID
-            if (device.getThingsboardDeviceId() != null && !device.getThingsboardDeviceId().isEmpty()) {
-                deviceId = device.getThingsboardDeviceId();
-            } else {
-                // Если нет, получаем ID устройства по токену
-                deviceId = thingsBoardService.getDeviceIdByToken(device.getThingsboardToken());
-                if (deviceId == null) {
-                    log.error("Не удалось получить ID устройства по токену: {}", device.getThingsboardToken());
-                    return false;
-                }
-                // Сохраняем ID для будущих запросов
-                device.setThingsboardDeviceId(deviceId);
-                deviceRepository.save(device);
-            }
-            
-            // Используем API v2 для получения последних значений телеметрии по конкретному ключу
-            String specificUrl = thingsBoardUrl + "/api/plugins/telemetry/DEVICE/" + deviceId + "/values/timeseries?keys=" + key;
-            log.info("Пробуем получить телеметрию {} для устройства {} через API v2: {}", key, device.getName(), specificUrl);
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.set("X-Authorization", "Bearer " + thingsBoardService.getAccessToken());
-            
-            HttpEntity<Void> entity = new HttpEntity<>(headers);
-            
-            ResponseEntity<Map> response = restTemplate.exchange(
-                    specificUrl,
-                    HttpMethod.GET,
-                    entity,
-                    Map.class);
-            
-            if (response.getStatusCode().is2xxSuccessful() && 
-                    response.getBody() != null && 
-                    !response.getBody().isEmpty() && 
-                    response.getBody().containsKey(key)) {
-                
-                Object value = response.getBody().get(key);
-                log.info("Получено значение для ключа {}: {}", key, value);
-                
-                String stringValue = extractValueFromTelemetry(value);
-                if (stringValue != null) {
-                    // Используем префикс tb_ для различения полей телеметрии от других свойств
-                    String propKey = "tb_" + key;
-                    String currentValue = device.getProperties().get(propKey);
-                    if (currentValue == null || !currentValue.equals(stringValue)) {
-                        device.getProperties().put(propKey, stringValue);
-                        log.info("Обновлена конкретная телеметрия {} устройства {}: {} -> {}", 
-                                key, device.getName(), currentValue, stringValue);
-                        return true;
-                    }
-                }
+            boolean updated = mergeTelemetry(device, telemetry.changed(), telemetry.presentKeys());
+            if (updated) {
+                persistDevice(device);
+                sampledLog.atDebug(device.getId())
+                        .log("Сохранены обновления телеметрии для устройства {}", device.getName());
             }
-            
-            return false;
+            telemetryFetcher.commitWatermarks(thingsBoardId, telemetry);
+            return updated;
         } catch (Exception e) {
-            log.debug("Не удалось получить телеметрию {} для устройства {}: {}", 
-                    key, device.getName(), e.getMessage());
+            // Водяные знаки не сдвигаются, значения будут получены повторно в следующем цикле
+            log.error("Ошибка при сохранении телеметрии устройства {}: {}",
+                    device.getName(), e.getMessage(), e);
             return false;
         }
     }
     
     /**
-     * Вспомогательный метод для извлечения значения телеметрии из разных форматов данных
+     * Применяет полученную телеметрию к свойствам устройства
+     * @param device Устройство
+     * @param values Изменившиеся значения телеметрии (ключи без префикса tb_)
+     * @param presentKeys Полный набор ключей телеметрии устройства или null, если он неизвестен
+     * @return true если свойства устройства изменились
      */
-    private String extractValueFromTelemetry(Object telemetryValue) {
-        try {
-            if (telemetryValue == null) {
-                return null;
+    private boolean mergeTelemetry(Device device, Map<String, String> values, Set<String> presentKeys) {
+        boolean telemetryUpdated = false;
+        
+        // Удаляем поля телеметрии, отсутствующие в ThingsBoard
+        if (presentKeys != null) {
+            Set<String> keysToRemove = new HashSet<>();
+            for (String key : device.getProperties().keySet()) {
+                // Проверяем только поля телеметрии, не трогаем другие свойства
+                if (key.startsWith("tb_") && !presentKeys.contains(key.substring(3))) {
+                    keysToRemove.add(key);
+                }
             }
             
-            // Случай 1: прямое значение
-            if (!(telemetryValue instanceof Map) && !(telemetryValue instanceof List)) {
-                return telemetryValue.toString();
+            for (String key : keysToRemove) {
+                device.getProperties().remove(key);
+                telemetryUpdated = true;
+                log.info("Удалено отсутствующее свойство телеметрии {} устройства {}",
+                        key, device.getName());
             }
-            
-            // Случай 2: список значений с timestamp
-            if (telemetryValue instanceof List) {
-                List<Object> values = (List<Object>) telemetryValue;
-                if (!values.isEmpty()) {
-                    Object firstValue = values.get(0);
-                    if (firstValue instanceof Map) {
-                        Map<String, Object> valueMap = (Map<String, Object>) firstValue;
-                        if (valueMap.containsKey("value")) {
-                            Object value = valueMap.get("value");
-                            return value != null ? value.toString() : null;
-                        } else if (valueMap.containsKey("ts") && valueMap.containsKey("value")) {
-                            // Формат с временной меткой и значением
-                            Object value = valueMap.get("value");
-                            return value != null ? value.toString() : null;
-                        }
-                    } else {
-                        // Если это просто список значений
-                        return firstValue != null ? firstValue.toString() : null;
-                    }
-                }
+        }
+        
+        // Проходим по каждому ключу в телеметрии и обновляем свойства устройства
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            // Используем префикс tb_ для различения полей телеметрии от других свойств
+            String propKey = "tb_" + entry.getKey();
+            String stringValue = entry.getValue();
+            String currentValue = device.getProperties().get(propKey);
+            if (currentValue == null || !currentValue.equals(stringValue)) {
+                device.getProperties().put(propKey, stringValue);
+                telemetryUpdated = true;
+                logChange("Обновлена телеметрия", device, entry.getKey(), currentValue, stringValue);
             }
-            
-            // Случай 3: Значение внутри Map
-            if (telemetryValue instanceof Map) {
-                Map<String, Object> valueMap = (Map<String, Object>) telemetryValue;
-                
-                // В ThingsBoard v4 телеметрия в формате структуры "key": [{"ts": timestamp, "value": value}]
-                for (Map.Entry<String, Object> entry : valueMap.entrySet()) {
-                    Object entryValue = entry.getValue();
-                    if (entryValue instanceof List && !((List<?>) entryValue).isEmpty()) {
-                        List<Object> valueList = (List<Object>) entryValue;
-                        Object firstValue = valueList.get(0);
-                        
-                        if (firstValue instanceof Map) {
-                            Map<String, Object> firstValueMap = (Map<String, Object>) firstValue;
-                            if (firstValueMap.containsKey("value")) {
-                                return firstValueMap.get("value") != null ? 
-                                       firstValueMap.get("value").toString() : null;
-                            }
-                        } else {
-                            return firstValue != null ? firstValue.toString() : null;
-                        }
-                    }
-                }
-                
-                if (valueMap.containsKey("value")) {
-                    Object value = valueMap.get("value");
-                    return value != null ? value.toString() : null;
-                } else if (!valueMap.isEmpty()) {
-                    // Если это какой-то другой формат Map, попробуем использовать первое значение
-                    for (Object value : valueMap.values()) {
-                        if (value != null) {
-                            return value.toString();
-                        }
-                    }
-                }
+        }
+        
+        return telemetryUpdated;
+    }
+
+    /**
+     * Журналирует изменение значения с ограничением частоты по устройству и ключу
+     * @param change Описание изменения, например "Обновлена телеметрия"
+     */
+    private void logChange(String change, Device device, String key, String oldValue, String newValue) {
+        sampledLog.atDebug(Map.entry(device.getId(), key))
+                .addKeyValue("device", device.getId())
+                .addKeyValue("key", key)
+                .log("{} {} устройства {}: {} -> {}", change, key, device.getName(), oldValue, newValue);
+    }
+    
+    /**
+     * Сохраняет изменения, полученные из ThingsBoard
+     * Метаданные записываются точечным UPDATE, а свойства передаются в хранилище состояний,
+     * которое запишет их в базу вместе с остальными изменениями
+     * @param device Устройство с обновлёнными данными
+     */
+    private void persistDevice(Device device) {
+        updateMetadata(device);
+        // Свойства устройства прочитаны в начале цикла и могли с тех пор измениться (например, по MQTT),
+        // поэтому записываются только свойства, которыми управляет синхронизация
+        Map<String, String> synced = new HashMap<>();
+        device.getProperties().forEach((key, value) -> {
+            if (isSyncedProperty(key)) {
+                synced.put(key, value);
             }
-            
-            // Если не смогли извлечь значение, возвращаем строковое представление
-            return telemetryValue.toString();
-            
-        } catch (Exception e) {
-            log.warn("Ошибка при извлечении значения из телеметрии: {}", e.getMessage());
-            return null;
+        });
+        deviceStateStore.replaceProperties(device.getId(), synced, ThingsBoardSyncService::isSyncedProperty);
+    }
+    
+    /**
+     * Телеметрия (tb_) и атрибуты (attr_) ThingsBoard
+     */
+    private static boolean isSyncedProperty(String key) {
+        return key.startsWith("tb_") || key.startsWith("attr_");
+    }
+
+    private void updateMetadata(Device device) {
+        if (deviceStateJdbcRepository.updateMetadata(device)) {
+            deviceEventPublisher.publishSaved(device.getId(), device.getStatus(), device.getLastSeen());
         }
     }
     
@@ -672,95 +741,31 @@ public class ThingsBoardSyncService {
             return false;
         }
         
-        boolean attrUpdated = syncDeviceFromThingsBoard(device);
-        boolean telemetryUpdated = syncDeviceTelemetryFromThingsBoard(device);
-        
-        return attrUpdated || telemetryUpdated;
+        // Синхронизация телеметрии сама запрашивает атрибуты устройства
+        return syncDeviceTelemetryFromThingsBoard(device);
     }
     
     /**
-     * Импортирует устройства из ThingsBoard в локальную базу данных
-     * @return количество импортированных устройств
+     * Загружает атрибуты и телеметрию только что импортированных устройств
+     * Выполняется с теми же ограничениями параллельности, что и обычные циклы опроса
+     * @param devices Устройства для загрузки данных
+     * @return ID устройств, до которых не дошла очередь в отведённое время
      */
-    public int importDevicesFromThingsBoard() {
-        log.info("Запуск импорта устройств из ThingsBoard");
-        
-        // Получаем список всех устройств из ThingsBoard
-        List<Map<String, Object>> tbDevices = thingsBoardService.getAllDevicesFromThingsBoard();
-        
-        if (tbDevices.isEmpty()) {
-            log.warn("Нет устройств для импорта из ThingsBoard");
-            return 0;
-        }
-        
-        int importedCount = 0;
-        
-        for (Map<String, Object> tbDevice : tbDevices) {
-            try {
-                // Извлекаем основные данные устройства
-                String name = tbDevice.get("name").toString();
-                String type = tbDevice.get("type").toString();
-                
-                // Извлекаем ID устройства для получения токена
-                String tbDeviceId = null;
-                if (tbDevice.containsKey("id")) {
-                    Map<String, Object> idObject = (Map<String, Object>) tbDevice.get("id");
-                    if (idObject != null && idObject.containsKey("id")) {
-                        tbDeviceId = idObject.get("id").toString();
-                    }
-                }
-                
-                if (tbDeviceId == null) {
-                    log.warn("Невозможно получить ID устройства {} из ThingsBoard", name);
-                    continue;
-                }
-                
-                // Проверяем, есть ли уже такое устройство с таким токеном
-                String token = thingsBoardService.getTokenByDeviceId(tbDeviceId);
-                if (token == null) {
-                    log.warn("Невозможно получить токен для устройства {} из ThingsBoard", name);
-                    continue;
-                }
-                
-                // Проверяем, существует ли устройство с таким токеном
-                if (deviceRepository.findByThingsboardToken(token).isPresent()) {
-                    log.debug("Устройство с токеном {} уже существует в базе", token);
-                    continue;
-                }
-                
-                // Создаем новое устройство
-                Device device = new Device();
-                device.setName(name);
-                device.setType(type);
-                device.setThingsboardToken(token);
-                device.setThingsboardDeviceId(tbDeviceId); // Сохраняем ThingsBoard UUID
-                device.setProtocol(ConnectionProtocol.VIRTUAL);
-                device.setStatus(DeviceStatus.ONLINE);
-                device.setLastSeen(LocalDateTime.now());
-                
-                // Дополнительные данные из ThingsBoard
-                if (tbDevice.containsKey("label")) {
-                    device.updateAttribute("label", tbDevice.get("label"));
-                }
-                
-                // Получаем дополнительные атрибуты
-                device = deviceRepository.save(device);
-                
-                // Синхронизируем атрибуты и телеметрию
-                syncDeviceFromThingsBoard(device);
-                syncDeviceTelemetryFromThingsBoard(device);
-                
-                importedCount++;
-                log.info("Импортировано устройство: {}", name);
-            } catch (Exception e) {
-                log.error("Ошибка при импорте устройства из ThingsBoard: {}", e.getMessage(), e);
-            }
+    public Set<UUID> hydrateDevices(List<Device> devices) {
+        Set<UUID> notReached = ConcurrentHashMap.newKeySet();
+        if (devices.isEmpty()) {
+            return notReached;
         }
         
-        log.info("Импорт устройств из ThingsBoard завершен. Импортировано: {}/{}", importedCount, tbDevices.size());
-        return importedCount;
+        long start = System.nanoTime();
+        CycleResult result = runSyncCycle(devices, this::syncDeviceAttributesAndId, notReached);
+        int telemetryUpdated = applyTelemetry(result.completed(), result.deadline(), notReached);
+        recordCycle("hydrate", start, devices.size(), result);
+        log.debug("Загружены данные {} импортированных устройств (телеметрия: {}), отложено: {}",
+                result.completed().size(), telemetryUpdated, notReached.size());
+        return notReached;
     }
-
+    
     /**
      * Возвращает сервис устройств
      * @return DeviceService
@@ -768,4 +773,44 @@ public class ThingsBoardSyncService {
     public DeviceService getDeviceService() {
         return deviceService;
     }
-} 
\ No newline at end of file
+
+    /**
+     * Записывает метрики завершённого цикла синхронизации
+     * @param cycle Тип цикла: attributes, telemetry или hydrate
+     * @param start Время начала цикла (System.nanoTime)
+     * @param devices Количество устройств в цикле
+     */
+    private void recordCycle(String cycle, long start, int devices, CycleResult result) {
+        Timer.builder("smarthome.thingsboard.sync.cycle")
+                .description("Длительность цикла синхронизации с ThingsBoard")
+                .tag("cycle", cycle)
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("smarthome.thingsboard.sync.devices")
+                .description("Количество устройств в цикле синхронизации")
+                .tag("cycle", cycle)
+                .register(meterRegistry)
+                .record(devices);
+        cycleCounter("smarthome.thingsboard.sync.carried.over", "Устройства, перенесённые на следующий цикл", cycle).increment(result.carriedOver());
+        if (result.deadlineExceeded()) {
+            cycleCounter("smarthome.thingsboard.sync.overruns", "Циклы, не уложившиеся в отведённое время", cycle).increment();
+        }
+    }
+    
+    private Counter cycleCounter(String name, String description, String cycle) {
+        return Counter.builder(name)
+                .description(description)
+                .tag("cycle", cycle)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Итог цикла синхронизации
+     * @param completed Устройства, обработка которых завершилась до окончания цикла
+     * @param deadlineExceeded Цикл не уложился в thingsboard.sync.cycle-deadline-ms
+     * @param deadline Время окончания цикла (System.nanoTime)
+     */
+    private record CycleResult(int updated, int carriedOver, List<Device> completed, boolean deadlineExceeded,
+                               long deadline) {
+    }
+}
@@ -0,0 +1,366 @@
+package com.example.Smarthome.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пакетное получение телеметрии устройств из ThingsBoard
+ *
+ * Вместо запроса /values/timeseries для каждого устройства (и отдельного запроса
+ * для каждого ключа) устройства группируются, и последние значения всей группы
+ * запрашиваются одним запросом /api/entitiesQuery/find. Список ключей группы
+ * получается запросом /api/entitiesQuery/find/keys и кэшируется.
+ *
+ * Для каждого ключа телеметрии устройства хранится водяной знак — время последнего
+ * применённого значения. Значения, не изменившиеся с прошлого опроса, не возвращаются
+ * вызывающему. Водяные знаки сдвигаются только после того, как вызывающий сохранил
+ * полученные значения (commitWatermarks), поэтому при ошибке сохранения значения
+ * будут получены повторно.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ThingsBoardTelemetryFetcher {
+
+    private static final ParameterizedTypeReference<Map<String, Object>> ENTITY_DATA_PAGE =
+            new ParameterizedTypeReference<>() {};
+    private static final ParameterizedTypeReference<Map<String, List<String>>> ENTITY_KEYS =
+            new ParameterizedTypeReference<>() {};
+    private static final ParameterizedTypeReference<List<String>> KEY_LIST =
+            new ParameterizedTypeReference<>() {};
+    private static final ParameterizedTypeReference<Map<String, List<Map<String, Object>>>> TIMESERIES =
+            new ParameterizedTypeReference<>() {};
+
+    private final RestTemplate restTemplate;
+    private final ThingsBoardIntegrationService thingsBoardService;
+
+    @Value("${thingsboard.url}")
+    private String thingsBoardUrl;
+
+    @Value("${thingsboard.telemetry.group-size:100}")
+    private int groupSize;
+
+    @Value("${thingsboard.telemetry.keys-ttl-ms:300000}")
+    private long keysTtlMs;
+
+    // ThingsBoard ID устройства -> ключ телеметрии -> время последнего сохранённого значения
+    private final Map<String, Map<String, Long>> watermarks = new ConcurrentHashMap<>();
+
+    // Кэш ключей телеметрии для групп устройств
+    private final Map<Set<String>, CachedKeys> groupKeys = new ConcurrentHashMap<>();
+
+    // Кэш ключей телеметрии для отдельных устройств (используется резервным способом)
+    private final Map<String, CachedKeys> deviceKeys = new ConcurrentHashMap<>();
+
+    private volatile boolean bulkQueryUnsupported;
+
+    /**
+     * Получает изменившуюся телеметрию для набора устройств
+     * @param deviceIds ThingsBoard ID устройств
+     * @return ThingsBoard ID устройства -> телеметрия; устройства, для которых запрос не удался, отсутствуют
+     */
+    public Map<String, DeviceTelemetry> fetchLatest(Collection<String> deviceIds) {
+        Map<String, DeviceTelemetry> result = new HashMap<>();
+        if (deviceIds.isEmpty() || !thingsBoardService.ensureAuthenticated()) {
+            return result;
+        }
+
+        // Сортировка делает состав групп стабильным между циклами, чтобы работал кэш ключей
+        List<String> ids = new ArrayList<>(new TreeSet<>(deviceIds));
+        groupKeys.values().removeIf(cached -> cached.isExpired(keysTtlMs));
+        deviceKeys.values().removeIf(cached -> cached.isExpired(keysTtlMs));
+        int size = Math.max(1, groupSize);
+        for (int from = 0; from < ids.size(); from += size) {
+            List<String> group = ids.subList(from, Math.min(ids.size(), from + size));
+            if (!bulkQueryUnsupported) {
+                try {
+                    result.putAll(fetchGroup(group));
+                    continue;
+                } catch (RestClientException e) {
+                    log.warn("Пакетный запрос телеметрии не выполнен ({}), используем запросы по устройствам",
+                            e.getMessage());
+                    if (e instanceof HttpClientErrorException.NotFound) {
+                        bulkQueryUnsupported = true;
+                    }
+                }
+            }
+            for (String deviceId : group) {
+                try {
+                    DeviceTelemetry telemetry = fetchDevice(deviceId);
+                    if (telemetry != null) {
+                        result.put(deviceId, telemetry);
+                    }
+                } catch (RestClientException e) {
+                    log.warn("Не удалось получить телеметрию устройства {}: {}", deviceId, e.getMessage());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Сбрасывает водяные знаки устройства, следующий опрос вернёт все значения
+     * @param deviceId ThingsBoard ID устройства
+     */
+    public void resetWatermark(String deviceId) {
+        watermarks.remove(deviceId);
+    }
+
+    /**
+     * Сдвигает водяные знаки устройства после сохранения полученной телеметрии
+     * @param deviceId ThingsBoard ID устройства
+     * @param telemetry Сохранённая телеметрия
+     */
+    public void commitWatermarks(String deviceId, DeviceTelemetry telemetry) {
+        if (telemetry.timestamps().isEmpty()) {
+            return;
+        }
+        Map<String, Long> deviceWatermarks = watermarks.computeIfAbsent(deviceId, id -> new ConcurrentHashMap<>());
+        telemetry.timestamps().forEach((key, ts) -> deviceWatermarks.merge(key, ts, Math::max));
+    }
+
+    /**
+     * Возвращает размер группы устройств, запрашиваемой одним запросом
+     */
+    public int getGroupSize() {
+        return Math.max(1, groupSize);
+    }
+
+    /**
+     * Запрашивает последние значения всех ключей группы устройств одним запросом
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, DeviceTelemetry> fetchGroup(List<String> group) {
+        Set<String> groupId = Set.copyOf(group);
+        CachedKeys cached = groupKeys.get(groupId);
+        boolean keysRefreshed = false;
+        if (cached == null || cached.isExpired(keysTtlMs)) {
+            cached = new CachedKeys(fetchGroupKeys(group), System.nanoTime());
+            groupKeys.put(groupId, cached);
+            keysRefreshed = true;
+        }
+
+        Map<String, DeviceTelemetry> result = new HashMap<>();
+        if (cached.keys().isEmpty()) {
+            for (String deviceId : group) {
+                result.put(deviceId, new DeviceTelemetry(Map.of(), keysRefreshed));
+            }
+            return result;
+        }
+
+        List<Map<String, String>> latestValues = new ArrayList<>(cached.keys().size());
+        for (String key : cached.keys()) {
+            latestValues.add(Map.of("type", "TIME_SERIES", "key", key));
+        }
+
+        int page = 0;
+        boolean hasNext = true;
+        while (hasNext) {
+            Map<String, Object> query = new HashMap<>();
+            query.put("entityFilter", entityListFilter(group));
+            query.put("pageLink", Map.of("page", page, "pageSize", group.size()));
+            query.put("latestValues", latestValues);
+
+            ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
+                    thingsBoardUrl + "/api/entitiesQuery/find",
+                    HttpMethod.POST,
+                    new HttpEntity<>(query, authHeaders()),
+                    ENTITY_DATA_PAGE);
+
+            Map<String, Object> body = response.getBody();
+            if (body == null) {
+                break;
+            }
+
+            List<Map<String, Object>> data = (List<Map<String, Object>>) body.get("data");
+            if (data != null) {
+                for (Map<String, Object> entity : data) {
+                    Map<String, Object> entityId = (Map<String, Object>) entity.get("entityId");
+                    Map<String, Object> latest = (Map<String, Object>) entity.get("latest");
+                    if (entityId == null || entityId.get("id") == null) {
+                        continue;
+                    }
+                    String deviceId = entityId.get("id").toString();
+                    Map<String, Object> timeseries = latest != null
+                            ? (Map<String, Object>) latest.get("TIME_SERIES") : null;
+                    result.put(deviceId, toTelemetry(deviceId, timeseries, keysRefreshed));
+                }
+            }
+
+            hasNext = Boolean.TRUE.equals(body.get("hasNext"));
+            page++;
+        }
+
+        log.debug("Получена телеметрия {} устройств одним запросом ({} ключей)", result.size(), cached.keys().size());
+        return result;
+    }
+
+    /**
+     * Запрашивает объединённый список ключей телеметрии группы устройств
+     */
+    private List<String> fetchGroupKeys(List<String> group) {
+        Map<String, Object> query = new HashMap<>();
+        query.put("entityFilter", entityListFilter(group));
+        query.put("pageLink", Map.of("page", 0, "pageSize", group.size()));
+
+        ResponseEntity<Map<String, List<String>>> response = restTemplate.exchange(
+                thingsBoardUrl + "/api/entitiesQuery/find/keys?timeseries=true&attributes=false",
+                HttpMethod.POST,
+                new HttpEntity<>(query, authHeaders()),
+                ENTITY_KEYS);
+
+        if (response.getBody() == null || response.getBody().get("timeseries") == null) {
+            return List.of();
+        }
+        return new ArrayList<>(response.getBody().get("timeseries"));
+    }
+
+    /**
+     * Резервный способ: запрос изменившихся значений одного устройства начиная с водяного знака
+     * Все ключи запрашиваются одним запросом вместо отдельного запроса на каждый ключ
+     */
+    private DeviceTelemetry fetchDevice(String deviceId) {
+        CachedKeys cached = deviceKeys.get(deviceId);
+        boolean keysRefreshed = false;
+        if (cached == null || cached.isExpired(keysTtlMs)) {
+            ResponseEntity<List<String>> keysResponse = restTemplate.exchange(
+                    thingsBoardUrl + "/api/plugins/telemetry/DEVICE/" + deviceId + "/keys/timeseries",
+                    HttpMethod.GET,
+                    new HttpEntity<>(authHeaders()),
+                    KEY_LIST);
+            List<String> keys = keysResponse.getBody() != null
+                    ? new ArrayList<>(keysResponse.getBody()) : List.of();
+            cached = new CachedKeys(keys, System.nanoTime());
+            deviceKeys.put(deviceId, cached);
+            keysRefreshed = true;
+        }
+
+        if (cached.keys().isEmpty()) {
+            return new DeviceTelemetry(Map.of(), keysRefreshed);
+        }
+
+        // Запрос начинается с самого старого водяного знака среди ключей устройства,
+        // более старые значения отдельных ключей отбрасываются в toTelemetry
+        Map<String, Long> deviceWatermarks = watermarks.getOrDefault(deviceId, Map.of());
+        long startTs = Long.MAX_VALUE;
+        for (String key : cached.keys()) {
+            startTs = Math.min(startTs, deviceWatermarks.getOrDefault(key, 0L) + 1);
+        }
+        String url = thingsBoardUrl + "/api/plugins/telemetry/DEVICE/" + deviceId + "/values/timeseries"
+                + "?keys=" + String.join(",", cached.keys())
+                + "&startTs=" + startTs
+                + "&endTs=" + System.currentTimeMillis()
+                + "&limit=1&agg=NONE&orderBy=DESC";
+
+        ResponseEntity<Map<String, List<Map<String, Object>>>> response = restTemplate.exchange(
+                url,
+                HttpMethod.GET,
+                new HttpEntity<>(authHeaders()),
+                TIMESERIES);
+
+        Map<String, Object> latest = new HashMap<>();
+        if (response.getBody() != null) {
+            response.getBody().forEach((key, values) -> {
+                if (values != null && !values.isEmpty()) {
+                    latest.put(key, values.get(0));
+                }
+            });
+        }
+
+        // При запросе с водяным знаком ответ содержит только изменившиеся ключи,
+        // поэтому удаление отсутствующих ключей здесь не выполняется
+        return toTelemetry(deviceId, latest, false);
+    }
+
+    /**
+     * Отбирает значения новее водяных знаков соответствующих ключей
+     * Водяные знаки не сдвигаются, это делает commitWatermarks после сохранения
+     */
+    @SuppressWarnings("unchecked")
+    DeviceTelemetry toTelemetry(String deviceId, Map<String, Object> timeseries, boolean complete) {
+        Map<String, Long> deviceWatermarks = watermarks.getOrDefault(deviceId, Map.of());
+        Map<String, String> changed = new HashMap<>();
+        Map<String, Long> timestamps = new HashMap<>();
+        Set<String> present = new LinkedHashSet<>();
+
+        if (timeseries != null) {
+            for (Map.Entry<String, Object> entry : timeseries.entrySet()) {
+                if (!(entry.getValue() instanceof Map)) {
+                    continue;
+                }
+                Map<String, Object> tsValue = (Map<String, Object>) entry.getValue();
+                long ts = tsValue.get("ts") instanceof Number number ? number.longValue() : 0L;
+                Object value = tsValue.get("value");
+                // Значение с нулевым временем означает, что у устройства нет такого ключа
+                if (ts <= 0 || value == null) {
+                    continue;
+                }
+                present.add(entry.getKey());
+                if (ts > deviceWatermarks.getOrDefault(entry.getKey(), 0L)) {
+                    changed.put(entry.getKey(), value.toString());
+                    timestamps.put(entry.getKey(), ts);
+                }
+            }
+        }
+
+        return new DeviceTelemetry(changed, complete ? present : null, timestamps);
+    }
+
+    private Map<String, Object> entityListFilter(List<String> deviceIds) {
+        Map<String, Object> filter = new HashMap<>();
+        filter.put("type", "entityList");
+        filter.put("entityType", "DEVICE");
+        filter.put("entityList", deviceIds);
+        return filter;
+    }
+
+    private HttpHeaders authHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("X-Authorization", "Bearer " + thingsBoardService.getAccessToken());
+        return headers;
+    }
+
+    /**
+     * Телеметрия одного устройства
+     * @param changed Значения, изменившиеся с прошлого опроса
+     * @param presentKeys Полный набор ключей устройства, если он известен достоверно, иначе null;
+     *                    используется для удаления свойств, отсутствующих в ThingsBoard
+     * @param timestamps Время изменившихся значений, передаётся в commitWatermarks после сохранения
+     */
+    public record DeviceTelemetry(Map<String, String> changed, Set<String> presentKeys, Map<String, Long> timestamps) {
+
+        DeviceTelemetry(Map<String, String> changed, boolean complete) {
+            this(changed, complete ? Set.of() : null, Map.of());
+        }
+    }
+
+    private record CachedKeys(List<String> keys, long loadedAt) {
+
+        boolean isExpired(long ttlMs) {
+            return System.nanoTime() - loadedAt > TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.Smarthome.controller;
+
+import com.example.Smarthome.service.DeviceEventPublisher;
+import com.example.Smarthome.service.DeviceReadModel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class DeviceControllerTests {
+
+	private final DeviceReadModel deviceReadModel = mock(DeviceReadModel.class);
+	private DeviceEventPublisher deviceEventPublisher;
+	private MockMvc mockMvc;
+
+	@BeforeEach
+	void setUp() {
+		deviceEventPublisher = new DeviceEventPublisher(event -> { });
+		deviceEventPublisher.init();
+		when(deviceReadModel.getAllDevicesJson()).thenAnswer(invocation -> new DeviceReadModel.CachedList(
+				deviceEventPublisher.getCompletedSeq(), "[]".getBytes(StandardCharsets.UTF_8)));
+		DeviceController controller = new DeviceController(null, null, null, null, null,
+				deviceEventPublisher, deviceReadModel, null, null, null, null);
+		mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+	}
+
+	@Test
+	void returnsWeakETagWithLastChangeNumber() throws Exception {
+		deviceEventPublisher.publishUpdate(UUID.randomUUID(), Map.of("power", "on"), Set.of(), null, null);
+
+		mockMvc.perform(get("/api/devices"))
+				.andExpect(status().isOk())
+				.andExpect(header().string("ETag", "W/\"" + deviceEventPublisher.formatEventId(1) + "\""))
+				.andExpect(content().string("[]"));
+	}
+
+	@Test
+	void answersNotModifiedWhileNothingChanged() throws Exception {
+		String etag = mockMvc.perform(get("/api/devices")).andReturn().getResponse().getHeader("ETag");
+
+		mockMvc.perform(get("/api/devices").header("If-None-Match", etag))
+				.andExpect(status().isNotModified())
+				.andExpect(content().string(""));
+	}
+
+	@Test
+	void returnsBodyAfterChange() throws Exception {
+		String etag = mockMvc.perform(get("/api/devices")).andReturn().getResponse().getHeader("ETag");
+		deviceEventPublisher.publishSaved(UUID.randomUUID(), null, null);
+
+		mockMvc.perform(get("/api/devices").header("If-None-Match", etag))
+				.andExpect(status().isOk())
+				.andExpect(header().string("ETag", "W/\"" + deviceEventPublisher.formatEventId(1) + "\""));
+	}
+}
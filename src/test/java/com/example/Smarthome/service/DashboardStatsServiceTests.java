@@ -0,0 +1,177 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.ConnectionProtocol;
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.model.DeviceStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class DashboardStatsServiceTests {
+
+	private final DeviceService deviceService = mock(DeviceService.class);
+	private final DeviceAlertRules alertRules = new DeviceAlertRules();
+	private final DashboardStatsService service = new DashboardStatsService(deviceService, alertRules);
+
+	@BeforeEach
+	void setUp() {
+		ReflectionTestUtils.setField(alertRules, "lowBatteryThreshold", 20.0);
+		ReflectionTestUtils.setField(alertRules, "securityAlerts", new String[] { "motion:detected", "door:open" });
+		alertRules.init();
+		ReflectionTestUtils.setField(service, "senderThreads", 2);
+		ReflectionTestUtils.setField(service, "sendTimeoutMs", 50L);
+		service.init();
+	}
+
+	@AfterEach
+	void tearDown() {
+		service.shutdown();
+	}
+
+	private static Device device(DeviceStatus status, Map<String, String> properties) {
+		Device device = new Device();
+		device.setId(UUID.randomUUID());
+		device.setName("sensor");
+		device.setProtocol(ConnectionProtocol.MQTT);
+		device.setStatus(status);
+		device.setProperties(new HashMap<>(properties));
+		return device;
+	}
+
+	private static DeviceChangeEvent updated(UUID deviceId, Map<String, String> properties, DeviceStatus status) {
+		return new DeviceChangeEvent(1, deviceId, DeviceChangeEvent.Type.UPDATED, properties, Set.of(), status, null);
+	}
+
+	@Test
+	void countersFollowDeviceChanges() {
+		Device sensor = device(DeviceStatus.ONLINE, Map.of("battery", "50", "motion", "idle"));
+		when(deviceService.getAllDevices()).thenReturn(List.of(sensor));
+		service.loadCounters();
+
+		service.onDeviceChange(updated(sensor.getId(), Map.of("battery", "10", "motion", "detected"), null));
+		Map<String, Object> dashboard = service.getDashboard();
+		assertEquals(1, dashboard.get("onlineDevices"));
+		assertEquals(1, dashboard.get("lowBatteryDevices"));
+		assertEquals(Map.of("motion", 1), dashboard.get("securityEventsByType"));
+
+		service.onDeviceChange(updated(sensor.getId(), Map.of("motion", "idle"), DeviceStatus.OFFLINE));
+		dashboard = service.getDashboard();
+		assertEquals(0, dashboard.get("onlineDevices"));
+		assertEquals(1, dashboard.get("offlineDevices"));
+		assertEquals(1, dashboard.get("lowBatteryDevices"));
+		assertEquals(0, dashboard.get("activeSecurityEvents"));
+	}
+
+	@Test
+	void eventsDuringLoadAreNotOverwrittenBySnapshot() {
+		Device sensor = device(DeviceStatus.ONLINE, Map.of("door", "open"));
+		when(deviceService.getAllDevices()).thenAnswer(invocation -> {
+			// Изменение приходит после чтения снимка, но до его применения
+			service.onDeviceChange(updated(sensor.getId(), Map.of("door", "closed"), DeviceStatus.OFFLINE));
+			return List.of(sensor);
+		});
+
+		service.loadCounters();
+
+		Map<String, Object> dashboard = service.getDashboard();
+		assertEquals(1, dashboard.get("totalDevices"));
+		assertEquals(0, dashboard.get("onlineDevices"));
+		assertEquals(0, dashboard.get("activeSecurityEvents"));
+		assertEquals(Map.of("MQTT", Map.of("total", 1, "online", 0, "offline", 1, "statuses", Map.of("OFFLINE", 1))),
+				dashboard.get("protocols"));
+	}
+
+	@Test
+	void deletionDuringLoadRemovesDevice() {
+		Device sensor = device(DeviceStatus.ONLINE, Map.of());
+		when(deviceService.getAllDevices()).thenAnswer(invocation -> {
+			service.onDeviceChange(new DeviceChangeEvent(1, sensor.getId(), DeviceChangeEvent.Type.DELETED,
+					Map.of(), Set.of(), null, null));
+			return List.of(sensor);
+		});
+
+		service.loadCounters();
+
+		assertEquals(0, service.getDashboard().get("totalDevices"));
+	}
+
+	@Test
+	void failedLoadStillAppliesEvents() {
+		UUID deviceId = UUID.randomUUID();
+		when(deviceService.getAllDevices()).thenThrow(new RuntimeException("db down"));
+		service.onDeviceChange(updated(deviceId, Map.of(), DeviceStatus.ONLINE));
+
+		service.loadCounters();
+
+		assertEquals(1, service.getDashboard().get("onlineDevices"));
+	}
+
+	@Test
+	void clientKeepsOnlyLatestDashboardWhileSending() {
+		DashboardStatsService.Client client = new DashboardStatsService.Client(new SseEmitter());
+
+		assertTrue(client.offer(Map.of("version", 1L)));
+		// Отправка уже запланирована: новая сводка заменяет неотправленную
+		assertFalse(client.offer(Map.of("version", 2L)));
+
+		assertEquals(Map.of("version", 2L), client.take());
+		assertNull(client.take());
+		assertTrue(client.offer(Map.of("version", 3L)));
+	}
+
+	@Test
+	void stalledClientIsDroppedWithoutBlockingOthers() throws Exception {
+		when(deviceService.getAllDevices()).thenReturn(List.of(device(DeviceStatus.ONLINE, Map.of())));
+		service.loadCounters();
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch stalledStarted = new CountDownLatch(1);
+		CountDownLatch delivered = new CountDownLatch(1);
+		SseEmitter stalled = new SseEmitter() {
+			@Override
+			public void send(SseEventBuilder builder) {
+				stalledStarted.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		SseEmitter healthy = new SseEmitter() {
+			@Override
+			public void send(SseEventBuilder builder) {
+				delivered.countDown();
+			}
+		};
+		@SuppressWarnings("unchecked")
+		Set<DashboardStatsService.Client> clients =
+				(Set<DashboardStatsService.Client>) ReflectionTestUtils.getField(service, "clients");
+		clients.add(new DashboardStatsService.Client(stalled));
+		clients.add(new DashboardStatsService.Client(healthy));
+
+		try {
+			service.push();
+			assertTrue(stalledStarted.await(5, TimeUnit.SECONDS));
+			assertTrue(delivered.await(5, TimeUnit.SECONDS));
+
+			Thread.sleep(100);
+			service.push();
+			assertEquals(1, service.getClientCount());
+		} finally {
+			release.countDown();
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.dto.DeviceCommandBatchRequest;
+import com.example.Smarthome.model.ConnectionProtocol;
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.service.DeviceCommandBatchService.CommandResult;
+import com.example.Smarthome.service.DeviceStateStore.PropertyDiff;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class DeviceCommandBatchServiceTests {
+
+	private final DeviceService deviceService = mock(DeviceService.class);
+	private final ProtocolAdapterService protocolAdapterService = mock(ProtocolAdapterService.class);
+	private final DeviceStateStore deviceStateStore = mock(DeviceStateStore.class);
+	private final ThingsBoardIntegrationService thingsBoardService = mock(ThingsBoardIntegrationService.class);
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private final ThreadPoolExecutor pushExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(1));
+	private final DeviceCommandBatchService service = new DeviceCommandBatchService(deviceService,
+			protocolAdapterService, deviceStateStore, mock(DeviceLivenessTracker.class),
+			thingsBoardService, executor, pushExecutor);
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdownNow();
+		pushExecutor.shutdownNow();
+	}
+
+	private static Device device(ConnectionProtocol protocol, DeviceStatus status) {
+		Device device = new Device();
+		device.setId(UUID.randomUUID());
+		device.setName("device");
+		device.setProtocol(protocol);
+		device.setStatus(status);
+		return device;
+	}
+
+	private static DeviceCommandBatchRequest.Item item(UUID deviceId, String command, Map<String, String> parameters) {
+		DeviceCommandBatchRequest.Item item = new DeviceCommandBatchRequest.Item();
+		item.setDeviceId(deviceId);
+		item.setCommand(command);
+		item.setParameters(parameters);
+		return item;
+	}
+
+	private static DeviceCommandBatchRequest.Item item(Device device, String command) {
+		return item(device.getId(), command, Map.of());
+	}
+
+	@Test
+	void resultsKeepRequestOrder() throws Exception {
+		Device lamp = device(ConnectionProtocol.VIRTUAL, DeviceStatus.OFFLINE);
+		Device sensor = device(ConnectionProtocol.MQTT, DeviceStatus.OFFLINE);
+		Device plug = device(ConnectionProtocol.MQTT, DeviceStatus.ONLINE);
+		UUID missing = UUID.randomUUID();
+		when(deviceService.getDevicesByIds(any())).thenReturn(List.of(lamp, sensor, plug));
+		when(protocolAdapterService.sendCommandsAsync(anyList()))
+				.thenReturn(CompletableFuture.completedFuture(List.of(true, false)));
+		when(deviceStateStore.getProperties(lamp.getId())).thenReturn(Optional.of(Map.of("power", "on")));
+
+		List<CommandResult> results = service.execute(List.of(
+				item(lamp.getId(), "turn_on", Map.of()),
+				item(missing, "turn_on", Map.of()),
+				item(sensor, "turn_on"),
+				item(plug.getId(), "turn_on", Map.of()))).get(5, TimeUnit.SECONDS);
+
+		assertEquals(4, results.size());
+		assertTrue(results.get(0).success());
+		assertEquals(Map.of("power", "on"), results.get(0).properties());
+		assertFalse(results.get(1).success());
+		assertEquals(missing, results.get(1).deviceId());
+		assertFalse(results.get(2).success());
+		assertTrue(results.get(2).error().contains("OFFLINE"));
+		assertFalse(results.get(3).success());
+		assertEquals(plug.getId(), results.get(3).deviceId());
+	}
+
+	@Test
+	void attributeParametersAreRejected() throws Exception {
+		Device lamp = device(ConnectionProtocol.VIRTUAL, DeviceStatus.ONLINE);
+		when(deviceService.getDevicesByIds(any())).thenReturn(List.of(lamp));
+		when(protocolAdapterService.sendCommandsAsync(List.of()))
+				.thenReturn(CompletableFuture.completedFuture(List.of()));
+
+		List<CommandResult> results = service.execute(List.of(
+				item(lamp.getId(), "setState", Map.of("attr_mode", "eco")))).get(5, TimeUnit.SECONDS);
+
+		assertFalse(results.get(0).success());
+		verify(protocolAdapterService).sendCommandsAsync(List.of());
+	}
+
+	@Test
+	void stateChangesAreFlushedOnceAfterAdapterCallbacks() throws Exception {
+		Device lamp = device(ConnectionProtocol.VIRTUAL, DeviceStatus.ONLINE);
+		when(deviceService.getDevicesByIds(any())).thenReturn(List.of(lamp));
+		CompletableFuture<List<Boolean>> outcomes = new CompletableFuture<>();
+		when(protocolAdapterService.sendCommandsAsync(anyList())).thenReturn(outcomes);
+		when(deviceStateStore.updateProperties(eq(lamp.getId()), any()))
+				.thenReturn(Optional.of(new PropertyDiff(Map.of("power", "on"), Set.of())))
+				.thenReturn(Optional.of(new PropertyDiff(Map.of("level", "5"), Set.of())));
+
+		CompletableFuture<List<CommandResult>> result = service.execute(List.of(
+				item(lamp.getId(), "setState", Map.of("power", "on")),
+				item(lamp.getId(), "setState", Map.of("level", "5"))));
+		outcomes.complete(List.of(true, true));
+		List<CommandResult> results = result.get(5, TimeUnit.SECONDS);
+
+		assertTrue(results.get(0).success());
+		assertTrue(results.get(1).success());
+		verify(deviceStateStore, times(2)).updateProperties(eq(lamp.getId()), any());
+		verify(deviceStateStore).flush(Set.of(lamp.getId()));
+	}
+
+	@Test
+	void fullThingsBoardPushQueueDoesNotFailCommands() throws Exception {
+		Device lamp = device(ConnectionProtocol.VIRTUAL, DeviceStatus.ONLINE);
+		when(deviceService.getDevicesByIds(any())).thenReturn(List.of(lamp));
+		when(protocolAdapterService.sendCommandsAsync(anyList()))
+				.thenReturn(CompletableFuture.completedFuture(List.of(true)));
+		when(deviceStateStore.updateProperties(eq(lamp.getId()), any()))
+				.thenReturn(Optional.of(new PropertyDiff(Map.of("power", "on"), Set.of())));
+		when(deviceStateStore.getSnapshot(lamp.getId())).thenReturn(Optional.of(new DeviceStateStore.DeviceSnapshot(
+				lamp.getId(), "lamp", "token", DeviceStatus.ONLINE, LocalDateTime.now(), Map.of("power", "on"))));
+		// Занимаем поток и очередь пула отправки в ThingsBoard
+		CountDownLatch release = new CountDownLatch(1);
+		Runnable blocker = () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		};
+		pushExecutor.execute(blocker);
+		pushExecutor.execute(blocker);
+
+		List<CommandResult> results = service.execute(List.of(
+				item(lamp.getId(), "setState", Map.of("power", "on")))).get(5, TimeUnit.SECONDS);
+		release.countDown();
+
+		assertTrue(results.get(0).success());
+		verify(deviceStateStore).flush(Set.of(lamp.getId()));
+		verifyNoInteractions(thingsBoardService);
+	}
+}
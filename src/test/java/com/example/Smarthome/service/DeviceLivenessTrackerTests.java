@@ -0,0 +1,103 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.repository.DeviceStateJdbcRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DeviceLivenessTrackerTests {
+
+	private static final long TIMEOUT_MS = 60;
+	private static final long TICK_MS = 10;
+
+	private final UUID deviceId = UUID.randomUUID();
+	private final DeviceStateJdbcRepository repository = mock(DeviceStateJdbcRepository.class);
+	private DeviceStateStore store;
+	private DeviceLivenessTracker tracker;
+
+	@BeforeEach
+	void setUp() {
+		when(repository.findDevice(deviceId)).thenReturn(Optional.of(
+				new DeviceStateJdbcRepository.DeviceRow("sensor", DeviceStatus.OFFLINE, null, null)));
+		when(repository.findProperties(deviceId)).thenReturn(Map.of());
+
+		DeviceEventPublisher publisher = new DeviceEventPublisher(event -> tracker.onDeviceChange((DeviceChangeEvent) event));
+		publisher.init();
+		store = new DeviceStateStore(repository, new TransactionTemplate(mock(PlatformTransactionManager.class)),
+				publisher, new SimpleMeterRegistry());
+		store.init();
+
+		tracker = new DeviceLivenessTracker(store, repository, new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(tracker, "timeoutMs", TIMEOUT_MS);
+		ReflectionTestUtils.setField(tracker, "tickMs", TICK_MS);
+		ReflectionTestUtils.setField(tracker, "wheelSize", 16);
+		ReflectionTestUtils.setField(tracker, "shardCount", 2);
+		tracker.init();
+	}
+
+	@Test
+	void marksSilentDeviceOfflineAfterTimeout() throws InterruptedException {
+		assertTrue(tracker.heartbeat(deviceId));
+		assertEquals(1, tracker.getTrackedCount());
+
+		Thread.sleep(TIMEOUT_MS + 3 * TICK_MS);
+		tracker.advance();
+
+		assertEquals(DeviceStatus.OFFLINE, status());
+		assertEquals(0, tracker.getTrackedCount());
+	}
+
+	@Test
+	void keepsDeviceOnlineWhileHeartbeatsArrive() throws InterruptedException {
+		tracker.heartbeat(deviceId);
+		for (int i = 0; i < 5; i++) {
+			Thread.sleep(TIMEOUT_MS / 2);
+			tracker.heartbeat(deviceId);
+			tracker.advance();
+		}
+
+		assertEquals(DeviceStatus.ONLINE, status());
+		assertEquals(1, tracker.getTrackedCount());
+	}
+
+	@Test
+	void heartbeatBetweenExpiryAndStatusChangeKeepsDeviceOnline() throws InterruptedException {
+		tracker.heartbeat(deviceId);
+		Thread.sleep(TIMEOUT_MS + 3 * TICK_MS);
+		// Ответ зафиксирован в хранилище, но срок в колесе ещё не перенесён
+		store.markSeen(deviceId, DeviceStatus.ONLINE, LocalDateTime.now());
+
+		tracker.advance();
+
+		assertEquals(DeviceStatus.ONLINE, status());
+		assertEquals(1, tracker.getTrackedCount());
+	}
+
+	@Test
+	void expireStatusIgnoresDevicesSeenAfterCutoff() {
+		store.markSeen(deviceId, DeviceStatus.ONLINE, LocalDateTime.now());
+
+		assertFalse(store.expireStatus(deviceId, LocalDateTime.now().minusSeconds(1)));
+		assertTrue(store.expireStatus(deviceId, LocalDateTime.now().plusSeconds(1)));
+		assertEquals(DeviceStatus.OFFLINE, status());
+	}
+
+	private DeviceStatus status() {
+		return store.getSnapshot(deviceId).orElseThrow().status();
+	}
+}
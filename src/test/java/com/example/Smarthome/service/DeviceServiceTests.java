@@ -0,0 +1,114 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.repository.DeviceRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DeviceServiceTests {
+
+	private static final String THINGSBOARD_ID = "5f2c1a40-3b7e-11ef-9a3c-0242ac120002";
+
+	private final DeviceRepository deviceRepository = mock(DeviceRepository.class);
+	private final ThingsBoardIntegrationService thingsBoardService = mock(ThingsBoardIntegrationService.class);
+	private final DeviceStateStore deviceStateStore = mock(DeviceStateStore.class);
+	private DeviceService deviceService;
+
+	@BeforeEach
+	void setUp() {
+		when(deviceStateStore.overlay(any())).thenAnswer(invocation -> invocation.getArgument(0));
+		deviceService = new DeviceService(deviceRepository, null, thingsBoardService, null,
+				deviceStateStore, mock(DeviceEventPublisher.class));
+	}
+
+	@Test
+	void findsSingleDeviceByStoredIdWithoutThingsBoard() {
+		Device device = device("token-a");
+		when(deviceRepository.findByThingsboardDeviceId(THINGSBOARD_ID)).thenReturn(List.of(device));
+
+		assertEquals(Optional.of(device), deviceService.findByThingsBoardId(THINGSBOARD_ID));
+		verify(thingsBoardService, never()).getTokenByDeviceId(anyString());
+	}
+
+	@Test
+	void resolvesDuplicateIdsByThingsBoardToken() {
+		Device stale = device("token-a");
+		Device current = device("token-b");
+		when(deviceRepository.findByThingsboardDeviceId(THINGSBOARD_ID)).thenReturn(List.of(stale, current));
+		when(thingsBoardService.getTokenByDeviceId(THINGSBOARD_ID)).thenReturn("token-b");
+
+		assertEquals(Optional.of(current), deviceService.findByThingsBoardId(THINGSBOARD_ID));
+	}
+
+	@Test
+	void fallsBackToFirstDuplicateWhenTokenIsUnknown() {
+		Device first = device("token-a");
+		when(deviceRepository.findByThingsboardDeviceId(THINGSBOARD_ID)).thenReturn(List.of(first, device("token-b")));
+		when(thingsBoardService.getTokenByDeviceId(THINGSBOARD_ID)).thenReturn(null);
+
+		assertEquals(Optional.of(first), deviceService.findByThingsBoardId(THINGSBOARD_ID));
+	}
+
+	@Test
+	void looksUpByTokenWhenIdIsNotStored() {
+		Device device = device("token-a");
+		when(deviceRepository.findByThingsboardDeviceId(THINGSBOARD_ID)).thenReturn(List.of());
+		when(thingsBoardService.getTokenByDeviceId(THINGSBOARD_ID)).thenReturn("token-a");
+		when(deviceRepository.findByThingsboardToken("token-a")).thenReturn(Optional.of(device));
+
+		assertEquals(Optional.of(device), deviceService.findByThingsBoardId(THINGSBOARD_ID));
+	}
+
+	@Test
+	void statusUpdateKeepsUnflushedState() {
+		Device device = device("token-a");
+		when(deviceRepository.findById(device.getId())).thenReturn(Optional.of(device));
+		when(deviceRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+		// Хранилище содержит свойство, ещё не записанное в базу
+		when(deviceStateStore.overlay(device)).thenAnswer(invocation -> {
+			device.getProperties().put("power", "on");
+			device.setStateVersion(7L);
+			return device;
+		});
+
+		Device saved = deviceService.updateDeviceStatus(device.getId(), DeviceStatus.ONLINE);
+
+		assertEquals("on", saved.getProperties().get("power"));
+		verify(deviceStateStore).sync(saved, 7L);
+	}
+
+	@Test
+	void filtersByStatusFromStateStore() {
+		Device online = device("token-a");
+		Device stale = device("token-b");
+		when(deviceStateStore.getStatuses()).thenReturn(new HashMap<>(Map.of(
+				online.getId(), DeviceStatus.ONLINE, stale.getId(), DeviceStatus.OFFLINE)));
+		online.setStatus(DeviceStatus.ONLINE);
+		when(deviceRepository.findAllById(List.of(online.getId()))).thenReturn(List.of(online));
+
+		assertEquals(List.of(online), deviceService.getDevicesByStatus(DeviceStatus.ONLINE));
+	}
+
+	private static Device device(String token) {
+		Device device = new Device();
+		device.setId(UUID.randomUUID());
+		device.setThingsboardDeviceId(THINGSBOARD_ID);
+		device.setThingsboardToken(token);
+		return device;
+	}
+}
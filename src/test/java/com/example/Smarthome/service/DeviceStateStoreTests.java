@@ -0,0 +1,182 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.repository.DeviceStateJdbcRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DeviceStateStoreTests {
+
+	private final UUID deviceId = UUID.randomUUID();
+	private final DeviceStateJdbcRepository repository = mock(DeviceStateJdbcRepository.class);
+	private final List<Runnable> listeners = new ArrayList<>();
+	private DeviceEventPublisher publisher;
+	private DeviceStateStore store;
+
+	@BeforeEach
+	void setUp() {
+		when(repository.findDevice(deviceId)).thenReturn(Optional.of(
+				new DeviceStateJdbcRepository.DeviceRow("lamp", DeviceStatus.ONLINE, LocalDateTime.now(), null)));
+		when(repository.findProperties(deviceId)).thenReturn(new HashMap<>(Map.of("power", "off")));
+
+		ApplicationEventPublisher applicationEventPublisher = event -> listeners.forEach(Runnable::run);
+		publisher = new DeviceEventPublisher(applicationEventPublisher);
+		publisher.init();
+		store = new DeviceStateStore(repository, new TransactionTemplate(mock(PlatformTransactionManager.class)),
+				publisher, new SimpleMeterRegistry());
+		store.init();
+	}
+
+	@Test
+	void flushesOnlyChangedKeys() {
+		store.updateProperties(deviceId, Map.of("power", "on", "level", "50"));
+		store.updateProperties(deviceId, Map.of("power", "on"));
+
+		store.flush();
+
+		verify(repository).upsertProperties(Map.of(deviceId, Map.of("power", "on", "level", "50")));
+		assertEquals(0, store.getDirtyCount());
+
+		reset(repository);
+		store.flush();
+		verify(repository, never()).upsertProperties(anyMap());
+	}
+
+	@Test
+	void requeuesChangesWhenFlushFails() {
+		store.updateProperties(deviceId, Map.of("power", "on"));
+		doThrow(new IllegalStateException("db down")).when(repository).upsertProperties(anyMap());
+
+		store.flush();
+		assertEquals(1, store.getDirtyCount());
+
+		reset(repository);
+		store.flush();
+		verify(repository).upsertProperties(Map.of(deviceId, Map.of("power", "on")));
+	}
+
+	@Test
+	void syncKeepsValuesChangedAfterEntityWasRead() {
+		Device device = store.overlay(entity(Map.of("power", "off")));
+		// Значение пришло по MQTT, пока сущность редактировалась
+		store.updateProperties(deviceId, Map.of("power", "on"));
+		store.flush();
+		device.getProperties().put("name_tag", "kitchen");
+
+		store.sync(device, device.getStateVersion());
+
+		Map<String, String> properties = store.getProperties(deviceId).orElseThrow();
+		assertEquals("on", properties.get("power"));
+		assertEquals("kitchen", properties.get("name_tag"));
+		// JPA записала устаревшее значение, поэтому актуальное ставится в очередь повторно
+		reset(repository);
+		store.flush();
+		verify(repository).upsertProperties(Map.of(deviceId, Map.of("power", "on")));
+	}
+
+	@Test
+	void syncKeepsKeysAddedAfterEntityWasRead() {
+		Device device = store.overlay(entity(Map.of("power", "off")));
+		store.updateProperties(deviceId, Map.of("temperature", "21.5"));
+
+		store.sync(device, device.getStateVersion());
+
+		assertEquals("21.5", store.getProperties(deviceId).orElseThrow().get("temperature"));
+	}
+
+	@Test
+	void syncAppliesEntityRemovalsOfUnchangedKeys() {
+		store.getProperties(deviceId);
+		Device device = store.overlay(entity(Map.of("power", "off")));
+		device.getProperties().remove("power");
+
+		store.sync(device, device.getStateVersion());
+
+		assertFalse(store.getProperties(deviceId).orElseThrow().containsKey("power"));
+	}
+
+	@Test
+	void scopedReplaceKeepsKeysOutsideScope() {
+		store.updateProperties(deviceId, Map.of("tb_temperature", "20", "mqtt_level", "3"));
+
+		DeviceStateStore.PropertyDiff diff = store.replaceProperties(deviceId, Map.of("tb_humidity", "40"),
+				key -> key.startsWith("tb_")).orElseThrow();
+
+		assertEquals(Set.of("tb_temperature"), diff.removed());
+		Map<String, String> properties = store.getProperties(deviceId).orElseThrow();
+		assertEquals("3", properties.get("mqtt_level"));
+		assertEquals("off", properties.get("power"));
+		assertEquals("40", properties.get("tb_humidity"));
+	}
+
+	@Test
+	void notifiesListenersAfterReleasingDeviceLock() {
+		// Слушатель читает состояние того же устройства из другого потока: если бы событие
+		// публиковалось под монитором состояния, чтение ждало бы его освобождения
+		List<Map<String, String>> seen = new ArrayList<>();
+		listeners.add(() -> seen.add(CompletableFuture.supplyAsync(() -> store.getProperties(deviceId).orElseThrow())
+				.orTimeout(2, TimeUnit.SECONDS)
+				.join()));
+
+		store.updateProperties(deviceId, Map.of("power", "on"));
+		store.updateStatus(deviceId, DeviceStatus.OFFLINE);
+
+		assertEquals(2, seen.size());
+		assertEquals("on", seen.get(0).get("power"));
+	}
+
+	@Test
+	void completesSequenceOnlyAfterDispatch() {
+		listeners.add(() -> assertEquals(0, publisher.getCompletedSeq()));
+
+		store.updateProperties(deviceId, Map.of("power", "on"));
+
+		assertEquals(1, publisher.getLastSeq());
+		assertEquals(1, publisher.getCompletedSeq());
+	}
+
+	@Test
+	void publishesNothingWhenValuesAreUnchanged() {
+		store.updateProperties(deviceId, Map.of("power", "off"));
+		store.updateStatus(deviceId, DeviceStatus.ONLINE);
+
+		assertEquals(0, publisher.getLastSeq());
+		assertTrue(publisher.getEventsSince(0).orElseThrow().isEmpty());
+	}
+
+	private Device entity(Map<String, String> properties) {
+		Device device = new Device();
+		device.setId(deviceId);
+		device.setName("lamp");
+		device.setStatus(DeviceStatus.ONLINE);
+		device.setProperties(new HashMap<>(properties));
+		return device;
+	}
+}
@@ -0,0 +1,48 @@
+package com.example.Smarthome.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeviceStreamServiceTests {
+
+	@Test
+	void boundsClientQueueByDeviceCount() {
+		DeviceStreamService.Client client = new DeviceStreamService.Client(new SseEmitter(), 2);
+		UUID first = UUID.randomUUID();
+		UUID second = UUID.randomUUID();
+
+		assertTrue(client.enqueue(event(1, first, "power", "on")));
+		assertTrue(client.enqueue(event(2, second, "power", "on")));
+		// Изменения уже ожидающего устройства объединяются и не увеличивают очередь
+		assertTrue(client.enqueue(event(3, first, "level", "50")));
+		assertFalse(client.enqueue(event(4, UUID.randomUUID(), "power", "on")));
+
+		assertEquals(2, client.takePending().size());
+	}
+
+	@Test
+	void mergesQueuedChangesOfOneDevice() {
+		DeviceStreamService.Client client = new DeviceStreamService.Client(new SseEmitter(), 10);
+		UUID deviceId = UUID.randomUUID();
+
+		client.enqueue(event(2, deviceId, "level", "50"));
+		client.enqueue(event(1, deviceId, "power", "on"));
+
+		DeviceChangeEvent merged = client.takePending().get(0);
+		assertEquals(Map.of("power", "on", "level", "50"), merged.properties());
+		assertEquals(2, merged.seq());
+	}
+
+	private static DeviceChangeEvent event(long seq, UUID deviceId, String key, String value) {
+		return new DeviceChangeEvent(seq, deviceId, DeviceChangeEvent.Type.UPDATED, Map.of(key, value), Set.of(),
+				null, null);
+	}
+}
@@ -0,0 +1,165 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.model.EnergyResolution;
+import com.example.Smarthome.repository.DeviceStateJdbcRepository;
+import com.example.Smarthome.repository.DeviceStateJdbcRepository.Placement;
+import com.example.Smarthome.repository.EnergyRollupJdbcRepository;
+import com.example.Smarthome.repository.EnergyRollupJdbcRepository.RollupRow;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class EnergyRollupServiceTests {
+
+	private static final long MINUTE_MS = 60_000L;
+
+	private final EnergyRollupJdbcRepository rollupRepository = mock(EnergyRollupJdbcRepository.class);
+	private final DeviceStateJdbcRepository deviceStateRepository = mock(DeviceStateJdbcRepository.class);
+	private final EnergyRollupService service = new EnergyRollupService(rollupRepository, deviceStateRepository);
+
+	private final UUID deviceId = UUID.randomUUID();
+	private final UUID roomId = UUID.randomUUID();
+	private final UUID locationId = UUID.randomUUID();
+
+	@BeforeEach
+	void setUp() {
+		ReflectionTestUtils.setField(service, "powerKeys", new String[] { "power_consumption" });
+		ReflectionTestUtils.setField(service, "maxGapMs", 15 * MINUTE_MS);
+		ReflectionTestUtils.setField(service, "retentionMinutes", 1440);
+		ReflectionTestUtils.setField(service, "retentionHours", 2232);
+		ReflectionTestUtils.setField(service, "retentionDays", 800);
+		ReflectionTestUtils.setField(service, "retentionMonths", 120);
+		service.init();
+		when(deviceStateRepository.findPlacements()).thenReturn(Map.of(deviceId, new Placement(roomId, locationId)));
+	}
+
+	private void power(String watts) {
+		service.onDeviceChange(new DeviceChangeEvent(1, deviceId, DeviceChangeEvent.Type.UPDATED,
+				Map.of("power_consumption", watts), Set.of(), DeviceStatus.ONLINE, null));
+	}
+
+	// Сдвигает время последнего учёта назад, как будто мощность держалась указанное время
+	@SuppressWarnings("unchecked")
+	private void elapse(long ms) {
+		Object meter = ((Map<UUID, Object>) ReflectionTestUtils.getField(service, "meters")).get(deviceId);
+		long lastTs = (long) ReflectionTestUtils.getField(meter, "lastTs");
+		ReflectionTestUtils.setField(meter, "lastTs", lastTs - ms);
+	}
+
+	private double total(String scope, EnergyResolution resolution) {
+		return service.getTotal(scope, resolution, 0, Long.MAX_VALUE);
+	}
+
+	@Test
+	void energyIsAddedToEveryScopeAndResolution() {
+		service.loadRollups();
+		power("1000");
+		elapse(6 * MINUTE_MS);
+		service.tick();
+
+		// 1000 Вт в течение 6 минут = 100 Вт·ч
+		for (String scope : List.of(EnergyRollupService.deviceScope(deviceId), EnergyRollupService.roomScope(roomId),
+				EnergyRollupService.locationScope(locationId), EnergyRollupService.TOTAL_SCOPE)) {
+			for (EnergyResolution resolution : EnergyResolution.values()) {
+				assertEquals(100.0, total(scope, resolution), 0.5, scope + " " + resolution);
+			}
+		}
+		assertEquals(100.0, service.getTotals("room:", EnergyResolution.DAY, 0, Long.MAX_VALUE).get(roomId), 0.5);
+	}
+
+	@Test
+	void gapLongerThanLimitIsCapped() {
+		service.loadRollups();
+		power("1000");
+		elapse(60 * MINUTE_MS);
+		service.tick();
+
+		assertEquals(250.0, total(EnergyRollupService.TOTAL_SCOPE, EnergyResolution.HOUR), 0.5);
+	}
+
+	@Test
+	void offlineDeviceDoesNotConsume() {
+		service.loadRollups();
+		power("1000");
+		service.onDeviceChange(new DeviceChangeEvent(2, deviceId, DeviceChangeEvent.Type.UPDATED,
+				Map.of(), Set.of(), DeviceStatus.OFFLINE, null));
+		elapse(6 * MINUTE_MS);
+		service.tick();
+
+		assertEquals(0.0, total(EnergyRollupService.TOTAL_SCOPE, EnergyResolution.MINUTE), 0.001);
+	}
+
+	@Test
+	void nothingIsPersistedBeforeStoredRollupsAreLoaded() {
+		power("1000");
+		elapse(MINUTE_MS);
+		service.tick();
+
+		verify(rollupRepository, never()).upsert(any());
+	}
+
+	@Test
+	void loadedRollupsAreAddedToAndPersistedWithoutMinutes() {
+		long hour = System.currentTimeMillis() / (60 * MINUTE_MS) * (60 * MINUTE_MS);
+		when(rollupRepository.findSince(any(), anyLong())).thenReturn(List.of());
+		when(rollupRepository.findSince(eq(EnergyResolution.HOUR), anyLong())).thenReturn(List.of(
+				new RollupRow(EnergyRollupService.TOTAL_SCOPE, EnergyResolution.HOUR, hour, 40.0)));
+		service.loadRollups();
+		assertEquals(40.0, total(EnergyRollupService.TOTAL_SCOPE, EnergyResolution.HOUR), 0.001);
+
+		power("1000");
+		elapse(MINUTE_MS);
+		service.tick();
+
+		ArgumentCaptor<List<RollupRow>> rows = ArgumentCaptor.captor();
+		verify(rollupRepository).upsert(rows.capture());
+		assertTrue(rows.getValue().stream().noneMatch(row -> row.resolution() == EnergyResolution.MINUTE));
+		assertEquals(Set.of(EnergyRollupService.deviceScope(deviceId), EnergyRollupService.roomScope(roomId),
+						EnergyRollupService.locationScope(locationId), EnergyRollupService.TOTAL_SCOPE),
+				rows.getValue().stream().map(RollupRow::scopeKey).collect(Collectors.toSet()));
+		assertEquals(40.0 + 1000.0 / 60, total(EnergyRollupService.TOTAL_SCOPE, EnergyResolution.HOUR), 0.5);
+	}
+
+	@Test
+	void failedWriteIsRetriedOnNextTick() {
+		service.loadRollups();
+		power("1000");
+		elapse(MINUTE_MS);
+		doThrow(new RuntimeException("db down")).doNothing().when(rollupRepository).upsert(any());
+		service.tick();
+		service.tick();
+
+		ArgumentCaptor<List<RollupRow>> rows = ArgumentCaptor.captor();
+		verify(rollupRepository, times(2)).upsert(rows.capture());
+		assertEquals(rows.getAllValues().get(0).size(), rows.getAllValues().get(1).size());
+	}
+
+	@Test
+	void deletedDeviceScopeIsDropped() {
+		service.loadRollups();
+		power("1000");
+		elapse(MINUTE_MS);
+		service.tick();
+
+		service.onDeviceChange(new DeviceChangeEvent(2, deviceId, DeviceChangeEvent.Type.DELETED,
+				Map.of(), Set.of(), null, null));
+		service.tick();
+
+		assertEquals(0.0, total(EnergyRollupService.deviceScope(deviceId), EnergyResolution.HOUR), 0.001);
+		verify(rollupRepository).deleteScope(EnergyRollupService.deviceScope(deviceId));
+	}
+}
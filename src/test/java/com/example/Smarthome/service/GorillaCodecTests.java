@@ -0,0 +1,59 @@
+package com.example.Smarthome.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GorillaCodecTests {
+
+	@Test
+	void roundTripsIrregularSeries() {
+		Random random = new Random(7);
+		List<long[]> expected = new ArrayList<>();
+		GorillaCodec.Encoder encoder = new GorillaCodec.Encoder(16);
+		long timestamp = 1_700_000_000_000L;
+		double value = 45.0;
+		for (int i = 0; i < 5000; i++) {
+			// Равномерные интервалы вперемешку с пропусками и всплесками
+			timestamp += switch (i % 7) {
+				case 0 -> random.nextInt(5_000_000);
+				case 1 -> random.nextInt(3000);
+				default -> 30_000;
+			};
+			value = switch (i % 5) {
+				case 0 -> random.nextGaussian() * 1e6;
+				case 1 -> Double.NaN;
+				case 2 -> value;
+				default -> Math.round(value + random.nextGaussian() * 10) / 10.0;
+			};
+			encoder.append(timestamp, value);
+			expected.add(new long[]{timestamp, Double.doubleToRawLongBits(value)});
+		}
+
+		List<long[]> decoded = new ArrayList<>();
+		GorillaCodec.decode(encoder.toByteArray(), encoder.count(),
+				(ts, v) -> decoded.add(new long[]{ts, Double.doubleToRawLongBits(v)}));
+
+		assertEquals(expected.size(), decoded.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i)[0], decoded.get(i)[0], "timestamp " + i);
+			assertEquals(expected.get(i)[1], decoded.get(i)[1], "value " + i);
+		}
+	}
+
+	@Test
+	void compressesRegularTelemetry() {
+		GorillaCodec.Encoder encoder = new GorillaCodec.Encoder(16);
+		long timestamp = 1_700_000_000_000L;
+		for (int i = 0; i < 720; i++) {
+			encoder.append(timestamp + i * 5_000L, 40 + (i / 60) * 0.5);
+		}
+		// 16 байт на первую точку и около двух бит на каждую следующую
+		assertTrue(encoder.sizeInBytes() < 16 + 720 / 2, "size " + encoder.sizeInBytes());
+	}
+}
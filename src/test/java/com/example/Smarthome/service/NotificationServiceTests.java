@@ -0,0 +1,138 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.model.Notification;
+import com.example.Smarthome.model.NotificationType;
+import com.example.Smarthome.repository.NotificationJdbcRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class NotificationServiceTests {
+
+	private final NotificationJdbcRepository repository = mock(NotificationJdbcRepository.class);
+	private final DeviceStateStore deviceStateStore = mock(DeviceStateStore.class);
+	private final DeviceAlertRules alertRules = new DeviceAlertRules();
+	private final NotificationService service = new NotificationService(repository, deviceStateStore, alertRules);
+
+	private final UUID deviceId = UUID.randomUUID();
+
+	@BeforeEach
+	void setUp() {
+		ReflectionTestUtils.setField(alertRules, "lowBatteryThreshold", 20.0);
+		ReflectionTestUtils.setField(alertRules, "securityAlerts", new String[] { "motion:detected" });
+		alertRules.init();
+		ReflectionTestUtils.setField(service, "queueCapacity", 100);
+		ReflectionTestUtils.setField(service, "batchSize", 50);
+		ReflectionTestUtils.setField(service, "burstThreshold", 20);
+		when(deviceStateStore.getStatuses()).thenReturn(Map.of(deviceId, DeviceStatus.ONLINE));
+		when(deviceStateStore.getSnapshot(any())).thenReturn(Optional.empty());
+		when(repository.insert(any())).thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).size());
+		service.init();
+	}
+
+	private static List<Notification> notifications(long from, long to) {
+		return LongStream.iterate(from, id -> id > to, id -> id - 1).mapToObj(id -> {
+			Notification notification = new Notification();
+			notification.setId(id);
+			notification.setType(NotificationType.INFO);
+			notification.setCreatedAt(LocalDateTime.now());
+			return notification;
+		}).toList();
+	}
+
+	private void event(DeviceStatus status, Map<String, String> properties) {
+		service.onDeviceChange(new DeviceChangeEvent(1, deviceId, DeviceChangeEvent.Type.UPDATED, properties,
+				Set.of(), status, null));
+	}
+
+	@Test
+	void pageCursorPointsToLastReturnedItem() {
+		// Запрашивается на одну запись больше, чтобы узнать, есть ли следующая страница
+		when(repository.findPage(null, null, Long.MAX_VALUE, 4)).thenReturn(notifications(10, 6));
+		when(repository.findPage(null, null, 7L, 4)).thenReturn(notifications(6, 4));
+
+		NotificationService.Page first = service.getPage(null, null, null, 3);
+		assertEquals(List.of(10L, 9L, 8L), first.items().stream().map(Notification::getId).toList());
+		assertEquals(8L, first.nextCursor());
+
+		NotificationService.Page last = service.getPage(null, null, 7L, 3);
+		assertEquals(List.of(6L, 5L), last.items().stream().map(Notification::getId).toList());
+		assertNull(last.nextCursor());
+	}
+
+	@Test
+	void firstTransitionAfterStartIsDetectedFromSeededStatus() {
+		when(repository.findMaxId()).thenReturn(0L);
+		when(repository.countUnread()).thenReturn(0L);
+		service.loadCounters();
+
+		event(DeviceStatus.OFFLINE, Map.of());
+		service.flush();
+
+		ArgumentCaptor<List<Notification>> written = ArgumentCaptor.captor();
+		verify(repository).insert(written.capture());
+		assertEquals(NotificationType.WARNING, written.getValue().get(0).getType());
+		assertEquals(deviceId, written.getValue().get(0).getDeviceId());
+	}
+
+	@Test
+	void failedCounterLoadIsRetriedOnFlush() {
+		when(repository.findMaxId()).thenThrow(new RuntimeException("db down")).thenReturn(41L);
+		when(repository.countUnread()).thenReturn(3L);
+		service.loadCounters();
+		event(null, Map.of("motion", "detected"));
+
+		service.flush();
+
+		ArgumentCaptor<List<Notification>> written = ArgumentCaptor.captor();
+		verify(repository).insert(written.capture());
+		assertEquals(42L, written.getValue().get(0).getId());
+		assertEquals(4, service.getUnreadCount());
+	}
+
+	@Test
+	void unreadCountUsesInsertedRows() {
+		when(repository.findMaxId()).thenReturn(0L);
+		when(repository.countUnread()).thenReturn(0L);
+		service.loadCounters();
+		// Повторный пакет: одно уведомление уже было записано
+		doThrow(new RuntimeException("timeout")).doReturn(1).when(repository).insert(any());
+		event(null, Map.of("motion", "detected", "battery", "5"));
+
+		service.flush();
+		service.flush();
+
+		verify(repository, times(2)).insert(any());
+		assertEquals(1, service.getUnreadCount());
+		assertEquals(1L, service.getStats().get("written"));
+	}
+
+	@Test
+	void lowBatteryIsReportedOncePerCrossing() {
+		when(repository.findMaxId()).thenReturn(0L);
+		when(repository.countUnread()).thenReturn(0L);
+		service.loadCounters();
+
+		event(null, Map.of("battery", "15"));
+		event(null, Map.of("battery", "10"));
+		event(null, Map.of("battery", "80"));
+		event(null, Map.of("battery", "12"));
+		service.flush();
+
+		assertEquals(2, service.getUnreadCount());
+	}
+}
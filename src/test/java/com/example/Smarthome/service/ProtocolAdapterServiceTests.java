@@ -0,0 +1,122 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.ConnectionProtocol;
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.protocol.VirtualDeviceAdapter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@Timeout(10)
+class ProtocolAdapterServiceTests {
+
+	private final VirtualDeviceAdapter adapter = mock(VirtualDeviceAdapter.class);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private ProtocolAdapterService service;
+
+	private ProtocolAdapterService newService(long timeoutMs, int poolSize, int queueCapacity,
+											  int callbackQueueCapacity) {
+		ProtocolAdapterService service = new ProtocolAdapterService(adapter, List.of(), new MockEnvironment(),
+				new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(service, "timeoutMs", timeoutMs);
+		ReflectionTestUtils.setField(service, "defaultPoolSize", poolSize);
+		ReflectionTestUtils.setField(service, "defaultQueueCapacity", queueCapacity);
+		ReflectionTestUtils.setField(service, "callbackThreads", 1);
+		ReflectionTestUtils.setField(service, "callbackQueueCapacity", callbackQueueCapacity);
+		service.init();
+		return service;
+	}
+
+	private static Device device() {
+		Device device = new Device();
+		device.setId(UUID.randomUUID());
+		device.setName("lamp");
+		device.setProtocol(ConnectionProtocol.VIRTUAL);
+		return device;
+	}
+
+	private void blockAdapter() {
+		when(adapter.sendCommand(any(), any(), any())).thenAnswer(invocation -> {
+			release.await();
+			return true;
+		});
+	}
+
+	@AfterEach
+	void tearDown() {
+		release.countDown();
+		if (service != null) {
+			service.shutdown();
+		}
+	}
+
+	@Test
+	void timedOutCallCompletesWithFallback() {
+		service = newService(100, 1, 10, 10);
+		blockAdapter();
+
+		assertFalse(service.sendCommand(device(), "turn_on", Map.of()));
+	}
+
+	@Test
+	void fullBulkheadRejectsImmediately() throws Exception {
+		service = newService(5000, 1, 1, 10);
+		blockAdapter();
+
+		service.sendCommandAsync(device(), "turn_on", Map.of());
+		service.sendCommandAsync(device(), "turn_on", Map.of());
+		CompletableFuture<Boolean> rejected = service.sendCommandAsync(device(), "turn_on", Map.of());
+
+		assertTrue(rejected.isDone());
+		assertFalse(rejected.get());
+	}
+
+	@Test
+	void fullCallbackQueueStillDeliversResults() throws Exception {
+		service = newService(5000, 2, 10, 1);
+		// Адаптер отвечает только после подписки на первый результат: иначе обработчик
+		// выполнился бы в потоке теста, а не в потоке обработки результатов
+		CountDownLatch attached = new CountDownLatch(1);
+		when(adapter.sendCommand(any(), any(), any())).thenAnswer(invocation -> {
+			attached.await();
+			return true;
+		});
+		CountDownLatch callbackBusy = new CountDownLatch(1);
+
+		// Занимаем единственный поток обработки результатов
+		service.sendCommandAsync(device(), "turn_on", Map.of()).thenRun(() -> {
+			callbackBusy.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		attached.countDown();
+		assertTrue(callbackBusy.await(5, TimeUnit.SECONDS));
+		service.sendCommandAsync(device(), "turn_on", Map.of());
+		ThreadPoolExecutor callbackExecutor = (ThreadPoolExecutor) ReflectionTestUtils.getField(service, "callbackExecutor");
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (callbackExecutor.getQueue().isEmpty() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		CompletableFuture<Boolean> overflow = service.sendCommandAsync(device(), "turn_on", Map.of());
+
+		assertTrue(overflow.get(5, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,75 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.AutomationRule;
+import com.example.Smarthome.model.RuleOperator;
+import com.example.Smarthome.model.Scenario;
+import com.example.Smarthome.repository.AutomationRuleRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class RuleEngineServiceTests {
+
+	private final AutomationRuleRepository repository = mock(AutomationRuleRepository.class);
+	private final ScenarioService scenarioService = mock(ScenarioService.class);
+	private final RuleEngineService service = new RuleEngineService(repository, scenarioService,
+			mock(DeviceCommandBatchService.class));
+	private final UUID deviceId = UUID.randomUUID();
+	private final UUID scenarioId = UUID.randomUUID();
+
+	@BeforeEach
+	void setUp() {
+		ReflectionTestUtils.setField(service, "actionThreads", 1);
+		ReflectionTestUtils.setField(service, "actionQueueCapacity", 10);
+		service.init();
+
+		AutomationRule rule = new AutomationRule();
+		rule.setId(UUID.randomUUID());
+		rule.setName("motion");
+		rule.setDeviceId(deviceId);
+		rule.setProperty("motion");
+		rule.setOperator(RuleOperator.EQ);
+		rule.setThreshold("detected");
+		rule.setActionScenarioId(scenarioId);
+		when(repository.findByActiveTrue()).thenReturn(List.of(rule));
+		service.loadRules();
+	}
+
+	@AfterEach
+	void tearDown() {
+		service.shutdown();
+	}
+
+	@Test
+	void inactiveScenarioIsSkipped() throws Exception {
+		Scenario scenario = new Scenario();
+		scenario.setId(scenarioId);
+		scenario.setName("lights");
+		scenario.setActive(false);
+		when(scenarioService.getPlan(scenarioId))
+				.thenReturn(Optional.of(ScenarioPlan.compile(scenario, 1000, 1000, 10)));
+
+		service.onDeviceChange(new DeviceChangeEvent(1, deviceId, DeviceChangeEvent.Type.UPDATED,
+				Map.of("motion", "detected"), Set.of(), null, null));
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!Long.valueOf(1).equals(service.getStats().get("skippedInactive")) && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1L, service.getStats().get("skippedInactive"));
+		assertEquals(1L, service.getStats().get("fired"));
+		verify(scenarioService, never()).runScenario(any());
+	}
+}
@@ -0,0 +1,95 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.AutomationRule;
+import com.example.Smarthome.model.RuleOperator;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RuleIndexTests {
+
+	private final UUID deviceId = UUID.randomUUID();
+	private final List<UUID> fired = new ArrayList<>();
+
+	private AutomationRule rule(RuleOperator operator, String threshold, Long cooldownMs) {
+		AutomationRule rule = new AutomationRule();
+		rule.setId(UUID.randomUUID());
+		rule.setName("heat");
+		rule.setDeviceId(deviceId);
+		rule.setProperty("temperature");
+		rule.setOperator(operator);
+		rule.setThreshold(threshold);
+		rule.setActionScenarioId(UUID.randomUUID());
+		rule.setCooldownMs(cooldownMs);
+		return rule;
+	}
+
+	private void evaluate(RuleIndex index, String temperature, long nowMs) {
+		index.evaluate(deviceId, Map.of("temperature", temperature), TimeUnit.MILLISECONDS.toNanos(nowMs),
+				rule -> fired.add(rule.id()));
+	}
+
+	@Test
+	void firesOnlyWhenConditionBecomesTrue() {
+		AutomationRule rule = rule(RuleOperator.GT, "25", null);
+		RuleIndex index = RuleIndex.build(List.of(rule), RuleIndex.EMPTY);
+
+		evaluate(index, "30", 0);
+		evaluate(index, "31", 1);
+		evaluate(index, "20", 2);
+		evaluate(index, "26", 3);
+
+		assertEquals(List.of(rule.getId(), rule.getId()), fired);
+	}
+
+	@Test
+	void cooldownSuppressesRepeatedFiring() {
+		AutomationRule rule = rule(RuleOperator.GT, "25", 1000L);
+		RuleIndex index = RuleIndex.build(List.of(rule), RuleIndex.EMPTY);
+
+		evaluate(index, "30", 0);
+		evaluate(index, "20", 100);
+		evaluate(index, "30", 500);
+		assertEquals(1, fired.size());
+
+		evaluate(index, "20", 1200);
+		evaluate(index, "30", 1500);
+		assertEquals(2, fired.size());
+	}
+
+	@Test
+	void rebuildKeepsStateOfUnchangedCondition() {
+		AutomationRule rule = rule(RuleOperator.GT, "25", null);
+		RuleIndex index = RuleIndex.build(List.of(rule), RuleIndex.EMPTY);
+		evaluate(index, "30", 0);
+
+		// Изменение названия не меняет условие: правило уже сработало и не срабатывает повторно
+		rule.setName("heat alarm");
+		index = RuleIndex.build(List.of(rule), index);
+		evaluate(index, "31", 1);
+		assertEquals(1, fired.size());
+
+		// Новое условие проверяется с начала
+		rule.setThreshold("28");
+		index = RuleIndex.build(List.of(rule), index);
+		evaluate(index, "31", 2);
+		assertEquals(2, fired.size());
+	}
+
+	@Test
+	void evaluatesOnlyRulesOfChangedProperties() {
+		RuleIndex index = RuleIndex.build(List.of(rule(RuleOperator.EQ, "on", null)), RuleIndex.EMPTY);
+
+		assertEquals(0, index.evaluate(UUID.randomUUID(), Map.of("temperature", "on"), 0, rule -> fired.add(rule.id())));
+		assertEquals(0, index.evaluate(deviceId, Map.of("humidity", "on"), 0, rule -> fired.add(rule.id())));
+		assertEquals(1, index.evaluate(deviceId, Map.of("temperature", "ON", "humidity", "50"), 0,
+				rule -> fired.add(rule.id())));
+		assertEquals(1, fired.size());
+	}
+}
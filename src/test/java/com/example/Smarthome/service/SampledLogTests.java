@@ -0,0 +1,77 @@
+package com.example.Smarthome.service;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SampledLogTests {
+
+	private Logger logger;
+	private ListAppender<ILoggingEvent> appender;
+
+	@BeforeEach
+	void setUp() {
+		logger = (Logger) LoggerFactory.getLogger("sampled-log-test");
+		logger.setLevel(Level.INFO);
+		logger.detachAndStopAllAppenders();
+		appender = new ListAppender<>();
+		appender.start();
+		logger.addAppender(appender);
+	}
+
+	@Test
+	void emitsOncePerIntervalForEachKey() throws InterruptedException {
+		SampledLog sampledLog = new SampledLog(logger, 50);
+		for (int i = 0; i < 10; i++) {
+			sampledLog.atInfo("a").setMessage("a {}").addArgument(i).log();
+			sampledLog.atInfo("b").setMessage("b {}").addArgument(i).log();
+		}
+		assertEquals(List.of("a 0", "b 0"), messages());
+		assertNull(appender.list.get(0).getKeyValuePairs());
+
+		Thread.sleep(60);
+		sampledLog.atInfo("a").setMessage("a {}").addArgument(10).log();
+
+		ILoggingEvent last = appender.list.get(2);
+		assertEquals("a 10", last.getFormattedMessage());
+		assertEquals("suppressed", last.getKeyValuePairs().get(0).key);
+		assertEquals(9L, last.getKeyValuePairs().get(0).value);
+	}
+
+	@Test
+	void skipsArgumentsWhenLevelDisabledOrSuppressed() {
+		SampledLog sampledLog = new SampledLog(logger, 60_000);
+		AtomicInteger rendered = new AtomicInteger();
+
+		sampledLog.atDebug("a").setMessage("{}").addArgument(rendered::incrementAndGet).log();
+		for (int i = 0; i < 5; i++) {
+			sampledLog.atInfo("a").setMessage("{}").addArgument(rendered::incrementAndGet).log();
+		}
+
+		assertEquals(1, rendered.get());
+		assertEquals(List.of("1"), messages());
+	}
+
+	@Test
+	void zeroIntervalDisablesSampling() {
+		SampledLog sampledLog = new SampledLog(logger, 0);
+		for (int i = 0; i < 3; i++) {
+			sampledLog.atWarn("a").log("a");
+		}
+		assertEquals(3, appender.list.size());
+	}
+
+	private List<String> messages() {
+		return appender.list.stream().map(ILoggingEvent::getFormattedMessage).toList();
+	}
+}
@@ -0,0 +1,143 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.ConnectionProtocol;
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.model.DeviceStatus;
+import com.example.Smarthome.model.Scenario;
+import com.example.Smarthome.model.ScenarioStep;
+import com.example.Smarthome.repository.ScenarioRepository;
+import com.example.Smarthome.service.ProtocolAdapterService.AdapterCommand;
+import com.example.Smarthome.service.ScenarioService.RunResult;
+import com.example.Smarthome.service.ScenarioService.StepStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ScenarioServiceTests {
+
+	private final ScenarioRepository scenarioRepository = mock(ScenarioRepository.class);
+	private final DeviceService deviceService = mock(DeviceService.class);
+	private final ProtocolAdapterService protocolAdapterService = mock(ProtocolAdapterService.class);
+	private final DeviceCommandBatchService deviceCommandBatchService = mock(DeviceCommandBatchService.class);
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private final ScenarioService service = new ScenarioService(scenarioRepository, deviceService,
+			protocolAdapterService, deviceCommandBatchService, executor);
+
+	// Команда -> future, которую тест завершает вручную
+	private final Map<String, CompletableFuture<Boolean>> sent = new ConcurrentHashMap<>();
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private Device device() {
+		Device device = new Device();
+		device.setId(UUID.randomUUID());
+		device.setName("lamp");
+		device.setProtocol(ConnectionProtocol.VIRTUAL);
+		device.setStatus(DeviceStatus.ONLINE);
+		return device;
+	}
+
+	private static ScenarioStep step(String key, Device device, String command, String... dependsOn) {
+		ScenarioStep step = new ScenarioStep();
+		step.setKey(key);
+		step.setDeviceId(device.getId());
+		step.setCommand(command);
+		step.setDependsOn(Set.of(dependsOn));
+		return step;
+	}
+
+	private UUID scenario(Device device, ScenarioStep... steps) {
+		Scenario scenario = new Scenario();
+		scenario.setId(UUID.randomUUID());
+		scenario.setName("evening");
+		scenario.setSteps(List.of(steps));
+		ReflectionTestUtils.setField(service, "maxSteps", 100);
+		ReflectionTestUtils.setField(service, "maxStepTimeoutMs", 30000L);
+		when(protocolAdapterService.getTimeoutMs()).thenReturn(3000L);
+		when(scenarioRepository.findById(scenario.getId())).thenReturn(Optional.of(scenario));
+		when(deviceService.getDevicesByIds(any())).thenReturn(List.of(device));
+		when(protocolAdapterService.sendCommandAsync(eq(device), any(), any(), anyLong())).thenAnswer(invocation ->
+				sent.computeIfAbsent(invocation.getArgument(1), command -> new CompletableFuture<>()));
+		return scenario.getId();
+	}
+
+	@Test
+	void stepStartsOnlyAfterItsDependencies() throws Exception {
+		Device lamp = device();
+		UUID id = scenario(lamp,
+				step("dim", lamp, "dim", "on"),
+				step("on", lamp, "on"),
+				step("blinds", lamp, "blinds"));
+
+		CompletableFuture<RunResult> run = service.runScenario(id).orElseThrow();
+
+		// Независимые шаги отправлены сразу, зависимый ждёт своего шага
+		assertEquals(Set.of("on", "blinds"), sent.keySet());
+		sent.get("on").complete(true);
+		assertTrue(sent.containsKey("dim"));
+		assertFalse(run.isDone());
+
+		sent.get("blinds").complete(true);
+		sent.get("dim").complete(true);
+		RunResult result = run.get(5, TimeUnit.SECONDS);
+
+		assertTrue(result.success());
+		assertEquals(List.of("dim", "on", "blinds"), result.steps().stream().map(ScenarioService.StepResult::key).toList());
+	}
+
+	@Test
+	void failedStepSkipsDependents() throws Exception {
+		Device lamp = device();
+		UUID id = scenario(lamp,
+				step("on", lamp, "on"),
+				step("dim", lamp, "dim", "on"),
+				step("music", lamp, "music", "dim"));
+
+		CompletableFuture<RunResult> run = service.runScenario(id).orElseThrow();
+		sent.get("on").complete(false);
+		RunResult result = run.get(5, TimeUnit.SECONDS);
+
+		assertFalse(result.success());
+		assertEquals(List.of(StepStatus.FAILED, StepStatus.SKIPPED, StepStatus.SKIPPED),
+				result.steps().stream().map(ScenarioService.StepResult::status).toList());
+		assertEquals(Set.of("on"), sent.keySet());
+	}
+
+	@Test
+	void stateChangesAreAppliedInDependencyOrder() throws Exception {
+		Device lamp = device();
+		UUID id = scenario(lamp,
+				step("second", lamp, "second", "first"),
+				step("first", lamp, "first"));
+
+		CompletableFuture<RunResult> run = service.runScenario(id).orElseThrow();
+		sent.get("first").complete(true);
+		sent.get("second").complete(true);
+		run.get(5, TimeUnit.SECONDS);
+
+		ArgumentCaptor<List<AdapterCommand>> applied = ArgumentCaptor.captor();
+		verify(deviceCommandBatchService).applyStateChanges(applied.capture());
+		assertEquals(List.of("first", "second"), applied.getValue().stream().map(AdapterCommand::command).toList());
+	}
+}
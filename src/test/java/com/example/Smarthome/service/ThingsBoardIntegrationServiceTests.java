@@ -0,0 +1,82 @@
+package com.example.Smarthome.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class ThingsBoardIntegrationServiceTests {
+
+	private static final String URL = "http://thingsboard.test";
+
+	private MockRestServiceServer server;
+	private ThingsBoardIntegrationService service;
+
+	@BeforeEach
+	void setUp() {
+		RestTemplate restTemplate = new RestTemplate();
+		server = MockRestServiceServer.bindTo(restTemplate).build();
+		service = new ThingsBoardIntegrationService(restTemplate, null, null, null, new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(service, "thingsBoardUrl", URL);
+		ReflectionTestUtils.setField(service, "devicePageSize", 2);
+		service.init();
+
+		server.expect(requestTo(URL + "/api/auth/login"))
+				.andRespond(withSuccess("{\"token\":\"jwt\"}", MediaType.APPLICATION_JSON));
+	}
+
+	@Test
+	void readsAllPagesUntilHasNextIsFalse() {
+		expectPage(0, "[{\"name\":\"a\"},{\"name\":\"b\"}]", true);
+		expectPage(1, "[{\"name\":\"c\"}]", false);
+
+		List<Map<String, Object>> devices = service.getAllDevicesFromThingsBoard();
+
+		assertEquals(List.of("a", "b", "c"), devices.stream().map(device -> device.get("name")).toList());
+		server.verify();
+	}
+
+	@Test
+	void reportsPartialFailureFromPageCallback() {
+		expectPage(0, "[{\"name\":\"a\"},{\"name\":\"b\"}]", true);
+		server.expect(requestTo(pageUrl(1))).andRespond(withServerError());
+
+		List<Map<String, Object>> received = new ArrayList<>();
+		assertEquals(-1, service.forEachDevicePage(received::addAll));
+		assertEquals(2, received.size());
+	}
+
+	@Test
+	void throwsInsteadOfReturningPartialDeviceList() {
+		expectPage(0, "[{\"name\":\"a\"},{\"name\":\"b\"}]", true);
+		server.expect(requestTo(pageUrl(1))).andRespond(withServerError());
+
+		assertThrows(IllegalStateException.class, service::getAllDevicesFromThingsBoard);
+	}
+
+	private void expectPage(int page, String data, boolean hasNext) {
+		server.expect(requestTo(pageUrl(page)))
+				.andExpect(method(HttpMethod.GET))
+				.andRespond(withSuccess("{\"data\":" + data + ",\"hasNext\":" + hasNext + "}",
+						MediaType.APPLICATION_JSON));
+	}
+
+	private static String pageUrl(int page) {
+		return URL + "/api/tenant/devices?pageSize=2&page=" + page + "&sortProperty=createdTime&sortOrder=ASC";
+	}
+}
@@ -0,0 +1,165 @@
+package com.example.Smarthome.service;
+
+import com.example.Smarthome.model.Device;
+import com.example.Smarthome.repository.DeviceRepository;
+import com.example.Smarthome.repository.DeviceStateJdbcRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ThingsBoardSyncServiceTests {
+
+	private final DeviceRepository deviceRepository = mock(DeviceRepository.class);
+	private final RestTemplate restTemplate = mock(RestTemplate.class);
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final ExecutorService executor = Executors.newFixedThreadPool(8);
+	private final ThingsBoardSyncService service = new ThingsBoardSyncService(deviceRepository,
+			mock(ThingsBoardIntegrationService.class), mock(DeviceService.class), mock(DeviceStateStore.class),
+			mock(DeviceStateJdbcRepository.class), mock(DeviceEventPublisher.class),
+			mock(ThingsBoardTelemetryFetcher.class), restTemplate, meterRegistry, executor);
+
+	// Токены устройств в порядке обращения к ThingsBoard
+	private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger maxActive = new AtomicInteger();
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private void start(int concurrency, long deadlineMs, int devices) {
+		ReflectionTestUtils.setField(service, "thingsBoardUrl", "http://tb");
+		ReflectionTestUtils.setField(service, "concurrency", concurrency);
+		ReflectionTestUtils.setField(service, "cycleDeadlineMs", deadlineMs);
+		ReflectionTestUtils.setField(service, "samplingIntervalMs", 1000L);
+		service.init();
+		when(deviceRepository.findAllByThingsboardTokenIsNotNull()).thenReturn(IntStream.range(0, devices)
+				.mapToObj(i -> {
+					Device device = new Device();
+					device.setId(UUID.randomUUID());
+					device.setName("device-" + i);
+					device.setThingsboardToken("token-" + i);
+					return device;
+				}).toList());
+	}
+
+	private void respondAfter(long delayMs) {
+		when(restTemplate.getForEntity(anyString(), eq(Map.class))).thenAnswer(invocation -> {
+			String url = invocation.getArgument(0);
+			calls.add(url.substring("http://tb/api/v1/".length(), url.lastIndexOf('/')));
+			maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(delayMs);
+			} finally {
+				active.decrementAndGet();
+			}
+			return ResponseEntity.ok().build();
+		});
+	}
+
+	private double counter(String name) {
+		return meterRegistry.counter(name, "cycle", "attributes").count();
+	}
+
+	@Test
+	void concurrentRequestsAreLimited() {
+		start(2, 10_000, 6);
+		respondAfter(50);
+
+		service.syncFromThingsBoard();
+
+		assertEquals(6, calls.size());
+		assertTrue(maxActive.get() <= 2, "одновременных запросов: " + maxActive.get());
+		assertEquals(0.0, counter("smarthome.thingsboard.sync.carried.over"));
+	}
+
+	@Test
+	void devicesNotReachedBeforeDeadlineGoFirstNextCycle() {
+		start(1, 150, 5);
+		respondAfter(100);
+
+		service.syncFromThingsBoard();
+		List<String> firstCycle = List.copyOf(calls);
+		assertTrue(firstCycle.size() < 5);
+		assertEquals(1.0, counter("smarthome.thingsboard.sync.overruns"));
+		assertEquals(5.0 - firstCycle.size(), counter("smarthome.thingsboard.sync.carried.over"));
+
+		calls.clear();
+		service.syncFromThingsBoard();
+
+		assertFalse(calls.isEmpty());
+		assertFalse(firstCycle.contains(calls.get(0)));
+	}
+
+	@Test
+	void overlappingCycleIsSkipped() throws Exception {
+		start(1, 10_000, 1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		when(restTemplate.getForEntity(anyString(), eq(Map.class))).thenAnswer(invocation -> {
+			started.countDown();
+			release.await();
+			return ResponseEntity.ok().build();
+		});
+		Thread cycle = new Thread(service::syncFromThingsBoard);
+		cycle.start();
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		service.syncFromThingsBoard();
+		release.countDown();
+		cycle.join(5000);
+
+		assertEquals(1.0, counter("smarthome.thingsboard.sync.skipped"));
+		verify(restTemplate, times(1)).getForEntity(anyString(), eq(Map.class));
+	}
+
+	@Test
+	void deviceWithRequestStillRunningIsNotSyncedAgain() throws Exception {
+		start(2, 100, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(1);
+		when(restTemplate.getForEntity(anyString(), eq(Map.class))).thenAnswer(invocation -> {
+			calls.add(invocation.getArgument(0));
+			if (calls.size() == 1) {
+				release.await();
+				finished.countDown();
+			}
+			return ResponseEntity.ok().build();
+		});
+
+		service.syncFromThingsBoard();
+		// Запрос первого цикла ещё выполняется: устройство переносится, а не запрашивается повторно
+		service.syncFromThingsBoard();
+		assertEquals(1, calls.size());
+		assertEquals(1.0, counter("smarthome.thingsboard.sync.carried.over"));
+
+		release.countDown();
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (calls.size() < 2 && System.nanoTime() < deadline) {
+			service.syncFromThingsBoard();
+		}
+		assertEquals(2, calls.size());
+	}
+}
@@ -0,0 +1,80 @@
+package com.example.Smarthome.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ThingsBoardTelemetryFetcherTests {
+
+	private static final String DEVICE_ID = "5f2c1a40-3b7e-11ef-9a3c-0242ac120002";
+
+	private final ThingsBoardTelemetryFetcher fetcher = new ThingsBoardTelemetryFetcher(null, null);
+
+	@Test
+	void keepsSeparateWatermarkPerKey() {
+		commit(Map.of("temperature", value(200, "21.5"), "humidity", value(100, "40")));
+
+		// Новое значение влажности старше последнего значения температуры, но новее своего водяного знака
+		ThingsBoardTelemetryFetcher.DeviceTelemetry telemetry = fetcher.toTelemetry(DEVICE_ID,
+				Map.of("temperature", value(200, "21.5"), "humidity", value(150, "42")), true);
+
+		assertEquals(Map.of("humidity", "42"), telemetry.changed());
+		assertEquals(Map.of("humidity", 150L), telemetry.timestamps());
+	}
+
+	@Test
+	void returnsValuesAgainUntilCommitted() {
+		Map<String, Object> timeseries = Map.of("temperature", value(200, "21.5"));
+
+		fetcher.toTelemetry(DEVICE_ID, timeseries, true);
+		// Сохранение не подтверждено: значение должно быть получено повторно
+		assertEquals(Map.of("temperature", "21.5"), fetcher.toTelemetry(DEVICE_ID, timeseries, true).changed());
+
+		commit(timeseries);
+		assertTrue(fetcher.toTelemetry(DEVICE_ID, timeseries, true).changed().isEmpty());
+	}
+
+	@Test
+	void doesNotMoveWatermarkBackwards() {
+		commit(Map.of("temperature", value(200, "21.5")));
+		fetcher.commitWatermarks(DEVICE_ID, new ThingsBoardTelemetryFetcher.DeviceTelemetry(
+				Map.of("temperature", "20"), null, Map.of("temperature", 100L)));
+
+		assertTrue(fetcher.toTelemetry(DEVICE_ID, Map.of("temperature", value(150, "20.5")), true).changed().isEmpty());
+	}
+
+	@Test
+	void skipsMissingKeysAndReportsPresentKeysOnlyWhenComplete() {
+		Map<String, Object> timeseries = Map.of("temperature", value(200, "21.5"), "pressure", value(0, "0"));
+
+		assertEquals(Set.of("temperature"), fetcher.toTelemetry(DEVICE_ID, timeseries, true).presentKeys());
+		assertNull(fetcher.toTelemetry(DEVICE_ID, timeseries, false).presentKeys());
+	}
+
+	@Test
+	void resetReturnsAllValues() {
+		Map<String, Object> timeseries = Map.of("temperature", value(200, "21.5"), "humidity", value(100, "40"));
+		commit(timeseries);
+
+		fetcher.resetWatermark(DEVICE_ID);
+
+		assertEquals(2, fetcher.toTelemetry(DEVICE_ID, timeseries, true).changed().size());
+	}
+
+	private void commit(Map<String, Object> timeseries) {
+		fetcher.commitWatermarks(DEVICE_ID, fetcher.toTelemetry(DEVICE_ID, timeseries, true));
+	}
+
+	private static Map<String, Object> value(long ts, String value) {
+		Map<String, Object> tsValue = new HashMap<>();
+		tsValue.put("ts", ts);
+		tsValue.put("value", value);
+		return tsValue;
+	}
+}